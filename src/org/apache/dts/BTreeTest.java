@@ -1,12 +1,63 @@
 package org.apache.dts;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
 import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.dts.btree.BPlusTree;
+import org.apache.dts.btree.BTAggregator;
+import org.apache.dts.btree.BTBinaryKeySearch;
+import org.apache.dts.btree.BTBranchlessKeySearch;
+import org.apache.dts.btree.BTCursor;
+import org.apache.dts.btree.BTCursorPosition;
 import org.apache.dts.btree.BTException;
+import org.apache.dts.btree.BTIntegerCodec;
+import org.apache.dts.btree.BTInterpolationKeySearch;
+import org.apache.dts.btree.BTIterator;
 import org.apache.dts.btree.BTIteratorImpl;
+import org.apache.dts.btree.BTKeyValue;
+import org.apache.dts.btree.BTKeySearch;
 import org.apache.dts.btree.BTNode;
+import org.apache.dts.btree.BTStringCodec;
 import org.apache.dts.btree.BTree;
+import org.apache.dts.btree.BTreeMap;
+import org.apache.dts.btree.MappedBTree;
+import org.apache.dts.btree.PersistentBTree;
+import org.apache.dts.btree.concurrent.BLinkTree;
+import org.apache.dts.btree.concurrent.ConcurrentBTree;
+import org.apache.dts.btree.concurrent.MVCCBTree;
+import org.apache.dts.btree.concurrent.MVCCBTreeTest;
+import org.apache.dts.btree.concurrent.MVCCTransaction;
+import org.apache.dts.btree.concurrent.OptimisticBTree;
+import org.apache.dts.btree.primitive.IntBTIterator;
+import org.apache.dts.btree.primitive.IntBTree;
+import org.apache.dts.btree.primitive.IntLongBTIterator;
+import org.apache.dts.btree.primitive.IntLongBTree;
+import org.apache.dts.btree.primitive.LongBTIterator;
+import org.apache.dts.btree.primitive.LongBTree;
+import org.apache.dts.btree.primitive.LongLongBTIterator;
+import org.apache.dts.btree.primitive.LongLongBTree;
+import org.apache.dts.btree.store.LongStoreBTree;
+import org.apache.dts.btree.store.OffHeapLongBTree;
+import org.apache.dts.btree.store.PagedLongBTree;
+import org.apache.dts.btree.store.PagedNodeStore;
+import org.apache.dts.btree.store.ShadowPagedLongBTree;
+import org.apache.dts.btree.wal.Durability;
+import org.apache.dts.btree.wal.DurableBTree;
 
 /**
  * Class BTreeTest
@@ -28,8 +79,17 @@ public class BTreeTest {
 	 * Instantiates a new b tree test.
 	 */
 	public BTreeTest() {
-		System.out.println("Creating BTree...");
-		mBTree = new BTree<Integer, String>();
+		this(new BTBinaryKeySearch<Integer>());
+	}
+
+	/**
+	 * Instantiates a new b tree test.
+	 *
+	 * @param keySearch the key search strategy of the tree
+	 */
+	public BTreeTest(BTKeySearch<Integer> keySearch) {
+		System.out.println("Creating BTree with " + keySearch.getClass().getSimpleName() + "...");
+		mBTree = new BTree<Integer, String>(keySearch);
 		mMap = new TreeMap<Integer, String>();
 		mIter = new BTIteratorImpl<Integer, String>();
 		System.out.println("BTree created successfully.");
@@ -155,6 +215,64 @@ public class BTreeTest {
 		}
 	}
 
+	/**
+	 * Validate search all: look up all the keys of the map and as many
+	 * missing keys at once.
+	 *
+	 * @throws BTException the BT exception
+	 */
+	public void validateSearchAll() throws BTException {
+		Integer[] keys = new Integer[2 * mMap.size()];
+		int i = 0;
+		for (Integer key : mMap.keySet()) {
+			keys[i++] = key;
+			keys[i++] = -key - 1;
+		}
+
+		List<String> values = mBTree.searchAll(keys);
+		for (i = 0; i < keys.length; ++i) {
+			if (!isEqual(mMap.get(keys[i]), values.get(i))) {
+				throw new BTException("Error in validateSearchAll(): Failed to compare value for key = " + keys[i]);
+			}
+		}
+	}
+
+	/**
+	 * Validate cursor: scan the tree by pages of a few entries, resuming a
+	 * new cursor at the position of the previous one for each page, then
+	 * scan it backward.
+	 *
+	 * @throws BTException the BT exception
+	 */
+	public void validateCursor() throws BTException {
+		Iterator<Map.Entry<Integer, String>> iter = mMap.entrySet().iterator();
+		BTCursorPosition<Integer> position = new BTCursorPosition<Integer>(null, false);
+		BTCursor<Integer, String> cursor;
+		boolean hasNext = true;
+		while (hasNext) {
+			cursor = mBTree.cursor();
+			cursor.seek(position);
+			for (int i = 0; (i < 7) && (hasNext = cursor.next()); ++i) {
+				if (!iter.hasNext() || !cursor.getKey().equals(iter.next().getKey())) {
+					throw new BTException("Error in validateCursor(): Failed to compare key = " + cursor.getKey());
+				}
+			}
+			position = cursor.getPosition();
+		}
+
+		if (iter.hasNext()) {
+			throw new BTException("Error in validateCursor(): Missing key = " + iter.next().getKey());
+		}
+
+		cursor = mBTree.cursor();
+		cursor.seekLast();
+		for (Integer key : ((TreeMap<Integer, String>) mMap).descendingKeySet()) {
+			if (!cursor.prev() || !cursor.getKey().equals(key)) {
+				throw new BTException("Error in validateCursor(): Failed to compare key = " + key + " backward");
+			}
+		}
+	}
+
 	/**
 	 * Validate size.
 	 *
@@ -167,6 +285,414 @@ public class BTreeTest {
 		}
 	}
 
+	/**
+	 * Validate the first and the last keys and entries.
+	 *
+	 * @throws BTException the BT exception
+	 */
+	public void validateFirstLast() throws BTException {
+		TreeMap<Integer, String> map = (TreeMap<Integer, String>) mMap;
+		Integer firstKey = map.isEmpty() ? null : map.firstKey();
+		Integer lastKey = map.isEmpty() ? null : map.lastKey();
+		BTKeyValue<Integer, String> firstEntry = mBTree.firstEntry();
+		BTKeyValue<Integer, String> lastEntry = mBTree.lastEntry();
+
+		if (!equals(firstKey, mBTree.firstKey()) || !equals(lastKey, mBTree.lastKey())
+				|| !equals(firstKey, (firstEntry != null) ? firstEntry.mKey : null)
+				|| !equals(lastKey, (lastEntry != null) ? lastEntry.mKey : null)
+				|| ((firstEntry != null) && !firstEntry.mValue.equals(map.get(firstKey)))
+				|| ((lastEntry != null) && !lastEntry.mValue.equals(map.get(lastKey)))) {
+			throw new BTException("Error in validateFirstLast(): Failed to compare first | last keys: " + firstKey
+					+ " | " + lastKey + " <> " + mBTree.firstKey() + " | " + mBTree.lastKey());
+		}
+	}
+
+	/**
+	 * Equals.
+	 *
+	 * @param obj1 the obj 1
+	 * @param obj2 the obj 2
+	 * @return true, if both are null or equal
+	 */
+	private static boolean equals(Object obj1, Object obj2) {
+		return (obj1 == null) ? (obj2 == null) : obj1.equals(obj2);
+	}
+
+	/**
+	 * Validate the first and the last keys of a tree with non integer keys,
+	 * deleting the extreme keys one after the other.
+	 *
+	 * @param keyCount the key count
+	 * @throws BTException the BT exception
+	 */
+	public static void runStringKeys(int keyCount) throws BTException {
+		System.out.println("Inserting and deleting " + keyCount + " string keys from both ends...");
+		BTree<String, String> btree = new BTree<String, String>();
+		TreeMap<String, String> map = new TreeMap<String, String>();
+		Random random = new Random(5);
+		for (int i = 0; i < keyCount; ++i) {
+			String key = Integer.toString(random.nextInt(), 36);
+			btree.insert(key, key);
+			map.put(key, key);
+		}
+
+		while (!map.isEmpty()) {
+			if (!map.firstKey().equals(btree.firstKey()) || !map.lastKey().equals(btree.lastKey())) {
+				throw new BTException("Error in runStringKeys(): Failed to compare first | last keys: "
+						+ map.firstKey() + " | " + map.lastKey() + " <> " + btree.firstKey() + " | " + btree.lastKey());
+			}
+
+			String key = (map.size() % 2 == 0) ? map.pollFirstEntry().getKey() : map.pollLastEntry().getKey();
+			btree.delete(key);
+		}
+
+		if ((btree.firstKey() != null) || (btree.lastEntry() != null)) {
+			throw new BTException("Error in runStringKeys(): Empty tree has a first or last key");
+		}
+		System.out.println("String keys done successfully.");
+	}
+
+	/**
+	 * Validate the range sums of a tree aggregating the sum of its values
+	 * against a TreeMap, through random inserts, deletes, batch inserts and
+	 * a bulk load.
+	 *
+	 * @param keyCount the key count
+	 * @throws BTException the BT exception
+	 */
+	public static void runAggregates(int keyCount) throws BTException {
+		System.out.println("Validating the range sums over " + keyCount + " keys...");
+		BTAggregator<Integer, Long, Long> sumAggregator = new BTAggregator<Integer, Long, Long>() {
+			@Override
+			public Long identity() {
+				return 0L;
+			}
+
+			@Override
+			public Long lift(Integer key, Long value) {
+				return value;
+			}
+
+			@Override
+			public Long combine(Long left, Long right) {
+				return left + right;
+			}
+		};
+
+		BTree<Integer, Long> btree = new BTree<Integer, Long>(3, new BTBinaryKeySearch<Integer>(), sumAggregator);
+		TreeMap<Integer, Long> map = new TreeMap<Integer, Long>();
+		Random random = new Random(11);
+		for (int i = 0; i < keyCount * 4; ++i) {
+			int key = random.nextInt(keyCount);
+			int op = random.nextInt(10);
+			if (op < 5) {
+				map.put(key, (long) i);
+				btree.insert(key, (long) i);
+			} else if (op < 9) {
+				map.remove(key);
+				btree.delete(key);
+			} else {
+				List<Map.Entry<Integer, Long>> batch = new ArrayList<Map.Entry<Integer, Long>>();
+				for (int j = 0; j < 10; ++j) {
+					batch.add(new AbstractMap.SimpleEntry<Integer, Long>(random.nextInt(keyCount), (long) -j));
+				}
+				btree.insertAll(batch);
+				for (Map.Entry<Integer, Long> entry : batch) {
+					map.put(entry.getKey(), entry.getValue());
+				}
+			}
+
+			if ((i % 500) == 0) {
+				validateRangeSums(map, btree, keyCount, random);
+			}
+		}
+
+		BTree<Integer, Long> bulkTree = new BTree<Integer, Long>(3, new BTBinaryKeySearch<Integer>(), sumAggregator);
+		bulkTree.bulkLoad(map.entrySet().iterator(), 0.7);
+		validateRangeSums(map, bulkTree, keyCount, random);
+		System.out.println("Range sums done successfully.");
+	}
+
+	/**
+	 * Validate the range sums of a tree against the sums of the map.
+	 *
+	 * @param map the map
+	 * @param btree the tree, aggregating the sum of its values
+	 * @param keyCount the key count, the keys range in [0, keyCount)
+	 * @param random the random generator of the ranges
+	 * @throws BTException the BT exception
+	 */
+	private static void validateRangeSums(TreeMap<Integer, Long> map, BTree<Integer, Long> btree, int keyCount,
+			Random random) throws BTException {
+		long totalSum = 0;
+		for (long value : map.values()) {
+			totalSum += value;
+		}
+		if (btree.<Long>aggregate() != totalSum) {
+			throw new BTException("Error in validateRangeSums(): Failed to compare the total sum: " + totalSum + " <> "
+					+ btree.<Long>aggregate());
+		}
+
+		for (int i = 0; i < 50; ++i) {
+			int lowKey = random.nextInt(keyCount + 2) - 1;
+			int highKey = lowKey + random.nextInt(keyCount / 4 + 2) - 1;
+			boolean isLowInclusive = random.nextBoolean();
+			boolean isHighInclusive = random.nextBoolean();
+			long sum = 0;
+			if (lowKey <= highKey) {
+				for (long value : map.subMap(lowKey, isLowInclusive, highKey, isHighInclusive).values()) {
+					sum += value;
+				}
+			}
+
+			long rangeSum = btree.<Long>aggregate(lowKey, isLowInclusive, highKey, isHighInclusive);
+			if (rangeSum != sum) {
+				throw new BTException("Error in validateRangeSums(): Failed to sum the values in " + lowKey + " .. "
+						+ highKey + ": " + sum + " <> " + rangeSum);
+			}
+		}
+	}
+
+	/**
+	 * Validate a BTreeMap against a TreeMap: the navigation methods, the
+	 * views and the modifications made through them and their iterators.
+	 *
+	 * @param keyCount the key count
+	 * @throws BTException the BT exception
+	 */
+	public static void runNavigableMap(int keyCount) throws BTException {
+		System.out.println("Validating the navigable map over " + keyCount + " keys...");
+		BTreeMap<Integer, Integer> btreeMap = new BTreeMap<Integer, Integer>(new BTree<Integer, Integer>(3));
+		TreeMap<Integer, Integer> map = new TreeMap<Integer, Integer>();
+		Random random = new Random(7);
+		for (int i = 0; i < keyCount; ++i) {
+			// Even keys only, so the odd keys probe the gaps
+			int key = random.nextInt(keyCount * 2) * 2;
+			if (!equals(map.put(key, i), btreeMap.put(key, i))) {
+				throw new BTException("Error in runNavigableMap(): Failed to put key = " + key);
+			}
+		}
+		validateNavigableMap("map", map, btreeMap, keyCount);
+
+		int lowKey = keyCount;
+		int highKey = keyCount * 2 + 1;
+		validateNavigableMap("sub map", map.subMap(lowKey, true, highKey, false),
+				btreeMap.subMap(lowKey, true, highKey, false), keyCount);
+		validateNavigableMap("head map", map.headMap(lowKey, false), btreeMap.headMap(lowKey, false), keyCount);
+		validateNavigableMap("tail map", map.tailMap(highKey, true), btreeMap.tailMap(highKey, true), keyCount);
+		validateNavigableMap("descending map", map.descendingMap(), btreeMap.descendingMap(), keyCount);
+		validateNavigableMap("descending sub map", map.descendingMap().subMap(highKey, false, lowKey, false),
+				btreeMap.descendingMap().subMap(highKey, false, lowKey, false), keyCount);
+
+		// Modify through the iterators of the views
+		for (NavigableMap<Integer, Integer> view : new NavigableMap[] { btreeMap.subMap(lowKey, true, highKey, true),
+				btreeMap.descendingMap().headMap(lowKey, false) }) {
+			Iterator<Map.Entry<Integer, Integer>> iter = view.entrySet().iterator();
+			while (iter.hasNext()) {
+				Map.Entry<Integer, Integer> entry = iter.next();
+				if (entry.getKey() % 3 == 0) {
+					iter.remove();
+					map.remove(entry.getKey());
+				} else {
+					entry.setValue(-entry.getKey());
+					map.put(entry.getKey(), -entry.getKey());
+				}
+			}
+		}
+		validateNavigableMap("modified map", map, btreeMap, keyCount);
+
+		// Clear through the views
+		btreeMap.subMap(keyCount / 2, true, keyCount, false).clear();
+		map.subMap(keyCount / 2, true, keyCount, false).clear();
+		btreeMap.subMap(keyCount * 3 / 2, false, keyCount * 2, true).entrySet().clear();
+		map.subMap(keyCount * 3 / 2, false, keyCount * 2, true).entrySet().clear();
+		btreeMap.tailMap(keyCount * 7 / 2).values().clear();
+		map.tailMap(keyCount * 7 / 2).values().clear();
+		btreeMap.descendingMap().headMap(keyCount * 3).keySet().clear();
+		map.descendingMap().headMap(keyCount * 3).keySet().clear();
+		validateNavigableMap("cleared map", map, btreeMap, keyCount);
+
+		while (!map.isEmpty()) {
+			if (!equals(map.pollFirstEntry(), btreeMap.pollFirstEntry())
+					|| !equals(map.pollLastEntry(), btreeMap.pollLastEntry())) {
+				throw new BTException("Error in runNavigableMap(): Failed to poll first | last entries");
+			}
+		}
+		if (!btreeMap.isEmpty() || (btreeMap.getTree().getSize() != 0)) {
+			throw new BTException("Error in runNavigableMap(): Polled map is not empty");
+		}
+		System.out.println("Navigable map done successfully.");
+	}
+
+	/**
+	 * Validate a navigable map against the expected one.
+	 *
+	 * @param name the name of the map
+	 * @param expected the expected map
+	 * @param actual the actual map
+	 * @param keyCount the key count, the keys range in [0, keyCount * 4)
+	 * @throws BTException the BT exception
+	 */
+	private static void validateNavigableMap(String name, NavigableMap<Integer, Integer> expected,
+			NavigableMap<Integer, Integer> actual, int keyCount) throws BTException {
+		if ((expected.size() != actual.size()) || !expected.equals(actual) || !actual.equals(expected)) {
+			throw new BTException("Error in validateNavigableMap(): Failed to compare " + name + " of size "
+					+ expected.size() + " <> " + actual.size());
+		}
+
+		if (!new ArrayList<Integer>(expected.keySet()).equals(new ArrayList<Integer>(actual.keySet()))
+				|| !new ArrayList<Integer>(expected.descendingKeySet())
+						.equals(new ArrayList<Integer>(actual.descendingKeySet()))) {
+			throw new BTException("Error in validateNavigableMap(): Failed to compare the key order of " + name);
+		}
+
+		if (!equals(expected.firstEntry(), actual.firstEntry()) || !equals(expected.lastEntry(), actual.lastEntry())) {
+			throw new BTException("Error in validateNavigableMap(): Failed to compare first | last entries of " + name);
+		}
+
+		for (int key = -1; key <= keyCount * 4; ++key) {
+			if (!equals(expected.floorEntry(key), actual.floorEntry(key))
+					|| !equals(expected.lowerEntry(key), actual.lowerEntry(key))
+					|| !equals(expected.ceilingEntry(key), actual.ceilingEntry(key))
+					|| !equals(expected.higherEntry(key), actual.higherEntry(key))
+					|| (expected.containsKey(key) != actual.containsKey(key))
+					|| !equals(expected.get(key), actual.get(key))) {
+				throw new BTException("Error in validateNavigableMap(): Failed to navigate " + name + " at key = " + key
+						+ ", floor | lower | ceiling | higher: " + expected.floorKey(key) + " | "
+						+ expected.lowerKey(key) + " | " + expected.ceilingKey(key) + " | " + expected.higherKey(key)
+						+ " <> " + actual.floorKey(key) + " | " + actual.lowerKey(key) + " | "
+						+ actual.ceilingKey(key) + " | " + actual.higherKey(key));
+			}
+		}
+	}
+
+	/**
+	 * Validate the structural stats against a walk of the tree.
+	 *
+	 * @throws BTException the BT exception
+	 */
+	public void validateStats() throws BTException {
+		List<int[]> levelCounts = new ArrayList<int[]>();
+		if (mBTree.getRootNode() != null) {
+			countLevels(mBTree.getRootNode(), 0, levelCounts);
+		}
+
+		int nodesCount = 0;
+		for (int[] counts : levelCounts) {
+			nodesCount += counts[0];
+		}
+		int leafsCount = levelCounts.isEmpty() ? 0 : levelCounts.get(levelCounts.size() - 1)[0];
+		if ((mBTree.getHeight() != levelCounts.size()) || (mBTree.getNodesCount() != nodesCount)
+				|| (mBTree.getLeafsCount() != leafsCount)) {
+			throw new BTException("Error in validateStats(): Failed to compare height | nodes | leafs: "
+					+ levelCounts.size() + " | " + nodesCount + " | " + leafsCount + " <> " + mBTree.getHeight()
+					+ " | " + mBTree.getNodesCount() + " | " + mBTree.getLeafsCount());
+		}
+
+		for (int level = 0; level < levelCounts.size(); ++level) {
+			int[] counts = levelCounts.get(level);
+			if ((mBTree.getLevelNodesCount(level) != counts[0]) || (mBTree.getLevelKeysCount(level) != counts[1])) {
+				throw new BTException("Error in validateStats(): Failed to compare the counts of level " + level
+						+ ": " + counts[0] + " | " + counts[1] + " <> " + mBTree.getLevelNodesCount(level) + " | "
+						+ mBTree.getLevelKeysCount(level));
+			}
+		}
+	}
+
+	/**
+	 * Count the nodes and the keys of each level in the subtree of a node.
+	 *
+	 * @param btNode the bt node
+	 * @param level the level of the node, 0 for the root
+	 * @param levelCounts the nodes and keys counts of each level
+	 */
+	private void countLevels(BTNode<Integer, String> btNode, int level, List<int[]> levelCounts) {
+		if (level == levelCounts.size()) {
+			levelCounts.add(new int[2]);
+		}
+		++levelCounts.get(level)[0];
+		levelCounts.get(level)[1] += btNode.mCurrentKeyNum;
+		if (!btNode.mIsLeaf) {
+			for (int i = 0; i <= btNode.mCurrentKeyNum; ++i) {
+				countLevels(btNode.mChildren[i], level + 1, levelCounts);
+			}
+		}
+	}
+
+	/**
+	 * Validate the subtree sizes, then the ranks, the selects, the range
+	 * counts and the samples against the map.
+	 *
+	 * @throws BTException the BT exception
+	 */
+	public void validateOrderStatistics() throws BTException {
+		if (mBTree.getRootNode() != null) {
+			countSubtree(mBTree.getRootNode());
+		}
+
+		TreeMap<Integer, String> map = (TreeMap<Integer, String>) mMap;
+		int rank = 0;
+		for (Map.Entry<Integer, String> entry : map.entrySet()) {
+			BTKeyValue<Integer, String> keyValue = mBTree.select(rank);
+			// The keys being integers, the key is the only one in [key, key + 1)
+			if ((mBTree.rank(entry.getKey()) != rank) || (mBTree.rank(entry.getKey() + 1) != rank + 1)
+					|| !keyValue.mKey.equals(entry.getKey()) || !keyValue.mValue.equals(entry.getValue())) {
+				throw new BTException("Error in validateOrderStatistics(): Failed to compare rank | select of key = "
+						+ entry.getKey() + ": " + rank + " <> " + mBTree.rank(entry.getKey()) + " | " + keyValue.mKey);
+			}
+			++rank;
+		}
+
+		Random random = new Random(map.size());
+		for (int i = 0; i < 20; ++i) {
+			int lowKey = random.nextInt(map.size() * 2 + 1) - 1;
+			int highKey = lowKey + random.nextInt(map.size() + 1);
+			boolean isLowInclusive = random.nextBoolean();
+			boolean isHighInclusive = random.nextBoolean();
+			int count = map.subMap(lowKey, isLowInclusive, highKey, isHighInclusive).size();
+			if (mBTree.count(lowKey, isLowInclusive, highKey, isHighInclusive) != count) {
+				throw new BTException("Error in validateOrderStatistics(): Failed to count the keys in " + lowKey
+						+ " .. " + highKey + ": " + count + " <> "
+						+ mBTree.count(lowKey, isLowInclusive, highKey, isHighInclusive));
+			}
+		}
+
+		List<BTKeyValue<Integer, String>> sample = mBTree.sample(10, random);
+		if (sample.size() != Math.min(10, map.size())) {
+			throw new BTException("Error in validateOrderStatistics(): Failed to sample " + Math.min(10, map.size())
+					+ " entries: " + sample.size());
+		}
+		for (int i = 0; i < sample.size(); ++i) {
+			BTKeyValue<Integer, String> keyValue = sample.get(i);
+			if (!keyValue.mValue.equals(map.get(keyValue.mKey))
+					|| ((i > 0) && (sample.get(i - 1).mKey >= keyValue.mKey))) {
+				throw new BTException("Error in validateOrderStatistics(): Failed to sample key = " + keyValue.mKey);
+			}
+		}
+	}
+
+	/**
+	 * Count the keys in the subtree of a node, checking its subtree size.
+	 *
+	 * @param btNode the bt node
+	 * @return the number of keys in the subtree
+	 * @throws BTException the BT exception
+	 */
+	private int countSubtree(BTNode<Integer, String> btNode) throws BTException {
+		int size = btNode.mCurrentKeyNum;
+		if (!btNode.mIsLeaf) {
+			for (int i = 0; i <= btNode.mCurrentKeyNum; ++i) {
+				size += countSubtree(btNode.mChildren[i]);
+			}
+		}
+
+		if (btNode.mSubtreeSize != size) {
+			throw new BTException("Error in countSubtree(): Failed to compare the subtree size of the node of key = "
+					+ btNode.getKey(0) + ": " + size + " <> " + btNode.mSubtreeSize);
+		}
+		return size;
+	}
+
 	/**
 	 * Validate order.
 	 *
@@ -188,7 +714,12 @@ public class BTreeTest {
 	 */
 	public void validateAll() throws BTException {
 		validateData();
+		validateSearchAll();
+		validateCursor();
 		validateSize();
+		validateStats();
+		validateFirstLast();
+		validateOrderStatistics();
 		validateOrder();
 	}
 
@@ -202,35 +733,2144 @@ public class BTreeTest {
 	}
 	
 	/**
-	 * Main Entry for the test.
+	 * Run a random mix of inserts and deletes, validating the tree against
+	 * the map along the way.
 	 *
-	 * @param args the arguments
+	 * @param opCount the op count
+	 * @param keyRange the key range
+	 * @param seed the seed
+	 * @throws BTException the BT exception
 	 */
-	public static void main(String[] args) {
+	public void runRandomOps(int opCount, int keyRange, long seed) throws BTException {
+		System.out.println("Running " + opCount + " random inserts and deletes...");
+		Random random = new Random(seed);
+		for (int i = 0; i < opCount; ++i) {
+			int key = random.nextInt(keyRange);
+			if (random.nextInt(5) < 3) {
+				mMap.put(key, "" + i);
+				mBTree.insert(key, "" + i);
+			} else {
+				String strVal1 = mMap.remove(key);
+				String strVal2 = mBTree.delete(key);
+				if (!isEqual(strVal1, strVal2)) {
+					throw new BTException("Deleted key = " + key + " has different values: " + strVal1 + " | " + strVal2);
+				}
+			}
 
-		System.out.println("---------------------------------------------------");
-		BTreeTest test = new BTreeTest();
-		System.out.println("---------------------------------------------------");
+			if ((i % 1000) == 0) {
+				validateAll();
+			}
+		}
+		validateAll();
+		System.out.println("Random inserts and deletes done successfully.");
+	}
 
-		try {
-			test.clearData();
+	/**
+	 * Bulk load sorted keys in the tree, validating the tree against the map.
+	 *
+	 * @param keyCount the key count
+	 * @param fillFactor the fill factor of the nodes
+	 * @throws BTException the BT exception
+	 */
+	public void runBulkLoad(int keyCount, double fillFactor) throws BTException {
+		System.out.println("Bulk loading " + keyCount + " keys with fill factor " + fillFactor + "...");
+		for (int i = 0; i < keyCount; ++i) {
+			mMap.put(2 * i, "" + i);
+		}
+		mBTree.bulkLoad(mMap.entrySet().iterator(), fillFactor);
+		validateAll();
+		System.out.println("Bulk load done successfully.");
+	}
 
-			System.out.println("Inserting values in BTree...");
-			for (int i = 1; i < 50; ++i) {
-				test.addKey(i);
+	/**
+	 * Insert batches of random keys in the tree, validating the tree against
+	 * the map after each batch.
+	 *
+	 * @param batchCount the batch count
+	 * @param batchSize the batch size
+	 * @param keyRange the key range
+	 * @param seed the seed
+	 * @throws BTException the BT exception
+	 */
+	public void runBatchInserts(int batchCount, int batchSize, int keyRange, long seed) throws BTException {
+		System.out.println("Inserting " + batchCount + " batches of " + batchSize + " random keys...");
+		Random random = new Random(seed);
+		List<Map.Entry<Integer, String>> batch = new ArrayList<Map.Entry<Integer, String>>();
+		for (int i = 0; i < batchCount; ++i) {
+			batch.clear();
+			for (int j = 0; j < batchSize; ++j) {
+				int key = random.nextInt(keyRange);
+				mMap.put(key, i + "." + j);
+				batch.add(new AbstractMap.SimpleEntry<Integer, String>(key, i + "." + j));
 			}
-			System.out.println("BTree populated successfully.");
-			System.out.println("---------------------------------------------------");
+			mBTree.insertAll(batch);
+			validateAll();
+		}
+		System.out.println("Batch inserts done successfully.");
+	}
 
-			test.delete(24);
-			test.delete(23);
-			test.delete(27);
-			System.out.println("---------------------------------------------------");
+	/**
+	 * Run random inserts and deletes against the four primitive trees, with
+	 * a TreeMap as the oracle, validating the trees along the way.
+	 *
+	 * @param opCount the op count
+	 * @param keyRange the key range
+	 * @param seed the seed
+	 * @throws BTException the BT exception
+	 */
+	public static void runPrimitiveTrees(int opCount, int keyRange, long seed) throws BTException {
+		System.out.println("Running " + opCount + " random inserts and deletes on the primitive trees...");
+		for (int minDegree : new int[] { BTNode.SMALLEST_MIN_DEGREE, BTNode.DEFAULT_MIN_DEGREE }) {
+			final IntBTree<Long> intTree = new IntBTree<Long>(minDegree);
+			final LongBTree<Long> longTree = new LongBTree<Long>(minDegree);
+			final IntLongBTree intLongTree = new IntLongBTree(minDegree);
+			final LongLongBTree longLongTree = new LongLongBTree(minDegree);
 
-			test.validateSearch(7);
-			System.out.println("---------------------------------------------------");
-			
-			test.validateAll();
+			validatePrimitiveTree("IntBTree", new PrimitiveTree() {
+				@Override
+				public void insert(long key, long value) {
+					intTree.insert((int) key, value);
+				}
+
+				@Override
+				public long delete(long key) {
+					Long value = intTree.delete((int) key);
+					return (value != null) ? value : IntLongBTree.NO_VALUE;
+				}
+
+				@Override
+				public long search(long key) {
+					Long value = intTree.search((int) key);
+					return (value != null) ? value : IntLongBTree.NO_VALUE;
+				}
+
+				@Override
+				public boolean containsKey(long key) {
+					return intTree.containsKey((int) key);
+				}
+
+				@Override
+				public int getSize() {
+					return intTree.getSize();
+				}
+
+				@Override
+				public void list(final TreeMap<Long, Long> map) {
+					intTree.list(new IntBTIterator<Long>() {
+						@Override
+						public boolean item(int key, Long value) {
+							map.put((long) key, value);
+							return true;
+						}
+					});
+				}
+			}, false, opCount, keyRange, seed);
+
+			validatePrimitiveTree("LongBTree", new PrimitiveTree() {
+				@Override
+				public void insert(long key, long value) {
+					longTree.insert(key, value);
+				}
+
+				@Override
+				public long delete(long key) {
+					Long value = longTree.delete(key);
+					return (value != null) ? value : IntLongBTree.NO_VALUE;
+				}
+
+				@Override
+				public long search(long key) {
+					Long value = longTree.search(key);
+					return (value != null) ? value : IntLongBTree.NO_VALUE;
+				}
+
+				@Override
+				public boolean containsKey(long key) {
+					return longTree.containsKey(key);
+				}
+
+				@Override
+				public int getSize() {
+					return longTree.getSize();
+				}
+
+				@Override
+				public void list(final TreeMap<Long, Long> map) {
+					longTree.list(new LongBTIterator<Long>() {
+						@Override
+						public boolean item(long key, Long value) {
+							map.put(key, value);
+							return true;
+						}
+					});
+				}
+			}, true, opCount, keyRange, seed);
+
+			validatePrimitiveTree("IntLongBTree", new PrimitiveTree() {
+				@Override
+				public void insert(long key, long value) {
+					intLongTree.insert((int) key, value);
+				}
+
+				@Override
+				public long delete(long key) {
+					return intLongTree.delete((int) key);
+				}
+
+				@Override
+				public long search(long key) {
+					return intLongTree.search((int) key);
+				}
+
+				@Override
+				public boolean containsKey(long key) {
+					return intLongTree.containsKey((int) key);
+				}
+
+				@Override
+				public int getSize() {
+					return intLongTree.getSize();
+				}
+
+				@Override
+				public void list(final TreeMap<Long, Long> map) {
+					intLongTree.list(new IntLongBTIterator() {
+						@Override
+						public boolean item(int key, long value) {
+							map.put((long) key, value);
+							return true;
+						}
+					});
+				}
+			}, false, opCount, keyRange, seed);
+
+			validatePrimitiveTree("LongLongBTree", new PrimitiveTree() {
+				@Override
+				public void insert(long key, long value) {
+					longLongTree.insert(key, value);
+				}
+
+				@Override
+				public long delete(long key) {
+					return longLongTree.delete(key);
+				}
+
+				@Override
+				public long search(long key) {
+					return longLongTree.search(key);
+				}
+
+				@Override
+				public boolean containsKey(long key) {
+					return longLongTree.containsKey(key);
+				}
+
+				@Override
+				public int getSize() {
+					return longLongTree.getSize();
+				}
+
+				@Override
+				public void list(final TreeMap<Long, Long> map) {
+					longLongTree.list(new LongLongBTIterator() {
+						@Override
+						public boolean item(long key, long value) {
+							map.put(key, value);
+							return true;
+						}
+					});
+				}
+			}, true, opCount, keyRange, seed);
+		}
+		System.out.println("Primitive trees done successfully.");
+	}
+
+	/**
+	 * Run random inserts and deletes against a primitive tree, with a
+	 * TreeMap as the oracle. The keys are centered on 0 so that negative
+	 * keys are compared too, and spread beyond the int range for long keys.
+	 *
+	 * @param name the name of the tree
+	 * @param tree the tree
+	 * @param isLongKey true if the tree has long keys
+	 * @param opCount the op count
+	 * @param keyRange the key range
+	 * @param seed the seed
+	 * @throws BTException the BT exception
+	 */
+	private static void validatePrimitiveTree(String name, PrimitiveTree tree, boolean isLongKey, int opCount,
+			int keyRange, long seed) throws BTException {
+		TreeMap<Long, Long> map = new TreeMap<Long, Long>();
+		long keyScale = isLongKey ? (1L << 40) + 1 : 1;
+		Random random = new Random(seed);
+		for (int i = 0; i <= opCount; ++i) {
+			long key = (random.nextInt(keyRange) - (keyRange / 2)) * keyScale;
+			if (random.nextInt(5) < 3) {
+				map.put(key, (long) i);
+				tree.insert(key, i);
+			} else {
+				Long value = map.remove(key);
+				long deleted = tree.delete(key);
+				if (deleted != ((value != null) ? value : IntLongBTree.NO_VALUE)) {
+					throw new BTException("Error in validatePrimitiveTree(): " + name + " deleted key = " + key
+							+ " with value " + deleted + " <> " + value);
+				}
+			}
+
+			if ((i % 1000) != 0) {
+				continue;
+			}
+
+			TreeMap<Long, Long> listed = new TreeMap<Long, Long>();
+			tree.list(listed);
+			if ((tree.getSize() != map.size()) || !listed.equals(map)) {
+				throw new BTException("Error in validatePrimitiveTree(): " + name + " failed to compare the entries, size "
+						+ map.size() + " <> " + tree.getSize());
+			}
+
+			for (long k = -(keyRange / 2); k < keyRange - (keyRange / 2); ++k) {
+				Long value = map.get(k * keyScale);
+				if ((tree.containsKey(k * keyScale) != (value != null))
+						|| (tree.search(k * keyScale) != ((value != null) ? value : IntLongBTree.NO_VALUE))) {
+					throw new BTException("Error in validatePrimitiveTree(): " + name + " failed to search key = "
+							+ (k * keyScale));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Interface PrimitiveTree.
+	 *
+	 * Common view of the primitive trees for the tests, the missing values
+	 * being IntLongBTree.NO_VALUE.
+	 */
+	private interface PrimitiveTree {
+
+		/**
+		 * Insert.
+		 *
+		 * @param key the key
+		 * @param value the value
+		 */
+		public void insert(long key, long value);
+
+		/**
+		 * Delete.
+		 *
+		 * @param key the key
+		 * @return the deleted value, or the missing value
+		 */
+		public long delete(long key);
+
+		/**
+		 * Search.
+		 *
+		 * @param key the key
+		 * @return the value, or the missing value
+		 */
+		public long search(long key);
+
+		/**
+		 * Contains key.
+		 *
+		 * @param key the key
+		 * @return true, if the key exists in the tree
+		 */
+		public boolean containsKey(long key);
+
+		/**
+		 * Gets the size.
+		 *
+		 * @return the size
+		 */
+		public int getSize();
+
+		/**
+		 * List the entries into a map.
+		 *
+		 * @param map the map
+		 */
+		public void list(TreeMap<Long, Long> map);
+	}
+
+	/**
+	 * Run random inserts and deletes against an off-heap tree, with a
+	 * TreeMap as the oracle. Small chunks spread the nodes over several
+	 * buffers, and deleting all the keys at the end must give every node
+	 * back to the arena.
+	 *
+	 * @param opCount the op count
+	 * @param keyRange the key range
+	 * @param seed the seed
+	 * @throws BTException the BT exception
+	 */
+	public static void runOffHeapTree(int opCount, int keyRange, long seed) throws BTException {
+		System.out.println("Running " + opCount + " random inserts and deletes on the off-heap tree...");
+		for (int minDegree : new int[] { BTNode.SMALLEST_MIN_DEGREE, BTNode.DEFAULT_MIN_DEGREE }) {
+			final OffHeapLongBTree offHeapTree = new OffHeapLongBTree(minDegree, 4096, IntLongBTree.NO_VALUE);
+			validatePrimitiveTree("OffHeapLongBTree", new PrimitiveTree() {
+				@Override
+				public void insert(long key, long value) {
+					offHeapTree.insert(key, value);
+				}
+
+				@Override
+				public long delete(long key) {
+					return offHeapTree.delete(key);
+				}
+
+				@Override
+				public long search(long key) {
+					return offHeapTree.search(key);
+				}
+
+				@Override
+				public boolean containsKey(long key) {
+					return offHeapTree.containsKey(key);
+				}
+
+				@Override
+				public int getSize() {
+					return (int) offHeapTree.getSize();
+				}
+
+				@Override
+				public void list(final TreeMap<Long, Long> map) {
+					offHeapTree.list(new LongLongBTIterator() {
+						@Override
+						public boolean item(long key, long value) {
+							map.put(key, value);
+							return true;
+						}
+					});
+				}
+			}, true, opCount, keyRange, seed);
+
+			final List<Long> keys = new ArrayList<Long>();
+			offHeapTree.list(new LongLongBTIterator() {
+				@Override
+				public boolean item(long key, long value) {
+					keys.add(key);
+					return true;
+				}
+			});
+			for (long key : keys) {
+				offHeapTree.delete(key);
+			}
+			if ((offHeapTree.getSize() != 0) || (offHeapTree.getNodesCount() != 0)) {
+				throw new BTException("Error in runOffHeapTree(): " + offHeapTree.getNodesCount()
+						+ " nodes left after deleting all the keys");
+			}
+		}
+		System.out.println("Off-heap tree done successfully.");
+	}
+
+	/**
+	 * Run random inserts and deletes against a shadow paged tree, with
+	 * commits, rollbacks and simulated crashes along the way. A crash is
+	 * simulated by opening a copy of the file as it is on disk while the
+	 * tree still holds changes in its pool, which must find the tree of the
+	 * last commit.
+	 *
+	 * @param opCount the op count
+	 * @param keyRange the key range
+	 * @param seed the seed
+	 * @throws BTException the BT exception
+	 */
+	public static void runShadowPagedTree(int opCount, int keyRange, long seed) throws BTException {
+		System.out.println("Running " + opCount + " random inserts and deletes on the shadow paged tree...");
+		File file = null;
+		File crashFile = null;
+		try {
+			file = File.createTempFile("btree", ".shadow");
+			crashFile = File.createTempFile("btree", ".crash");
+			for (int pageSize : new int[] { 200, PagedNodeStore.DEFAULT_PAGE_SIZE }) {
+				for (int poolSize : new int[] { 3, 64 }) {
+					file.delete();
+					validateShadowPagedTree(file, crashFile, pageSize, poolSize, opCount, keyRange, seed);
+				}
+			}
+		} catch (IOException ioex) {
+			throw new BTException("Error in runShadowPagedTree(): " + ioex.getMessage(), ioex);
+		} finally {
+			if (file != null) {
+				file.delete();
+			}
+			if (crashFile != null) {
+				crashFile.delete();
+			}
+		}
+		System.out.println("Shadow paged tree done successfully.");
+	}
+
+	/**
+	 * Run random inserts and deletes against a shadow paged tree in a file.
+	 *
+	 * @param file the file
+	 * @param crashFile the file receiving the copies of the file
+	 * @param pageSize the page size
+	 * @param poolSize the pool size
+	 * @param opCount the op count
+	 * @param keyRange the key range
+	 * @param seed the seed
+	 * @throws BTException the BT exception
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void validateShadowPagedTree(File file, File crashFile, int pageSize, int poolSize, int opCount,
+			int keyRange, long seed) throws BTException, IOException {
+		String name = "ShadowPagedLongBTree(" + pageSize + ", " + poolSize + ")";
+		TreeMap<Long, Long> map = new TreeMap<Long, Long>();
+		TreeMap<Long, Long> committed = new TreeMap<Long, Long>();
+		Random random = new Random(seed);
+		ShadowPagedLongBTree tree = new ShadowPagedLongBTree(file, pageSize, poolSize, IntLongBTree.NO_VALUE);
+		try {
+			for (int i = 1; i <= opCount; ++i) {
+				long key = random.nextInt(keyRange);
+				if (random.nextInt(5) < 3) {
+					map.put(key, (long) i);
+					tree.insert(key, i);
+				} else {
+					Long value = map.remove(key);
+					if (tree.delete(key) != ((value != null) ? value : IntLongBTree.NO_VALUE)) {
+						throw new BTException("Error in validateShadowPagedTree(): " + name + " failed to delete key = "
+								+ key);
+					}
+				}
+
+				int action = random.nextInt(1000);
+				if (action < 3) {
+					tree.commit();
+					committed = new TreeMap<Long, Long>(map);
+				} else if (action < 4) {
+					tree.rollback();
+					map = new TreeMap<Long, Long>(committed);
+					validateLongStoreTree(name + " after rollback", tree, map);
+				} else if (action < 5) {
+					Files.copy(file.toPath(), crashFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					ShadowPagedLongBTree crashTree = new ShadowPagedLongBTree(crashFile, pageSize, poolSize,
+							IntLongBTree.NO_VALUE);
+					try {
+						validateLongStoreTree(name + " after crash", crashTree, committed);
+
+						// The reopened tree must accept new commits
+						crashTree.insert(-1, -1);
+						crashTree.commit();
+						crashTree.delete(-1);
+						crashTree.commit();
+					} finally {
+						crashTree.close();
+					}
+				}
+			}
+
+			tree.commit();
+		} finally {
+			tree.close();
+		}
+
+		tree = new ShadowPagedLongBTree(file, pageSize, poolSize, IntLongBTree.NO_VALUE);
+		try {
+			validateLongStoreTree(name + " after close", tree, map);
+		} finally {
+			tree.close();
+		}
+	}
+
+	/**
+	 * Compare the entries of a long store tree with those of a map.
+	 *
+	 * @param name the name of the tree
+	 * @param tree the tree
+	 * @param map the map
+	 * @throws BTException the BT exception
+	 */
+	private static void validateLongStoreTree(String name, LongStoreBTree tree, TreeMap<Long, Long> map)
+			throws BTException {
+		final TreeMap<Long, Long> listed = new TreeMap<Long, Long>();
+		tree.list(new LongLongBTIterator() {
+			@Override
+			public boolean item(long key, long value) {
+				listed.put(key, value);
+				return true;
+			}
+		});
+		if ((tree.getSize() != map.size()) || !listed.equals(map)) {
+			throw new BTException("Error in validateLongStoreTree(): " + name + " failed to compare the entries, size "
+					+ map.size() + " <> " + tree.getSize());
+		}
+	}
+
+	/**
+	 * Write snapshots of trees and read them back through a MappedBTree.
+	 * The small page sizes make most nodes span several pages, and some
+	 * values are long enough to span several pages on their own.
+	 *
+	 * @param keyCount the key count
+	 * @param seed the seed
+	 * @throws BTException the BT exception
+	 */
+	public static void runMappedBTree(int keyCount, long seed) throws BTException {
+		System.out.println("Writing and mapping snapshots of " + keyCount + " keys...");
+		File file = null;
+		try {
+			file = File.createTempFile("btree", ".snapshot");
+			for (int minDegree : new int[] { BTNode.SMALLEST_MIN_DEGREE, BTNode.DEFAULT_MIN_DEGREE, 64 }) {
+				for (int pageSize : new int[] { 32, 100, MappedBTree.DEFAULT_PAGE_SIZE }) {
+					validateMappedBTree(file, minDegree, pageSize, keyCount, seed);
+				}
+			}
+
+			// An empty tree
+			new BTree<Integer, String>().writeSnapshot(file, new BTIntegerCodec(), new BTStringCodec());
+			MappedBTree<Integer, String> mappedTree = new MappedBTree<Integer, String>(file, new BTIntegerCodec(),
+					new BTStringCodec());
+			try {
+				if ((mappedTree.getSize() != 0) || (mappedTree.search(1) != null) || mappedTree.containsKey(1)) {
+					throw new BTException("Error in runMappedBTree(): the empty snapshot isn't empty");
+				}
+			} finally {
+				mappedTree.close();
+			}
+		} catch (IOException ioex) {
+			throw new BTException("Error in runMappedBTree(): " + ioex.getMessage(), ioex);
+		} finally {
+			if (file != null) {
+				file.delete();
+			}
+		}
+		System.out.println("Mapped snapshots done successfully.");
+	}
+
+	/**
+	 * Write a snapshot of a random tree and compare it with the tree.
+	 *
+	 * @param file the file
+	 * @param minDegree the min degree of the tree
+	 * @param pageSize the page size of the snapshot
+	 * @param keyCount the key count
+	 * @param seed the seed
+	 * @throws BTException the BT exception
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void validateMappedBTree(File file, int minDegree, int pageSize, int keyCount, long seed)
+			throws BTException, IOException {
+		String name = "MappedBTree(" + minDegree + ", " + pageSize + ")";
+		BTree<Integer, String> btree = new BTree<Integer, String>(minDegree);
+		TreeMap<Integer, String> map = new TreeMap<Integer, String>();
+		Random random = new Random(seed);
+		for (int i = 0; i < keyCount; ++i) {
+			int key = random.nextInt(keyCount * 2);
+			String value = "v" + i;
+			if ((i % 11) == 0) {
+				value = null;
+			} else if ((i % 13) == 0) {
+				StringBuilder sb = new StringBuilder();
+				for (int j = random.nextInt(100); j < 200; ++j) {
+					sb.append("long");
+				}
+				value = sb.toString();
+			}
+			btree.insert(key, value);
+			map.put(key, value);
+		}
+		for (int i = 0; i < keyCount / 4; ++i) {
+			int key = random.nextInt(keyCount * 2);
+			btree.delete(key);
+			map.remove(key);
+		}
+
+		btree.writeSnapshot(file, pageSize, new BTIntegerCodec(), new BTStringCodec());
+		MappedBTree<Integer, String> mappedTree = new MappedBTree<Integer, String>(file, new BTIntegerCodec(),
+				new BTStringCodec());
+		try {
+			if ((mappedTree.getSize() != map.size()) || (mappedTree.getPageSize() != pageSize)) {
+				throw new BTException("Error in validateMappedBTree(): " + name + " size " + mappedTree.getSize()
+						+ " <> " + map.size());
+			}
+
+			for (int key = -1; key <= keyCount * 2; ++key) {
+				if ((mappedTree.containsKey(key) != map.containsKey(key))
+						|| !equals(mappedTree.search(key), map.get(key))) {
+					throw new BTException("Error in validateMappedBTree(): " + name + " failed to search key = " + key);
+				}
+			}
+
+			final Iterator<Map.Entry<Integer, String>> iter = map.entrySet().iterator();
+			final List<Integer> mismatches = new ArrayList<Integer>();
+			mappedTree.list(new BTIterator<Integer, String>() {
+				@Override
+				public boolean item(Integer key, String value) {
+					Map.Entry<Integer, String> entry = iter.hasNext() ? iter.next() : null;
+					if ((entry == null) || !entry.getKey().equals(key) || !BTreeTest.equals(entry.getValue(), value)) {
+						mismatches.add(key);
+						return false;
+					}
+					return true;
+				}
+			});
+			if (!mismatches.isEmpty() || iter.hasNext()) {
+				throw new BTException("Error in validateMappedBTree(): " + name + " failed to list the entries");
+			}
+		} finally {
+			mappedTree.close();
+		}
+	}
+
+	/**
+	 * Delete absent keys while going through the tree with a cursor and
+	 * with a map iterator. Such deletes still rebalance the nodes they go
+	 * through, so they must either leave the iterations valid or make them
+	 * fail fast, never skip or repeat an entry.
+	 *
+	 * @param keyCount the key count
+	 * @throws BTException the BT exception
+	 */
+	public static void runAbsentDeletes(int keyCount) throws BTException {
+		System.out.println("Deleting absent keys while iterating over " + keyCount + " keys...");
+		BTree<Integer, Integer> btree = new BTree<Integer, Integer>(BTNode.SMALLEST_MIN_DEGREE);
+		for (int i = 0; i < keyCount; ++i) {
+			btree.insert(i * 2, i);
+		}
+
+		// The cursor is seeked again after a modification is detected
+		BTCursor<Integer, Integer> cursor = btree.cursor();
+		BTCursorPosition<Integer> position = cursor.getPosition();
+		int expectedKey = 0;
+		int modCount = 0;
+		while (true) {
+			btree.delete(expectedKey + 1);
+			boolean hasNext;
+			try {
+				hasNext = cursor.next();
+			} catch (ConcurrentModificationException cmex) {
+				++modCount;
+				cursor.seek(position);
+				hasNext = cursor.next();
+			}
+
+			if (!hasNext) {
+				break;
+			}
+
+			if (cursor.getKey() != expectedKey) {
+				throw new BTException("Error in runAbsentDeletes(): the cursor returned key = " + cursor.getKey()
+						+ " instead of " + expectedKey);
+			}
+			position = cursor.getPosition();
+			expectedKey += 2;
+		}
+
+		if ((expectedKey != keyCount * 2) || (modCount == 0)) {
+			throw new BTException("Error in runAbsentDeletes(): the cursor stopped at key = " + expectedKey
+					+ " after " + modCount + " modifications");
+		}
+
+		// The map iterator fails fast
+		BTreeMap<Integer, Integer> map = new BTreeMap<Integer, Integer>(btree);
+		expectedKey = 0;
+		try {
+			for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+				if (entry.getKey() != expectedKey) {
+					throw new BTException("Error in runAbsentDeletes(): the iterator returned key = "
+							+ entry.getKey() + " instead of " + expectedKey);
+				}
+				map.remove(expectedKey - 1);
+				expectedKey += 2;
+			}
+		} catch (ConcurrentModificationException cmex) {
+			// Expected, once a delete has moved keys between nodes
+		}
+
+		if (btree.getSize() != keyCount) {
+			throw new BTException("Error in runAbsentDeletes(): size " + btree.getSize() + " <> " + keyCount);
+		}
+		System.out.println("Absent deletes done successfully.");
+	}
+
+	/**
+	 * Run random inserts, deletes and bounded listings against a B+tree,
+	 * with a TreeMap as the oracle, validating the nodes and the chain of
+	 * leaves along the way.
+	 *
+	 * @param opCount the op count
+	 * @param keyRange the key range
+	 * @param seed the seed
+	 * @throws BTException the BT exception
+	 */
+	public static void runBPlusTree(int opCount, int keyRange, long seed) throws BTException {
+		System.out.println("Running " + opCount + " random inserts and deletes on the B+tree...");
+		Random random = new Random(seed);
+		for (int minDegree : new int[] { BTNode.SMALLEST_MIN_DEGREE, 3, BTNode.DEFAULT_MIN_DEGREE }) {
+			BPlusTree<Integer, String> bplusTree = new BPlusTree<Integer, String>(minDegree);
+			TreeMap<Integer, String> map = new TreeMap<Integer, String>();
+			for (int i = 0; i <= opCount; ++i) {
+				int key = random.nextInt(keyRange);
+				if (random.nextInt(9) < 5) {
+					bplusTree.insert(key, "v" + i);
+					map.put(key, "v" + i);
+				} else if (!equals(bplusTree.delete(key), map.remove(key))) {
+					throw new BTException("Error in runBPlusTree(): failed to delete key = " + key);
+				}
+
+				if ((i % 97) == 0) {
+					validateBPlusTreeRange(bplusTree, map, random, keyRange);
+				}
+
+				if ((i % 1000) == 0) {
+					validateBPlusTree(bplusTree, map);
+				}
+
+				if (i == (opCount * 3) / 4) {
+					// Empty the tree down to its last leaf, then fill it again
+					for (Integer k : new ArrayList<Integer>(map.keySet())) {
+						bplusTree.delete(k);
+						map.remove(k);
+					}
+					validateBPlusTree(bplusTree, map);
+				}
+			}
+		}
+		System.out.println("B+tree done successfully.");
+	}
+
+	/**
+	 * Validate the nodes, the chain of leaves and the entries of a B+tree.
+	 *
+	 * @param bplusTree the B+tree
+	 * @param map the map
+	 * @throws BTException the BT exception
+	 */
+	private static void validateBPlusTree(BPlusTree<Integer, String> bplusTree, TreeMap<Integer, String> map)
+			throws BTException {
+		if (bplusTree.getSize() != map.size()) {
+			throw new BTException("Error in validateBPlusTree(): size " + bplusTree.getSize() + " <> " + map.size());
+		}
+
+		BPlusTree.Node<Integer, String> rootNode = bplusTree.getRootNode();
+		if (rootNode == null) {
+			if (!map.isEmpty()) {
+				throw new BTException("Error in validateBPlusTree(): no root node");
+			}
+			return;
+		}
+
+		List<BPlusTree.Node<Integer, String>> leaves = new ArrayList<BPlusTree.Node<Integer, String>>();
+		validateBPlusTreeNode(rootNode, bplusTree.getMinDegree(), true, null, null, leaves);
+		for (int i = 0; i < leaves.size(); ++i) {
+			BPlusTree.Node<Integer, String> next = (i + 1 < leaves.size()) ? leaves.get(i + 1) : null;
+			BPlusTree.Node<Integer, String> prev = (i > 0) ? leaves.get(i - 1) : null;
+			if ((leaves.get(i).mNext != next) || (leaves.get(i).mPrev != prev)) {
+				throw new BTException("Error in validateBPlusTree(): broken chain at leaf " + i);
+			}
+		}
+
+		final List<Map.Entry<Integer, String>> listed = new ArrayList<Map.Entry<Integer, String>>();
+		bplusTree.list(new BTIterator<Integer, String>() {
+			@Override
+			public boolean item(Integer key, String value) {
+				listed.add(new AbstractMap.SimpleEntry<Integer, String>(key, value));
+				return true;
+			}
+		});
+		if (!listed.equals(new ArrayList<Map.Entry<Integer, String>>(map.entrySet()))) {
+			throw new BTException("Error in validateBPlusTree(): failed to list the entries");
+		}
+	}
+
+	/**
+	 * Validate the subtree of a B+tree node: the key numbers, the order of
+	 * the keys, their bounds, and the depth of the leaves.
+	 *
+	 * @param btNode the node
+	 * @param minDegree the min degree of the tree
+	 * @param isRoot true if the node is the root node
+	 * @param lowKey the low bound (inclusive) of the keys, null if unbounded
+	 * @param highKey the high bound (exclusive) of the keys, null if
+	 *            unbounded
+	 * @param leaves the leaves, in order
+	 * @return the height of the subtree
+	 * @throws BTException the BT exception
+	 */
+	private static int validateBPlusTreeNode(BPlusTree.Node<Integer, String> btNode, int minDegree, boolean isRoot,
+			Integer lowKey, Integer highKey, List<BPlusTree.Node<Integer, String>> leaves) throws BTException {
+		int keyNum = btNode.mCurrentKeyNum;
+		if ((keyNum > BTNode.getUpperBoundKeyNum(minDegree))
+				|| (!isRoot && (keyNum < BTNode.getLowerBoundKeyNum(minDegree)))
+				|| (isRoot && !btNode.mIsLeaf && (keyNum == 0))) {
+			throw new BTException("Error in validateBPlusTreeNode(): " + keyNum + " keys in a node");
+		}
+
+		for (int i = 0; i < keyNum; ++i) {
+			Integer key = (Integer) btNode.mKeys[i];
+			if (((lowKey != null) && (key < lowKey)) || ((highKey != null) && (key >= highKey))
+					|| ((i > 0) && ((Integer) btNode.mKeys[i - 1] >= key))) {
+				throw new BTException("Error in validateBPlusTreeNode(): key = " + key + " out of order");
+			}
+		}
+
+		if (btNode.mIsLeaf) {
+			leaves.add(btNode);
+			return 1;
+		}
+
+		int height = -1;
+		for (int i = 0; i <= keyNum; ++i) {
+			Integer childLowKey = (i == 0) ? lowKey : (Integer) btNode.mKeys[i - 1];
+			Integer childHighKey = (i == keyNum) ? highKey : (Integer) btNode.mKeys[i];
+			int childHeight = validateBPlusTreeNode(btNode.mChildren[i], minDegree, false, childLowKey,
+					childHighKey, leaves);
+			if ((height >= 0) && (height != childHeight)) {
+				throw new BTException("Error in validateBPlusTreeNode(): leaves at different depths");
+			}
+			height = childHeight;
+		}
+		return height + 1;
+	}
+
+	/**
+	 * Validate a random bounded listing of a B+tree, possibly stopped early
+	 * by the iterator.
+	 *
+	 * @param bplusTree the B+tree
+	 * @param map the map
+	 * @param random the random
+	 * @param keyRange the key range
+	 * @throws BTException the BT exception
+	 */
+	private static void validateBPlusTreeRange(BPlusTree<Integer, String> bplusTree, TreeMap<Integer, String> map,
+			Random random, int keyRange) throws BTException {
+		Integer lowKey = (random.nextInt(3) == 0) ? null : random.nextInt(keyRange);
+		Integer highKey = (random.nextInt(3) == 0) ? null : random.nextInt(keyRange);
+		if ((lowKey != null) && (highKey != null) && (lowKey > highKey)) {
+			Integer key = lowKey;
+			lowKey = highKey;
+			highKey = key;
+		}
+		boolean isLowInclusive = random.nextBoolean();
+		boolean isHighInclusive = random.nextBoolean();
+		final int maxCount = (random.nextInt(4) == 0) ? 1 + random.nextInt(10) : Integer.MAX_VALUE;
+
+		List<Integer> expected = new ArrayList<Integer>();
+		for (Integer key : map.keySet()) {
+			if (((lowKey == null) || (key > lowKey) || (isLowInclusive && key.equals(lowKey)))
+					&& ((highKey == null) || (key < highKey) || (isHighInclusive && key.equals(highKey)))
+					&& (expected.size() < maxCount)) {
+				expected.add(key);
+			}
+		}
+
+		final List<Integer> listed = new ArrayList<Integer>();
+		bplusTree.list(lowKey, isLowInclusive, highKey, isHighInclusive, new BTIterator<Integer, String>() {
+			@Override
+			public boolean item(Integer key, String value) {
+				listed.add(key);
+				return listed.size() < maxCount;
+			}
+		});
+		if (!listed.equals(expected)) {
+			throw new BTException("Error in validateBPlusTreeRange(): failed to list the keys from " + lowKey + " to "
+					+ highKey);
+		}
+	}
+
+	/**
+	 * Run 8 writers and 2 scanners against a concurrent tree.
+	 *
+	 * @param opCount the op count of every writer
+	 * @param keyRange the key range of every writer
+	 * @param seed the seed
+	 * @throws BTException the BT exception
+	 */
+	public static void runConcurrentBTree(int opCount, int keyRange, long seed) throws BTException {
+		System.out.println("Running 8 writers and 2 scanners on the concurrent tree...");
+		for (int minDegree : new int[] { BTNode.SMALLEST_MIN_DEGREE, BTNode.DEFAULT_MIN_DEGREE }) {
+			final ConcurrentBTree<Integer, String> btree = new ConcurrentBTree<Integer, String>(minDegree);
+			validateConcurrentTree("ConcurrentBTree(" + minDegree + ")", new ConcurrentTree() {
+				@Override
+				public void insert(Integer key, String value) {
+					btree.insert(key, value);
+				}
+
+				@Override
+				public String delete(Integer key) {
+					return btree.delete(key);
+				}
+
+				@Override
+				public String search(Integer key) {
+					return btree.search(key);
+				}
+
+				@Override
+				public boolean containsKey(Integer key) {
+					return btree.containsKey(key);
+				}
+
+				@Override
+				public int getSize() {
+					return btree.getSize();
+				}
+
+				@Override
+				public void list(BTIterator<Integer, String> iterImpl) {
+					btree.list(iterImpl);
+				}
+			}, 8, 2, opCount, keyRange, seed);
+		}
+		System.out.println("Concurrent tree done successfully.");
+	}
+
+	/**
+	 * Run 8 writers and 2 scanners against an optimistic tree. With the
+	 * smallest min degree, the writers lock siblings to rotate and merge
+	 * nodes all the time, and the readers keep running into modified or
+	 * obsolete nodes and restarting.
+	 *
+	 * @param opCount the op count of every writer
+	 * @param keyRange the key range of every writer
+	 * @param seed the seed
+	 * @throws BTException the BT exception
+	 */
+	public static void runOptimisticBTree(int opCount, int keyRange, long seed) throws BTException {
+		System.out.println("Running 8 writers and 2 scanners on the optimistic tree...");
+		for (int minDegree : new int[] { BTNode.SMALLEST_MIN_DEGREE, BTNode.DEFAULT_MIN_DEGREE }) {
+			final OptimisticBTree<Integer, String> btree = new OptimisticBTree<Integer, String>(minDegree);
+			validateConcurrentTree("OptimisticBTree(" + minDegree + ")", new ConcurrentTree() {
+				@Override
+				public void insert(Integer key, String value) {
+					btree.insert(key, value);
+				}
+
+				@Override
+				public String delete(Integer key) {
+					return btree.delete(key);
+				}
+
+				@Override
+				public String search(Integer key) {
+					return btree.search(key);
+				}
+
+				@Override
+				public boolean containsKey(Integer key) {
+					return btree.containsKey(key);
+				}
+
+				@Override
+				public int getSize() {
+					return btree.getSize();
+				}
+
+				@Override
+				public void list(BTIterator<Integer, String> iterImpl) {
+					btree.list(iterImpl);
+				}
+			}, 8, 2, opCount, keyRange, seed);
+		}
+		System.out.println("Optimistic tree done successfully.");
+	}
+
+	/**
+	 * Run 8 writers and 2 scanners against a B-link tree, then validate its
+	 * high keys and right links, which the splits running concurrently must
+	 * have left consistent.
+	 *
+	 * @param opCount the op count of every writer
+	 * @param keyRange the key range of every writer
+	 * @param seed the seed
+	 * @throws BTException the BT exception
+	 */
+	public static void runBLinkTree(int opCount, int keyRange, long seed) throws BTException {
+		System.out.println("Running 8 writers and 2 scanners on the B-link tree...");
+		for (int minDegree : new int[] { BTNode.SMALLEST_MIN_DEGREE, BTNode.DEFAULT_MIN_DEGREE }) {
+			final BLinkTree<Integer, String> btree = new BLinkTree<Integer, String>(minDegree);
+			validateConcurrentTree("BLinkTree(" + minDegree + ")", new ConcurrentTree() {
+				@Override
+				public void insert(Integer key, String value) {
+					btree.insert(key, value);
+				}
+
+				@Override
+				public String delete(Integer key) {
+					return btree.delete(key);
+				}
+
+				@Override
+				public String search(Integer key) {
+					return btree.search(key);
+				}
+
+				@Override
+				public boolean containsKey(Integer key) {
+					return btree.containsKey(key);
+				}
+
+				@Override
+				public int getSize() {
+					return btree.getSize();
+				}
+
+				@Override
+				public void list(BTIterator<Integer, String> iterImpl) {
+					btree.list(iterImpl);
+				}
+			}, 8, 2, opCount, keyRange, seed);
+
+			try {
+				btree.validate();
+			} catch (IllegalStateException isex) {
+				throw new BTException("Error in runBLinkTree(): " + isex.getMessage(), isex);
+			}
+		}
+		System.out.println("B-link tree done successfully.");
+	}
+
+	/**
+	 * Run writers and scanners against a concurrent tree. Every writer owns
+	 * the keys equal to its index modulo the writer count, and checks the
+	 * results of its operations against its own TreeMap; the scanners check
+	 * that the listings stay in key order while the writers split and merge
+	 * the nodes, and search the keys of the writers. Once the writers are
+	 * done, the tree must hold the union of their maps.
+	 *
+	 * @param name the name of the tree
+	 * @param tree the tree
+	 * @param writerCount the writer count
+	 * @param scannerCount the scanner count
+	 * @param opCount the op count of every writer
+	 * @param keyRange the key range of every writer
+	 * @param seed the seed
+	 * @throws BTException the BT exception
+	 */
+	private static void validateConcurrentTree(final String name, final ConcurrentTree tree, final int writerCount,
+			int scannerCount, final int opCount, final int keyRange, final long seed) throws BTException {
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		final AtomicBoolean isStopped = new AtomicBoolean(false);
+		final List<TreeMap<Integer, String>> maps = new ArrayList<TreeMap<Integer, String>>();
+		List<Thread> writers = new ArrayList<Thread>();
+		List<Thread> scanners = new ArrayList<Thread>();
+
+		for (int w = 0; w < writerCount; ++w) {
+			final int writerIdx = w;
+			final TreeMap<Integer, String> map = new TreeMap<Integer, String>();
+			maps.add(map);
+			writers.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Random random = new Random(seed * 100 + writerIdx);
+						for (int i = 0; (i < opCount) && (error.get() == null); ++i) {
+							Integer key = random.nextInt(keyRange) * writerCount + writerIdx;
+							// Grow the tree during the first third of the ops and
+							// shrink it during the last one, so that the merges go
+							// up to the root while the other threads go through it
+							int insertPercent = (i < opCount / 3) ? 80 : ((i < (opCount * 2) / 3) ? 50 : 20);
+							if (random.nextInt(5) == 0) {
+								if (!BTreeTest.equals(tree.search(key), map.get(key))
+										|| (tree.containsKey(key) != map.containsKey(key))) {
+									throw new BTException("Error in validateConcurrentTree(): " + name
+											+ " failed to search key = " + key);
+								}
+							} else if (random.nextInt(100) < insertPercent) {
+								tree.insert(key, "v" + i);
+								map.put(key, "v" + i);
+							} else {
+								Integer existingKey = map.ceilingKey(key);
+								if (existingKey != null) {
+									key = existingKey;
+								}
+								if (!BTreeTest.equals(tree.delete(key), map.remove(key))) {
+									throw new BTException("Error in validateConcurrentTree(): " + name
+											+ " failed to delete key = " + key);
+								}
+							}
+
+							if (random.nextInt(50) == 0) {
+								Thread.yield();
+							}
+						}
+					} catch (Throwable t) {
+						error.compareAndSet(null, t);
+					}
+				}
+			}));
+		}
+
+		for (int s = 0; s < scannerCount; ++s) {
+			final int scannerIdx = s;
+			scanners.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Random random = new Random(seed * 100 + writerCount + scannerIdx);
+						while (!isStopped.get()) {
+							final int maxCount = 1 + random.nextInt(2000);
+							final List<Integer> keys = new ArrayList<Integer>();
+							tree.list(new BTIterator<Integer, String>() {
+								@Override
+								public boolean item(Integer key, String value) {
+									if (!keys.isEmpty() && (keys.get(keys.size() - 1) >= key)) {
+										throw new IllegalStateException(name + " listed key = " + key + " after "
+												+ keys.get(keys.size() - 1));
+									}
+									keys.add(key);
+									return keys.size() < maxCount;
+								}
+							});
+
+							// Searches of the keys of the writers restart on conflicts
+							Integer key = random.nextInt(keyRange * writerCount);
+							String value = tree.search(key);
+							if ((value != null) && !value.startsWith("v")) {
+								throw new IllegalStateException(name + " found value " + value + " for key = " + key);
+							}
+							Thread.yield();
+						}
+					} catch (Throwable t) {
+						error.compareAndSet(null, t);
+					}
+				}
+			}));
+		}
+
+		try {
+			for (Thread thread : scanners) {
+				thread.start();
+			}
+			for (Thread thread : writers) {
+				thread.start();
+			}
+			for (Thread thread : writers) {
+				thread.join();
+			}
+			isStopped.set(true);
+			for (Thread thread : scanners) {
+				thread.join();
+			}
+		} catch (InterruptedException iex) {
+			throw new BTException("Error in validateConcurrentTree(): interrupted", iex);
+		}
+
+		if (error.get() != null) {
+			throw new BTException("Error in validateConcurrentTree(): " + error.get(), error.get());
+		}
+
+		TreeMap<Integer, String> expected = new TreeMap<Integer, String>();
+		for (TreeMap<Integer, String> map : maps) {
+			expected.putAll(map);
+		}
+		final TreeMap<Integer, String> listed = new TreeMap<Integer, String>();
+		tree.list(new BTIterator<Integer, String>() {
+			@Override
+			public boolean item(Integer key, String value) {
+				listed.put(key, value);
+				return true;
+			}
+		});
+		if ((tree.getSize() != expected.size()) || !listed.equals(expected)) {
+			throw new BTException("Error in validateConcurrentTree(): " + name + " failed to compare the entries, size "
+					+ expected.size() + " <> " + tree.getSize());
+		}
+	}
+
+	/**
+	 * Interface ConcurrentTree.
+	 *
+	 * Common view of the concurrent trees for the tests.
+	 */
+	private interface ConcurrentTree {
+
+		/**
+		 * Insert.
+		 *
+		 * @param key the key
+		 * @param value the value
+		 */
+		public void insert(Integer key, String value);
+
+		/**
+		 * Delete.
+		 *
+		 * @param key the key
+		 * @return the deleted value, or null
+		 */
+		public String delete(Integer key);
+
+		/**
+		 * Search.
+		 *
+		 * @param key the key
+		 * @return the value, or null
+		 */
+		public String search(Integer key);
+
+		/**
+		 * Contains key.
+		 *
+		 * @param key the key
+		 * @return true, if the key exists in the tree
+		 */
+		public boolean containsKey(Integer key);
+
+		/**
+		 * Gets the size.
+		 *
+		 * @return the size
+		 */
+		public int getSize();
+
+		/**
+		 * List.
+		 *
+		 * @param iterImpl the iter impl
+		 */
+		public void list(BTIterator<Integer, String> iterImpl);
+	}
+
+	/**
+	 * Run random inserts and deletes against a persistent tree, taking
+	 * snapshots along the way. Every snapshot must keep the entries of the
+	 * tree at the time it was taken, whatever is done to the tree or to the
+	 * other snapshots afterwards, including while a reader lists snapshots
+	 * concurrently with a writer.
+	 *
+	 * @param opCount the op count
+	 * @param keyRange the key range
+	 * @param seed the seed
+	 * @throws BTException the BT exception
+	 */
+	public static void runPersistentBTree(int opCount, int keyRange, long seed) throws BTException {
+		System.out.println("Running " + opCount + " random inserts and deletes on the persistent tree...");
+		Random random = new Random(seed);
+		for (int minDegree : new int[] { BTNode.SMALLEST_MIN_DEGREE, BTNode.DEFAULT_MIN_DEGREE }) {
+			PersistentBTree<Integer, Integer> btree = new PersistentBTree<Integer, Integer>(minDegree);
+			TreeMap<Integer, Integer> map = new TreeMap<Integer, Integer>();
+			List<PersistentBTree<Integer, Integer>> snapshots = new ArrayList<PersistentBTree<Integer, Integer>>();
+			List<TreeMap<Integer, Integer>> snapshotMaps = new ArrayList<TreeMap<Integer, Integer>>();
+			for (int i = 0; i < opCount; ++i) {
+				int key = random.nextInt(keyRange);
+				if (random.nextInt(9) < 5) {
+					btree.insert(key, i);
+					map.put(key, i);
+				} else if (!equals(btree.delete(key), map.remove(key))) {
+					throw new BTException("Error in runPersistentBTree(): failed to delete key = " + key);
+				}
+
+				if ((i % 997) == 0) {
+					snapshots.add(btree.snapshot());
+					snapshotMaps.add(new TreeMap<Integer, Integer>(map));
+				}
+			}
+			validatePersistentBTree("tree", btree, map);
+			for (int s = 0; s < snapshots.size(); ++s) {
+				validatePersistentBTree("snapshot " + s, snapshots.get(s), snapshotMaps.get(s));
+			}
+
+			// A snapshot is a tree of its own
+			int s = snapshots.size() / 2;
+			for (int i = 0; i < opCount / 10; ++i) {
+				int key = random.nextInt(keyRange);
+				if (random.nextBoolean()) {
+					snapshots.get(s).insert(key, -i);
+					snapshotMaps.get(s).put(key, -i);
+				} else {
+					snapshots.get(s).delete(key);
+					snapshotMaps.get(s).remove(key);
+				}
+			}
+			validatePersistentBTree("modified snapshot " + s, snapshots.get(s), snapshotMaps.get(s));
+			validatePersistentBTree("tree", btree, map);
+			validatePersistentBTree("snapshot " + (s + 1), snapshots.get(s + 1), snapshotMaps.get(s + 1));
+		}
+
+		// Snapshots listed while the tree is modified
+		final PersistentBTree<Integer, Integer> btree = new PersistentBTree<Integer, Integer>();
+		for (int i = 0; i < keyRange; ++i) {
+			btree.insert(i, i);
+		}
+		final AtomicBoolean isStopped = new AtomicBoolean(false);
+		final AtomicReference<String> error = new AtomicReference<String>();
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!isStopped.get() && (error.get() == null)) {
+					PersistentBTree<Integer, Integer> snapshot = btree.snapshot();
+					final int[] count = { 0 };
+					final int[] lastKey = { -1 };
+					snapshot.list(new BTIterator<Integer, Integer>() {
+						@Override
+						public boolean item(Integer key, Integer value) {
+							if ((key <= lastKey[0]) || !key.equals(value)) {
+								error.compareAndSet(null, "listed key = " + key + " after " + lastKey[0]);
+							}
+							lastKey[0] = key;
+							++count[0];
+							return true;
+						}
+					});
+					if (count[0] != snapshot.getSize()) {
+						error.compareAndSet(null, "listed " + count[0] + " keys in a snapshot of " + snapshot.getSize());
+					}
+				}
+			}
+		});
+		reader.start();
+		for (int i = 0; i < opCount; ++i) {
+			int key = random.nextInt(keyRange * 2);
+			if (random.nextBoolean()) {
+				btree.insert(key, key);
+			} else {
+				btree.delete(key);
+			}
+		}
+		isStopped.set(true);
+		try {
+			reader.join();
+		} catch (InterruptedException iex) {
+			throw new BTException("Error in runPersistentBTree(): interrupted", iex);
+		}
+		if (error.get() != null) {
+			throw new BTException("Error in runPersistentBTree(): " + error.get());
+		}
+		System.out.println("Persistent tree done successfully.");
+	}
+
+	/**
+	 * Validate the nodes and the entries of a persistent tree.
+	 *
+	 * @param name the name of the tree
+	 * @param btree the tree
+	 * @param map the map
+	 * @throws BTException the BT exception
+	 */
+	private static void validatePersistentBTree(String name, PersistentBTree<Integer, Integer> btree,
+			TreeMap<Integer, Integer> map) throws BTException {
+		validatePersistentBTreeNode(name, btree.getRootNode(), btree.getMinDegree(), true, null, null);
+
+		final List<Map.Entry<Integer, Integer>> listed = new ArrayList<Map.Entry<Integer, Integer>>();
+		btree.list(new BTIterator<Integer, Integer>() {
+			@Override
+			public boolean item(Integer key, Integer value) {
+				listed.add(new AbstractMap.SimpleEntry<Integer, Integer>(key, value));
+				return true;
+			}
+		});
+		if ((btree.getSize() != map.size())
+				|| !listed.equals(new ArrayList<Map.Entry<Integer, Integer>>(map.entrySet()))) {
+			throw new BTException("Error in validatePersistentBTree(): the " + name
+					+ " failed to compare the entries, size " + btree.getSize() + " <> " + map.size());
+		}
+	}
+
+	/**
+	 * Validate the subtree of a persistent tree node: the key numbers, the
+	 * order of the keys, their bounds, and the depth of the leaves.
+	 *
+	 * @param name the name of the tree
+	 * @param btNode the node
+	 * @param minDegree the min degree of the tree
+	 * @param isRoot true if the node is the root node
+	 * @param lowKey the low bound (exclusive) of the keys, null if unbounded
+	 * @param highKey the high bound (exclusive) of the keys, null if
+	 *            unbounded
+	 * @return the height of the subtree
+	 * @throws BTException the BT exception
+	 */
+	private static int validatePersistentBTreeNode(String name, PersistentBTree.Node<Integer, Integer> btNode,
+			int minDegree, boolean isRoot, Integer lowKey, Integer highKey) throws BTException {
+		int keyNum = btNode.getKeyNum();
+		if ((keyNum > BTNode.getUpperBoundKeyNum(minDegree))
+				|| (!isRoot && (keyNum < BTNode.getLowerBoundKeyNum(minDegree)))) {
+			throw new BTException("Error in validatePersistentBTreeNode(): " + keyNum + " keys in a node of the "
+					+ name);
+		}
+
+		for (int i = 0; i < keyNum; ++i) {
+			Integer key = btNode.getKey(i);
+			if (((lowKey != null) && (key <= lowKey)) || ((highKey != null) && (key >= highKey))
+					|| ((i > 0) && (btNode.getKey(i - 1) >= key))) {
+				throw new BTException("Error in validatePersistentBTreeNode(): key = " + key + " out of order in the "
+						+ name);
+			}
+		}
+
+		if (btNode.isLeaf()) {
+			return 1;
+		}
+
+		int height = -1;
+		for (int i = 0; i <= keyNum; ++i) {
+			Integer childLowKey = (i == 0) ? lowKey : btNode.getKey(i - 1);
+			Integer childHighKey = (i == keyNum) ? highKey : btNode.getKey(i);
+			int childHeight = validatePersistentBTreeNode(name, btNode.getChild(i), minDegree, false, childLowKey,
+					childHighKey);
+			if ((height >= 0) && (height != childHeight)) {
+				throw new BTException("Error in validatePersistentBTreeNode(): leaves at different depths in the "
+						+ name);
+			}
+			height = childHeight;
+		}
+		return height + 1;
+	}
+
+	/**
+	 * Run transactions against a MVCC tree: snapshot reads, write-write
+	 * conflicts, the writes of a transaction merged into its listing and the
+	 * garbage collection of the versions, then concurrent transfers between
+	 * accounts, whose total must be the same in every snapshot.
+	 *
+	 * @param accountCount the account count
+	 * @param transferCount the transfer count of each writer
+	 * @param seed the seed
+	 * @throws BTException the BT exception
+	 */
+	public static void runMVCCBTree(final int accountCount, final int transferCount, long seed) throws BTException {
+		System.out.println("Running " + transferCount + " transfers per writer on the MVCC tree...");
+		MVCCBTree<Integer, String> btree = new MVCCBTree<Integer, String>();
+
+		// Snapshot reads
+		MVCCTransaction<Integer, String> writer = btree.begin();
+		writer.insert(1, "old");
+		writer.commit();
+		MVCCTransaction<Integer, String> reader = btree.begin();
+		writer = btree.begin();
+		writer.insert(1, "new");
+		writer.insert(2, "new");
+		writer.commit();
+		writer = btree.begin();
+		writer.delete(1);
+		writer.commit();
+		if (!"old".equals(reader.search(1)) || (reader.search(2) != null)) {
+			throw new BTException("Error in runMVCCBTree(): the snapshot reads " + reader.search(1) + ", "
+					+ reader.search(2) + " instead of old, null");
+		}
+		reader.rollback();
+		reader = btree.begin();
+		if ((reader.search(1) != null) || !"new".equals(reader.search(2))) {
+			throw new BTException("Error in runMVCCBTree(): the snapshot reads " + reader.search(1) + ", "
+					+ reader.search(2) + " instead of null, new");
+		}
+		reader.rollback();
+
+		// Write-write conflicts, first committer wins
+		MVCCTransaction<Integer, String> first = btree.begin();
+		MVCCTransaction<Integer, String> second = btree.begin();
+		MVCCTransaction<Integer, String> third = btree.begin();
+		first.insert(3, "first");
+		second.insert(3, "second");
+		third.insert(4, "third");
+		first.commit();
+		try {
+			second.commit();
+			throw new BTException("Error in runMVCCBTree(): no write-write conflict on key = 3");
+		} catch (BTException btex) {
+			if (second.isActive() || !btex.getMessage().startsWith("Write-write conflict")) {
+				throw btex;
+			}
+		}
+		third.commit();
+		reader = btree.begin();
+		if (!"first".equals(reader.search(3)) || !"third".equals(reader.search(4))) {
+			throw new BTException("Error in runMVCCBTree(): the snapshot reads " + reader.search(3) + ", "
+					+ reader.search(4) + " instead of first, third");
+		}
+		reader.rollback();
+		if (btree.getActiveTransactionCount() != 0) {
+			throw new BTException("Error in runMVCCBTree(): " + btree.getActiveTransactionCount()
+					+ " transactions still active");
+		}
+
+		// The writes of a transaction merged into its listing
+		writer = btree.begin();
+		for (int i = 10; i < 30; i += 2) {
+			writer.insert(i, "committed " + i);
+		}
+		writer.commit();
+		writer = btree.begin();
+		final TreeMap<Integer, String> map = new TreeMap<Integer, String>();
+		writer.list(new BTIterator<Integer, String>() {
+			@Override
+			public boolean item(Integer key, String value) {
+				map.put(key, value);
+				return true;
+			}
+		});
+		for (int key : new int[] { 0, 10, 15, 20, 28, 29, 40 }) {
+			if ((key % 5) == 0) {
+				writer.insert(key, "written " + key);
+				map.put(key, "written " + key);
+			} else {
+				writer.delete(key);
+				map.remove(key);
+			}
+		}
+		final Iterator<Map.Entry<Integer, String>> iter = map.entrySet().iterator();
+		writer.list(new BTIterator<Integer, String>() {
+			@Override
+			public boolean item(Integer key, String value) {
+				Map.Entry<Integer, String> entry = iter.hasNext() ? iter.next() : null;
+				if ((entry == null) || !entry.getKey().equals(key) || !entry.getValue().equals(value)) {
+					throw new IllegalStateException("listed " + key + " = " + value + " instead of " + entry);
+				}
+				return true;
+			}
+		});
+		if (iter.hasNext()) {
+			throw new BTException("Error in runMVCCBTree(): missing " + iter.next() + " in the listing");
+		}
+		writer.rollback();
+
+		// Garbage collection, the versions an active snapshot reads are kept
+		btree = new MVCCBTree<Integer, String>();
+		for (int i = 0; i < 10; ++i) {
+			writer = btree.begin();
+			writer.insert(1, "version " + i);
+			writer.insert(2, "version " + i);
+			writer.commit();
+		}
+		reader = btree.begin();
+		for (int i = 10; i < 20; ++i) {
+			writer = btree.begin();
+			writer.insert(1, "version " + i);
+			writer.commit();
+		}
+		writer = btree.begin();
+		writer.delete(2);
+		writer.commit();
+		int count = btree.collectGarbage();
+		if ((count != 18) || !"version 9".equals(reader.search(1)) || !"version 9".equals(reader.search(2))) {
+			throw new BTException("Error in runMVCCBTree(): dropped " + count + " versions, the snapshot reads "
+					+ reader.search(1) + ", " + reader.search(2));
+		}
+		reader.rollback();
+		count = btree.collectGarbage();
+		reader = btree.begin();
+		if ((count != 12) || !"version 19".equals(reader.search(1)) || (reader.search(2) != null)) {
+			throw new BTException("Error in runMVCCBTree(): dropped " + count + " versions, the snapshot reads "
+					+ reader.search(1) + ", " + reader.search(2));
+		}
+		reader.rollback();
+		MVCCBTreeTest.runStartRace();
+
+		// Concurrent transfers, collected in the background
+		final MVCCBTree<Integer, Long> accounts = new MVCCBTree<Integer, Long>(BTNode.SMALLEST_MIN_DEGREE, 1);
+		final long total = accountCount * 1000L;
+		MVCCTransaction<Integer, Long> init = accounts.begin();
+		for (int i = 0; i < accountCount; ++i) {
+			init.insert(i, 1000L);
+		}
+		init.commit();
+
+		final AtomicBoolean isStopped = new AtomicBoolean(false);
+		final AtomicReference<String> error = new AtomicReference<String>();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int w = 0; w < 2; ++w) {
+			final Random random = new Random(seed + w);
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; (i < transferCount) && (error.get() == null); ++i) {
+						int from = random.nextInt(accountCount);
+						int to = random.nextInt(accountCount);
+						long amount = random.nextInt(100);
+						while (true) {
+							MVCCTransaction<Integer, Long> transaction = accounts.begin();
+							transaction.insert(from, transaction.search(from) - amount);
+							transaction.insert(to, transaction.search(to) + amount);
+							try {
+								transaction.commit();
+								break;
+							} catch (BTException btex) {
+								// Conflict, retry on a newer snapshot
+							}
+						}
+					}
+				}
+			}));
+		}
+		final Thread scanner = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!isStopped.get() && (error.get() == null)) {
+					MVCCTransaction<Integer, Long> transaction = accounts.begin();
+					final long[] sum = { 0 };
+					final int[] lastKey = { -1 };
+					transaction.list(new BTIterator<Integer, Long>() {
+						@Override
+						public boolean item(Integer key, Long value) {
+							if (key <= lastKey[0]) {
+								error.compareAndSet(null, "listed key = " + key + " after " + lastKey[0]);
+							}
+							lastKey[0] = key;
+							sum[0] += value;
+							return true;
+						}
+					});
+					long searchSum = 0;
+					for (int i = 0; i < accountCount; ++i) {
+						searchSum += transaction.search(i);
+					}
+					if ((sum[0] != total) || (searchSum != total)) {
+						error.compareAndSet(null, "snapshot " + transaction.getStartTimestamp() + " lists a total of "
+								+ sum[0] + " and searches " + searchSum + " instead of " + total);
+					}
+					transaction.rollback();
+				}
+			}
+		});
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		scanner.start();
+		try {
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			isStopped.set(true);
+			scanner.join();
+		} catch (InterruptedException iex) {
+			throw new BTException("Error in runMVCCBTree(): interrupted", iex);
+		} finally {
+			accounts.close();
+		}
+		if (error.get() != null) {
+			throw new BTException("Error in runMVCCBTree(): " + error.get());
+		}
+		accounts.collectGarbage();
+		MVCCTransaction<Integer, Long> transaction = accounts.begin();
+		long sum = 0;
+		for (int i = 0; i < accountCount; ++i) {
+			sum += transaction.search(i);
+		}
+		transaction.rollback();
+		if (sum != total) {
+			throw new BTException("Error in runMVCCBTree(): a total of " + sum + " instead of " + total);
+		}
+		count = accounts.collectGarbage();
+		if (count != 0) {
+			throw new BTException("Error in runMVCCBTree(): dropped " + count + " versions after a full collection");
+		}
+		System.out.println("MVCC tree done successfully.");
+	}
+
+	/**
+	 * Run random inserts and deletes on a durable tree with each durability,
+	 * reopen it and compare the replayed tree, then append a torn and a
+	 * corrupt record to the log, which the replay must drop. Last, several
+	 * writers share the fsyncs of the GROUP durability.
+	 *
+	 * @param opCount the op count
+	 * @param keyRange the key range
+	 * @param seed the seed
+	 * @throws BTException the BT exception
+	 */
+	public static void runDurableBTree(int opCount, int keyRange, long seed) throws BTException {
+		System.out.println("Running " + opCount + " random inserts and deletes on the durable tree...");
+		File file = null;
+		try {
+			file = File.createTempFile("btree", ".wal");
+			Random random = new Random(seed);
+			for (Durability durability : Durability.values()) {
+				file.delete();
+				TreeMap<Integer, String> map = new TreeMap<Integer, String>();
+				DurableBTree<Integer, String> btree = openDurableBTree(file, durability);
+				try {
+					for (int i = 0; i < opCount; ++i) {
+						int key = random.nextInt(keyRange);
+						if (random.nextInt(5) < 3) {
+							// Null values are logged too
+							String value = (random.nextInt(10) == 0) ? null : "value " + i;
+							btree.insert(key, value);
+							map.put(key, value);
+						} else if (!equals(btree.delete(key), map.remove(key))) {
+							throw new BTException("Error in runDurableBTree(): " + durability
+									+ " failed to delete key = " + key);
+						}
+					}
+					validateDurableBTree(durability.toString(), btree, map);
+				} finally {
+					btree.close();
+				}
+
+				btree = openDurableBTree(file, durability);
+				try {
+					validateDurableBTree(durability + " after reopen", btree, map);
+				} finally {
+					btree.close();
+				}
+			}
+
+			// A torn record, then a record failing its checksum
+			TreeMap<Integer, String> map;
+			DurableBTree<Integer, String> btree = openDurableBTree(file, Durability.PER_OP);
+			try {
+				map = listDurableBTree(btree);
+			} finally {
+				btree.close();
+			}
+			byte tails[][] = { { 0, 0, 0, 100, 1, 2, 3, 4, 1, 0, 0 }, { 0, 0, 0, 2, 1, 2, 3, 4, 1, 0 } };
+			for (int t = 0; t < tails.length; ++t) {
+				FileOutputStream out = new FileOutputStream(file, true);
+				try {
+					out.write(tails[t]);
+				} finally {
+					out.close();
+				}
+
+				btree = openDurableBTree(file, Durability.PER_OP);
+				try {
+					validateDurableBTree("log with broken tail " + t, btree, map);
+
+					// The new records must follow the valid ones
+					btree.insert(-1 - t, "tail " + t);
+					map.put(-1 - t, "tail " + t);
+				} finally {
+					btree.close();
+				}
+				btree = openDurableBTree(file, Durability.PER_OP);
+				try {
+					validateDurableBTree("log after broken tail " + t, btree, map);
+				} finally {
+					btree.close();
+				}
+			}
+
+			file.delete();
+			validateDurableWriters(file, 4, opCount / 4, seed);
+		} catch (IOException ioex) {
+			throw new BTException("Error in runDurableBTree(): " + ioex.getMessage(), ioex);
+		} finally {
+			if (file != null) {
+				file.delete();
+			}
+		}
+		System.out.println("Durable tree done successfully.");
+	}
+
+	/**
+	 * Open a durable tree of integers to strings.
+	 *
+	 * @param file the log file
+	 * @param durability the durability
+	 * @return the durable tree
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static DurableBTree<Integer, String> openDurableBTree(File file, Durability durability)
+			throws IOException {
+		return new DurableBTree<Integer, String>(new BTree<Integer, String>(), file, new BTIntegerCodec(),
+				new BTStringCodec(), durability, TimeUnit.MICROSECONDS.toNanos(200));
+	}
+
+	/**
+	 * Run writers inserting and deleting their own keys concurrently on a
+	 * durable tree with the GROUP durability, then reopen it and compare.
+	 *
+	 * @param file the log file
+	 * @param writerCount the writer count
+	 * @param opCount the op count of each writer
+	 * @param seed the seed
+	 * @throws BTException the BT exception
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void validateDurableWriters(File file, final int writerCount, final int opCount, long seed)
+			throws BTException, IOException {
+		final DurableBTree<Integer, String> btree = openDurableBTree(file, Durability.GROUP);
+		final AtomicReference<String> error = new AtomicReference<String>();
+		List<Thread> writers = new ArrayList<Thread>();
+		final List<TreeMap<Integer, String>> maps = new ArrayList<TreeMap<Integer, String>>();
+		try {
+			for (int w = 0; w < writerCount; ++w) {
+				final int writer = w;
+				final Random random = new Random(seed + w);
+				final TreeMap<Integer, String> map = new TreeMap<Integer, String>();
+				maps.add(map);
+				writers.add(new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							for (int i = 0; (i < opCount) && (error.get() == null); ++i) {
+								// Keys of the writer only
+								int key = random.nextInt(opCount) * writerCount + writer;
+								if (random.nextInt(4) < 3) {
+									btree.insert(key, "writer " + writer + " " + i);
+									map.put(key, "writer " + writer + " " + i);
+								} else if (!BTreeTest.equals(btree.delete(key), map.remove(key))) {
+									error.compareAndSet(null, "writer " + writer + " failed to delete key = " + key);
+								}
+							}
+						} catch (IOException ioex) {
+							error.compareAndSet(null, "writer " + writer + ": " + ioex);
+						}
+					}
+				}));
+			}
+			for (Thread thread : writers) {
+				thread.start();
+			}
+			for (Thread thread : writers) {
+				thread.join();
+			}
+		} catch (InterruptedException iex) {
+			throw new BTException("Error in validateDurableWriters(): interrupted", iex);
+		} finally {
+			btree.close();
+		}
+		if (error.get() != null) {
+			throw new BTException("Error in validateDurableWriters(): " + error.get());
+		}
+
+		TreeMap<Integer, String> map = new TreeMap<Integer, String>();
+		for (TreeMap<Integer, String> writerMap : maps) {
+			map.putAll(writerMap);
+		}
+		DurableBTree<Integer, String> reopened = openDurableBTree(file, Durability.GROUP);
+		try {
+			validateDurableBTree(writerCount + " GROUP writers after reopen", reopened, map);
+		} finally {
+			reopened.close();
+		}
+	}
+
+	/**
+	 * List the entries of a durable tree into a map.
+	 *
+	 * @param btree the tree
+	 * @return the map
+	 */
+	private static TreeMap<Integer, String> listDurableBTree(DurableBTree<Integer, String> btree) {
+		final TreeMap<Integer, String> map = new TreeMap<Integer, String>();
+		btree.list(new BTIterator<Integer, String>() {
+			@Override
+			public boolean item(Integer key, String value) {
+				map.put(key, value);
+				return true;
+			}
+		});
+		return map;
+	}
+
+	/**
+	 * Validate the entries of a durable tree against the map.
+	 *
+	 * @param name the name of the tree
+	 * @param btree the tree
+	 * @param map the map
+	 * @throws BTException the BT exception
+	 */
+	private static void validateDurableBTree(String name, DurableBTree<Integer, String> btree,
+			TreeMap<Integer, String> map) throws BTException {
+		TreeMap<Integer, String> listed = listDurableBTree(btree);
+		if ((btree.getSize() != map.size()) || !listed.equals(map)) {
+			throw new BTException("Error in validateDurableBTree(): " + name + " has " + btree.getSize()
+					+ " keys instead of " + map.size() + ", or different entries");
+		}
+
+		for (Map.Entry<Integer, String> entry : map.entrySet()) {
+			if (!equals(btree.search(entry.getKey()), entry.getValue())) {
+				throw new BTException("Error in validateDurableBTree(): " + name + " failed to search key = "
+						+ entry.getKey());
+			}
+		}
+	}
+
+	/**
+	 * Run random inserts and deletes against a paged tree, closing and
+	 * reopening it along the way. A pool of a few pages keeps evicting and
+	 * writing back dirty pages, and the pages freed by the deletes must be
+	 * reused, also after a reopen.
+	 *
+	 * @param opCount the op count
+	 * @param keyRange the key range
+	 * @param seed the seed
+	 * @throws BTException the BT exception
+	 */
+	public static void runPagedTree(int opCount, int keyRange, long seed) throws BTException {
+		System.out.println("Running " + opCount + " random inserts and deletes on the paged tree...");
+		File file = null;
+		try {
+			file = File.createTempFile("btree", ".paged");
+			for (int pageSize : new int[] { 200, PagedNodeStore.DEFAULT_PAGE_SIZE }) {
+				for (int poolSize : new int[] { 3, 64 }) {
+					file.delete();
+					validatePagedTree(file, pageSize, poolSize, opCount, keyRange, seed);
+				}
+			}
+		} catch (IOException ioex) {
+			throw new BTException("Error in runPagedTree(): " + ioex.getMessage(), ioex);
+		} finally {
+			if (file != null) {
+				file.delete();
+			}
+		}
+		System.out.println("Paged tree done successfully.");
+	}
+
+	/**
+	 * Validate a paged tree against a map through random inserts and
+	 * deletes, flushes and reopens, then check the freed pages are reused.
+	 *
+	 * @param file the file
+	 * @param pageSize the page size
+	 * @param poolSize the pool size
+	 * @param opCount the op count
+	 * @param keyRange the key range
+	 * @param seed the seed
+	 * @throws BTException the BT exception
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void validatePagedTree(File file, int pageSize, int poolSize, int opCount, int keyRange, long seed)
+			throws BTException, IOException {
+		String name = "PagedLongBTree(" + pageSize + ", " + poolSize + ")";
+		TreeMap<Long, Long> map = new TreeMap<Long, Long>();
+		Random random = new Random(seed);
+		PagedLongBTree tree = new PagedLongBTree(file, pageSize, poolSize, IntLongBTree.NO_VALUE);
+		try {
+			for (int i = 1; i <= opCount; ++i) {
+				long key = random.nextInt(keyRange);
+				if (random.nextInt(5) < 3) {
+					map.put(key, (long) i);
+					tree.insert(key, i);
+				} else {
+					Long value = map.remove(key);
+					if (tree.delete(key) != ((value != null) ? value : IntLongBTree.NO_VALUE)) {
+						throw new BTException("Error in validatePagedTree(): " + name + " failed to delete key = " + key);
+					}
+				}
+
+				int action = random.nextInt(1000);
+				if (action < 3) {
+					tree.flush();
+				} else if (action < 5) {
+					tree.close();
+					tree = new PagedLongBTree(file, pageSize, poolSize, IntLongBTree.NO_VALUE);
+					validateLongStoreTree(name + " after reopen", tree, map);
+				}
+			}
+			validateLongStoreTree(name, tree, map);
+			if ((poolSize == 3) && (tree.getWriteCount() == 0)) {
+				throw new BTException("Error in validatePagedTree(): " + name + " never wrote an evicted page");
+			}
+
+			// Free every page but the root
+			for (long key : map.keySet()) {
+				tree.delete(key);
+			}
+			map.clear();
+			validateLongStoreTree(name + " emptied", tree, map);
+		} finally {
+			tree.close();
+		}
+
+		// Fill and empty again, then the same fill must fit in the pages
+		// freed during the previous session
+		tree = new PagedLongBTree(file, pageSize, poolSize, IntLongBTree.NO_VALUE);
+		try {
+			for (int i = 0; i < keyRange; ++i) {
+				tree.insert(i, -i);
+			}
+			for (int i = 0; i < keyRange; ++i) {
+				tree.delete(i);
+			}
+		} finally {
+			tree.close();
+		}
+		long length = file.length();
+		tree = new PagedLongBTree(file, pageSize, poolSize, IntLongBTree.NO_VALUE);
+		try {
+			for (int i = 0; i < keyRange; ++i) {
+				tree.insert(i, -i);
+				map.put((long) i, (long) -i);
+			}
+		} finally {
+			tree.close();
+		}
+		tree = new PagedLongBTree(file, pageSize, poolSize, IntLongBTree.NO_VALUE);
+		try {
+			validateLongStoreTree(name + " refilled", tree, map);
+		} finally {
+			tree.close();
+		}
+		if (file.length() > length) {
+			throw new BTException("Error in validatePagedTree(): " + name + " grew from " + length + " to "
+					+ file.length() + " bytes instead of reusing its free pages");
+		}
+	}
+
+	/**
+	 * Main Entry for the test.
+	 *
+	 * @param args the arguments
+	 */
+	public static void main(String[] args) {
+		runTest(new BTreeTest(new BTBinaryKeySearch<Integer>()));
+		runTest(new BTreeTest(new BTBranchlessKeySearch<Integer>()));
+		runTest(new BTreeTest(new BTInterpolationKeySearch<Integer>()));
+		System.out.println("---------------------------------------------------");
+
+		try {
+			runStringKeys(5000);
+			runNavigableMap(2000);
+			runAggregates(5000);
+			runPrimitiveTrees(20000, 2000, 5);
+			runOffHeapTree(20000, 2000, 6);
+			runShadowPagedTree(20000, 3000, 7);
+			runMappedBTree(5000, 8);
+			runAbsentDeletes(2000);
+			runBPlusTree(20000, 3000, 9);
+			runConcurrentBTree(20000, 2000, 10);
+			runOptimisticBTree(20000, 2000, 11);
+			runBLinkTree(20000, 2000, 12);
+			runPersistentBTree(20000, 3000, 13);
+			runMVCCBTree(50, 2000, 14);
+			runDurableBTree(2000, 500, 15);
+			runPagedTree(20000, 3000, 16);
+		} catch (BTException btex) {
+			System.out.println("BTException msg = " + btex.getMessage());
+			btex.printStackTrace();
+		}
+	}
+
+	/**
+	 * Run the test cases against the tree of the test.
+	 *
+	 * @param test the test
+	 */
+	private static void runTest(BTreeTest test) {
+		System.out.println("---------------------------------------------------");
+
+		try {
+			test.clearData();
+
+			System.out.println("Inserting values in BTree...");
+			for (int i = 1; i < 50; ++i) {
+				test.addKey(i);
+			}
+			System.out.println("BTree populated successfully.");
+			System.out.println("---------------------------------------------------");
+
+			test.delete(24);
+			test.delete(23);
+			test.delete(27);
+			System.out.println("---------------------------------------------------");
+
+			test.validateSearch(7);
+			System.out.println("---------------------------------------------------");
+			
+			test.validateAll();
+			System.out.println("---------------------------------------------------");
+
+			test.clearData();
+			test.runRandomOps(20000, 2000, 1);
+			System.out.println("---------------------------------------------------");
+
+			test.clearData();
+			test.runBulkLoad(5000, 0.7);
+			test.runRandomOps(20000, 10000, 2);
+			System.out.println("---------------------------------------------------");
+
+			test.runBatchInserts(20, 500, 20000, 3);
+			test.runRandomOps(20000, 20000, 4);
 		} catch (BTException btex) {
 			System.out.println("BTException msg = " + btex.getMessage());
 			btex.printStackTrace();
@@ -0,0 +1,121 @@
+package org.apache.dts;
+
+import java.util.Random;
+
+import org.apache.dts.btree.BTree;
+
+/**
+ * Class BTreeTuning
+ * 
+ * Description: This class prints a small report of the insert and lookup cost
+ * of BTree at several min degrees, so that the degree can be picked per
+ * workload.
+ * 
+ * Usage: BTreeTuning [key count] [degree...]
+ */
+public class BTreeTuning {
+
+	/** The default key count. */
+	private final static int DEFAULT_KEY_COUNT = 1000000;
+
+	/** The default degrees. */
+	private final static int[] DEFAULT_DEGREES = { 2, 3, 5, 8, 16, 32, 64, 128, 256 };
+
+	/** The number of measured rounds per degree, the best one is reported. */
+	private final static int ROUNDS = 3;
+
+	/** The keys in insertion order. */
+	private final Integer[] mKeys;
+
+	/** The keys in lookup order. */
+	private final Integer[] mProbes;
+
+	/**
+	 * Instantiates a new b tree tuning.
+	 *
+	 * @param keyCount the key count
+	 */
+	public BTreeTuning(int keyCount) {
+		Random random = new Random(keyCount);
+		mKeys = new Integer[keyCount];
+		mProbes = new Integer[keyCount];
+		for (int i = 0; i < keyCount; ++i) {
+			mKeys[i] = random.nextInt();
+		}
+
+		for (int i = 0; i < keyCount; ++i) {
+			mProbes[i] = mKeys[random.nextInt(keyCount)];
+		}
+	}
+
+	/**
+	 * Measure the insert and lookup cost at the specified degree.
+	 *
+	 * @param minDegree the min degree
+	 * @return the report line
+	 */
+	public String measure(int minDegree) {
+		long bestInsert = Long.MAX_VALUE;
+		long bestLookup = Long.MAX_VALUE;
+		long found = 0;
+		BTree<Integer, Integer> bTree = null;
+
+		for (int round = 0; round < ROUNDS; ++round) {
+			bTree = new BTree<Integer, Integer>(minDegree);
+
+			long start = System.nanoTime();
+			for (Integer key : mKeys) {
+				bTree.insert(key, key);
+			}
+			bestInsert = Math.min(bestInsert, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			for (Integer key : mProbes) {
+				if (bTree.search(key) != null) {
+					++found;
+				}
+			}
+			bestLookup = Math.min(bestLookup, System.nanoTime() - start);
+		}
+
+		if (found != (long) ROUNDS * mProbes.length) {
+			throw new IllegalStateException("Lookup missed keys at min degree " + minDegree);
+		}
+
+		return String.format("%6d | %8d | %12.1f | %12.1f | %10d", minDegree, (2 * minDegree) - 1,
+				(double) bestInsert / mKeys.length, (double) bestLookup / mProbes.length, bTree.getNodesCount());
+	}
+
+	/**
+	 * Main Entry for the report.
+	 *
+	 * @param args the arguments
+	 */
+	public static void main(String[] args) {
+		int keyCount = DEFAULT_KEY_COUNT;
+		int[] degrees = DEFAULT_DEGREES;
+		if (args.length > 0) {
+			keyCount = Integer.parseInt(args[0]);
+		}
+
+		if (args.length > 1) {
+			degrees = new int[args.length - 1];
+			for (int i = 1; i < args.length; ++i) {
+				degrees[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+
+		BTreeTuning tuning = new BTreeTuning(keyCount);
+
+		// Warm up the JIT so the first degree isn't penalized
+		tuning.measure(BTreeTuning.DEFAULT_DEGREES[2]);
+
+		System.out.println("BTree tuning report for " + keyCount + " random Integer keys (ns/op, best of "
+				+ ROUNDS + ")");
+		System.out.println("Degree | Max keys | Insert ns/op | Lookup ns/op |      Nodes");
+		System.out.println("-------+----------+--------------+--------------+-----------");
+		for (int degree : degrees) {
+			System.out.println(tuning.measure(degree));
+		}
+	}
+}
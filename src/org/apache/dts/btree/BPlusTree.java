@@ -0,0 +1,574 @@
+package org.apache.dts.btree;
+
+import java.util.Arrays;
+
+/**
+ * Class BPlusTree.
+ *
+ * B+tree variant of BTree: all the entries live in the leaves, which are
+ * chained to their siblings, and the internal nodes only hold separator keys
+ * to route the searches. Internal nodes don't carry values, and a scan is a
+ * walk along the chain of leaves instead of an in-order traversal going up
+ * and down the tree.
+ *
+ * The separator at index i of an internal node is greater than all the keys
+ * of the child at index i and less than or equal to all the keys of the
+ * child at index i + 1.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class BPlusTree<K extends Comparable, V> {
+
+	/** The root. */
+	private Node<K, V> mRoot = null;
+
+	/** The size. */
+	private int mSize = 0;
+
+	/** The min degree (aka t). */
+	private final int mMinDegree;
+
+	/** The min number of keys of a non-root node (aka t - 1). */
+	private final int mLowerBoundKeyNum;
+
+	/** The max number of keys of a node (aka 2t - 1). */
+	private final int mUpperBoundKeyNum;
+
+	/**
+	 * Instantiates a new B+tree with the default min degree.
+	 */
+	public BPlusTree() {
+		this(BTNode.DEFAULT_MIN_DEGREE);
+	}
+
+	/**
+	 * Instantiates a new B+tree.
+	 *
+	 * @param minDegree the min degree (aka t), every node but the root holds
+	 *            between t - 1 and 2t - 1 keys
+	 */
+	public BPlusTree(int minDegree) {
+		if (minDegree < BTNode.SMALLEST_MIN_DEGREE) {
+			throw new IllegalArgumentException("Min degree must be at least " + BTNode.SMALLEST_MIN_DEGREE
+					+ ": " + minDegree);
+		}
+
+		mMinDegree = minDegree;
+		mLowerBoundKeyNum = BTNode.getLowerBoundKeyNum(minDegree);
+		mUpperBoundKeyNum = BTNode.getUpperBoundKeyNum(minDegree);
+	}
+
+	/**
+	 * Gets the root node.
+	 *
+	 * @return the root node
+	 */
+	public Node<K, V> getRootNode() {
+		return mRoot;
+	}
+
+	/**
+	 * Gets the size.
+	 *
+	 * @return the size
+	 */
+	public int getSize() {
+		return mSize;
+	}
+
+	/**
+	 * Gets the min degree.
+	 *
+	 * @return the min degree
+	 */
+	public int getMinDegree() {
+		return mMinDegree;
+	}
+
+	/**
+	 * Clear.
+	 */
+	public void clear() {
+		mSize = 0;
+		mRoot = null;
+	}
+
+	/**
+	 * Search the key among the keys of a node.
+	 *
+	 * @param btNode the bt node
+	 * @param key the key
+	 * @return the index of the key, otherwise -(insertion point) - 1
+	 */
+	@SuppressWarnings("unchecked")
+	private static int searchKey(Node<?, ?> btNode, Comparable key) {
+		Comparable[] keys = btNode.mKeys;
+		int low = 0;
+		int high = btNode.mCurrentKeyNum - 1;
+		int mid, cmp;
+
+		while (low <= high) {
+			mid = (low + high) >>> 1;
+			cmp = keys[mid].compareTo(key);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+
+		return -(low + 1);
+	}
+
+	/**
+	 * Gets the index of the child of an internal node whose subtree may
+	 * contain the key.
+	 *
+	 * @param btNode the bt node
+	 * @param key the key
+	 * @return the child index
+	 */
+	private static int getChildIndex(Node<?, ?> btNode, Comparable key) {
+		int i = searchKey(btNode, key);
+
+		// A key equal to a separator lives on its right
+		return (i >= 0) ? (i + 1) : -(i + 1);
+	}
+
+	/**
+	 * Find the leaf whose range contains the key.
+	 *
+	 * @param key the key
+	 * @return the leaf, null if the tree is empty
+	 */
+	private Node<K, V> findLeaf(K key) {
+		Node<K, V> btNode = mRoot;
+		while ((btNode != null) && !btNode.mIsLeaf) {
+			btNode = btNode.mChildren[getChildIndex(btNode, key)];
+		}
+
+		return btNode;
+	}
+
+	/**
+	 * Search.
+	 *
+	 * @param key the key
+	 * @return the value, or null if the key doesn't exist
+	 */
+	@SuppressWarnings("unchecked")
+	public V search(K key) {
+		Node<K, V> leafNode = findLeaf(key);
+		if (leafNode == null) {
+			return null;
+		}
+
+		int i = searchKey(leafNode, key);
+		return (i >= 0) ? (V) leafNode.mValues[i] : null;
+	}
+
+	/**
+	 * Contains key.
+	 *
+	 * @param key the key
+	 * @return true, if the key exists in the tree
+	 */
+	public boolean containsKey(K key) {
+		Node<K, V> leafNode = findLeaf(key);
+		return (leafNode != null) && (searchKey(leafNode, key) >= 0);
+	}
+
+	/**
+	 * Insert.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return the b+tree
+	 */
+	public BPlusTree<K, V> insert(K key, V value) {
+		if (mRoot == null) {
+			mRoot = new Node<K, V>(mUpperBoundKeyNum, true);
+		}
+
+		if (mRoot.mCurrentKeyNum == mUpperBoundKeyNum) {
+			// The root is full, split it
+			Node<K, V> btNode = new Node<K, V>(mUpperBoundKeyNum, false);
+			btNode.mChildren[0] = mRoot;
+			mRoot = btNode;
+			splitNode(mRoot, 0, btNode.mChildren[0]);
+		}
+
+		// Go down to the leaf, splitting the full nodes on the way so that a
+		// split never has to go back up
+		Node<K, V> btNode = mRoot;
+		int i;
+		while (!btNode.mIsLeaf) {
+			i = getChildIndex(btNode, key);
+			if (btNode.mChildren[i].mCurrentKeyNum == mUpperBoundKeyNum) {
+				splitNode(btNode, i, btNode.mChildren[i]);
+				if (key.compareTo(btNode.mKeys[i]) >= 0) {
+					++i;
+				}
+			}
+			btNode = btNode.mChildren[i];
+		}
+
+		i = searchKey(btNode, key);
+		if (i >= 0) {
+			// The key already existed so replace its value and done with it
+			btNode.mValues[i] = value;
+			return this;
+		}
+
+		// Shift the greater keys to the right to make a slot for the key
+		i = -(i + 1);
+		int num = btNode.mCurrentKeyNum - i;
+		System.arraycopy(btNode.mKeys, i, btNode.mKeys, i + 1, num);
+		System.arraycopy(btNode.mValues, i, btNode.mValues, i + 1, num);
+		btNode.mKeys[i] = key;
+		btNode.mValues[i] = value;
+		++(btNode.mCurrentKeyNum);
+		++mSize;
+		return this;
+	}
+
+	/**
+	 * Split a full node. A leaf keeps t entries and gives t - 1 to its new
+	 * right sibling, whose first key is copied up as the separator. An
+	 * internal node gives t - 1 keys to its new right sibling and moves its
+	 * median key up.
+	 *
+	 * @param parentNode the parent node
+	 * @param nodeIdx the index of the node in the parent node
+	 * @param btNode the bt node
+	 */
+	private void splitNode(Node<K, V> parentNode, int nodeIdx, Node<K, V> btNode) {
+		Node<K, V> newNode = new Node<K, V>(mUpperBoundKeyNum, btNode.mIsLeaf);
+		Comparable separatorKey;
+
+		System.arraycopy(btNode.mKeys, mMinDegree, newNode.mKeys, 0, mLowerBoundKeyNum);
+		newNode.mCurrentKeyNum = mLowerBoundKeyNum;
+		if (btNode.mIsLeaf) {
+			System.arraycopy(btNode.mValues, mMinDegree, newNode.mValues, 0, mLowerBoundKeyNum);
+			Arrays.fill(btNode.mValues, mMinDegree, mUpperBoundKeyNum, null);
+			Arrays.fill(btNode.mKeys, mMinDegree, mUpperBoundKeyNum, null);
+			btNode.mCurrentKeyNum = mMinDegree;
+			separatorKey = newNode.mKeys[0];
+
+			// Chain the new leaf after the node
+			newNode.mNext = btNode.mNext;
+			if (newNode.mNext != null) {
+				newNode.mNext.mPrev = newNode;
+			}
+			newNode.mPrev = btNode;
+			btNode.mNext = newNode;
+		} else {
+			System.arraycopy(btNode.mChildren, mMinDegree, newNode.mChildren, 0, mMinDegree);
+			Arrays.fill(btNode.mChildren, mMinDegree, mMinDegree * 2, null);
+			separatorKey = btNode.mKeys[mLowerBoundKeyNum];
+			Arrays.fill(btNode.mKeys, mLowerBoundKeyNum, mUpperBoundKeyNum, null);
+			btNode.mCurrentKeyNum = mLowerBoundKeyNum;
+		}
+
+		// Make a slot in the parent node for the separator and the new node
+		int num = parentNode.mCurrentKeyNum - nodeIdx;
+		System.arraycopy(parentNode.mKeys, nodeIdx, parentNode.mKeys, nodeIdx + 1, num);
+		System.arraycopy(parentNode.mChildren, nodeIdx + 1, parentNode.mChildren, nodeIdx + 2, num);
+		parentNode.mKeys[nodeIdx] = separatorKey;
+		parentNode.mChildren[nodeIdx + 1] = newNode;
+		++(parentNode.mCurrentKeyNum);
+	}
+
+	/**
+	 * Delete.
+	 *
+	 * @param key the key
+	 * @return the value of the deleted key, null if the key doesn't exist
+	 */
+	@SuppressWarnings("unchecked")
+	public V delete(K key) {
+		if (mRoot == null) {
+			return null;
+		}
+
+		// Go down to the leaf, making sure each node has more than t - 1 keys
+		// before going down to it so that a removal never has to go back up
+		Node<K, V> btNode = mRoot;
+		int i;
+		while (!btNode.mIsLeaf) {
+			i = getChildIndex(btNode, key);
+			if (btNode.mChildren[i].mCurrentKeyNum == mLowerBoundKeyNum) {
+				i = rebalanceChild(btNode, i);
+				if (btNode.mCurrentKeyNum == 0) {
+					// The root has lost its last key, its only child is the new root
+					mRoot = btNode.mChildren[0];
+				}
+			}
+			btNode = btNode.mChildren[i];
+		}
+
+		i = searchKey(btNode, key);
+		if (i < 0) {
+			return null;
+		}
+
+		// Separators equal to the key may remain in the internal nodes, they
+		// still route the searches correctly
+		V value = (V) btNode.mValues[i];
+		int num = btNode.mCurrentKeyNum - i - 1;
+		System.arraycopy(btNode.mKeys, i + 1, btNode.mKeys, i, num);
+		System.arraycopy(btNode.mValues, i + 1, btNode.mValues, i, num);
+		--(btNode.mCurrentKeyNum);
+		btNode.mKeys[btNode.mCurrentKeyNum] = null;
+		btNode.mValues[btNode.mCurrentKeyNum] = null;
+
+		if (--mSize == 0) {
+			mRoot = null;
+		}
+		return value;
+	}
+
+	/**
+	 * Rebalance a child node having t - 1 keys, by borrowing a key from one
+	 * of its siblings or by merging it with one of them.
+	 *
+	 * @param parentNode the parent node
+	 * @param nodeIdx the index of the child node
+	 * @return the index of the node holding the keys of the child node
+	 */
+	private int rebalanceChild(Node<K, V> parentNode, int nodeIdx) {
+		if ((nodeIdx > 0) && (parentNode.mChildren[nodeIdx - 1].mCurrentKeyNum > mLowerBoundKeyNum)) {
+			performRightRotation(parentNode, nodeIdx);
+			return nodeIdx;
+		}
+
+		if ((nodeIdx < parentNode.mCurrentKeyNum)
+				&& (parentNode.mChildren[nodeIdx + 1].mCurrentKeyNum > mLowerBoundKeyNum)) {
+			performLeftRotation(parentNode, nodeIdx);
+			return nodeIdx;
+		}
+
+		if (nodeIdx > 0) {
+			performMerge(parentNode, nodeIdx - 1);
+			return nodeIdx - 1;
+		}
+
+		performMerge(parentNode, nodeIdx);
+		return nodeIdx;
+	}
+
+	/**
+	 * Perform right rotation: move the last key of the left sibling to the
+	 * front of the node.
+	 *
+	 * @param parentNode the parent node
+	 * @param nodeIdx the index of the node in the parent node
+	 */
+	private void performRightRotation(Node<K, V> parentNode, int nodeIdx) {
+		Node<K, V> btNode = parentNode.mChildren[nodeIdx];
+		Node<K, V> leftSiblingNode = parentNode.mChildren[nodeIdx - 1];
+		int siblingKeyNum = leftSiblingNode.mCurrentKeyNum;
+
+		System.arraycopy(btNode.mKeys, 0, btNode.mKeys, 1, btNode.mCurrentKeyNum);
+		if (btNode.mIsLeaf) {
+			// The moved entry becomes the first of the node and its separator
+			System.arraycopy(btNode.mValues, 0, btNode.mValues, 1, btNode.mCurrentKeyNum);
+			btNode.mKeys[0] = leftSiblingNode.mKeys[siblingKeyNum - 1];
+			btNode.mValues[0] = leftSiblingNode.mValues[siblingKeyNum - 1];
+			leftSiblingNode.mValues[siblingKeyNum - 1] = null;
+			parentNode.mKeys[nodeIdx - 1] = btNode.mKeys[0];
+		} else {
+			// The separator comes down and the last key of the sibling goes up
+			System.arraycopy(btNode.mChildren, 0, btNode.mChildren, 1, btNode.mCurrentKeyNum + 1);
+			btNode.mKeys[0] = parentNode.mKeys[nodeIdx - 1];
+			btNode.mChildren[0] = leftSiblingNode.mChildren[siblingKeyNum];
+			leftSiblingNode.mChildren[siblingKeyNum] = null;
+			parentNode.mKeys[nodeIdx - 1] = leftSiblingNode.mKeys[siblingKeyNum - 1];
+		}
+		leftSiblingNode.mKeys[siblingKeyNum - 1] = null;
+		--(leftSiblingNode.mCurrentKeyNum);
+		++(btNode.mCurrentKeyNum);
+	}
+
+	/**
+	 * Perform left rotation: move the first key of the right sibling to the
+	 * end of the node.
+	 *
+	 * @param parentNode the parent node
+	 * @param nodeIdx the index of the node in the parent node
+	 */
+	private void performLeftRotation(Node<K, V> parentNode, int nodeIdx) {
+		Node<K, V> btNode = parentNode.mChildren[nodeIdx];
+		Node<K, V> rightSiblingNode = parentNode.mChildren[nodeIdx + 1];
+		int currentKeyNum = btNode.mCurrentKeyNum;
+		int num = rightSiblingNode.mCurrentKeyNum - 1;
+
+		if (btNode.mIsLeaf) {
+			// The next entry of the sibling becomes its first and its separator
+			btNode.mKeys[currentKeyNum] = rightSiblingNode.mKeys[0];
+			btNode.mValues[currentKeyNum] = rightSiblingNode.mValues[0];
+			System.arraycopy(rightSiblingNode.mValues, 1, rightSiblingNode.mValues, 0, num);
+			rightSiblingNode.mValues[num] = null;
+			parentNode.mKeys[nodeIdx] = rightSiblingNode.mKeys[1];
+		} else {
+			// The separator comes down and the first key of the sibling goes up
+			btNode.mKeys[currentKeyNum] = parentNode.mKeys[nodeIdx];
+			btNode.mChildren[currentKeyNum + 1] = rightSiblingNode.mChildren[0];
+			System.arraycopy(rightSiblingNode.mChildren, 1, rightSiblingNode.mChildren, 0, num + 1);
+			rightSiblingNode.mChildren[num + 1] = null;
+			parentNode.mKeys[nodeIdx] = rightSiblingNode.mKeys[0];
+		}
+		System.arraycopy(rightSiblingNode.mKeys, 1, rightSiblingNode.mKeys, 0, num);
+		rightSiblingNode.mKeys[num] = null;
+		rightSiblingNode.mCurrentKeyNum = num;
+		++(btNode.mCurrentKeyNum);
+	}
+
+	/**
+	 * Perform merge: append the right sibling of the node to the node, then
+	 * drop the right sibling and its separator from the parent node. Leaves
+	 * drop the separator, internal nodes take it between their keys and the
+	 * keys of the sibling.
+	 *
+	 * @param parentNode the parent node
+	 * @param nodeIdx the index of the node in the parent node
+	 */
+	private void performMerge(Node<K, V> parentNode, int nodeIdx) {
+		Node<K, V> btNode = parentNode.mChildren[nodeIdx];
+		Node<K, V> rightSiblingNode = parentNode.mChildren[nodeIdx + 1];
+		int currentKeyNum = btNode.mCurrentKeyNum;
+		int siblingKeyNum = rightSiblingNode.mCurrentKeyNum;
+
+		if (btNode.mIsLeaf) {
+			System.arraycopy(rightSiblingNode.mKeys, 0, btNode.mKeys, currentKeyNum, siblingKeyNum);
+			System.arraycopy(rightSiblingNode.mValues, 0, btNode.mValues, currentKeyNum, siblingKeyNum);
+			btNode.mCurrentKeyNum = currentKeyNum + siblingKeyNum;
+
+			// Unchain the sibling
+			btNode.mNext = rightSiblingNode.mNext;
+			if (btNode.mNext != null) {
+				btNode.mNext.mPrev = btNode;
+			}
+		} else {
+			btNode.mKeys[currentKeyNum] = parentNode.mKeys[nodeIdx];
+			System.arraycopy(rightSiblingNode.mKeys, 0, btNode.mKeys, currentKeyNum + 1, siblingKeyNum);
+			System.arraycopy(rightSiblingNode.mChildren, 0, btNode.mChildren, currentKeyNum + 1, siblingKeyNum + 1);
+			btNode.mCurrentKeyNum = currentKeyNum + siblingKeyNum + 1;
+		}
+
+		// Drop the separator and the sibling from the parent node
+		int num = parentNode.mCurrentKeyNum - nodeIdx - 1;
+		System.arraycopy(parentNode.mKeys, nodeIdx + 1, parentNode.mKeys, nodeIdx, num);
+		System.arraycopy(parentNode.mChildren, nodeIdx + 2, parentNode.mChildren, nodeIdx + 1, num);
+		--(parentNode.mCurrentKeyNum);
+		parentNode.mKeys[parentNode.mCurrentKeyNum] = null;
+		parentNode.mChildren[parentNode.mCurrentKeyNum + 1] = null;
+	}
+
+	/**
+	 * List all the entries in key order.
+	 *
+	 * @param iterImpl the iter impl
+	 */
+	public void list(BTIterator<K, V> iterImpl) {
+		list(null, false, null, false, iterImpl);
+	}
+
+	/**
+	 * List the entries of a key range in key order: the first leaf of the
+	 * range is found from the root, then the scan only follows the chain of
+	 * leaves.
+	 *
+	 * @param lowKey the low bound of the range, null if unbounded
+	 * @param isLowInclusive true if the low bound is in the range
+	 * @param highKey the high bound of the range, null if unbounded
+	 * @param isHighInclusive true if the high bound is in the range
+	 * @param iterImpl the iter impl
+	 */
+	@SuppressWarnings("unchecked")
+	public void list(K lowKey, boolean isLowInclusive, K highKey, boolean isHighInclusive,
+			BTIterator<K, V> iterImpl) {
+		if ((mRoot == null) || (iterImpl == null)) {
+			return;
+		}
+
+		Node<K, V> leafNode;
+		int i = 0;
+		if (lowKey == null) {
+			leafNode = mRoot;
+			while (!leafNode.mIsLeaf) {
+				leafNode = leafNode.mChildren[0];
+			}
+		} else {
+			leafNode = findLeaf(lowKey);
+			i = searchKey(leafNode, lowKey);
+			i = (i >= 0) ? (isLowInclusive ? i : i + 1) : -(i + 1);
+		}
+
+		int cmp;
+		for (; leafNode != null; leafNode = leafNode.mNext, i = 0) {
+			for (; i < leafNode.mCurrentKeyNum; ++i) {
+				if (highKey != null) {
+					cmp = leafNode.mKeys[i].compareTo(highKey);
+					if ((cmp > 0) || ((cmp == 0) && !isHighInclusive)) {
+						return;
+					}
+				}
+
+				if (!iterImpl.item((K) leafNode.mKeys[i], (V) leafNode.mValues[i])) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Class Node.
+	 *
+	 * Node of a B+tree. Leaves hold the values and are chained to their
+	 * siblings, internal nodes hold the children.
+	 *
+	 * @param <K> the key type
+	 * @param <V> the value type
+	 */
+	public static class Node<K extends Comparable, V> {
+
+		/** The leaf. */
+		public final boolean mIsLeaf;
+
+		/** The current key num. */
+		public int mCurrentKeyNum;
+
+		/** The keys, all of them are of the key type. */
+		public final Comparable[] mKeys;
+
+		/** The values, parallel to the keys, null for an internal node. */
+		public final Object[] mValues;
+
+		/** The children, null for a leaf. */
+		public final Node<K, V>[] mChildren;
+
+		/** The next leaf, null for an internal node or the last leaf. */
+		public Node<K, V> mNext;
+
+		/** The previous leaf, null for an internal node or the first leaf. */
+		public Node<K, V> mPrev;
+
+		/**
+		 * Instantiates a new node.
+		 *
+		 * @param upperBoundKeyNum the max number of keys of the node
+		 * @param isLeaf the is leaf
+		 */
+		@SuppressWarnings("unchecked")
+		public Node(int upperBoundKeyNum, boolean isLeaf) {
+			mIsLeaf = isLeaf;
+			mKeys = new Comparable[upperBoundKeyNum];
+			mValues = isLeaf ? new Object[upperBoundKeyNum] : null;
+			mChildren = isLeaf ? null : new Node[upperBoundKeyNum + 1];
+		}
+	}
+}
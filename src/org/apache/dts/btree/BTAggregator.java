@@ -0,0 +1,44 @@
+package org.apache.dts.btree;
+
+/**
+ * Interface BTAggregator.
+ *
+ * Monoid summarizing the entries of a tree, such as the sum, the min or the
+ * max of the values. A {@link BTree} built with an aggregator caches the
+ * aggregate of every subtree in its root node, so the aggregate of a key
+ * range combines O(log n) cached aggregates instead of every entry of the
+ * range.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ * @param <A> the aggregate type
+ */
+public interface BTAggregator<K extends Comparable, V, A> {
+
+	/**
+	 * Gets the identity, the aggregate of no entry.
+	 *
+	 * @return the identity
+	 */
+	public A identity();
+
+	/**
+	 * Gets the aggregate of a single entry.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return the aggregate
+	 */
+	public A lift(K key, V value);
+
+	/**
+	 * Combine two aggregates. The operation must be associative, but it
+	 * need not be commutative: the entries summarized by the left aggregate
+	 * always have smaller keys than those of the right one.
+	 *
+	 * @param left the aggregate of the entries with the smaller keys
+	 * @param right the aggregate of the entries with the greater keys
+	 * @return the aggregate of both
+	 */
+	public A combine(A left, A right);
+}
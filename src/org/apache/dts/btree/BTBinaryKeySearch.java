@@ -0,0 +1,36 @@
+package org.apache.dts.btree;
+
+/**
+ * Class BTBinaryKeySearch.
+ * 
+ * Classic binary search over the keys of a node. It is the default strategy
+ * and works for any key type.
+ *
+ * @param <K> the key type
+ */
+public class BTBinaryKeySearch<K extends Comparable> implements BTKeySearch<K> {
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.BTKeySearch#search(org.apache.dts.btree.BTNode, java.lang.Comparable)
+	 */
+	@Override
+	public int search(BTNode<K, ?> btNode, K key) {
+		int low = 0;
+		int high = btNode.mCurrentKeyNum - 1;
+		int mid, cmp;
+
+		while (low <= high) {
+			mid = (low + high) >>> 1;
+			cmp = key.compareTo(btNode.mKeys[mid]);
+			if (cmp > 0) {
+				low = mid + 1;
+			} else if (cmp < 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+
+		return -(low + 1);
+	}
+}
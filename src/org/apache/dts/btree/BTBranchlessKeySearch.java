@@ -0,0 +1,43 @@
+package org.apache.dts.btree;
+
+/**
+ * Class BTBranchlessKeySearch.
+ * 
+ * Binary search whose loop has a fixed trip count for a given key number and
+ * narrows the range with arithmetic instead of a data dependent branch, so
+ * the probes don't suffer from branch mispredictions. The equality check is
+ * done once, after the loop.
+ *
+ * @param <K> the key type
+ */
+public class BTBranchlessKeySearch<K extends Comparable> implements BTKeySearch<K> {
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.BTKeySearch#search(org.apache.dts.btree.BTNode, java.lang.Comparable)
+	 */
+	@Override
+	public int search(BTNode<K, ?> btNode, K key) {
+		int n = btNode.mCurrentKeyNum;
+		if (n == 0) {
+			return -1;
+		}
+
+		// Find the last slot holding a key less than or equal to the key
+		int base = 0;
+		int half;
+		while (n > 1) {
+			half = n >>> 1;
+			// ~(cmp >> 31) is all ones when cmp >= 0 and zero otherwise
+			base += half & ~(key.compareTo(btNode.mKeys[base + half]) >> 31);
+			n -= half;
+		}
+
+		int cmp = key.compareTo(btNode.mKeys[base]);
+		if (cmp == 0) {
+			return base;
+		}
+
+		// The key goes right after the base slot if it is greater than it
+		return -(base + (cmp > 0 ? 1 : 0) + 1);
+	}
+}
@@ -0,0 +1,34 @@
+package org.apache.dts.btree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Interface BTCodec.
+ * 
+ * Binary encoding of the keys or the values of a tree, used wherever they
+ * have to leave the heap: logs, snapshots, files.
+ *
+ * @param <T> the type of the encoded objects
+ */
+public interface BTCodec<T> {
+
+	/**
+	 * Write an object.
+	 *
+	 * @param obj the object, never null
+	 * @param out the output
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void write(T obj, DataOutput out) throws IOException;
+
+	/**
+	 * Read an object.
+	 *
+	 * @param in the input
+	 * @return the object
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public T read(DataInput in) throws IOException;
+}
@@ -0,0 +1,457 @@
+package org.apache.dts.btree;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+
+/**
+ * Class BTCursor.
+ * 
+ * Pull-based cursor over the entries of a BTree within an optional key
+ * range. The cursor is always positioned between two entries: next() moves
+ * over the entry after the position and prev() over the entry before it,
+ * which then becomes the current entry. The path from the root to the
+ * position is kept, so a step costs O(1) amortized and a range scan of k
+ * entries costs O(log n + k).
+ * 
+ * A modification of the tree invalidates the path, the cursor must be
+ * seeked again afterwards, for instance to the position it got from
+ * getPosition() before the modification.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class BTCursor<K extends Comparable, V> {
+
+	/** The Constant INITIAL_PATH_LENGTH. */
+	private final static int INITIAL_PATH_LENGTH = 16;
+
+	/** The tree. */
+	private final BTree<K, V> mTree;
+
+	/** The key search strategy of the tree. */
+	private final BTKeySearch<K> mKeySearch;
+
+	/** The low bound of the range, null if unbounded. */
+	private final K mLowKey;
+
+	/** True if the low bound is in the range. */
+	private final boolean mIsLowInclusive;
+
+	/** The high bound of the range, null if unbounded. */
+	private final K mHighKey;
+
+	/** True if the high bound is in the range. */
+	private final boolean mIsHighInclusive;
+
+	/** The nodes of the path, from the root. */
+	private BTNode<K, V> mPathNodes[];
+
+	/**
+	 * The index of the child followed in each node of the path, but in the
+	 * last node where it is the index of the entry next to the position.
+	 */
+	private int mPathIndexes[];
+
+	/** The depth of the path, 0 if the tree is empty. */
+	private int mDepth;
+
+	/** True if the position is after the entry, false if it is before it. */
+	private boolean mIsAfterEntry;
+
+	/** True if the entry is the current entry. */
+	private boolean mIsOnEntry;
+
+	/** The mod count of the tree when the path was built. */
+	private int mModCount;
+
+	/**
+	 * Instantiates a new BT cursor positioned at the start of the range.
+	 *
+	 * @param tree the tree
+	 * @param keySearch the key search strategy of the tree
+	 * @param lowKey the low bound of the range, null if unbounded
+	 * @param isLowInclusive true if the low bound is in the range
+	 * @param highKey the high bound of the range, null if unbounded
+	 * @param isHighInclusive true if the high bound is in the range
+	 */
+	@SuppressWarnings("unchecked")
+	BTCursor(BTree<K, V> tree, BTKeySearch<K> keySearch, K lowKey, boolean isLowInclusive, K highKey,
+			boolean isHighInclusive) {
+		mTree = tree;
+		mKeySearch = keySearch;
+		mLowKey = lowKey;
+		mIsLowInclusive = isLowInclusive;
+		mHighKey = highKey;
+		mIsHighInclusive = isHighInclusive;
+		mPathNodes = new BTNode[INITIAL_PATH_LENGTH];
+		mPathIndexes = new int[INITIAL_PATH_LENGTH];
+		seekFirst();
+	}
+
+	/**
+	 * Seek the start of the range.
+	 */
+	public void seekFirst() {
+		if (mLowKey == null) {
+			positionAtEnd(false);
+		} else {
+			positionAtKey(mLowKey, !mIsLowInclusive);
+		}
+	}
+
+	/**
+	 * Seek the end of the range.
+	 */
+	public void seekLast() {
+		if (mHighKey == null) {
+			positionAtEnd(true);
+		} else {
+			positionAtKey(mHighKey, mIsHighInclusive);
+		}
+	}
+
+	/**
+	 * Seek the position before the key, so that next() returns the smallest
+	 * key greater than or equal to the key. A key out of the range seeks the
+	 * nearest end of the range.
+	 *
+	 * @param key the key
+	 */
+	@SuppressWarnings("unchecked")
+	public void seek(K key) {
+		if (key == null) {
+			throw new IllegalArgumentException("Key must not be null");
+		}
+
+		if ((mLowKey != null) && (key.compareTo(mLowKey) <= 0)) {
+			seekFirst();
+		} else if ((mHighKey != null) && (key.compareTo(mHighKey) > 0)) {
+			seekLast();
+		} else {
+			positionAtKey(key, false);
+		}
+	}
+
+	/**
+	 * Seek a position returned by getPosition(), possibly by a cursor over
+	 * another range.
+	 *
+	 * @param position the position
+	 */
+	@SuppressWarnings("unchecked")
+	public void seek(BTCursorPosition<K> position) {
+		K key = position.mKey;
+		if (key == null) {
+			seekFirst();
+		} else if (!position.mIsAfterKey) {
+			seek(key);
+		} else if ((mLowKey != null) && (key.compareTo(mLowKey) < 0)) {
+			seekFirst();
+		} else if ((mHighKey != null) && (key.compareTo(mHighKey) >= 0)) {
+			seekLast();
+		} else {
+			positionAtKey(key, true);
+		}
+	}
+
+	/**
+	 * Gets the position, which remains valid across modifications of the
+	 * tree.
+	 *
+	 * @return the position
+	 */
+	public BTCursorPosition<K> getPosition() {
+		checkModCount();
+		if (mDepth == 0) {
+			return new BTCursorPosition<K>(null, false);
+		}
+
+		return new BTCursorPosition<K>(getEntryKey(), mIsAfterEntry);
+	}
+
+	/**
+	 * Move over the next entry of the range, which becomes the current entry.
+	 *
+	 * @return false, if there is no next entry in the range
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean next() {
+		checkModCount();
+		mIsOnEntry = false;
+		if (mDepth == 0) {
+			return false;
+		}
+
+		if (mIsAfterEntry) {
+			if (!moveToSuccessor()) {
+				return false;
+			}
+			mIsAfterEntry = false;
+		}
+
+		if (mHighKey != null) {
+			int cmp = getEntryKey().compareTo(mHighKey);
+			if ((cmp > 0) || ((cmp == 0) && !mIsHighInclusive)) {
+				return false;
+			}
+		}
+
+		mIsAfterEntry = true;
+		mIsOnEntry = true;
+		return true;
+	}
+
+	/**
+	 * Move over the previous entry of the range, which becomes the current
+	 * entry.
+	 *
+	 * @return false, if there is no previous entry in the range
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean prev() {
+		checkModCount();
+		mIsOnEntry = false;
+		if (mDepth == 0) {
+			return false;
+		}
+
+		if (!mIsAfterEntry) {
+			if (!moveToPredecessor()) {
+				return false;
+			}
+			mIsAfterEntry = true;
+		}
+
+		if (mLowKey != null) {
+			int cmp = getEntryKey().compareTo(mLowKey);
+			if ((cmp < 0) || ((cmp == 0) && !mIsLowInclusive)) {
+				return false;
+			}
+		}
+
+		mIsAfterEntry = false;
+		mIsOnEntry = true;
+		return true;
+	}
+
+	/**
+	 * Gets the key of the current entry.
+	 *
+	 * @return the key
+	 */
+	public K getKey() {
+		checkCurrentEntry();
+		return getEntryKey();
+	}
+
+	/**
+	 * Gets the value of the current entry.
+	 *
+	 * @return the value
+	 */
+	public V getValue() {
+		checkCurrentEntry();
+		return mPathNodes[mDepth - 1].getValue(mPathIndexes[mDepth - 1]);
+	}
+
+	/**
+	 * Gets the key of the entry next to the position.
+	 *
+	 * @return the key
+	 */
+	private K getEntryKey() {
+		return mPathNodes[mDepth - 1].getKey(mPathIndexes[mDepth - 1]);
+	}
+
+	/**
+	 * Check the cursor is on a current entry.
+	 */
+	private void checkCurrentEntry() {
+		checkModCount();
+		if (!mIsOnEntry) {
+			throw new NoSuchElementException("No current entry");
+		}
+	}
+
+	/**
+	 * Check the tree has not been modified since the path was built.
+	 */
+	private void checkModCount() {
+		if (mModCount != mTree.getModCount()) {
+			throw new ConcurrentModificationException("Tree modified, the cursor must be seeked again");
+		}
+	}
+
+	/**
+	 * Reset the path to the root of the tree.
+	 *
+	 * @return the root node, null if the tree is empty
+	 */
+	private BTNode<K, V> resetPath() {
+		mModCount = mTree.getModCount();
+		mIsOnEntry = false;
+		mDepth = 0;
+		BTNode<K, V> rootNode = mTree.getRootNode();
+		return ((rootNode == null) || (rootNode.mCurrentKeyNum == 0)) ? null : rootNode;
+	}
+
+	/**
+	 * Position the cursor before the smallest key or after the greatest key
+	 * of the tree.
+	 *
+	 * @param isAtGreatest true for after the greatest key
+	 */
+	private void positionAtEnd(boolean isAtGreatest) {
+		BTNode<K, V> rootNode = resetPath();
+		if (rootNode != null) {
+			if (isAtGreatest) {
+				descendToGreatest(rootNode);
+			} else {
+				descendToSmallest(rootNode);
+			}
+		}
+		mIsAfterEntry = isAtGreatest;
+	}
+
+	/**
+	 * Position the cursor next to the key, or between its nearest keys if
+	 * the key doesn't exist.
+	 *
+	 * @param key the key
+	 * @param isAfterKey true for after the key, false for before it
+	 */
+	private void positionAtKey(K key, boolean isAfterKey) {
+		BTNode<K, V> btNode = resetPath();
+		while (btNode != null) {
+			int i = mKeySearch.search(btNode, key);
+			if (i >= 0) {
+				pushNode(btNode, i);
+				mIsAfterEntry = isAfterKey;
+				return;
+			}
+
+			i = -(i + 1);
+			if (btNode.mIsLeaf) {
+				// Between the keys at the insertion point and just before it
+				if (i < btNode.mCurrentKeyNum) {
+					pushNode(btNode, i);
+					mIsAfterEntry = false;
+				} else {
+					pushNode(btNode, i - 1);
+					mIsAfterEntry = true;
+				}
+				return;
+			}
+
+			pushNode(btNode, i);
+			btNode = BTNode.getLeftChildAtIndex(btNode, i);
+		}
+	}
+
+	/**
+	 * Move to the entry after the entry of the path, leaving the path
+	 * unchanged if there is none.
+	 *
+	 * @return false, if the entry is the greatest of the tree
+	 */
+	private boolean moveToSuccessor() {
+		BTNode<K, V> btNode = mPathNodes[mDepth - 1];
+		int i = mPathIndexes[mDepth - 1];
+		if (!btNode.mIsLeaf) {
+			mPathIndexes[mDepth - 1] = i + 1;
+			descendToSmallest(BTNode.getRightChildAtIndex(btNode, i));
+			return true;
+		}
+
+		if (i + 1 < btNode.mCurrentKeyNum) {
+			mPathIndexes[mDepth - 1] = i + 1;
+			return true;
+		}
+
+		// Go up to the nearest node left from a child having a key on its
+		// right, that key is the successor
+		for (int depth = mDepth - 1; depth > 0; --depth) {
+			if (mPathIndexes[depth - 1] < mPathNodes[depth - 1].mCurrentKeyNum) {
+				mDepth = depth;
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Move to the entry before the entry of the path, leaving the path
+	 * unchanged if there is none.
+	 *
+	 * @return false, if the entry is the smallest of the tree
+	 */
+	private boolean moveToPredecessor() {
+		BTNode<K, V> btNode = mPathNodes[mDepth - 1];
+		int i = mPathIndexes[mDepth - 1];
+		if (!btNode.mIsLeaf) {
+			descendToGreatest(BTNode.getLeftChildAtIndex(btNode, i));
+			return true;
+		}
+
+		if (i > 0) {
+			mPathIndexes[mDepth - 1] = i - 1;
+			return true;
+		}
+
+		// Go up to the nearest node left from a child having a key on its
+		// left, that key is the predecessor
+		for (int depth = mDepth - 1; depth > 0; --depth) {
+			if (mPathIndexes[depth - 1] > 0) {
+				--mPathIndexes[depth - 1];
+				mDepth = depth;
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Extend the path down to the smallest key of a subtree.
+	 *
+	 * @param btNode the root node of the subtree
+	 */
+	private void descendToSmallest(BTNode<K, V> btNode) {
+		while (!btNode.mIsLeaf) {
+			pushNode(btNode, 0);
+			btNode = BTNode.getLeftChildAtIndex(btNode, 0);
+		}
+		pushNode(btNode, 0);
+	}
+
+	/**
+	 * Extend the path down to the greatest key of a subtree.
+	 *
+	 * @param btNode the root node of the subtree
+	 */
+	private void descendToGreatest(BTNode<K, V> btNode) {
+		while (!btNode.mIsLeaf) {
+			pushNode(btNode, btNode.mCurrentKeyNum);
+			btNode = BTNode.getLeftChildAtIndex(btNode, btNode.mCurrentKeyNum);
+		}
+		pushNode(btNode, btNode.mCurrentKeyNum - 1);
+	}
+
+	/**
+	 * Push node at the end of the path.
+	 *
+	 * @param btNode the bt node
+	 * @param idx the index of the child followed or of the entry
+	 */
+	private void pushNode(BTNode<K, V> btNode, int idx) {
+		if (mDepth == mPathNodes.length) {
+			mPathNodes = Arrays.copyOf(mPathNodes, 2 * mDepth);
+			mPathIndexes = Arrays.copyOf(mPathIndexes, 2 * mDepth);
+		}
+		mPathNodes[mDepth] = btNode;
+		mPathIndexes[mDepth] = idx;
+		++mDepth;
+	}
+}
@@ -0,0 +1,46 @@
+package org.apache.dts.btree;
+
+import java.io.Serializable;
+
+/**
+ * Class BTCursorPosition.
+ * 
+ * Position of a BTCursor between two entries, given by the key on one side
+ * of it. It doesn't refer to any node, so it stays valid across
+ * modifications of the tree and can be handed out as a pagination token,
+ * then given back to BTCursor#seek(BTCursorPosition) to resume the scan.
+ *
+ * @param <K> the key type
+ */
+public class BTCursorPosition<K extends Comparable> implements Serializable {
+
+	/** The Constant serialVersionUID. */
+	private static final long serialVersionUID = 1L;
+
+	/** The key next to the position, null for the start of the range. */
+	public final K mKey;
+
+	/** True if the position is after the key, false if it is before it. */
+	public final boolean mIsAfterKey;
+
+	/**
+	 * Instantiates a new BT cursor position.
+	 *
+	 * @param key the key next to the position, null for the start of the
+	 *            range
+	 * @param isAfterKey true if the position is after the key, false if it
+	 *            is before it
+	 */
+	public BTCursorPosition(K key, boolean isAfterKey) {
+		mKey = key;
+		mIsAfterKey = isAfterKey;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return (mKey == null) ? "start" : ((mIsAfterKey ? "after " : "before ") + mKey);
+	}
+}
@@ -0,0 +1,29 @@
+package org.apache.dts.btree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Class BTIntegerCodec.
+ * 
+ * Encodes an Integer as a 4-byte big-endian int.
+ */
+public class BTIntegerCodec implements BTCodec<Integer> {
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.BTCodec#write(java.lang.Object, java.io.DataOutput)
+	 */
+	@Override
+	public void write(Integer obj, DataOutput out) throws IOException {
+		out.writeInt(obj);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.BTCodec#read(java.io.DataInput)
+	 */
+	@Override
+	public Integer read(DataInput in) throws IOException {
+		return in.readInt();
+	}
+}
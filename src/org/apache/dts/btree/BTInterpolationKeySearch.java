@@ -0,0 +1,48 @@
+package org.apache.dts.btree;
+
+/**
+ * Class BTInterpolationKeySearch.
+ * 
+ * Interpolation search for numeric keys. The next probe is estimated from
+ * the key value and the values at both ends of the remaining range, which
+ * takes fewer probes than a binary search when the keys are evenly spread.
+ * It falls back to bisection whenever the estimate can't be computed.
+ *
+ * @param <K> the key type
+ */
+public class BTInterpolationKeySearch<K extends Number & Comparable> implements BTKeySearch<K> {
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.BTKeySearch#search(org.apache.dts.btree.BTNode, java.lang.Comparable)
+	 */
+	@Override
+	public int search(BTNode<K, ?> btNode, K key) {
+		int low = 0;
+		int high = btNode.mCurrentKeyNum - 1;
+		double keyVal = key.doubleValue();
+		double lowVal, highVal;
+		int probe, cmp;
+
+		while (low <= high) {
+			lowVal = btNode.getKey(low).doubleValue();
+			highVal = btNode.getKey(high).doubleValue();
+			if ((keyVal <= lowVal) || (keyVal >= highVal) || (highVal <= lowVal)) {
+				// Out of the range, or no slope to interpolate on
+				probe = (keyVal <= lowVal) ? low : ((keyVal >= highVal) ? high : ((low + high) >>> 1));
+			} else {
+				probe = low + (int) ((keyVal - lowVal) / (highVal - lowVal) * (high - low));
+			}
+
+			cmp = key.compareTo(btNode.mKeys[probe]);
+			if (cmp > 0) {
+				low = probe + 1;
+			} else if (cmp < 0) {
+				high = probe - 1;
+			} else {
+				return probe;
+			}
+		}
+
+		return -(low + 1);
+	}
+}
@@ -0,0 +1,24 @@
+package org.apache.dts.btree;
+
+/**
+ * Interface BTKeySearch.
+ * 
+ * Strategy used to locate a key among the keys of a single node. Every
+ * descent path in {@link BTree} goes through it, so an implementation must
+ * compare the searched key with at most one node key per probe.
+ *
+ * @param <K> the key type
+ */
+public interface BTKeySearch<K extends Comparable> {
+
+	/**
+	 * Search the key in the node.
+	 *
+	 * @param btNode the bt node
+	 * @param key the key
+	 * @return the index of the key if it is found, otherwise
+	 *         <code>-(insertion point) - 1</code> where the insertion point is
+	 *         also the index of the child subtree that may contain the key
+	 */
+	public int search(BTNode<K, ?> btNode, K key);
+}
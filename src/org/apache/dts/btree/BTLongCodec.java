@@ -0,0 +1,29 @@
+package org.apache.dts.btree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Class BTLongCodec.
+ * 
+ * Encodes a Long as a 8-byte big-endian long.
+ */
+public class BTLongCodec implements BTCodec<Long> {
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.BTCodec#write(java.lang.Object, java.io.DataOutput)
+	 */
+	@Override
+	public void write(Long obj, DataOutput out) throws IOException {
+		out.writeLong(obj);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.BTCodec#read(java.io.DataInput)
+	 */
+	@Override
+	public Long read(DataInput in) throws IOException {
+		return in.readLong();
+	}
+}
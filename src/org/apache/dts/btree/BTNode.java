@@ -8,14 +8,11 @@ package org.apache.dts.btree;
  */
 public class BTNode<K extends Comparable, V> {
 	
-	/** The Constant MIN_DEGREE. */
-	public final static int MIN_DEGREE = 5;
-	
-	/** The Constant LOWER_BOUND_KEYNUM. */
-	public final static int LOWER_BOUND_KEYNUM = MIN_DEGREE - 1;
-	
-	/** The Constant UPPER_BOUND_KEYNUM. */
-	public final static int UPPER_BOUND_KEYNUM = (MIN_DEGREE * 2) - 1;
+	/** The Constant DEFAULT_MIN_DEGREE. */
+	public final static int DEFAULT_MIN_DEGREE = 5;
+
+	/** The Constant SMALLEST_MIN_DEGREE. */
+	public final static int SMALLEST_MIN_DEGREE = 2;
 
 	/** The leaf. */
 	public boolean mIsLeaf;
@@ -23,20 +20,107 @@ public class BTNode<K extends Comparable, V> {
 	/** The current key. */
 	public int mCurrentKeyNum;
 	
-	/** The keys. */
-	public BTKeyValue<K, V> mKeys[];
+	/** The keys, all of them are of the key type. */
+	public Comparable mKeys[];
+
+	/** The values, parallel to the keys, all of them are of the value type. */
+	public Object mValues[];
 	
-	/** The children. */
+	/** The children, null for a leaf. */
 	public BTNode mChildren[];
 
+	/** The number of keys in the subtree of the node, maintained by BTree. */
+	public int mSubtreeSize;
+
+	/** The aggregate of the subtree of the node, maintained by a BTree with a BTAggregator. */
+	public Object mAggregate;
+
 	/**
-	 * Instantiates a new BT node.
+	 * Instantiates a new BT leaf node with the default min degree.
 	 */
 	public BTNode() {
-		mIsLeaf = true;
+		this(DEFAULT_MIN_DEGREE);
+	}
+
+	/**
+	 * Instantiates a new BT leaf node.
+	 *
+	 * @param minDegree the min degree (aka t) of the tree owning the node
+	 */
+	public BTNode(int minDegree) {
+		this(minDegree, true);
+	}
+
+	/**
+	 * Instantiates a new BT node. Only internal nodes get a children array,
+	 * leaves are the large majority of the nodes and never use it.
+	 *
+	 * @param minDegree the min degree (aka t) of the tree owning the node
+	 * @param isLeaf the is leaf
+	 */
+	public BTNode(int minDegree, boolean isLeaf) {
 		mCurrentKeyNum = 0;
-		mKeys = new BTKeyValue[UPPER_BOUND_KEYNUM];
-		mChildren = new BTNode[UPPER_BOUND_KEYNUM + 1];
+		mKeys = new Comparable[getUpperBoundKeyNum(minDegree)];
+		mValues = new Object[getUpperBoundKeyNum(minDegree)];
+		setLeaf(isLeaf);
+	}
+
+	/**
+	 * Sets the leaf flag, allocating the children array when the node is
+	 * promoted to an internal node and dropping it when the node is demoted
+	 * to a leaf.
+	 *
+	 * @param isLeaf the new leaf
+	 */
+	public void setLeaf(boolean isLeaf) {
+		mIsLeaf = isLeaf;
+		if (isLeaf) {
+			mChildren = null;
+		} else if (mChildren == null) {
+			mChildren = new BTNode[mKeys.length + 1];
+		}
+	}
+
+	/**
+	 * Gets the key at index.
+	 *
+	 * @param keyIdx the key idx
+	 * @return the key
+	 */
+	@SuppressWarnings("unchecked")
+	public K getKey(int keyIdx) {
+		return (K) mKeys[keyIdx];
+	}
+
+	/**
+	 * Gets the value at index.
+	 *
+	 * @param keyIdx the key idx
+	 * @return the value
+	 */
+	@SuppressWarnings("unchecked")
+	public V getValue(int keyIdx) {
+		return (V) mValues[keyIdx];
+	}
+
+	/**
+	 * Gets the lower bound of the key number of a non-root node.
+	 *
+	 * @param minDegree the min degree
+	 * @return the lower bound key num
+	 */
+	public static int getLowerBoundKeyNum(int minDegree) {
+		return minDegree - 1;
+	}
+
+	/**
+	 * Gets the upper bound of the key number of a node.
+	 *
+	 * @param minDegree the min degree
+	 * @return the upper bound key num
+	 */
+	public static int getUpperBoundKeyNum(int minDegree) {
+		return (minDegree * 2) - 1;
 	}
 
 	/**
@@ -0,0 +1,171 @@
+package org.apache.dts.btree;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Class BTSnapshotWriter.
+ * 
+ * Writes a tree in the snapshot format read by MappedBTree. The nodes are
+ * written children first, so that a parent node knows the pages of its
+ * children, and the root comes last.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+class BTSnapshotWriter<K extends Comparable, V> {
+
+	/** The page size. */
+	private final int mPageSize;
+
+	/** The key codec. */
+	private final BTCodec<K> mKeyCodec;
+
+	/** The value codec. */
+	private final BTCodec<V> mValueCodec;
+
+	/** The encoded entries of the current node. */
+	private final ByteArrayOutputStream mEntries = new ByteArrayOutputStream();
+
+	/** The entries output. */
+	private final DataOutputStream mEntriesOut = new DataOutputStream(mEntries);
+
+	/** The encoded current node. */
+	private final ByteArrayOutputStream mNode = new ByteArrayOutputStream();
+
+	/** The node output. */
+	private final DataOutputStream mNodeOut = new DataOutputStream(mNode);
+
+	/** The zeros padding the nodes to whole pages. */
+	private final byte mPadding[];
+
+	/** The output. */
+	private OutputStream mOut;
+
+	/** The next page to write. */
+	private long mNextPage;
+
+	/** The size in pages of the largest node. */
+	private int mMaxNodePages;
+
+	/**
+	 * Instantiates a new BT snapshot writer.
+	 *
+	 * @param pageSize the page size
+	 * @param keyCodec the key codec
+	 * @param valueCodec the value codec
+	 */
+	BTSnapshotWriter(int pageSize, BTCodec<K> keyCodec, BTCodec<V> valueCodec) {
+		if ((pageSize < MappedBTree.HEADER_SIZE) || (pageSize > MappedBTree.MAX_PAGE_SIZE)) {
+			throw new IllegalArgumentException("Page size must be between " + MappedBTree.HEADER_SIZE + " and "
+					+ MappedBTree.MAX_PAGE_SIZE + ": " + pageSize);
+		}
+
+		mPageSize = pageSize;
+		mPadding = new byte[pageSize];
+		mKeyCodec = keyCodec;
+		mValueCodec = valueCodec;
+	}
+
+	/**
+	 * Write a tree.
+	 *
+	 * @param file the file
+	 * @param root the root node
+	 * @param size the number of entries
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void write(File file, BTNode<K, V> root, long size) throws IOException {
+		FileOutputStream fileOut = new FileOutputStream(file);
+		try {
+			// The header page is written last, once the root page is known
+			mOut = new BufferedOutputStream(fileOut, 1 << 16);
+			mOut.write(mPadding);
+			mNextPage = 1;
+			mMaxNodePages = 1;
+
+			long rootPage = ((root == null) || (root.mCurrentKeyNum == 0)) ? MappedBTree.NIL : writeNode(root);
+			mOut.flush();
+
+			ByteBuffer header = ByteBuffer.allocate(MappedBTree.HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+			header.putInt(MappedBTree.MAGIC);
+			header.putInt(MappedBTree.VERSION);
+			header.putInt(mPageSize);
+			header.putInt(mMaxNodePages);
+			header.putLong(rootPage);
+			header.putLong(size);
+			header.flip();
+			while (header.hasRemaining()) {
+				fileOut.getChannel().write(header, header.position());
+			}
+			fileOut.getChannel().force(false);
+		} finally {
+			fileOut.close();
+		}
+	}
+
+	/**
+	 * Write a subtree.
+	 *
+	 * @param node the subtree root node
+	 * @return the first page of the node
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private long writeNode(BTNode<K, V> node) throws IOException {
+		int keyNum = node.mCurrentKeyNum;
+		long childPages[] = null;
+		if (!node.mIsLeaf) {
+			childPages = new long[keyNum + 1];
+			for (int i = 0; i <= keyNum; ++i) {
+				childPages[i] = writeNode(node.mChildren[i]);
+			}
+		}
+
+		// Encode the entries, then the node: header, children, entry
+		// offsets and entries
+		mEntries.reset();
+		int entryOffsets[] = new int[keyNum];
+		int entriesStart = 8 + ((childPages == null) ? 0 : (8 * (keyNum + 1))) + (4 * keyNum);
+		for (int i = 0; i < keyNum; ++i) {
+			entryOffsets[i] = entriesStart + mEntries.size();
+			mKeyCodec.write(node.getKey(i), mEntriesOut);
+			V value = node.getValue(i);
+			if (value == null) {
+				mEntriesOut.writeByte(0);
+			} else {
+				mEntriesOut.writeByte(1);
+				mValueCodec.write(value, mEntriesOut);
+			}
+		}
+
+		mNode.reset();
+		mNodeOut.writeInt(keyNum);
+		mNodeOut.writeInt((childPages == null) ? MappedBTree.LEAF_FLAG : 0);
+		if (childPages != null) {
+			for (int i = 0; i <= keyNum; ++i) {
+				mNodeOut.writeLong(childPages[i]);
+			}
+		}
+		for (int i = 0; i < keyNum; ++i) {
+			mNodeOut.writeInt(entryOffsets[i]);
+		}
+		mEntries.writeTo(mNodeOut);
+
+		// Pad the node to a whole number of pages
+		int nodePages = (mNode.size() + mPageSize - 1) / mPageSize;
+		mNode.write(mPadding, 0, (nodePages * mPageSize) - mNode.size());
+		mNode.writeTo(mOut);
+
+		long page = mNextPage;
+		mNextPage += nodePages;
+		mMaxNodePages = Math.max(mMaxNodePages, nodePages);
+		return page;
+	}
+}
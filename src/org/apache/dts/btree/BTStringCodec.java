@@ -0,0 +1,43 @@
+package org.apache.dts.btree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Class BTStringCodec.
+ * 
+ * Encodes a String as its length followed by its UTF-8 bytes. Unlike
+ * DataOutput.writeUTF() it isn't limited to 64 KB.
+ */
+public class BTStringCodec implements BTCodec<String> {
+
+	/** The Constant UTF_8. */
+	private final static Charset UTF_8 = Charset.forName("UTF-8");
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.BTCodec#write(java.lang.Object, java.io.DataOutput)
+	 */
+	@Override
+	public void write(String obj, DataOutput out) throws IOException {
+		byte bytes[] = obj.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.BTCodec#read(java.io.DataInput)
+	 */
+	@Override
+	public String read(DataInput in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			throw new IOException("Invalid string length: " + length);
+		}
+
+		byte bytes[] = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+}
@@ -1,6 +1,17 @@
 package org.apache.dts.btree;
 
-import java.util.Stack;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 
 /**
  * The Class BTree.
@@ -10,38 +21,138 @@ import java.util.Stack;
  */
 public class BTree<K extends Comparable, V> {
 
-	/** The Constant REBALANCE_FOR_LEAF_NODE. */
-	public final static int REBALANCE_FOR_LEAF_NODE = 1;
-
-	/** The Constant REBALANCE_FOR_INTERNAL_NODE. */
-	public final static int REBALANCE_FOR_INTERNAL_NODE = 2;
+	/** The Constant DEFAULT_FILL_FACTOR, the node fill factor of a bulk load. */
+	public final static double DEFAULT_FILL_FACTOR = 1.0;
 
 	/** The root. */
 	private BTNode<K, V> mRoot = null;
 
-	/** The intermediate internal node. */
-	private BTNode<K, V> mIntermediateInternalNode = null;
-
-	/** The node index. */
-	private int mNodeIdx = 0;
-
-	/** The tack tracer. */
-	private final Stack<StackInfo> mStackTracer = new Stack<StackInfo>();
-	
 	/** The size. */
 	private int mSize = 0;
 
-	/** The max val. */
-	private int maxVal = 0;
-	
-	/** The min val. */
-	private int minVal = 0;
-	
-	/** The nodes. */
-	private int nodes  = 0;
-	
-	/** The leafs. */
-	private int leafs  = 0;
+	/** The mod count, bumped by each modification to invalidate cursors. */
+	private int mModCount = 0;
+
+	/** The height, 0 for an empty tree. */
+	private int mHeight = 0;
+
+	/** The number of nodes. */
+	private int mNodesCount = 0;
+
+	/** The number of nodes of each level, counted up from the leaves. */
+	private int[] mLevelNodesCounts = new int[0];
+
+	/**
+	 * The number of keys of each internal level, counted up from the leaves,
+	 * the leaves holding the rest of the keys.
+	 */
+	private int[] mLevelKeysCounts = new int[0];
+
+	/** The key search strategy. */
+	private final BTKeySearch<K> mKeySearch;
+
+	/** The aggregator of the subtrees, null if none. */
+	private final BTAggregator<K, V, Object> mAggregator;
+
+	/** The min degree (aka t). */
+	private final int mMinDegree;
+
+	/** The min number of keys of a non-root node (aka t - 1). */
+	private final int mLowerBoundKeyNum;
+
+	/** The max number of keys of a node (aka 2t - 1). */
+	private final int mUpperBoundKeyNum;
+
+	/**
+	 * Instantiates a new b tree with the default min degree that locates
+	 * keys with a binary search.
+	 */
+	public BTree() {
+		this(BTNode.DEFAULT_MIN_DEGREE, new BTBinaryKeySearch<K>());
+	}
+
+	/**
+	 * Instantiates a new b tree that locates keys with a binary search.
+	 *
+	 * @param minDegree the min degree (aka t), every node holds at most
+	 *            2t - 1 keys
+	 */
+	public BTree(int minDegree) {
+		this(minDegree, new BTBinaryKeySearch<K>());
+	}
+
+	/**
+	 * Instantiates a new b tree with the default min degree.
+	 *
+	 * @param keySearch the strategy used to locate a key inside a node
+	 */
+	public BTree(BTKeySearch<K> keySearch) {
+		this(BTNode.DEFAULT_MIN_DEGREE, keySearch);
+	}
+
+	/**
+	 * Instantiates a new b tree.
+	 *
+	 * @param minDegree the min degree (aka t), every node holds at most
+	 *            2t - 1 keys
+	 * @param keySearch the strategy used to locate a key inside a node
+	 */
+	public BTree(int minDegree, BTKeySearch<K> keySearch) {
+		this(minDegree, keySearch, null);
+	}
+
+	/**
+	 * Instantiates a new b tree caching the aggregate of every subtree.
+	 *
+	 * @param minDegree the min degree (aka t), every node holds at most
+	 *            2t - 1 keys
+	 * @param keySearch the strategy used to locate a key inside a node
+	 * @param aggregator the aggregator of the subtrees, null for none
+	 */
+	@SuppressWarnings("unchecked")
+	public BTree(int minDegree, BTKeySearch<K> keySearch, BTAggregator<K, V, ?> aggregator) {
+		if (minDegree < BTNode.SMALLEST_MIN_DEGREE) {
+			throw new IllegalArgumentException("Min degree must be at least " + BTNode.SMALLEST_MIN_DEGREE
+					+ ": " + minDegree);
+		}
+
+		if (keySearch == null) {
+			throw new IllegalArgumentException("Key search strategy must not be null");
+		}
+
+		mMinDegree = minDegree;
+		mLowerBoundKeyNum = BTNode.getLowerBoundKeyNum(minDegree);
+		mUpperBoundKeyNum = BTNode.getUpperBoundKeyNum(minDegree);
+		mKeySearch = keySearch;
+		mAggregator = (BTAggregator<K, V, Object>) aggregator;
+	}
+
+	/**
+	 * Gets the min degree.
+	 *
+	 * @return the min degree
+	 */
+	public int getMinDegree() {
+		return mMinDegree;
+	}
+
+	/**
+	 * Gets the key search strategy.
+	 *
+	 * @return the key search strategy
+	 */
+	public BTKeySearch<K> getKeySearch() {
+		return mKeySearch;
+	}
+
+	/**
+	 * Gets the aggregator.
+	 *
+	 * @return the aggregator of the subtrees, null if none
+	 */
+	public BTAggregator<K, V, ?> getAggregator() {
+		return mAggregator;
+	}
 
 	/**
 	 * Gets the root node.
@@ -53,77 +164,821 @@ public class BTree<K extends Comparable, V> {
 	}
 
 	/**
-	 * Size.
-	 *
-	 * @return the long
+	 * Size.
+	 *
+	 * @return the long
+	 */
+	public int getSize() {
+		return mSize;
+	}
+
+	/**
+	 * Gets the mod count.
+	 *
+	 * @return the mod count
+	 */
+	int getModCount() {
+		return mModCount;
+	}
+	
+	/**
+	 * Gets the smallest key, going down the left spine of the tree.
+	 *
+	 * @return the smallest key, null if the tree is empty
+	 */
+	public K firstKey() {
+		BTNode<K, V> btNode = getFirstLeaf();
+		return (btNode != null) ? btNode.getKey(0) : null;
+	}
+
+	/**
+	 * Gets the greatest key, going down the right spine of the tree.
+	 *
+	 * @return the greatest key, null if the tree is empty
+	 */
+	public K lastKey() {
+		BTNode<K, V> btNode = getLastLeaf();
+		return (btNode != null) ? btNode.getKey(btNode.mCurrentKeyNum - 1) : null;
+	}
+
+	/**
+	 * Gets the entry of the smallest key.
+	 *
+	 * @return the entry, null if the tree is empty
+	 */
+	public BTKeyValue<K, V> firstEntry() {
+		BTNode<K, V> btNode = getFirstLeaf();
+		return (btNode != null) ? new BTKeyValue<K, V>(btNode.getKey(0), btNode.getValue(0)) : null;
+	}
+
+	/**
+	 * Gets the entry of the greatest key.
+	 *
+	 * @return the entry, null if the tree is empty
+	 */
+	public BTKeyValue<K, V> lastEntry() {
+		BTNode<K, V> btNode = getLastLeaf();
+		if (btNode == null) {
+			return null;
+		}
+
+		int i = btNode.mCurrentKeyNum - 1;
+		return new BTKeyValue<K, V>(btNode.getKey(i), btNode.getValue(i));
+	}
+
+	/**
+	 * Gets the entry of the greatest key less than or equal to a key.
+	 *
+	 * @param key the key
+	 * @return the entry, null if there is no such key
+	 */
+	public BTKeyValue<K, V> floorEntry(K key) {
+		return findNearestEntry(key, false, true);
+	}
+
+	/**
+	 * Gets the entry of the greatest key strictly less than a key.
+	 *
+	 * @param key the key
+	 * @return the entry, null if there is no such key
+	 */
+	public BTKeyValue<K, V> lowerEntry(K key) {
+		return findNearestEntry(key, false, false);
+	}
+
+	/**
+	 * Gets the entry of the smallest key greater than or equal to a key.
+	 *
+	 * @param key the key
+	 * @return the entry, null if there is no such key
+	 */
+	public BTKeyValue<K, V> ceilingEntry(K key) {
+		return findNearestEntry(key, true, true);
+	}
+
+	/**
+	 * Gets the entry of the smallest key strictly greater than a key.
+	 *
+	 * @param key the key
+	 * @return the entry, null if there is no such key
+	 */
+	public BTKeyValue<K, V> higherEntry(K key) {
+		return findNearestEntry(key, true, false);
+	}
+
+	/**
+	 * Find the entry nearest to a key on one side of it, in a single descent:
+	 * the separators passed on the way that are on the right side of the key
+	 * are the candidates, the deepest one being the nearest.
+	 *
+	 * @param key the key
+	 * @param isAbove true to look above the key, false to look below it
+	 * @param isInclusive true if the key itself qualifies
+	 * @return the entry, null if there is no such key
+	 */
+	private BTKeyValue<K, V> findNearestEntry(K key, boolean isAbove, boolean isInclusive) {
+		BTNode<K, V> btNode = mRoot;
+		BTNode<K, V> nearestNode = null;
+		int nearestIdx = 0;
+
+		while (btNode != null) {
+			int i = mKeySearch.search(btNode, key);
+			int childIdx;
+			int candidateIdx;
+			if (i >= 0) {
+				if (isInclusive) {
+					return new BTKeyValue<K, V>(btNode.getKey(i), btNode.getValue(i));
+				}
+
+				// The nearest key is in the subtree next to the key, or it is
+				// the key next to it in this node
+				childIdx = isAbove ? (i + 1) : i;
+				candidateIdx = isAbove ? (i + 1) : (i - 1);
+			} else {
+				childIdx = -(i + 1);
+				candidateIdx = isAbove ? childIdx : (childIdx - 1);
+			}
+
+			if ((candidateIdx >= 0) && (candidateIdx < btNode.mCurrentKeyNum)) {
+				nearestNode = btNode;
+				nearestIdx = candidateIdx;
+			}
+			btNode = btNode.mIsLeaf ? null : btNode.mChildren[childIdx];
+		}
+
+		return (nearestNode != null)
+				? new BTKeyValue<K, V>(nearestNode.getKey(nearestIdx), nearestNode.getValue(nearestIdx)) : null;
+	}
+
+	/**
+	 * Gets the rank of a key.
+	 *
+	 * @param key the key
+	 * @return the number of keys strictly less than the key, whether the key
+	 *         exists or not
+	 */
+	public int rank(K key) {
+		return countKeysBelow(key, false);
+	}
+
+	/**
+	 * Select the entry of a rank.
+	 *
+	 * @param rank the rank, in [0, size)
+	 * @return the entry of the key greater than exactly rank keys
+	 */
+	public BTKeyValue<K, V> select(int rank) {
+		if ((rank < 0) || (rank >= mSize)) {
+			throw new IllegalArgumentException("Rank must be in [0, " + mSize + "): " + rank);
+		}
+
+		BTNode<K, V> btNode = mRoot;
+		while (true) {
+			if (btNode.mIsLeaf) {
+				return new BTKeyValue<K, V>(btNode.getKey(rank), btNode.getValue(rank));
+			}
+
+			// Skip the children on the left of the entry along with their
+			// separators
+			int i = 0;
+			while (rank >= btNode.mChildren[i].mSubtreeSize) {
+				rank -= btNode.mChildren[i].mSubtreeSize;
+				if (rank == 0) {
+					return new BTKeyValue<K, V>(btNode.getKey(i), btNode.getValue(i));
+				}
+				--rank;
+				++i;
+			}
+			btNode = btNode.mChildren[i];
+		}
+	}
+
+	/**
+	 * Count the keys in a range.
+	 *
+	 * @param lowKey the low bound of the range, null if unbounded
+	 * @param isLowInclusive true if the low bound is in the range
+	 * @param highKey the high bound of the range, null if unbounded
+	 * @param isHighInclusive true if the high bound is in the range
+	 * @return the number of keys in the range
+	 */
+	public int count(K lowKey, boolean isLowInclusive, K highKey, boolean isHighInclusive) {
+		int highCount = (highKey != null) ? countKeysBelow(highKey, isHighInclusive) : mSize;
+		int lowCount = (lowKey != null) ? countKeysBelow(lowKey, !isLowInclusive) : 0;
+		return Math.max(0, highCount - lowCount);
+	}
+
+	/**
+	 * Count the keys in a range, both bounds included.
+	 *
+	 * @param lowKey the low bound of the range, null if unbounded
+	 * @param highKey the high bound of the range, null if unbounded
+	 * @return the number of keys in the range
+	 */
+	public int count(K lowKey, K highKey) {
+		return count(lowKey, true, highKey, true);
+	}
+
+	/**
+	 * Count the keys below a key, in a single descent: the keys on the left
+	 * of the path, and the subtrees hanging on their left, are below it.
+	 *
+	 * @param key the key
+	 * @param isInclusive true to count the key itself
+	 * @return the number of keys below the key
+	 */
+	private int countKeysBelow(K key, boolean isInclusive) {
+		BTNode<K, V> btNode = mRoot;
+		int count = 0;
+
+		while (btNode != null) {
+			int i = mKeySearch.search(btNode, key);
+			if (i >= 0) {
+				count += i + (isInclusive ? 1 : 0);
+				if (!btNode.mIsLeaf) {
+					count += getChildrenSize(btNode, 0, i + 1);
+				}
+				return count;
+			}
+
+			i = -(i + 1);
+			count += i;
+			if (btNode.mIsLeaf) {
+				return count;
+			}
+			count += getChildrenSize(btNode, 0, i);
+			btNode = btNode.mChildren[i];
+		}
+
+		return count;
+	}
+
+	/**
+	 * Gets the number of keys in a range of children of an internal node.
+	 *
+	 * @param btNode the bt node
+	 * @param fromIdx the index of the first child
+	 * @param toIdx the index after the last child
+	 * @return the sum of the subtree sizes of the children
+	 */
+	private static int getChildrenSize(BTNode<?, ?> btNode, int fromIdx, int toIdx) {
+		int size = 0;
+		for (int i = fromIdx; i < toIdx; ++i) {
+			size += btNode.mChildren[i].mSubtreeSize;
+		}
+
+		return size;
+	}
+
+	/**
+	 * Pick a uniform random sample of distinct entries, each one selected
+	 * by its rank.
+	 *
+	 * @param sampleSize the number of entries to pick, all of them if the
+	 *            tree holds fewer
+	 * @param random the random generator
+	 * @return the entries, in key order
+	 */
+	public List<BTKeyValue<K, V>> sample(int sampleSize, Random random) {
+		if (sampleSize < 0) {
+			throw new IllegalArgumentException("Sample size must not be negative: " + sampleSize);
+		}
+
+		// Floyd's algorithm draws sampleSize distinct ranks in as many draws
+		sampleSize = Math.min(sampleSize, mSize);
+		Set<Integer> ranks = new HashSet<Integer>();
+		for (int i = mSize - sampleSize; i < mSize; ++i) {
+			int rank = random.nextInt(i + 1);
+			ranks.add(ranks.contains(rank) ? i : rank);
+		}
+
+		int[] sortedRanks = new int[sampleSize];
+		int n = 0;
+		for (int rank : ranks) {
+			sortedRanks[n++] = rank;
+		}
+		Arrays.sort(sortedRanks);
+
+		List<BTKeyValue<K, V>> entries = new ArrayList<BTKeyValue<K, V>>(sampleSize);
+		for (int rank : sortedRanks) {
+			entries.add(select(rank));
+		}
+		return entries;
+	}
+
+	/**
+	 * Gets the aggregate of all the entries.
+	 *
+	 * @param <A> the aggregate type of the aggregator
+	 * @return the aggregate, the identity if the tree is empty
+	 */
+	public <A> A aggregate() {
+		return aggregate(null, false, null, false);
+	}
+
+	/**
+	 * Gets the aggregate of the entries of a key range, combining the cached
+	 * aggregates of the subtrees fully in the range: only the two paths to
+	 * the bounds are gone through.
+	 *
+	 * @param <A> the aggregate type of the aggregator
+	 * @param lowKey the low bound of the range, null if unbounded
+	 * @param isLowInclusive true if the low bound is in the range
+	 * @param highKey the high bound of the range, null if unbounded
+	 * @param isHighInclusive true if the high bound is in the range
+	 * @return the aggregate, the identity if the range is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public <A> A aggregate(K lowKey, boolean isLowInclusive, K highKey, boolean isHighInclusive) {
+		if (mAggregator == null) {
+			throw new IllegalStateException("The tree has no aggregator");
+		}
+
+		if (mRoot == null) {
+			return (A) mAggregator.identity();
+		}
+
+		return (A) aggregateRange(mRoot, lowKey, isLowInclusive, highKey, isHighInclusive);
+	}
+
+	/**
+	 * Gets the aggregate of the entries of a key range in the subtree of a
+	 * node.
+	 *
+	 * @param btNode the bt node
+	 * @param lowKey the low bound of the range, null if unbounded
+	 * @param isLowInclusive true if the low bound is in the range
+	 * @param highKey the high bound of the range, null if unbounded
+	 * @param isHighInclusive true if the high bound is in the range
+	 * @return the aggregate
+	 */
+	private Object aggregateRange(BTNode<K, V> btNode, K lowKey, boolean isLowInclusive, K highKey,
+			boolean isHighInclusive) {
+		if ((lowKey == null) && (highKey == null)) {
+			return btNode.mAggregate;
+		}
+
+		// The keys in [fromIdx, toIdx) are in the range, and so are the
+		// children between them. The child before the first key is partly in
+		// the range if the low bound falls into it, fully if the bound is
+		// its left separator, not at all if the bound is the first key, and
+		// the same goes for the child after the last key
+		int fromIdx = 0;
+		K childLowKey = null;
+		boolean isFirstChildIn = true;
+		if (lowKey != null) {
+			int i = mKeySearch.search(btNode, lowKey);
+			if (i < 0) {
+				fromIdx = -(i + 1);
+				childLowKey = lowKey;
+			} else if (isLowInclusive) {
+				fromIdx = i;
+				isFirstChildIn = false;
+			} else {
+				fromIdx = i + 1;
+			}
+		}
+
+		int toIdx = btNode.mCurrentKeyNum;
+		K childHighKey = null;
+		boolean isLastChildIn = true;
+		if (highKey != null) {
+			int i = mKeySearch.search(btNode, highKey);
+			if (i < 0) {
+				toIdx = -(i + 1);
+				childHighKey = highKey;
+			} else if (isHighInclusive) {
+				toIdx = i + 1;
+				isLastChildIn = false;
+			} else {
+				toIdx = i;
+			}
+		}
+
+		Object aggregate = mAggregator.identity();
+		if (fromIdx > toIdx) {
+			return aggregate;
+		}
+
+		if (btNode.mIsLeaf) {
+			for (int i = fromIdx; i < toIdx; ++i) {
+				aggregate = mAggregator.combine(aggregate, mAggregator.lift(btNode.getKey(i), btNode.getValue(i)));
+			}
+			return aggregate;
+		}
+
+		if (fromIdx == toIdx) {
+			// Both bounds fall into the same child
+			return (isFirstChildIn && isLastChildIn) ? aggregateRange(btNode.mChildren[fromIdx], childLowKey,
+					isLowInclusive, childHighKey, isHighInclusive) : aggregate;
+		}
+
+		if (isFirstChildIn) {
+			aggregate = aggregateRange(btNode.mChildren[fromIdx], childLowKey, isLowInclusive, null, false);
+		}
+		for (int i = fromIdx; i < toIdx; ++i) {
+			aggregate = mAggregator.combine(aggregate, mAggregator.lift(btNode.getKey(i), btNode.getValue(i)));
+			if (i + 1 < toIdx) {
+				aggregate = mAggregator.combine(aggregate, btNode.mChildren[i + 1].mAggregate);
+			} else if (isLastChildIn) {
+				aggregate = mAggregator.combine(aggregate,
+						aggregateRange(btNode.mChildren[toIdx], null, false, childHighKey, isHighInclusive));
+			}
+		}
+		return aggregate;
+	}
+
+	/**
+	 * Gets the first leaf, holding the smallest key first.
+	 *
+	 * @return the first leaf, null if the tree is empty
+	 */
+	private BTNode<K, V> getFirstLeaf() {
+		BTNode<K, V> btNode = mRoot;
+		if (btNode == null) {
+			return null;
+		}
+
+		while (!btNode.mIsLeaf) {
+			btNode = btNode.mChildren[0];
+		}
+		return btNode;
+	}
+
+	/**
+	 * Gets the last leaf, holding the greatest key last.
+	 *
+	 * @return the last leaf, null if the tree is empty
+	 */
+	private BTNode<K, V> getLastLeaf() {
+		BTNode<K, V> btNode = mRoot;
+		if (btNode == null) {
+			return null;
+		}
+
+		while (!btNode.mIsLeaf) {
+			btNode = btNode.mChildren[btNode.mCurrentKeyNum];
+		}
+		return btNode;
+	}
+
+	/**
+	 * Gets the nodes count.
+	 *
+	 * @return the nodes count
+	 */
+	public int getNodesCount() {
+		return mNodesCount;
+	}
+	
+	/**
+	 * Gets the leafs count.
+	 *
+	 * @return the leafs count
+	 */
+	public int getLeafsCount() {
+		return (mHeight > 0) ? mLevelNodesCounts[0] : 0;
+	}
+
+	/**
+	 * Gets the height.
+	 *
+	 * @return the number of levels, 0 for an empty tree
+	 */
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * Gets the index of a level in the level counts.
+	 *
+	 * @param level the level, 0 for the root
+	 * @return the index of the level, 0 for the leaves
+	 */
+	private int getLevelIndex(int level) {
+		if ((level < 0) || (level >= mHeight)) {
+			throw new IllegalArgumentException("Level must be in [0, " + mHeight + "): " + level);
+		}
+
+		return mHeight - 1 - level;
+	}
+
+	/**
+	 * Gets the nodes count of a level.
+	 *
+	 * @param level the level, 0 for the root
+	 * @return the nodes count of the level
+	 */
+	public int getLevelNodesCount(int level) {
+		return mLevelNodesCounts[getLevelIndex(level)];
+	}
+
+	/**
+	 * Gets the keys count of a level.
+	 *
+	 * @param level the level, 0 for the root
+	 * @return the keys count of the level
+	 */
+	public int getLevelKeysCount(int level) {
+		int levelIdx = getLevelIndex(level);
+		if (levelIdx > 0) {
+			return mLevelKeysCounts[levelIdx];
+		}
+
+		int keysCount = mSize;
+		for (int i = 1; i < mHeight; ++i) {
+			keysCount -= mLevelKeysCounts[i];
+		}
+		return keysCount;
+	}
+
+	/**
+	 * Gets the fill factor of a level.
+	 *
+	 * @param level the level, 0 for the root
+	 * @return the fraction of the 2t - 1 key slots of the nodes of the level
+	 *         in use
+	 */
+	public double getLevelFillFactor(int level) {
+		return (double) getLevelKeysCount(level) / ((double) getLevelNodesCount(level) * mUpperBoundKeyNum);
+	}
+
+	/**
+	 * Clear.
+	 */
+	public void clear() {
+		++mModCount;
+		mSize  = 0;
+		mRoot = null;
+		mHeight = 0;
+		mNodesCount = 0;
+		mLevelNodesCounts = new int[0];
+		mLevelKeysCounts = new int[0];
+	}
+
+	/**
+	 * Creates the node.
+	 *
+	 * @param isLeaf the is leaf
+	 * @return the BT node
+	 */
+	private BTNode<K, V> createNode(boolean isLeaf) {
+		return new BTNode<K, V>(mMinDegree, isLeaf);
+	}
+
+	/**
+	 * Update the aggregate of a node from its entries and the aggregates of
+	 * its children, if the tree has an aggregator.
+	 *
+	 * @param btNode the bt node
+	 */
+	private void updateAggregate(BTNode<K, V> btNode) {
+		if (mAggregator == null) {
+			return;
+		}
+
+		Object aggregate = btNode.mIsLeaf ? mAggregator.identity() : btNode.mChildren[0].mAggregate;
+		for (int i = 0; i < btNode.mCurrentKeyNum; ++i) {
+			aggregate = mAggregator.combine(aggregate, mAggregator.lift(btNode.getKey(i), btNode.getValue(i)));
+			if (!btNode.mIsLeaf) {
+				aggregate = mAggregator.combine(aggregate, btNode.mChildren[i + 1].mAggregate);
+			}
+		}
+		btNode.mAggregate = aggregate;
+	}
+
+	/**
+	 * Update the aggregates of the nodes of a path, from the bottom up.
+	 *
+	 * @param pathNodes the nodes of the path, from the top down
+	 */
+	private void updatePathAggregates(List<BTNode<K, V>> pathNodes) {
+		if (mAggregator == null) {
+			return;
+		}
+
+		for (int i = pathNodes.size() - 1; i >= 0; --i) {
+			updateAggregate(pathNodes.get(i));
+		}
+	}
+
+	/**
+	 * Gets the level of a node, counted up from the leaves.
+	 *
+	 * @param btNode the bt node
+	 * @return the level, 0 for a leaf
+	 */
+	private static int getLevel(BTNode<?, ?> btNode) {
+		int level = 0;
+		while (!btNode.mIsLeaf) {
+			btNode = btNode.mChildren[0];
+			++level;
+		}
+
+		return level;
+	}
+
+	/**
+	 * Count a new root on top of the tree, holding no key yet.
+	 */
+	private void addRootLevel() {
+		if (mHeight == mLevelNodesCounts.length) {
+			mLevelNodesCounts = Arrays.copyOf(mLevelNodesCounts, mHeight + 1);
+			mLevelKeysCounts = Arrays.copyOf(mLevelKeysCounts, mHeight + 1);
+		}
+
+		mLevelNodesCounts[mHeight] = 1;
+		mLevelKeysCounts[mHeight] = 0;
+		++mHeight;
+		++mNodesCount;
+	}
+
+	/**
+	 * Uncount the root dropped from the top of the tree.
 	 */
-	public int getSize() {
-		return mSize;
+	private void removeRootLevel() {
+		--mHeight;
+		--mNodesCount;
+		mLevelNodesCounts[mHeight] = 0;
+		mLevelKeysCounts[mHeight] = 0;
 	}
-	
+
 	/**
-	 * Gets the max value.
-	 *
-	 * @return the max value
+	 * Recount the nodes and the keys of each level, and the subtree sizes
+	 * and aggregates, after the tree has been built in one go.
 	 */
-	public int getMaxValue() {
-		return maxVal;
+	private void recountLevels() {
+		mHeight = (mRoot != null) ? (getLevel(mRoot) + 1) : 0;
+		mLevelNodesCounts = new int[mHeight];
+		mLevelKeysCounts = new int[mHeight];
+		mNodesCount = 0;
+		if (mRoot != null) {
+			countLevels(mRoot, mHeight - 1);
+		}
 	}
-	
+
 	/**
-	 * Gets the min value.
+	 * Count the nodes and the keys of each level in the subtree of a node,
+	 * and the sizes and the aggregates of the subtrees in it.
 	 *
-	 * @return the min value
+	 * @param btNode the bt node
+	 * @param level the level of the node, counted up from the leaves
 	 */
-	public int getMinValue() {
-		return minVal;
+	private void countLevels(BTNode<K, V> btNode, int level) {
+		++mNodesCount;
+		++mLevelNodesCounts[level];
+		btNode.mSubtreeSize = btNode.mCurrentKeyNum;
+		if (btNode.mIsLeaf) {
+			updateAggregate(btNode);
+			return;
+		}
+
+		mLevelKeysCounts[level] += btNode.mCurrentKeyNum;
+		for (int i = 0; i <= btNode.mCurrentKeyNum; ++i) {
+			countLevels(btNode.mChildren[i], level - 1);
+			btNode.mSubtreeSize += btNode.mChildren[i].mSubtreeSize;
+		}
+		updateAggregate(btNode);
 	}
-	
+
 	/**
-	 * Gets the nodes count.
+	 * Bulk load sorted entries in an empty tree, packing the nodes full.
 	 *
-	 * @return the nodes count
+	 * @param entries the entries, sorted by strictly increasing keys
 	 */
-	public int getNodesCount() {
-		nodes = 0;
-		countNodes(mRoot);
-		return nodes;
+	public void bulkLoad(Iterator<? extends Map.Entry<K, V>> entries) {
+		bulkLoad(entries, DEFAULT_FILL_FACTOR);
 	}
-	
+
 	/**
-	 * Gets the leafs count.
+	 * Bulk load sorted entries in an empty tree. The nodes are filled left to
+	 * right and the upper levels are built bottom-up at the same time, in a
+	 * single pass over the entries and without any descent from the root.
+	 * If the entries turn out not to be sorted, the tree is left empty.
 	 *
-	 * @return the leafs count
+	 * @param entries the entries, sorted by strictly increasing keys
+	 * @param fillFactor the fraction of the 2t - 1 key slots of a node to
+	 *            fill, at least t keys are put in a node whatever the factor
 	 */
-	public int getLeafsCount() {
-		leafs = 0;
-		countLeafs(mRoot);
-		return leafs;
+	public void bulkLoad(Iterator<? extends Map.Entry<K, V>> entries, double fillFactor) {
+		if (mSize > 0) {
+			throw new IllegalStateException("Bulk load needs an empty tree");
+		}
+
+		if (!(fillFactor > 0) || (fillFactor > 1)) {
+			throw new IllegalArgumentException("Fill factor must be in (0, 1]: " + fillFactor);
+		}
+
+		// Keep at least t keys in a node so that the last node of a level,
+		// left incomplete, can always be completed from its left sibling
+		int targetKeyNum = (int) Math.round(fillFactor * mUpperBoundKeyNum);
+		targetKeyNum = Math.max(mMinDegree, Math.min(mUpperBoundKeyNum, targetKeyNum));
+
+		// The node being filled at each level, leaves first
+		List<BTNode<K, V>> levelNodes = new ArrayList<BTNode<K, V>>();
+		levelNodes.add(createNode(true));
+
+		K lastKey = null;
+		int size = 0;
+		try {
+			while (entries.hasNext()) {
+				Map.Entry<K, V> entry = entries.next();
+				K key = entry.getKey();
+				if ((size > 0) && (lastKey.compareTo(key) >= 0)) {
+					throw new IllegalArgumentException("Keys must be sorted and unique: " + key + " after " + lastKey);
+				}
+
+				appendEntry(levelNodes, 0, key, entry.getValue(), null, targetKeyNum);
+				lastKey = key;
+				++size;
+			}
+		} catch (RuntimeException rex) {
+			clear();
+			throw rex;
+		}
+
+		if (size == 0) {
+			return;
+		}
+
+		// Hook the incomplete node of each level as the last child of the
+		// node above
+		BTNode<K, V> btNode = levelNodes.get(0);
+		for (int level = 1; level < levelNodes.size(); ++level) {
+			BTNode<K, V> parentNode = levelNodes.get(level);
+			parentNode.mChildren[parentNode.mCurrentKeyNum] = btNode;
+			btNode = parentNode;
+		}
+		++mModCount;
+		mRoot = btNode;
+		mSize = size;
+		recountLevels();
+
+		fixRightSpine();
 	}
 
 	/**
-	 * Clear.
+	 * Append an entry to the node being filled at a level of a bulk load. A
+	 * complete node is closed, and the entry goes up as the separator
+	 * between it and the next node of the level.
+	 *
+	 * @param levelNodes the node being filled at each level
+	 * @param level the level
+	 * @param key the key
+	 * @param value the value
+	 * @param leftChild the child on the left of the entry, null for a leaf
+	 * @param targetKeyNum the number of keys of a complete node
 	 */
-	public void clear() {
-		mSize  = 0;
-		maxVal = 0;
-		minVal = 0;
-		leafs  = 0;
-		nodes  = 0;
-		mRoot = null;
+	private void appendEntry(List<BTNode<K, V>> levelNodes, int level, K key, V value, BTNode<K, V> leftChild,
+			int targetKeyNum) {
+		if (level == levelNodes.size()) {
+			levelNodes.add(createNode(false));
+		}
+
+		BTNode<K, V> btNode = levelNodes.get(level);
+		if (btNode.mCurrentKeyNum == targetKeyNum) {
+			if (leftChild != null) {
+				btNode.mChildren[targetKeyNum] = leftChild;
+			}
+			levelNodes.set(level, createNode(btNode.mIsLeaf));
+			appendEntry(levelNodes, level + 1, key, value, btNode, targetKeyNum);
+			return;
+		}
+
+		int i = btNode.mCurrentKeyNum;
+		btNode.mKeys[i] = key;
+		btNode.mValues[i] = value;
+		if (leftChild != null) {
+			btNode.mChildren[i] = leftChild;
+		}
+		btNode.mCurrentKeyNum = i + 1;
 	}
 
 	/**
-	 * Creates the node.
-	 *
-	 * @return the BT node
+	 * Fix the right spine after a bulk load, whose nodes may have too few
+	 * keys, going down from the root. Their left siblings are complete, so
+	 * a node is either completed by rotations or merged into its left
+	 * sibling. An internal node is given at least t keys, so that a merge
+	 * below it still leaves it with t - 1 keys.
 	 */
-	private BTNode<K, V> createNode() {
-		BTNode<K, V> btNode;
-		btNode = new BTNode();
-		btNode.mIsLeaf = true;
-		btNode.mCurrentKeyNum = 0;
-		return btNode;
+	private void fixRightSpine() {
+		BTNode<K, V> parentNode = mRoot;
+		while (!parentNode.mIsLeaf) {
+			int nodeIdx = parentNode.mCurrentKeyNum;
+			BTNode<K, V> btNode = parentNode.mChildren[nodeIdx];
+			int minKeyNum = btNode.mIsLeaf ? mLowerBoundKeyNum : mMinDegree;
+			if (btNode.mCurrentKeyNum < minKeyNum) {
+				BTNode<K, V> leftSiblingNode = parentNode.mChildren[nodeIdx - 1];
+				if (leftSiblingNode.mCurrentKeyNum + btNode.mCurrentKeyNum >= minKeyNum + mLowerBoundKeyNum) {
+					while (btNode.mCurrentKeyNum < minKeyNum) {
+						performRightRotation(parentNode, nodeIdx);
+					}
+				} else {
+					btNode = performMergeWithRightSibling(parentNode, nodeIdx - 1);
+				}
+			}
+			parentNode = btNode;
+		}
 	}
 
 	/**
@@ -135,35 +990,92 @@ public class BTree<K extends Comparable, V> {
 	 */
 	public V search(K key) {
 		BTNode<K, V> currentNode = mRoot;
-		BTKeyValue<K, V> currentKey;
-		int i, numberOfKeys;
+		int i;
 
 		while (currentNode != null) {
-			numberOfKeys = currentNode.mCurrentKeyNum;
-			i = 0;
-			currentKey = currentNode.mKeys[i];
-			while ((i < numberOfKeys) && (key.compareTo(currentKey.mKey) > 0)) {
-				++i;
-				if (i < numberOfKeys) {
-					currentKey = currentNode.mKeys[i];
-				} else {
-					--i;
-					break;
-				}
+			i = mKeySearch.search(currentNode, key);
+			if (i >= 0) {
+				return currentNode.getValue(i);
+			}
+
+			// Not in this node, go down to the child at the insertion point
+			currentNode = BTNode.getLeftChildAtIndex(currentNode, -(i + 1));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Search a batch of keys. The keys are sorted and looked up along a
+	 * single walk of the tree, the keys going down to the same subtree
+	 * sharing the descent to it.
+	 *
+	 * @param keys
+	 *            the keys
+	 * @return the values of the keys in the order of the keys, with null for
+	 *         the keys that don't exist
+	 */
+	public List<V> searchAll(K[] keys) {
+		K[] sortedKeys = keys.clone();
+		Arrays.sort(sortedKeys);
+		Object[] sortedValues = new Object[sortedKeys.length];
+		if ((mRoot != null) && (sortedKeys.length > 0)) {
+			searchKeysAtNode(mRoot, sortedKeys, 0, sortedKeys.length, sortedValues);
+		}
+
+		List<V> values = new ArrayList<V>(keys.length);
+		for (K key : keys) {
+			@SuppressWarnings("unchecked")
+			V value = (V) sortedValues[Arrays.binarySearch(sortedKeys, key)];
+			values.add(value);
+		}
+		return values;
+	}
+
+	/**
+	 * Search the sorted keys in the range [fromIdx, toIdx) in the subtree of
+	 * a node.
+	 *
+	 * @param btNode
+	 *            the bt node
+	 * @param sortedKeys
+	 *            the sorted keys
+	 * @param fromIdx
+	 *            the index of the first key to search
+	 * @param toIdx
+	 *            the index after the last key to search
+	 * @param sortedValues
+	 *            the values found, at the indexes of their keys
+	 */
+	private void searchKeysAtNode(BTNode<K, V> btNode, K[] sortedKeys, int fromIdx, int toIdx,
+			Object[] sortedValues) {
+		int i = fromIdx;
+		while (i < toIdx) {
+			int keyIdx = mKeySearch.search(btNode, sortedKeys[i]);
+			if (keyIdx >= 0) {
+				sortedValues[i++] = btNode.mValues[keyIdx];
+				continue;
 			}
 
-			if ((i < numberOfKeys) && (key.compareTo(currentKey.mKey) == 0)) {
-				return currentKey.mValue;
+			if (btNode.mIsLeaf) {
+				++i;
+				continue;
 			}
 
-			if (key.compareTo(currentKey.mKey) > 0) {
-				currentNode = BTNode.getRightChildAtIndex(currentNode, i);
+			// All the keys below the separator after the child go down to it
+			int childIdx = -(keyIdx + 1);
+			int j = i + 1;
+			if (childIdx < btNode.mCurrentKeyNum) {
+				while ((j < toIdx) && (sortedKeys[j].compareTo(btNode.mKeys[childIdx]) < 0)) {
+					++j;
+				}
 			} else {
-				currentNode = BTNode.getLeftChildAtIndex(currentNode, i);
+				j = toIdx;
 			}
-		}
 
-		return null;
+			searchKeysAtNode(BTNode.getLeftChildAtIndex(btNode, childIdx), sortedKeys, i, j, sortedValues);
+			i = j;
+		}
 	}
 
 	/**
@@ -176,127 +1088,221 @@ public class BTree<K extends Comparable, V> {
 	 * @return the b tree
 	 */
 	public BTree insert(K key, V value) {
+		++mModCount;
 		if (mRoot == null) {
-			mRoot = createNode();
-			minVal = (int) key;
-			maxVal = (int) key;
+			mRoot = createNode(true);
+			addRootLevel();
 		}
 
 		++mSize;
-		if (mRoot.mCurrentKeyNum == BTNode.UPPER_BOUND_KEYNUM) {
+		if (mRoot.mCurrentKeyNum == mUpperBoundKeyNum) {
 			// The root is full, split it
-			BTNode<K, V> btNode = createNode();
-			btNode.mIsLeaf = false;
+			BTNode<K, V> btNode = createNode(false);
 			btNode.mChildren[0] = mRoot;
+			btNode.mSubtreeSize = mRoot.mSubtreeSize;
+			btNode.mAggregate = mRoot.mAggregate;
 			mRoot = btNode;
+			addRootLevel();
 			splitNode(mRoot, 0, btNode.mChildren[0]);
 		}
 
 		insertKeyAtNode(mRoot, key, value);
-		
-		if(maxVal < (int) key) {
-			maxVal = (int) key;
+		return this;
+	}
+
+	/**
+	 * Insert a batch of entries. The batch is sorted first, then the entries
+	 * are inserted along a single walk of the tree: the path of the last
+	 * insertion is kept with the upper bound of each of its nodes, so the
+	 * next key only goes back up to the deepest node covering it instead of
+	 * descending from the root again. Full nodes are still split on the way
+	 * down, as in {@link #insert(Comparable, Object)}. If a key appears more
+	 * than once in the batch, its last value wins.
+	 *
+	 * @param entries
+	 *            the entries
+	 * @return the b tree
+	 */
+	public BTree insertAll(Collection<? extends Map.Entry<K, V>> entries) {
+		@SuppressWarnings("unchecked")
+		Map.Entry<K, V>[] sortedEntries = entries.toArray(new Map.Entry[entries.size()]);
+		if (sortedEntries.length == 0) {
+			return this;
+		}
+		++mModCount;
+
+		// The sort is stable, so duplicate keys keep the order of the batch
+		Arrays.sort(sortedEntries, new Comparator<Map.Entry<K, V>>() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public int compare(Map.Entry<K, V> entry1, Map.Entry<K, V> entry2) {
+				return entry1.getKey().compareTo(entry2.getKey());
+			}
+		});
+
+		if (mRoot == null) {
+			mRoot = createNode(true);
+			addRootLevel();
 		}
-		
-		if(minVal > (int) key) {
-			minVal = (int) key;
+
+		// The nodes of the current path and their exclusive upper bounds,
+		// null when the node is on the right spine of the tree
+		List<BTNode<K, V>> pathNodes = new ArrayList<BTNode<K, V>>();
+		List<K> pathBounds = new ArrayList<K>();
+
+		for (Map.Entry<K, V> entry : sortedEntries) {
+			K key = entry.getKey();
+
+			// Go back up to the deepest node covering the key, which must not
+			// be full since one of its children may be split into it
+			int depth = pathNodes.size();
+			while (depth > 0) {
+				K upperBound = pathBounds.get(depth - 1);
+				if (((upperBound == null) || (key.compareTo(upperBound) < 0))
+						&& (pathNodes.get(depth - 1).mCurrentKeyNum < mUpperBoundKeyNum)) {
+					break;
+				}
+				--depth;
+				pathNodes.remove(depth);
+				pathBounds.remove(depth);
+			}
+
+			if (depth == 0) {
+				if (mRoot.mCurrentKeyNum == mUpperBoundKeyNum) {
+					// The root is full, split it
+					BTNode<K, V> btNode = createNode(false);
+					btNode.mChildren[0] = mRoot;
+					btNode.mSubtreeSize = mRoot.mSubtreeSize;
+					btNode.mAggregate = mRoot.mAggregate;
+					mRoot = btNode;
+					addRootLevel();
+					splitNode(mRoot, 0, btNode.mChildren[0]);
+				}
+				pathNodes.add(mRoot);
+				pathBounds.add(null);
+			}
+
+			insertKeyAlongPath(pathNodes, pathBounds, key, entry.getValue());
 		}
-		
+
 		return this;
 	}
 
 	/**
-	 * Insert key at node.
+	 * Insert key down from the last node of the path, extending the path
+	 * with the nodes it goes through.
 	 *
-	 * @param rootNode
-	 *            the root node
+	 * @param pathNodes
+	 *            the path nodes
+	 * @param pathBounds
+	 *            the exclusive upper bounds of the path nodes
 	 * @param key
 	 *            the key
 	 * @param value
 	 *            the value
 	 */
-	private void insertKeyAtNode(BTNode rootNode, K key, V value) {
-		int i;
-		int currentKeyNum = rootNode.mCurrentKeyNum;
-
-		if (rootNode.mIsLeaf) {
-			if (rootNode.mCurrentKeyNum == 0) {
-				// Empty root
-				rootNode.mKeys[0] = new BTKeyValue<K, V>(key, value);
-				++(rootNode.mCurrentKeyNum);
+	private void insertKeyAlongPath(List<BTNode<K, V>> pathNodes, List<K> pathBounds, K key, V value) {
+		BTNode<K, V> currentNode = pathNodes.get(pathNodes.size() - 1);
+		K upperBound = pathBounds.get(pathBounds.size() - 1);
+		while (true) {
+			int i = mKeySearch.search(currentNode, key);
+			if (i >= 0) {
+				// The key already existed so replace its value and done with it
+				currentNode.mValues[i] = value;
+				updatePathAggregates(pathNodes);
 				return;
 			}
-
-			// Verify if the specified key doesn't exist in the node
-			for (i = 0; i < rootNode.mCurrentKeyNum; ++i) {
-				if (key.compareTo(rootNode.mKeys[i].mKey) == 0) {
-					// Find existing key, overwrite its value only
-					rootNode.mKeys[i].mValue = value;
-					--mSize;
-					return;
+			i = -(i + 1);
+
+			if (currentNode.mIsLeaf) {
+				// Shift the greater keys to the right to make a slot for the key
+				int num = currentNode.mCurrentKeyNum - i;
+				System.arraycopy(currentNode.mKeys, i, currentNode.mKeys, i + 1, num);
+				System.arraycopy(currentNode.mValues, i, currentNode.mValues, i + 1, num);
+				currentNode.mKeys[i] = key;
+				currentNode.mValues[i] = value;
+				++(currentNode.mCurrentKeyNum);
+				++mSize;
+
+				// One more key in the subtree of every node of the path
+				for (BTNode<K, V> pathNode : pathNodes) {
+					++(pathNode.mSubtreeSize);
 				}
+				updatePathAggregates(pathNodes);
+				return;
 			}
 
-			i = currentKeyNum - 1;
-			BTKeyValue<K, V> existingKeyVal = rootNode.mKeys[i];
-			while ((i > -1) && (key.compareTo(existingKeyVal.mKey) < 0)) {
-				rootNode.mKeys[i + 1] = existingKeyVal;
-				--i;
-				if (i > -1) {
-					existingKeyVal = rootNode.mKeys[i];
-				}
+			BTNode<K, V> btNode = BTNode.getLeftChildAtIndex(currentNode, i);
+			if (btNode.mCurrentKeyNum == mUpperBoundKeyNum) {
+				// Split the full child then search the node again, the key
+				// may be the median moved up
+				splitNode(currentNode, i, btNode);
+				continue;
 			}
 
-			i = i + 1;
-			rootNode.mKeys[i] = new BTKeyValue<K, V>(key, value);
-
-			++(rootNode.mCurrentKeyNum);
-			return;
-		}
-
-		// This is an internal node (i.e: not a leaf node)
-		// So let find the child node where the key is supposed to belong
-		i = 0;
-		int numberOfKeys = rootNode.mCurrentKeyNum;
-		BTKeyValue<K, V> currentKey = rootNode.mKeys[i];
-		while ((i < numberOfKeys) && (key.compareTo(currentKey.mKey) > 0)) {
-			++i;
-			if (i < numberOfKeys) {
-				currentKey = rootNode.mKeys[i];
-			} else {
-				--i;
-				break;
+			if (i < currentNode.mCurrentKeyNum) {
+				upperBound = currentNode.getKey(i);
 			}
+			pathNodes.add(btNode);
+			pathBounds.add(upperBound);
+			currentNode = btNode;
 		}
+	}
 
-		if ((i < numberOfKeys) && (key.compareTo(currentKey.mKey) == 0)) {
+	/**
+	 * Insert key at node.
+	 *
+	 * @param rootNode
+	 *            the root node
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @return true, if the key is new in the subtree of the node
+	 */
+	private boolean insertKeyAtNode(BTNode<K, V> rootNode, K key, V value) {
+		int i = mKeySearch.search(rootNode, key);
+		if (i >= 0) {
 			// The key already existed so replace its value and done with it
-			currentKey.mValue = value;
+			rootNode.mValues[i] = value;
 			--mSize;
-			return;
+			updateAggregate(rootNode);
+			return false;
 		}
 
-		BTNode<K, V> btNode;
-		if (key.compareTo(currentKey.mKey) > 0) {
-			btNode = BTNode.getRightChildAtIndex(rootNode, i);
-			i = i + 1;
-		} else {
-			if ((i - 1 >= 0) && (key.compareTo(rootNode.mKeys[i - 1].mKey) > 0)) {
-				btNode = BTNode.getRightChildAtIndex(rootNode, i - 1);
-			} else {
-				btNode = BTNode.getLeftChildAtIndex(rootNode, i);
-			}
+		// The insertion point is also the index of the child subtree where
+		// the key is supposed to belong
+		i = -(i + 1);
+
+		if (rootNode.mIsLeaf) {
+			// Shift the greater keys to the right to make a slot for the key
+			int num = rootNode.mCurrentKeyNum - i;
+			System.arraycopy(rootNode.mKeys, i, rootNode.mKeys, i + 1, num);
+			System.arraycopy(rootNode.mValues, i, rootNode.mValues, i + 1, num);
+			rootNode.mKeys[i] = key;
+			rootNode.mValues[i] = value;
+			++(rootNode.mCurrentKeyNum);
+			++(rootNode.mSubtreeSize);
+			updateAggregate(rootNode);
+			return true;
 		}
 
-		if (btNode.mCurrentKeyNum == BTNode.UPPER_BOUND_KEYNUM) {
+		// This is an internal node (i.e: not a leaf node)
+		BTNode<K, V> btNode = BTNode.getLeftChildAtIndex(rootNode, i);
+
+		if (btNode.mCurrentKeyNum == mUpperBoundKeyNum) {
 			// If the child node is a full node then handle it by splitting out
 			// then insert key starting at the root node after splitting node
 			splitNode(rootNode, i, btNode);
-			insertKeyAtNode(rootNode, key, value);
-			return;
+			return insertKeyAtNode(rootNode, key, value);
 		}
 
-		insertKeyAtNode(btNode, key, value);
+		boolean isNew = insertKeyAtNode(btNode, key, value);
+		if (isNew) {
+			++(rootNode.mSubtreeSize);
+		}
+		updateAggregate(rootNode);
+		return isNew;
 	}
 
 	/**
@@ -309,322 +1315,259 @@ public class BTree<K extends Comparable, V> {
 	 * @param btNode
 	 *            the bt node
 	 */
-	private void splitNode(BTNode parentNode, int nodeIdx, BTNode btNode) {
-		int i;
-
-		BTNode<K, V> newNode = createNode();
-
-		newNode.mIsLeaf = btNode.mIsLeaf;
+	private void splitNode(BTNode<K, V> parentNode, int nodeIdx, BTNode<K, V> btNode) {
+		BTNode<K, V> newNode = createNode(btNode.mIsLeaf);
 
 		// Since the node is full,
 		// new node must share LOWER_BOUND_KEYNUM (aka t - 1) keys from the node
-		newNode.mCurrentKeyNum = BTNode.LOWER_BOUND_KEYNUM;
+		newNode.mCurrentKeyNum = mLowerBoundKeyNum;
 
-		// Copy right half of the keys from the node to the new node
-		for (i = 0; i < BTNode.LOWER_BOUND_KEYNUM; ++i) {
-			newNode.mKeys[i] = btNode.mKeys[i + BTNode.MIN_DEGREE];
-			btNode.mKeys[i + BTNode.MIN_DEGREE] = null;
-		}
+		// Move right half of the keys from the node to the new node
+		System.arraycopy(btNode.mKeys, mMinDegree, newNode.mKeys, 0, mLowerBoundKeyNum);
+		System.arraycopy(btNode.mValues, mMinDegree, newNode.mValues, 0, mLowerBoundKeyNum);
 
 		// If the node is an internal node (not a leaf),
-		// copy the its child pointers at the half right as well
+		// move the its child pointers at the half right as well
 		if (!btNode.mIsLeaf) {
-			for (i = 0; i < BTNode.MIN_DEGREE; ++i) {
-				newNode.mChildren[i] = btNode.mChildren[i + BTNode.MIN_DEGREE];
-				btNode.mChildren[i + BTNode.MIN_DEGREE] = null;
-			}
+			System.arraycopy(btNode.mChildren, mMinDegree, newNode.mChildren, 0, mMinDegree);
+			Arrays.fill(btNode.mChildren, mMinDegree, mMinDegree * 2, null);
 		}
 
 		// The node at this point should have LOWER_BOUND_KEYNUM (aka min degree
 		// - 1) keys at this point.
 		// We will move its right-most key to its parent node later.
-		btNode.mCurrentKeyNum = BTNode.LOWER_BOUND_KEYNUM;
-
-		// Do the right shift for relevant child pointers of the parent node
-		// so that we can put the new node as its new child pointer
-		for (i = parentNode.mCurrentKeyNum; i > nodeIdx; --i) {
-			parentNode.mChildren[i + 1] = parentNode.mChildren[i];
-			parentNode.mChildren[i] = null;
-		}
+		btNode.mCurrentKeyNum = mLowerBoundKeyNum;
+
+		// Do the right shift for relevant keys and child pointers of the
+		// parent node so that we will have a slot for the median key of the
+		// split node and the new node as its new child pointer
+		int num = parentNode.mCurrentKeyNum - nodeIdx;
+		System.arraycopy(parentNode.mKeys, nodeIdx, parentNode.mKeys, nodeIdx + 1, num);
+		System.arraycopy(parentNode.mValues, nodeIdx, parentNode.mValues, nodeIdx + 1, num);
+		System.arraycopy(parentNode.mChildren, nodeIdx + 1, parentNode.mChildren, nodeIdx + 2, num);
+		parentNode.mKeys[nodeIdx] = btNode.mKeys[mLowerBoundKeyNum];
+		parentNode.mValues[nodeIdx] = btNode.mValues[mLowerBoundKeyNum];
 		parentNode.mChildren[nodeIdx + 1] = newNode;
-
-		// Do the right shift all the keys of the parent node the right side of
-		// the node index as well
-		// so that we will have a slot for move a median key from the splitted
-		// node
-		for (i = parentNode.mCurrentKeyNum - 1; i >= nodeIdx; --i) {
-			parentNode.mKeys[i + 1] = parentNode.mKeys[i];
-			parentNode.mKeys[i] = null;
-		}
-		parentNode.mKeys[nodeIdx] = btNode.mKeys[BTNode.LOWER_BOUND_KEYNUM];
-		btNode.mKeys[BTNode.LOWER_BOUND_KEYNUM] = null;
 		++(parentNode.mCurrentKeyNum);
-	}
-
-	/**
-	 * Find predecessor.
-	 *
-	 * @param btNode
-	 *            the bt node
-	 * @param nodeIdx
-	 *            the node idx
-	 * @return the BT node
-	 */
-	private BTNode<K, V> findPredecessor(BTNode<K, V> btNode, int nodeIdx) {
-		if (btNode.mIsLeaf) {
-			return btNode;
-		}
 
-		BTNode<K, V> predecessorNode;
-		if (nodeIdx > -1) {
-			predecessorNode = BTNode.getLeftChildAtIndex(btNode, nodeIdx);
-			if (predecessorNode != null) {
-				mIntermediateInternalNode = btNode;
-				mNodeIdx = nodeIdx;
-				btNode = findPredecessor(predecessorNode, -1);
-			}
-
-			return btNode;
-		}
-
-		predecessorNode = BTNode.getRightChildAtIndex(btNode, btNode.mCurrentKeyNum - 1);
-		if (predecessorNode != null) {
-			mIntermediateInternalNode = btNode;
-			mNodeIdx = btNode.mCurrentKeyNum;
-			btNode = findPredecessorForNode(predecessorNode, -1);
-		}
-
-		return btNode;
-	}
-
-	/**
-	 * Find predecessor for node.
-	 *
-	 * @param btNode
-	 *            the bt node
-	 * @param keyIdx
-	 *            the key idx
-	 * @return the BT node
-	 */
-	private BTNode<K, V> findPredecessorForNode(BTNode<K, V> btNode, int keyIdx) {
-		BTNode<K, V> predecessorNode;
-		BTNode<K, V> originalNode = btNode;
-		if (keyIdx > -1) {
-			predecessorNode = BTNode.getLeftChildAtIndex(btNode, keyIdx);
-			if (predecessorNode != null) {
-				btNode = findPredecessorForNode(predecessorNode, -1);
-				rebalanceTreeAtNode(originalNode, predecessorNode, keyIdx, REBALANCE_FOR_LEAF_NODE);
-			}
+		// Drop the moved entries from the node
+		Arrays.fill(btNode.mKeys, mLowerBoundKeyNum, mUpperBoundKeyNum, null);
+		Arrays.fill(btNode.mValues, mLowerBoundKeyNum, mUpperBoundKeyNum, null);
 
-			return btNode;
+		// The subtree of the parent node keeps its size
+		newNode.mSubtreeSize = mLowerBoundKeyNum;
+		if (!newNode.mIsLeaf) {
+			newNode.mSubtreeSize += getChildrenSize(newNode, 0, mMinDegree);
 		}
-
-		predecessorNode = BTNode.getRightChildAtIndex(btNode, btNode.mCurrentKeyNum - 1);
-		if (predecessorNode != null) {
-			btNode = findPredecessorForNode(predecessorNode, -1);
-			rebalanceTreeAtNode(originalNode, predecessorNode, keyIdx, REBALANCE_FOR_LEAF_NODE);
+		btNode.mSubtreeSize -= newNode.mSubtreeSize + 1;
+		updateAggregate(btNode);
+		updateAggregate(newNode);
+
+		// One more node on the level of the node, whose median key went up
+		int level = getLevel(btNode);
+		++mNodesCount;
+		++mLevelNodesCounts[level];
+		if (level > 0) {
+			--mLevelKeysCounts[level];
 		}
-
-		return btNode;
+		++mLevelKeysCounts[level + 1];
 	}
 
 	/**
-	 * Perform left rotation.
+	 * Perform left rotation: move the leftmost key of the right sibling up
+	 * to the parent node, and the parent key down to the end of the node.
 	 *
-	 * @param btNode
-	 *            the bt node
-	 * @param nodeIdx
-	 *            the node idx
 	 * @param parentNode
 	 *            the parent node
-	 * @param rightSiblingNode
-	 *            the right sibling node
+	 * @param nodeIdx
+	 *            the index of the deficient node in the parent node
 	 */
-	private void performLeftRotation(BTNode<K, V> btNode, int nodeIdx, BTNode<K, V> parentNode,
-			BTNode<K, V> rightSiblingNode) {
-		int parentKeyIdx = nodeIdx;
-
-		/*
-		 * if (nodeIdx >= parentNode.mCurrentKeyNum) { // This shouldn't happen
-		 * parentKeyIdx = nodeIdx - 1; }
-		 */
+	private void performLeftRotation(BTNode<K, V> parentNode, int nodeIdx) {
+		BTNode<K, V> btNode = parentNode.mChildren[nodeIdx];
+		BTNode<K, V> rightSiblingNode = parentNode.mChildren[nodeIdx + 1];
+		int currentKeyNum = btNode.mCurrentKeyNum;
+		int siblingKeyNum = rightSiblingNode.mCurrentKeyNum;
 
 		// Move the parent key and relevant child to the deficient node
-		btNode.mKeys[btNode.mCurrentKeyNum] = parentNode.mKeys[parentKeyIdx];
-		btNode.mChildren[btNode.mCurrentKeyNum + 1] = rightSiblingNode.mChildren[0];
+		btNode.mKeys[currentKeyNum] = parentNode.mKeys[nodeIdx];
+		btNode.mValues[currentKeyNum] = parentNode.mValues[nodeIdx];
+		int movedSize = 1;
+		if (!btNode.mIsLeaf) {
+			btNode.mChildren[currentKeyNum + 1] = rightSiblingNode.mChildren[0];
+			movedSize += rightSiblingNode.mChildren[0].mSubtreeSize;
+		}
 		++(btNode.mCurrentKeyNum);
+		btNode.mSubtreeSize += movedSize;
+		rightSiblingNode.mSubtreeSize -= movedSize;
+
+		// Move the leftmost key of the right sibling to the parent node
+		parentNode.mKeys[nodeIdx] = rightSiblingNode.mKeys[0];
+		parentNode.mValues[nodeIdx] = rightSiblingNode.mValues[0];
 
-		// Move the leftmost key of the right sibling and relevant child pointer
-		// to the parent node
-		parentNode.mKeys[parentKeyIdx] = rightSiblingNode.mKeys[0];
-		--(rightSiblingNode.mCurrentKeyNum);
 		// Shift all keys and children of the right sibling to its left
-		for (int i = 0; i < rightSiblingNode.mCurrentKeyNum; ++i) {
-			rightSiblingNode.mKeys[i] = rightSiblingNode.mKeys[i + 1];
-			rightSiblingNode.mChildren[i] = rightSiblingNode.mChildren[i + 1];
+		System.arraycopy(rightSiblingNode.mKeys, 1, rightSiblingNode.mKeys, 0, siblingKeyNum - 1);
+		System.arraycopy(rightSiblingNode.mValues, 1, rightSiblingNode.mValues, 0, siblingKeyNum - 1);
+		rightSiblingNode.mKeys[siblingKeyNum - 1] = null;
+		rightSiblingNode.mValues[siblingKeyNum - 1] = null;
+		if (!rightSiblingNode.mIsLeaf) {
+			System.arraycopy(rightSiblingNode.mChildren, 1, rightSiblingNode.mChildren, 0, siblingKeyNum);
+			rightSiblingNode.mChildren[siblingKeyNum] = null;
 		}
-		rightSiblingNode.mChildren[rightSiblingNode.mCurrentKeyNum] = rightSiblingNode.mChildren[rightSiblingNode.mCurrentKeyNum
-				+ 1];
-		rightSiblingNode.mChildren[rightSiblingNode.mCurrentKeyNum + 1] = null;
+		--(rightSiblingNode.mCurrentKeyNum);
+		updateAggregate(btNode);
+		updateAggregate(rightSiblingNode);
 	}
 
 	/**
-	 * Perform right rotation.
+	 * Perform right rotation: move the rightmost key of the left sibling up
+	 * to the parent node, and the parent key down to the front of the node.
 	 *
-	 * @param btNode
-	 *            the bt node
-	 * @param nodeIdx
-	 *            the node idx
 	 * @param parentNode
 	 *            the parent node
-	 * @param leftSiblingNode
-	 *            the left sibling node
+	 * @param nodeIdx
+	 *            the index of the deficient node in the parent node
 	 */
-	private void performRightRotation(BTNode<K, V> btNode, int nodeIdx, BTNode<K, V> parentNode,
-			BTNode<K, V> leftSiblingNode) {
-		int parentKeyIdx = nodeIdx;
-		if (nodeIdx >= parentNode.mCurrentKeyNum) {
-			// This shouldn't happen
-			parentKeyIdx = nodeIdx - 1;
-		}
+	private void performRightRotation(BTNode<K, V> parentNode, int nodeIdx) {
+		BTNode<K, V> btNode = parentNode.mChildren[nodeIdx];
+		BTNode<K, V> leftSiblingNode = parentNode.mChildren[nodeIdx - 1];
+		int currentKeyNum = btNode.mCurrentKeyNum;
+		int siblingKeyNum = leftSiblingNode.mCurrentKeyNum;
 
 		// Shift all keys and children of the deficient node to the right
 		// So that there will be available left slot for insertion
-		btNode.mChildren[btNode.mCurrentKeyNum + 1] = btNode.mChildren[btNode.mCurrentKeyNum];
-		for (int i = btNode.mCurrentKeyNum - 1; i >= 0; --i) {
-			btNode.mKeys[i + 1] = btNode.mKeys[i];
-			btNode.mChildren[i + 1] = btNode.mChildren[i];
+		System.arraycopy(btNode.mKeys, 0, btNode.mKeys, 1, currentKeyNum);
+		System.arraycopy(btNode.mValues, 0, btNode.mValues, 1, currentKeyNum);
+		if (!btNode.mIsLeaf) {
+			System.arraycopy(btNode.mChildren, 0, btNode.mChildren, 1, currentKeyNum + 1);
 		}
 
 		// Move the parent key and relevant child to the deficient node
-		btNode.mKeys[0] = parentNode.mKeys[parentKeyIdx];
-		btNode.mChildren[0] = leftSiblingNode.mChildren[leftSiblingNode.mCurrentKeyNum];
-		++(btNode.mCurrentKeyNum);
-
-		// Move the leftmost key of the right sibling and relevant child pointer
-		// to the parent node
-		parentNode.mKeys[parentKeyIdx] = leftSiblingNode.mKeys[leftSiblingNode.mCurrentKeyNum - 1];
-		leftSiblingNode.mChildren[leftSiblingNode.mCurrentKeyNum] = null;
-		--(leftSiblingNode.mCurrentKeyNum);
-	}
-
-	/**
-	 * Perform merge with left sibling.
-	 *
-	 * @param btNode
-	 *            the bt node
-	 * @param nodeIdx
-	 *            the node idx
-	 * @param parentNode
-	 *            the parent node
-	 * @param leftSiblingNode
-	 *            the left sibling node
-	 * @return true, if successful
-	 */
-	private boolean performMergeWithLeftSibling(BTNode<K, V> btNode, int nodeIdx, BTNode<K, V> parentNode,
-			BTNode<K, V> leftSiblingNode) {
-		if (nodeIdx == parentNode.mCurrentKeyNum) {
-			// For the case that the node index can be the right most
-			nodeIdx = nodeIdx - 1;
-		}
-
-		// Here we need to determine the parent node's index based on child
-		// node's index (nodeIdx)
-		if (nodeIdx > 0) {
-			if (leftSiblingNode.mKeys[leftSiblingNode.mCurrentKeyNum - 1].mKey
-					.compareTo(parentNode.mKeys[nodeIdx - 1].mKey) < 0) {
-				nodeIdx = nodeIdx - 1;
-			}
-		}
-
-		// Copy the parent key to the node (on the left)
-		leftSiblingNode.mKeys[leftSiblingNode.mCurrentKeyNum] = parentNode.mKeys[nodeIdx];
-		++(leftSiblingNode.mCurrentKeyNum);
-
-		// Copy keys and children of the node to the left sibling node
-		for (int i = 0; i < btNode.mCurrentKeyNum; ++i) {
-			leftSiblingNode.mKeys[leftSiblingNode.mCurrentKeyNum + i] = btNode.mKeys[i];
-			leftSiblingNode.mChildren[leftSiblingNode.mCurrentKeyNum + i] = btNode.mChildren[i];
-			btNode.mKeys[i] = null;
-		}
-		leftSiblingNode.mCurrentKeyNum += btNode.mCurrentKeyNum;
-		leftSiblingNode.mChildren[leftSiblingNode.mCurrentKeyNum] = btNode.mChildren[btNode.mCurrentKeyNum];
-		btNode.mCurrentKeyNum = 0; // Abandon the node
-
-		// Shift all relevant keys and children of the parent node to the left
-		// since it lost one of its keys and children (by moving it to the child
-		// node)
-		int i;
-		for (i = nodeIdx; i < parentNode.mCurrentKeyNum - 1; ++i) {
-			parentNode.mKeys[i] = parentNode.mKeys[i + 1];
-			parentNode.mChildren[i + 1] = parentNode.mChildren[i + 2];
-		}
-		parentNode.mKeys[i] = null;
-		parentNode.mChildren[parentNode.mCurrentKeyNum] = null;
-		--(parentNode.mCurrentKeyNum);
-
-		// Make sure the parent point to the correct child after the merge
-		parentNode.mChildren[nodeIdx] = leftSiblingNode;
-
-		if ((parentNode == mRoot) && (parentNode.mCurrentKeyNum == 0)) {
-			// Root node is updated. It should be done
-			mRoot = leftSiblingNode;
-			return false;
-		}
-
-		return true;
+		btNode.mKeys[0] = parentNode.mKeys[nodeIdx - 1];
+		btNode.mValues[0] = parentNode.mValues[nodeIdx - 1];
+		int movedSize = 1;
+		if (!btNode.mIsLeaf) {
+			btNode.mChildren[0] = leftSiblingNode.mChildren[siblingKeyNum];
+			leftSiblingNode.mChildren[siblingKeyNum] = null;
+			movedSize += btNode.mChildren[0].mSubtreeSize;
+		}
+		++(btNode.mCurrentKeyNum);
+		btNode.mSubtreeSize += movedSize;
+		leftSiblingNode.mSubtreeSize -= movedSize;
+
+		// Move the rightmost key of the left sibling to the parent node
+		parentNode.mKeys[nodeIdx - 1] = leftSiblingNode.mKeys[siblingKeyNum - 1];
+		parentNode.mValues[nodeIdx - 1] = leftSiblingNode.mValues[siblingKeyNum - 1];
+		leftSiblingNode.mKeys[siblingKeyNum - 1] = null;
+		leftSiblingNode.mValues[siblingKeyNum - 1] = null;
+		--(leftSiblingNode.mCurrentKeyNum);
+		updateAggregate(btNode);
+		updateAggregate(leftSiblingNode);
 	}
 
 	/**
-	 * Perform merge with right sibling.
+	 * Perform merge with right sibling: the parent key and all the keys and
+	 * children of the right sibling are appended to the node, then the
+	 * right sibling is dropped from the parent node.
 	 *
-	 * @param btNode
-	 *            the bt node
-	 * @param nodeIdx
-	 *            the node idx
 	 * @param parentNode
 	 *            the parent node
-	 * @param rightSiblingNode
-	 *            the right sibling node
-	 * @return true, if successful
+	 * @param nodeIdx
+	 *            the index of the node in the parent node
+	 * @return the merged node
 	 */
-	private boolean performMergeWithRightSibling(BTNode<K, V> btNode, int nodeIdx, BTNode<K, V> parentNode,
-			BTNode<K, V> rightSiblingNode) {
+	private BTNode<K, V> performMergeWithRightSibling(BTNode<K, V> parentNode, int nodeIdx) {
+		BTNode<K, V> btNode = parentNode.mChildren[nodeIdx];
+		BTNode<K, V> rightSiblingNode = parentNode.mChildren[nodeIdx + 1];
+		int currentKeyNum = btNode.mCurrentKeyNum;
+		int siblingKeyNum = rightSiblingNode.mCurrentKeyNum;
+
 		// Copy the parent key to right-most slot of the node
-		btNode.mKeys[btNode.mCurrentKeyNum] = parentNode.mKeys[nodeIdx];
-		++(btNode.mCurrentKeyNum);
+		btNode.mKeys[currentKeyNum] = parentNode.mKeys[nodeIdx];
+		btNode.mValues[currentKeyNum] = parentNode.mValues[nodeIdx];
 
 		// Copy keys and children of the right sibling to the node
-		for (int i = 0; i < rightSiblingNode.mCurrentKeyNum; ++i) {
-			btNode.mKeys[btNode.mCurrentKeyNum + i] = rightSiblingNode.mKeys[i];
-			btNode.mChildren[btNode.mCurrentKeyNum + i] = rightSiblingNode.mChildren[i];
+		System.arraycopy(rightSiblingNode.mKeys, 0, btNode.mKeys, currentKeyNum + 1, siblingKeyNum);
+		System.arraycopy(rightSiblingNode.mValues, 0, btNode.mValues, currentKeyNum + 1, siblingKeyNum);
+		if (!btNode.mIsLeaf) {
+			System.arraycopy(rightSiblingNode.mChildren, 0, btNode.mChildren, currentKeyNum + 1, siblingKeyNum + 1);
 		}
-		btNode.mCurrentKeyNum += rightSiblingNode.mCurrentKeyNum;
-		btNode.mChildren[btNode.mCurrentKeyNum] = rightSiblingNode.mChildren[rightSiblingNode.mCurrentKeyNum];
+		btNode.mCurrentKeyNum = currentKeyNum + siblingKeyNum + 1;
+		btNode.mSubtreeSize += rightSiblingNode.mSubtreeSize + 1;
 		rightSiblingNode.mCurrentKeyNum = 0; // Abandon the sibling node
+		rightSiblingNode.mSubtreeSize = 0;
+		rightSiblingNode.mAggregate = null;
+		updateAggregate(btNode);
 
 		// Shift all relevant keys and children of the parent node to the left
 		// since it lost one of its keys and children (by moving it to the child
 		// node)
-		int i;
-		for (i = nodeIdx; i < parentNode.mCurrentKeyNum - 1; ++i) {
-			parentNode.mKeys[i] = parentNode.mKeys[i + 1];
-			parentNode.mChildren[i + 1] = parentNode.mChildren[i + 2];
-		}
-		parentNode.mKeys[i] = null;
-		parentNode.mChildren[parentNode.mCurrentKeyNum] = null;
+		int num = parentNode.mCurrentKeyNum - nodeIdx - 1;
+		System.arraycopy(parentNode.mKeys, nodeIdx + 1, parentNode.mKeys, nodeIdx, num);
+		System.arraycopy(parentNode.mValues, nodeIdx + 1, parentNode.mValues, nodeIdx, num);
+		System.arraycopy(parentNode.mChildren, nodeIdx + 2, parentNode.mChildren, nodeIdx + 1, num);
 		--(parentNode.mCurrentKeyNum);
-
-		// Make sure the parent point to the correct child after the merge
-		parentNode.mChildren[nodeIdx] = btNode;
+		parentNode.mKeys[parentNode.mCurrentKeyNum] = null;
+		parentNode.mValues[parentNode.mCurrentKeyNum] = null;
+		parentNode.mChildren[parentNode.mCurrentKeyNum + 1] = null;
+
+		// One less node on the level of the node, the parent key came down
+		int level = getLevel(btNode);
+		--mNodesCount;
+		--mLevelNodesCounts[level];
+		if (level > 0) {
+			++mLevelKeysCounts[level];
+		}
+		--mLevelKeysCounts[level + 1];
 
 		if ((parentNode == mRoot) && (parentNode.mCurrentKeyNum == 0)) {
-			// Root node is updated. It should be done
+			// Root node has lost its last key, the merged node is the new root
 			mRoot = btNode;
-			return false;
+			removeRootLevel();
 		}
 
-		return true;
+		return btNode;
+	}
+
+	/**
+	 * Rebalance tree at node: make sure the child node at the specified
+	 * index has more than LOWER_BOUND_KEYNUM (aka t - 1) keys before going
+	 * down to it, by borrowing a key from one of its siblings or by merging
+	 * it with one of them.
+	 *
+	 * @param parentNode
+	 *            the parent node
+	 * @param nodeIdx
+	 *            the index of the child node in the parent node
+	 * @return the child node that covers the same key range afterwards
+	 */
+	private BTNode<K, V> rebalanceTreeAtNode(BTNode<K, V> parentNode, int nodeIdx) {
+		BTNode<K, V> btNode = parentNode.mChildren[nodeIdx];
+		if (btNode.mCurrentKeyNum > mLowerBoundKeyNum) {
+			// The node doesn't need to rebalance
+			return btNode;
+		}
+
+		// Keys move between nodes even when the key to delete turns out to
+		// be absent, so the paths of the cursors become stale
+		++mModCount;
+
+		BTNode<K, V> leftSiblingNode = BTNode.getLeftSiblingAtIndex(parentNode, nodeIdx);
+		BTNode<K, V> rightSiblingNode = BTNode.getRightSiblingAtIndex(parentNode, nodeIdx);
+		if ((leftSiblingNode != null) && (leftSiblingNode.mCurrentKeyNum > mLowerBoundKeyNum)) {
+			// Do right rotate
+			performRightRotation(parentNode, nodeIdx);
+		} else if ((rightSiblingNode != null) && (rightSiblingNode.mCurrentKeyNum > mLowerBoundKeyNum)) {
+			// Do left rotate
+			performLeftRotation(parentNode, nodeIdx);
+		} else if (rightSiblingNode != null) {
+			// Merge the node with its right sibling
+			btNode = performMergeWithRightSibling(parentNode, nodeIdx);
+		} else {
+			// Merge the left sibling with the node
+			btNode = performMergeWithRightSibling(parentNode, nodeIdx - 1);
+		}
+
+		return btNode;
 	}
 
 	/**
@@ -634,18 +1577,10 @@ public class BTree<K extends Comparable, V> {
 	 *            the bt node
 	 * @param key
 	 *            the key
-	 * @return the int
+	 * @return the index of the key, otherwise -(insertion point) - 1
 	 */
 	private int searchKey(BTNode<K, V> btNode, K key) {
-		for (int i = 0; i < btNode.mCurrentKeyNum; ++i) {
-			if (key.compareTo(btNode.mKeys[i].mKey) == 0) {
-				return i;
-			} else if (key.compareTo(btNode.mKeys[i].mKey) < 0) {
-				return -1;
-			}
-		}
-
-		return -1;
+		return mKeySearch.search(btNode, key);
 	}
 
 	/**
@@ -656,461 +1591,175 @@ public class BTree<K extends Comparable, V> {
 	 * @return the v
 	 */
 	public V delete(K key) {
-		mIntermediateInternalNode = null;
-		BTKeyValue<K, V> keyVal = deleteKey(null, mRoot, key, 0);
-		if (keyVal == null) {
+		int size = mSize;
+		V value = deleteKey(mRoot, key);
+		if (mSize == size) {
 			return null;
 		}
-		--mSize;
-		
-		if(mRoot == null || mRoot.mCurrentKeyNum == 0) {
-			minVal = 0;
-			maxVal = 0;
-		} else {
-			if(maxVal == (int) key) {
-				maxVal = 0;
-				findMaxValue(mRoot);
-			}
-			
-			if(minVal == (int) key) {
-				minVal = maxVal;
-				findMinValue(mRoot);
-			}			
-		}
-
-		return keyVal.mValue;
+		++mModCount;
+		return value;
 	}
 	
 	/**
-	 * Delete key.
+	 * Delete key in a single pass down from the specified node. Every child
+	 * node is rebalanced before going down to it, so a key can always be
+	 * removed from a leaf without underflow.
 	 *
-	 * @param parentNode
-	 *            the parent node
 	 * @param btNode
 	 *            the bt node
 	 * @param key
 	 *            the key
-	 * @param nodeIdx
-	 *            the node idx
-	 * @return the BT key value
+	 * @return the value of the deleted key, or null
 	 */
-	private BTKeyValue<K, V> deleteKey(BTNode<K, V> parentNode, BTNode<K, V> btNode, K key, int nodeIdx) {
-		int i;
-		int nIdx;
-		BTKeyValue<K, V> retVal;
-
-		if (btNode == null) {
-			// The tree is empty
-			return null;
-		}
-
-		if (btNode.mIsLeaf) {
-			nIdx = searchKey(btNode, key);
-			if (nIdx < 0) {
-				// Can't find the specified key
-				return null;
-			}
+	private V deleteKey(BTNode<K, V> btNode, K key) {
+		V retVal = null;
+		boolean isFound = false;
+		int i, num;
+
+		// The nodes gone through, whose subtrees lose a key if it is found,
+		// from the root down
+		@SuppressWarnings("unchecked")
+		BTNode<K, V>[] pathNodes = new BTNode[mHeight];
+		int depth = 0;
+
+		while (btNode != null) {
+			pathNodes[depth++] = btNode;
+			i = searchKey(btNode, key);
+			if (btNode.mIsLeaf) {
+				if (i < 0) {
+					// Can't find the specified key
+					break;
+				}
 
-			retVal = btNode.mKeys[nIdx];
+				if (!isFound) {
+					retVal = btNode.getValue(i);
+				}
 
-			if ((btNode.mCurrentKeyNum > BTNode.LOWER_BOUND_KEYNUM) || (parentNode == null)) {
 				// Remove it from the node
-				for (i = nIdx; i < btNode.mCurrentKeyNum - 1; ++i) {
-					btNode.mKeys[i] = btNode.mKeys[i + 1];
-				}
-				btNode.mKeys[i] = null;
+				num = btNode.mCurrentKeyNum - i - 1;
+				System.arraycopy(btNode.mKeys, i + 1, btNode.mKeys, i, num);
+				System.arraycopy(btNode.mValues, i + 1, btNode.mValues, i, num);
 				--(btNode.mCurrentKeyNum);
+				btNode.mKeys[btNode.mCurrentKeyNum] = null;
+				btNode.mValues[btNode.mCurrentKeyNum] = null;
+				--mSize;
+				while (depth > 0) {
+					--(pathNodes[--depth].mSubtreeSize);
+					updateAggregate(pathNodes[depth]);
+				}
 
-				if (btNode.mCurrentKeyNum == 0) {
+				if (mRoot.mCurrentKeyNum == 0) {
 					// btNode is actually the root node
 					mRoot = null;
+					removeRootLevel();
 				}
-
-				return retVal;
+				break;
 			}
 
-			// Find the left sibling
-			BTNode<K, V> rightSibling;
-			BTNode<K, V> leftSibling = BTNode.getLeftSiblingAtIndex(parentNode, nodeIdx);
-			if ((leftSibling != null) && (leftSibling.mCurrentKeyNum > BTNode.LOWER_BOUND_KEYNUM)) {
-				// Remove the key and borrow a key from the left sibling
-				moveLeftLeafSiblingKeyWithKeyRemoval(btNode, nodeIdx, nIdx, parentNode, leftSibling);
-			} else {
-				rightSibling = BTNode.getRightSiblingAtIndex(parentNode, nodeIdx);
-				if ((rightSibling != null) && (rightSibling.mCurrentKeyNum > BTNode.LOWER_BOUND_KEYNUM)) {
-					// Remove a key and borrow a key the right sibling
-					moveRightLeafSiblingKeyWithKeyRemoval(btNode, nodeIdx, nIdx, parentNode, rightSibling);
-				} else {
-					// Merge to its sibling
-					boolean isRebalanceNeeded = false;
-					boolean bStatus;
-					if (leftSibling != null) {
-						// Merge with the left sibling
-						bStatus = doLeafSiblingMergeWithKeyRemoval(btNode, nodeIdx, nIdx, parentNode, leftSibling,
-								false);
-						if (!bStatus) {
-							isRebalanceNeeded = false;
-						} else if (parentNode.mCurrentKeyNum < BTNode.LOWER_BOUND_KEYNUM) {
-							// Need to rebalance the tree
-							isRebalanceNeeded = true;
-						}
-					} else {
-						// Merge with the right sibling
-						bStatus = doLeafSiblingMergeWithKeyRemoval(btNode, nodeIdx, nIdx, parentNode, rightSibling,
-								true);
-						if (!bStatus) {
-							isRebalanceNeeded = false;
-						} else if (parentNode.mCurrentKeyNum < BTNode.LOWER_BOUND_KEYNUM) {
-							// Need to rebalance the tree
-							isRebalanceNeeded = true;
-						}
-					}
-
-					if (isRebalanceNeeded && (mRoot != null)) {
-						rebalanceTree(mRoot, parentNode, parentNode.mKeys[0].mKey);
-					}
+			if (i >= 0) {
+				// We found the key in the internal node
+				if (!isFound) {
+					retVal = btNode.getValue(i);
+					isFound = true;
 				}
-			}
-
-			return retVal; // Done with handling for the leaf node
-		}
-
-		//
-		// At this point the node is an internal node
-		//
-
-		nIdx = searchKey(btNode, key);
-		if (nIdx >= 0) {
-			// We found the key in the internal node
-
-			// Find its predecessor
-			mIntermediateInternalNode = btNode;
-			mNodeIdx = nIdx;
-			BTNode<K, V> predecessorNode = findPredecessor(btNode, nIdx);
-			BTKeyValue<K, V> predecessorKey = predecessorNode.mKeys[predecessorNode.mCurrentKeyNum - 1];
 
-			// Swap the data of the deleted key and its predecessor (in the leaf
-			// node)
-			BTKeyValue<K, V> deletedKey = btNode.mKeys[nIdx];
-			btNode.mKeys[nIdx] = predecessorKey;
-			predecessorNode.mKeys[predecessorNode.mCurrentKeyNum - 1] = deletedKey;
-
-			// mIntermediateNode is done in findPrecessor
-			return deleteKey(mIntermediateInternalNode, predecessorNode, deletedKey.mKey, mNodeIdx);
-		}
-
-		//
-		// Find the child subtree (node) that contains the key
-		//
-		i = 0;
-		BTKeyValue<K, V> currentKey = btNode.mKeys[0];
-		while ((i < btNode.mCurrentKeyNum) && (key.compareTo(currentKey.mKey) > 0)) {
-			++i;
-			if (i < btNode.mCurrentKeyNum) {
-				currentKey = btNode.mKeys[i];
-			} else {
-				--i;
-				break;
+				BTNode<K, V> leftNode = btNode.mChildren[i];
+				BTNode<K, V> rightNode = btNode.mChildren[i + 1];
+				if (leftNode.mCurrentKeyNum > mLowerBoundKeyNum) {
+					// Replace the key by its predecessor, then go on with
+					// deleting the predecessor from the left subtree
+					BTNode<K, V> predecessorNode = findPredecessor(btNode, i);
+					num = predecessorNode.mCurrentKeyNum - 1;
+					key = predecessorNode.getKey(num);
+					btNode.mKeys[i] = key;
+					btNode.mValues[i] = predecessorNode.mValues[num];
+					btNode = leftNode;
+				} else if (rightNode.mCurrentKeyNum > mLowerBoundKeyNum) {
+					// Replace the key by its successor, then go on with
+					// deleting the successor from the right subtree
+					BTNode<K, V> successorNode = findSuccessor(btNode, i);
+					key = successorNode.getKey(0);
+					btNode.mKeys[i] = key;
+					btNode.mValues[i] = successorNode.mValues[0];
+					btNode = rightNode;
+				} else {
+					// Both children are minimal, merge them around the key
+					// then delete the key from the merged node
+					btNode = performMergeWithRightSibling(btNode, i);
+				}
+				continue;
 			}
-		}
 
-		BTNode<K, V> childNode;
-		if (key.compareTo(currentKey.mKey) > 0) {
-			childNode = BTNode.getRightChildAtIndex(btNode, i);
-			if (childNode.mKeys[0].mKey.compareTo(btNode.mKeys[btNode.mCurrentKeyNum - 1].mKey) > 0) {
-				// The right-most side of the node
-				i = i + 1;
-			}
-		} else {
-			childNode = BTNode.getLeftChildAtIndex(btNode, i);
+			//
+			// Find the child subtree (node) that contains the key
+			//
+			btNode = rebalanceTreeAtNode(btNode, -(i + 1));
 		}
 
-		return deleteKey(btNode, childNode, key, i);
+		return retVal;
 	}
 
 	/**
-	 * Move right leaf sibling key with key removal.
+	 * Find predecessor.
 	 *
 	 * @param btNode
 	 *            the bt node
-	 * @param nodeIdx
-	 *            the node idx
 	 * @param keyIdx
 	 *            the key idx
-	 * @param parentNode
-	 *            the parent node
-	 * @param rightSiblingNode
-	 *            the right sibling node
+	 * @return the leaf node holding the predecessor of the key as its last
+	 *         key
 	 */
-	private void moveRightLeafSiblingKeyWithKeyRemoval(BTNode<K, V> btNode, int nodeIdx, int keyIdx,
-			BTNode<K, V> parentNode, BTNode<K, V> rightSiblingNode) {
-		// Shift to the right where the key is deleted
-		for (int i = keyIdx; i < btNode.mCurrentKeyNum - 1; ++i) {
-			btNode.mKeys[i] = btNode.mKeys[i + 1];
-		}
-
-		btNode.mKeys[btNode.mCurrentKeyNum - 1] = parentNode.mKeys[nodeIdx];
-		parentNode.mKeys[nodeIdx] = rightSiblingNode.mKeys[0];
-
-		for (int i = 0; i < rightSiblingNode.mCurrentKeyNum - 1; ++i) {
-			rightSiblingNode.mKeys[i] = rightSiblingNode.mKeys[i + 1];
+	private BTNode<K, V> findPredecessor(BTNode<K, V> btNode, int keyIdx) {
+		BTNode<K, V> predecessorNode = btNode.mChildren[keyIdx];
+		while (!predecessorNode.mIsLeaf) {
+			predecessorNode = predecessorNode.mChildren[predecessorNode.mCurrentKeyNum];
 		}
 
-		--(rightSiblingNode.mCurrentKeyNum);
+		return predecessorNode;
 	}
 
 	/**
-	 * Move left leaf sibling key with key removal.
+	 * Find successor.
 	 *
 	 * @param btNode
 	 *            the bt node
-	 * @param nodeIdx
-	 *            the node idx
 	 * @param keyIdx
 	 *            the key idx
-	 * @param parentNode
-	 *            the parent node
-	 * @param leftSiblingNode
-	 *            the left sibling node
+	 * @return the leaf node holding the successor of the key as its first
+	 *         key
 	 */
-	private void moveLeftLeafSiblingKeyWithKeyRemoval(BTNode<K, V> btNode, int nodeIdx, int keyIdx,
-			BTNode<K, V> parentNode, BTNode<K, V> leftSiblingNode) {
-		// Use the parent key on the left side of the node
-		nodeIdx = nodeIdx - 1;
-
-		// Shift to the right to where the key will be deleted
-		for (int i = keyIdx; i > 0; --i) {
-			btNode.mKeys[i] = btNode.mKeys[i - 1];
+	private BTNode<K, V> findSuccessor(BTNode<K, V> btNode, int keyIdx) {
+		BTNode<K, V> successorNode = btNode.mChildren[keyIdx + 1];
+		while (!successorNode.mIsLeaf) {
+			successorNode = successorNode.mChildren[0];
 		}
 
-		btNode.mKeys[0] = parentNode.mKeys[nodeIdx];
-		parentNode.mKeys[nodeIdx] = leftSiblingNode.mKeys[leftSiblingNode.mCurrentKeyNum - 1];
-		--(leftSiblingNode.mCurrentKeyNum);
+		return successorNode;
 	}
-
+	
 	/**
-	 * Do leaf sibling merge with key removal.
+	 * Open a cursor over all the entries, positioned before the smallest key.
 	 *
-	 * @param btNode
-	 *            the bt node
-	 * @param nodeIdx
-	 *            the node idx
-	 * @param keyIdx
-	 *            the key idx
-	 * @param parentNode
-	 *            the parent node
-	 * @param siblingNode
-	 *            the sibling node
-	 * @param isRightSibling
-	 *            the is right sibling
-	 * @return true, if successful
+	 * @return the cursor
 	 */
-	private boolean doLeafSiblingMergeWithKeyRemoval(BTNode<K, V> btNode, int nodeIdx, int keyIdx,
-			BTNode<K, V> parentNode, BTNode<K, V> siblingNode, boolean isRightSibling) {
-		int i;
-
-		if (nodeIdx == parentNode.mCurrentKeyNum) {
-			// Case node index can be the right most
-			nodeIdx = nodeIdx - 1;
-		}
-
-		if (isRightSibling) {
-			// Shift the remained keys of the node to the left to remove the key
-			for (i = keyIdx; i < btNode.mCurrentKeyNum - 1; ++i) {
-				btNode.mKeys[i] = btNode.mKeys[i + 1];
-			}
-			btNode.mKeys[i] = parentNode.mKeys[nodeIdx];
-		} else {
-			// Here we need to determine the parent node id based on child node
-			// id (nodeIdx)
-			if (nodeIdx > 0) {
-				if (siblingNode.mKeys[siblingNode.mCurrentKeyNum - 1].mKey
-						.compareTo(parentNode.mKeys[nodeIdx - 1].mKey) < 0) {
-					nodeIdx = nodeIdx - 1;
-				}
-			}
-
-			siblingNode.mKeys[siblingNode.mCurrentKeyNum] = parentNode.mKeys[nodeIdx];
-			// siblingNode.mKeys[siblingNode.mCurrentKeyNum] =
-			// parentNode.mKeys[0];
-			++(siblingNode.mCurrentKeyNum);
-
-			// Shift the remained keys of the node to the left to remove the key
-			for (i = keyIdx; i < btNode.mCurrentKeyNum - 1; ++i) {
-				btNode.mKeys[i] = btNode.mKeys[i + 1];
-			}
-			btNode.mKeys[i] = null;
-			--(btNode.mCurrentKeyNum);
-		}
-
-		if (isRightSibling) {
-			for (i = 0; i < siblingNode.mCurrentKeyNum; ++i) {
-				btNode.mKeys[btNode.mCurrentKeyNum + i] = siblingNode.mKeys[i];
-				siblingNode.mKeys[i] = null;
-			}
-			btNode.mCurrentKeyNum += siblingNode.mCurrentKeyNum;
-		} else {
-			for (i = 0; i < btNode.mCurrentKeyNum; ++i) {
-				siblingNode.mKeys[siblingNode.mCurrentKeyNum + i] = btNode.mKeys[i];
-				btNode.mKeys[i] = null;
-			}
-			siblingNode.mCurrentKeyNum += btNode.mCurrentKeyNum;
-			btNode.mKeys[btNode.mCurrentKeyNum] = null;
-		}
-
-		// Shift the parent keys accordingly after the merge of child nodes
-		for (i = nodeIdx; i < parentNode.mCurrentKeyNum - 1; ++i) {
-			parentNode.mKeys[i] = parentNode.mKeys[i + 1];
-			parentNode.mChildren[i + 1] = parentNode.mChildren[i + 2];
-		}
-		parentNode.mKeys[i] = null;
-		parentNode.mChildren[parentNode.mCurrentKeyNum] = null;
-		--(parentNode.mCurrentKeyNum);
-
-		if (isRightSibling) {
-			parentNode.mChildren[nodeIdx] = btNode;
-		} else {
-			parentNode.mChildren[nodeIdx] = siblingNode;
-		}
-
-		if ((mRoot == parentNode) && (mRoot.mCurrentKeyNum == 0)) {
-			// Only root left
-			mRoot = parentNode.mChildren[nodeIdx];
-			mRoot.mIsLeaf = true;
-			return false; // Root has been changed, we don't need to go futher
-		}
-
-		return true;
+	public BTCursor<K, V> cursor() {
+		return new BTCursor<K, V>(this, mKeySearch, null, false, null, false);
 	}
 
 	/**
-	 * Rebalance tree at node.
+	 * Open a cursor over the entries of a key range, positioned at the start
+	 * of the range.
 	 *
-	 * @param parentNode
-	 *            the parent node
-	 * @param btNode
-	 *            the bt node
-	 * @param nodeIdx
-	 *            the node idx
-	 * @param balanceType
-	 *            the balance type
-	 * @return true, if successful
+	 * @param lowKey the low bound of the range, null if unbounded
+	 * @param isLowInclusive true if the low bound is in the range
+	 * @param highKey the high bound of the range, null if unbounded
+	 * @param isHighInclusive true if the high bound is in the range
+	 * @return the cursor
 	 */
-	private boolean rebalanceTreeAtNode(BTNode<K, V> parentNode, BTNode<K, V> btNode, int nodeIdx, int balanceType) {
-		if (balanceType == REBALANCE_FOR_LEAF_NODE) {
-			if ((btNode == null) || (btNode == mRoot)) {
-				return false;
-			}
-		} else if (balanceType == REBALANCE_FOR_INTERNAL_NODE) {
-			if (parentNode == null) {
-				// Root node
-				return false;
-			}
-		}
-
-		if (btNode.mCurrentKeyNum >= BTNode.LOWER_BOUND_KEYNUM) {
-			// The node doesn't need to rebalance
-			return false;
-		}
-
-		BTNode<K, V> rightSiblingNode;
-		BTNode<K, V> leftSiblingNode = BTNode.getLeftSiblingAtIndex(parentNode, nodeIdx);
-		if ((leftSiblingNode != null) && (leftSiblingNode.mCurrentKeyNum > BTNode.LOWER_BOUND_KEYNUM)) {
-			// Do right rotate
-			performRightRotation(btNode, nodeIdx, parentNode, leftSiblingNode);
-		} else {
-			rightSiblingNode = BTNode.getRightSiblingAtIndex(parentNode, nodeIdx);
-			if ((rightSiblingNode != null) && (rightSiblingNode.mCurrentKeyNum > BTNode.LOWER_BOUND_KEYNUM)) {
-				// Do left rotate
-				performLeftRotation(btNode, nodeIdx, parentNode, rightSiblingNode);
-			} else {
-				// Merge the node with one of the siblings
-				boolean bStatus;
-				if (leftSiblingNode != null) {
-					bStatus = performMergeWithLeftSibling(btNode, nodeIdx, parentNode, leftSiblingNode);
-				} else {
-					bStatus = performMergeWithRightSibling(btNode, nodeIdx, parentNode, rightSiblingNode);
-				}
-
-				if (!bStatus) {
-					return false;
-				}
-			}
-		}
-
-		return true;
+	public BTCursor<K, V> cursor(K lowKey, boolean isLowInclusive, K highKey, boolean isHighInclusive) {
+		return new BTCursor<K, V>(this, mKeySearch, lowKey, isLowInclusive, highKey, isHighInclusive);
 	}
 
-	/**
-	 * Rebalance tree.
-	 *
-	 * @param upperNode
-	 *            the upper node
-	 * @param lowerNode
-	 *            the lower node
-	 * @param key
-	 *            the key
-	 */
-	private void rebalanceTree(BTNode<K, V> upperNode, BTNode<K, V> lowerNode, K key) {
-		mStackTracer.clear();
-		mStackTracer.add(new StackInfo(null, upperNode, 0));
-
-		//
-		// Find the child subtree (node) that contains the key
-		//
-		BTNode<K, V> parentNode, childNode;
-		BTKeyValue<K, V> currentKey;
-		int i;
-		parentNode = upperNode;
-		while ((parentNode != lowerNode) && !parentNode.mIsLeaf) {
-			currentKey = parentNode.mKeys[0];
-			i = 0;
-			while ((i < parentNode.mCurrentKeyNum) && (key.compareTo(currentKey.mKey) > 0)) {
-				++i;
-				if (i < parentNode.mCurrentKeyNum) {
-					currentKey = parentNode.mKeys[i];
-				} else {
-					--i;
-					break;
-				}
-			}
-
-			if (key.compareTo(currentKey.mKey) > 0) {
-				childNode = BTNode.getRightChildAtIndex(parentNode, i);
-				if (childNode.mKeys[0].mKey.compareTo(parentNode.mKeys[parentNode.mCurrentKeyNum - 1].mKey) > 0) {
-					// The right-most side of the node
-					i = i + 1;
-				}
-			} else {
-				childNode = BTNode.getLeftChildAtIndex(parentNode, i);
-			}
-
-			if (childNode == null) {
-				break;
-			}
-
-			if (key.compareTo(currentKey.mKey) == 0) {
-				break;
-			}
-
-			mStackTracer.add(new StackInfo(parentNode, childNode, i));
-			parentNode = childNode;
-		}
-
-		boolean bStatus;
-		StackInfo stackInfo;
-		while (!mStackTracer.isEmpty()) {
-			stackInfo = mStackTracer.pop();
-			if ((stackInfo != null) && !stackInfo.mNode.mIsLeaf) {
-				bStatus = rebalanceTreeAtNode(stackInfo.mParent, stackInfo.mNode, stackInfo.mNodeIdx,
-						REBALANCE_FOR_INTERNAL_NODE);
-				if (!bStatus) {
-					break;
-				}
-			}
-		}
-	}
-	
 	/**
 	 * List.
 	 *
@@ -1128,6 +1777,32 @@ public class BTree<K extends Comparable, V> {
 		listEntriesInOrder(mRoot, iterImpl);
 	}
 
+	/**
+	 * Write a read-only snapshot of the tree, to be opened by MappedBTree.
+	 *
+	 * @param file the file
+	 * @param keyCodec the key codec
+	 * @param valueCodec the value codec
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void writeSnapshot(File file, BTCodec<K> keyCodec, BTCodec<V> valueCodec) throws IOException {
+		writeSnapshot(file, MappedBTree.DEFAULT_PAGE_SIZE, keyCodec, valueCodec);
+	}
+
+	/**
+	 * Write a read-only snapshot of the tree, to be opened by MappedBTree.
+	 *
+	 * @param file the file
+	 * @param pageSize the page size, every node starts at a page boundary
+	 * @param keyCodec the key codec
+	 * @param valueCodec the value codec
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void writeSnapshot(File file, int pageSize, BTCodec<K> keyCodec, BTCodec<V> valueCodec)
+			throws IOException {
+		new BTSnapshotWriter<K, V>(pageSize, keyCodec, valueCodec).write(file, mRoot, mSize);
+	}
+
 	/**
 	 * List entries in order.
 	 *
@@ -1141,161 +1816,22 @@ public class BTree<K extends Comparable, V> {
 		}
 
 		boolean bStatus;
-		BTKeyValue<K, V> keyVal;
 		int currentKeyNum = treeNode.mCurrentKeyNum;
 		for (int i = 0; i < currentKeyNum; ++i) {
-			listEntriesInOrder(BTNode.getLeftChildAtIndex(treeNode, i), iterImpl);
-
-			keyVal = treeNode.mKeys[i];
-			bStatus = iterImpl.item(keyVal.mKey, keyVal.mValue);
-			if (!bStatus) {
+			if (!treeNode.mIsLeaf && !listEntriesInOrder(BTNode.getLeftChildAtIndex(treeNode, i), iterImpl)) {
 				return false;
 			}
 
-			if (i == currentKeyNum - 1) {
-				listEntriesInOrder(BTNode.getRightChildAtIndex(treeNode, i), iterImpl);
+			bStatus = iterImpl.item(treeNode.getKey(i), treeNode.getValue(i));
+			if (!bStatus) {
+				return false;
 			}
 		}
 
-		return true;
-	}
-
-	/**
-	 * Find max value.
-	 *
-	 * @param node the node
-	 * @param maxVal the max val
-	 * @return the int
-	 */
-	public void findMaxValue(BTNode<K, V> node) {
-		if(node == null || node.mCurrentKeyNum == 0) {
-			return;
-		}
-		
-        int i = 0; 
-        for (i = 0; i < node.mCurrentKeyNum; i++) { 
-            if (!node.mIsLeaf) { 
-                findMaxValue(node.mChildren[i]); 
-            } 
-            int key = (int) node.mKeys[i].mKey;
-            if(maxVal < key) {
-            	maxVal = key;
-            }
-        } 
-  
-        if (!node.mIsLeaf) {
-            findMaxValue(node.mChildren[i]);
-        }
-	}
-	
-	/**
-	 * Find min value.
-	 *
-	 * @param node the node
-	 */
-	public void findMinValue(BTNode<K, V> node) {
-		if(node == null || node.mCurrentKeyNum == 0) {
-			return;
-		}
-		
-        int i = 0; 
-        for (i = 0; i < node.mCurrentKeyNum; i++) { 
-            if (!node.mIsLeaf) { 
-            	findMinValue(node.mChildren[i]); 
-            } 
-            int key = (int) node.mKeys[i].mKey;
-            if(minVal > key) {
-            	minVal = key;
-            }
-        } 
-  
-        if (!node.mIsLeaf) {
-        	findMinValue(node.mChildren[i]);
-        }
-	}
-	
-	/**
-	 * Count nodes.
-	 *
-	 * @param node the node
-	 */
-	public void countNodes(BTNode<K, V> node) {
-		if(node == null || node.mCurrentKeyNum == 0) {
-			return;
-		}
-		
-		if (!node.mIsLeaf) {
-			int i = 0;
-	        for (i = 0; i < node.mChildren.length; i++) {
-	        	BTNode<K, V> cNode = node.mChildren[i];
-	            if (cNode != null) {
-	            	if(!cNode.mIsLeaf) { 
-	            		countNodes(cNode);
-	            	}
-	            	nodes++;
-	            }
-	        } 
-		}
-		
-        nodes++;
-	}
-	
-	/**
-	 * Count leafs.
-	 *
-	 * @param node the node
-	 */
-	public void countLeafs(BTNode<K, V> node) {
-		if(node == null || node.mCurrentKeyNum == 0) {
-			return;
+		if (!treeNode.mIsLeaf) {
+			return listEntriesInOrder(BTNode.getRightChildAtIndex(treeNode, currentKeyNum - 1), iterImpl);
 		}
-		
-		if (node.mIsLeaf) {
-			leafs++;
-		} else {
-			int i = 0;
-	        for (i = 0; i < node.mChildren.length; i++) {
-	        	BTNode<K, V> cNode = node.mChildren[i];
-	            if (cNode != null) {
-	            	if(cNode.mIsLeaf) {
-	            		leafs++;
-	            	} else {
-	            		countLeafs(cNode);
-	            	}
-	            }
-	        } 
-		}
-	}
 
-	/**
-	 * Inner class StackInfo for tracing-back purpose 
-	 * Structure contains parent node and node index.
-	 */
-	public class StackInfo {
-
-		/** The m parent. */
-		public BTNode<K, V> mParent = null;
-
-		/** The m node. */
-		public BTNode<K, V> mNode = null;
-
-		/** The m node idx. */
-		public int mNodeIdx = -1;
-
-		/**
-		 * Instantiates a new stack info.
-		 *
-		 * @param parent
-		 *            the parent
-		 * @param node
-		 *            the node
-		 * @param nodeIdx
-		 *            the node idx
-		 */
-		public StackInfo(BTNode<K, V> parent, BTNode<K, V> node, int nodeIdx) {
-			mParent = parent;
-			mNode = node;
-			mNodeIdx = nodeIdx;
-		}
+		return true;
 	}
 }
@@ -0,0 +1,1100 @@
+package org.apache.dts.btree;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+
+/**
+ * Class BTreeMap.
+ *
+ * NavigableMap backed by a BTree, ordered by the natural ordering of the
+ * keys, to be used where a TreeMap would be. The lookups and the
+ * navigation methods (floor, ceiling, lower, higher, first, last) each take
+ * a single descent of the tree, and the iterators walk it with a BTCursor.
+ *
+ * The sub maps, head maps, tail maps and descending maps are live views of
+ * the same tree, restricted to a key range and possibly in descending
+ * order: a BTreeMap is itself such a view, with no bound. The size of a
+ * bounded view is counted from the subtree sizes of the tree, in two
+ * descents. As with TreeMap, putting a key out of the range of a view
+ * throws an IllegalArgumentException.
+ *
+ * The iterators are fail-fast. The entries returned by the navigation
+ * methods are snapshots and don't support setValue(), those returned by
+ * the iterators write through to the tree.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class BTreeMap<K extends Comparable, V> extends AbstractMap<K, V> implements NavigableMap<K, V> {
+
+	/** The tree. */
+	private final BTree<K, V> mTree;
+
+	/** The low bound of the range, null if unbounded. */
+	private final K mLowKey;
+
+	/** True if the low bound is in the range. */
+	private final boolean mIsLowInclusive;
+
+	/** The high bound of the range, null if unbounded. */
+	private final K mHighKey;
+
+	/** True if the high bound is in the range. */
+	private final boolean mIsHighInclusive;
+
+	/** True if the view is in descending order. */
+	private final boolean mIsDescending;
+
+	/** The entry set, created on first use. */
+	private EntrySet mEntrySet = null;
+
+	/** The key set, created on first use. */
+	private KeySet<K> mKeySet = null;
+
+	/**
+	 * Instantiates a new b tree map over a new tree with the default min
+	 * degree.
+	 */
+	public BTreeMap() {
+		this(new BTree<K, V>());
+	}
+
+	/**
+	 * Instantiates a new b tree map over a tree, whose modifications are
+	 * seen by the map and the other way around.
+	 *
+	 * @param tree the tree
+	 */
+	public BTreeMap(BTree<K, V> tree) {
+		this(tree, null, false, null, false, false);
+	}
+
+	/**
+	 * Instantiates a new view of a tree.
+	 *
+	 * @param tree the tree
+	 * @param lowKey the low bound of the range, null if unbounded
+	 * @param isLowInclusive true if the low bound is in the range
+	 * @param highKey the high bound of the range, null if unbounded
+	 * @param isHighInclusive true if the high bound is in the range
+	 * @param isDescending true if the view is in descending order
+	 */
+	private BTreeMap(BTree<K, V> tree, K lowKey, boolean isLowInclusive, K highKey, boolean isHighInclusive,
+			boolean isDescending) {
+		if (tree == null) {
+			throw new IllegalArgumentException("Tree must not be null");
+		}
+
+		mTree = tree;
+		mLowKey = lowKey;
+		mIsLowInclusive = isLowInclusive;
+		mHighKey = highKey;
+		mIsHighInclusive = isHighInclusive;
+		mIsDescending = isDescending;
+	}
+
+	/**
+	 * Gets the tree.
+	 *
+	 * @return the tree
+	 */
+	public BTree<K, V> getTree() {
+		return mTree;
+	}
+
+	/**
+	 * Checks if the view has a bound.
+	 *
+	 * @return true, if the view is restricted to a key range
+	 */
+	private boolean isBounded() {
+		return (mLowKey != null) || (mHighKey != null);
+	}
+
+	/**
+	 * Checks if a key is below the range.
+	 *
+	 * @param key the key
+	 * @return true, if the key is below the range
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean isTooLow(K key) {
+		if (mLowKey == null) {
+			return false;
+		}
+
+		int cmp = key.compareTo(mLowKey);
+		return (cmp < 0) || ((cmp == 0) && !mIsLowInclusive);
+	}
+
+	/**
+	 * Checks if a key is above the range.
+	 *
+	 * @param key the key
+	 * @return true, if the key is above the range
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean isTooHigh(K key) {
+		if (mHighKey == null) {
+			return false;
+		}
+
+		int cmp = key.compareTo(mHighKey);
+		return (cmp > 0) || ((cmp == 0) && !mIsHighInclusive);
+	}
+
+	/**
+	 * Checks if a key is in the range.
+	 *
+	 * @param key the key
+	 * @return true, if the key is in the range
+	 */
+	private boolean isInRange(K key) {
+		return !isTooLow(key) && !isTooHigh(key);
+	}
+
+	/**
+	 * Checks if a key is in the range, or on an exclusive bound of it.
+	 *
+	 * @param key the key
+	 * @param isInclusive false if the key may also be an exclusive bound
+	 * @return true, if the key is in the range
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean isInRange(K key, boolean isInclusive) {
+		if (isInclusive) {
+			return isInRange(key);
+		}
+
+		return ((mLowKey == null) || (key.compareTo(mLowKey) >= 0))
+				&& ((mHighKey == null) || (key.compareTo(mHighKey) <= 0));
+	}
+
+	/**
+	 * Cast a key given as an object, checking it is not null.
+	 *
+	 * @param key the key
+	 * @return the key
+	 */
+	@SuppressWarnings("unchecked")
+	private static <K> K toKey(Object key) {
+		if (key == null) {
+			throw new NullPointerException("Key must not be null");
+		}
+
+		return (K) key;
+	}
+
+	/**
+	 * Export an entry of the tree as a map entry.
+	 *
+	 * @param keyValue the entry, may be null
+	 * @return the map entry, null if the entry is null
+	 */
+	private static <K extends Comparable, V> Map.Entry<K, V> toEntry(BTKeyValue<K, V> keyValue) {
+		return (keyValue != null) ? new AbstractMap.SimpleImmutableEntry<K, V>(keyValue.mKey, keyValue.mValue) : null;
+	}
+
+	/**
+	 * Export the key of an entry.
+	 *
+	 * @param entry the entry, may be null
+	 * @return the key, null if the entry is null
+	 */
+	private static <K> K toKey(Map.Entry<K, ?> entry) {
+		return (entry != null) ? entry.getKey() : null;
+	}
+
+	/**
+	 * Export the key of an entry, which must exist.
+	 *
+	 * @param entry the entry, may be null
+	 * @return the key
+	 */
+	private static <K> K toExistingKey(Map.Entry<K, ?> entry) {
+		if (entry == null) {
+			throw new NoSuchElementException();
+		}
+
+		return entry.getKey();
+	}
+
+	/**
+	 * Gets the lowest entry of the range, in ascending order.
+	 *
+	 * @return the entry, null if the range is empty
+	 */
+	private BTKeyValue<K, V> getLowestEntry() {
+		BTKeyValue<K, V> keyValue;
+		if (mLowKey == null) {
+			keyValue = mTree.firstEntry();
+		} else {
+			keyValue = mIsLowInclusive ? mTree.ceilingEntry(mLowKey) : mTree.higherEntry(mLowKey);
+		}
+
+		return ((keyValue == null) || isTooHigh(keyValue.mKey)) ? null : keyValue;
+	}
+
+	/**
+	 * Gets the highest entry of the range, in ascending order.
+	 *
+	 * @return the entry, null if the range is empty
+	 */
+	private BTKeyValue<K, V> getHighestEntry() {
+		BTKeyValue<K, V> keyValue;
+		if (mHighKey == null) {
+			keyValue = mTree.lastEntry();
+		} else {
+			keyValue = mIsHighInclusive ? mTree.floorEntry(mHighKey) : mTree.lowerEntry(mHighKey);
+		}
+
+		return ((keyValue == null) || isTooLow(keyValue.mKey)) ? null : keyValue;
+	}
+
+	/**
+	 * Gets the entry of the range nearest to a key above it, in ascending
+	 * order.
+	 *
+	 * @param key the key
+	 * @param isInclusive true if the key itself qualifies
+	 * @return the entry, null if there is no such entry in the range
+	 */
+	private BTKeyValue<K, V> getEntryAbove(K key, boolean isInclusive) {
+		if (isTooLow(key)) {
+			return getLowestEntry();
+		}
+
+		BTKeyValue<K, V> keyValue = isInclusive ? mTree.ceilingEntry(key) : mTree.higherEntry(key);
+		return ((keyValue == null) || isTooHigh(keyValue.mKey)) ? null : keyValue;
+	}
+
+	/**
+	 * Gets the entry of the range nearest to a key below it, in ascending
+	 * order.
+	 *
+	 * @param key the key
+	 * @param isInclusive true if the key itself qualifies
+	 * @return the entry, null if there is no such entry in the range
+	 */
+	private BTKeyValue<K, V> getEntryBelow(K key, boolean isInclusive) {
+		if (isTooHigh(key)) {
+			return getHighestEntry();
+		}
+
+		BTKeyValue<K, V> keyValue = isInclusive ? mTree.floorEntry(key) : mTree.lowerEntry(key);
+		return ((keyValue == null) || isTooLow(keyValue.mKey)) ? null : keyValue;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#size()
+	 */
+	@Override
+	public int size() {
+		return isBounded() ? mTree.count(mLowKey, mIsLowInclusive, mHighKey, mIsHighInclusive) : mTree.getSize();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#isEmpty()
+	 */
+	@Override
+	public boolean isEmpty() {
+		return isBounded() ? (getLowestEntry() == null) : (mTree.getSize() == 0);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#containsKey(java.lang.Object)
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public boolean containsKey(Object key) {
+		K k = toKey(key);
+		if (!isInRange(k)) {
+			return false;
+		}
+
+		BTKeyValue<K, V> keyValue = mTree.ceilingEntry(k);
+		return (keyValue != null) && (keyValue.mKey.compareTo(k) == 0);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#get(java.lang.Object)
+	 */
+	@Override
+	public V get(Object key) {
+		K k = toKey(key);
+		return isInRange(k) ? mTree.search(k) : null;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#put(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public V put(K key, V value) {
+		if (key == null) {
+			throw new NullPointerException("Key must not be null");
+		}
+
+		if (!isInRange(key)) {
+			throw new IllegalArgumentException("Key out of range: " + key);
+		}
+
+		V oldValue = mTree.search(key);
+		mTree.insert(key, value);
+		return oldValue;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#remove(java.lang.Object)
+	 */
+	@Override
+	public V remove(Object key) {
+		K k = toKey(key);
+		return isInRange(k) ? mTree.delete(k) : null;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#clear()
+	 */
+	@Override
+	public void clear() {
+		if (isBounded()) {
+			// Not super.clear(), which goes back here through entrySet()
+			Iterator<Map.Entry<K, V>> iter = new EntryIterator();
+			while (iter.hasNext()) {
+				iter.next();
+				iter.remove();
+			}
+		} else {
+			mTree.clear();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.SortedMap#comparator()
+	 */
+	@Override
+	public Comparator<? super K> comparator() {
+		// Natural ordering, reversed in a descending view
+		return mIsDescending ? (Comparator<? super K>) Collections.reverseOrder() : null;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#firstEntry()
+	 */
+	@Override
+	public Map.Entry<K, V> firstEntry() {
+		return toEntry(mIsDescending ? getHighestEntry() : getLowestEntry());
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#lastEntry()
+	 */
+	@Override
+	public Map.Entry<K, V> lastEntry() {
+		return toEntry(mIsDescending ? getLowestEntry() : getHighestEntry());
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.SortedMap#firstKey()
+	 */
+	@Override
+	public K firstKey() {
+		return toExistingKey(firstEntry());
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.SortedMap#lastKey()
+	 */
+	@Override
+	public K lastKey() {
+		return toExistingKey(lastEntry());
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#pollFirstEntry()
+	 */
+	@Override
+	public Map.Entry<K, V> pollFirstEntry() {
+		Map.Entry<K, V> entry = firstEntry();
+		if (entry != null) {
+			mTree.delete(entry.getKey());
+		}
+		return entry;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#pollLastEntry()
+	 */
+	@Override
+	public Map.Entry<K, V> pollLastEntry() {
+		Map.Entry<K, V> entry = lastEntry();
+		if (entry != null) {
+			mTree.delete(entry.getKey());
+		}
+		return entry;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#lowerEntry(java.lang.Object)
+	 */
+	@Override
+	public Map.Entry<K, V> lowerEntry(K key) {
+		K k = toKey((Object) key);
+		return toEntry(mIsDescending ? getEntryAbove(k, false) : getEntryBelow(k, false));
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#lowerKey(java.lang.Object)
+	 */
+	@Override
+	public K lowerKey(K key) {
+		return toKey(lowerEntry(key));
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#floorEntry(java.lang.Object)
+	 */
+	@Override
+	public Map.Entry<K, V> floorEntry(K key) {
+		K k = toKey((Object) key);
+		return toEntry(mIsDescending ? getEntryAbove(k, true) : getEntryBelow(k, true));
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#floorKey(java.lang.Object)
+	 */
+	@Override
+	public K floorKey(K key) {
+		return toKey(floorEntry(key));
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#ceilingEntry(java.lang.Object)
+	 */
+	@Override
+	public Map.Entry<K, V> ceilingEntry(K key) {
+		K k = toKey((Object) key);
+		return toEntry(mIsDescending ? getEntryBelow(k, true) : getEntryAbove(k, true));
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#ceilingKey(java.lang.Object)
+	 */
+	@Override
+	public K ceilingKey(K key) {
+		return toKey(ceilingEntry(key));
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#higherEntry(java.lang.Object)
+	 */
+	@Override
+	public Map.Entry<K, V> higherEntry(K key) {
+		K k = toKey((Object) key);
+		return toEntry(mIsDescending ? getEntryBelow(k, false) : getEntryAbove(k, false));
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#higherKey(java.lang.Object)
+	 */
+	@Override
+	public K higherKey(K key) {
+		return toKey(higherEntry(key));
+	}
+
+	/**
+	 * Create a view of a sub range of this view, given in ascending order.
+	 *
+	 * @param lowKey the low bound, null if unbounded
+	 * @param isLowInclusive true if the low bound is in the range
+	 * @param highKey the high bound, null if unbounded
+	 * @param isHighInclusive true if the high bound is in the range
+	 * @param isDescending true if the view is in descending order
+	 * @return the view
+	 */
+	@SuppressWarnings("unchecked")
+	private BTreeMap<K, V> createView(K lowKey, boolean isLowInclusive, K highKey, boolean isHighInclusive,
+			boolean isDescending) {
+		if (lowKey == null) {
+			lowKey = mLowKey;
+			isLowInclusive = mIsLowInclusive;
+		} else if (!isInRange(lowKey, isLowInclusive)) {
+			throw new IllegalArgumentException("Low key out of range: " + lowKey);
+		}
+
+		if (highKey == null) {
+			highKey = mHighKey;
+			isHighInclusive = mIsHighInclusive;
+		} else if (!isInRange(highKey, isHighInclusive)) {
+			throw new IllegalArgumentException("High key out of range: " + highKey);
+		}
+
+		if ((lowKey != null) && (highKey != null) && (lowKey.compareTo(highKey) > 0)) {
+			throw new IllegalArgumentException("Low key greater than high key: " + lowKey + " > " + highKey);
+		}
+
+		return new BTreeMap<K, V>(mTree, lowKey, isLowInclusive, highKey, isHighInclusive, isDescending);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#subMap(java.lang.Object, boolean, java.lang.Object, boolean)
+	 */
+	@Override
+	public NavigableMap<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+		K from = toKey((Object) fromKey);
+		K to = toKey((Object) toKey);
+		return mIsDescending ? createView(to, toInclusive, from, fromInclusive, true)
+				: createView(from, fromInclusive, to, toInclusive, false);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#headMap(java.lang.Object, boolean)
+	 */
+	@Override
+	public NavigableMap<K, V> headMap(K toKey, boolean inclusive) {
+		K to = toKey((Object) toKey);
+		return mIsDescending ? createView(to, inclusive, null, false, true)
+				: createView(null, false, to, inclusive, false);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#tailMap(java.lang.Object, boolean)
+	 */
+	@Override
+	public NavigableMap<K, V> tailMap(K fromKey, boolean inclusive) {
+		K from = toKey((Object) fromKey);
+		return mIsDescending ? createView(null, false, from, inclusive, true)
+				: createView(from, inclusive, null, false, false);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#subMap(java.lang.Object, java.lang.Object)
+	 */
+	@Override
+	public SortedMap<K, V> subMap(K fromKey, K toKey) {
+		return subMap(fromKey, true, toKey, false);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#headMap(java.lang.Object)
+	 */
+	@Override
+	public SortedMap<K, V> headMap(K toKey) {
+		return headMap(toKey, false);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#tailMap(java.lang.Object)
+	 */
+	@Override
+	public SortedMap<K, V> tailMap(K fromKey) {
+		return tailMap(fromKey, true);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#descendingMap()
+	 */
+	@Override
+	public NavigableMap<K, V> descendingMap() {
+		return new BTreeMap<K, V>(mTree, mLowKey, mIsLowInclusive, mHighKey, mIsHighInclusive, !mIsDescending);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#keySet()
+	 */
+	@Override
+	public NavigableSet<K> keySet() {
+		return navigableKeySet();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#navigableKeySet()
+	 */
+	@Override
+	public NavigableSet<K> navigableKeySet() {
+		if (mKeySet == null) {
+			mKeySet = new KeySet<K>(this);
+		}
+		return mKeySet;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.NavigableMap#descendingKeySet()
+	 */
+	@Override
+	public NavigableSet<K> descendingKeySet() {
+		return descendingMap().navigableKeySet();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractMap#entrySet()
+	 */
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		if (mEntrySet == null) {
+			mEntrySet = new EntrySet();
+		}
+		return mEntrySet;
+	}
+
+	/**
+	 * Open a cursor over the range, positioned at its start.
+	 *
+	 * @return the cursor
+	 */
+	private BTCursor<K, V> openCursor() {
+		return mTree.cursor(mLowKey, mIsLowInclusive, mHighKey, mIsHighInclusive);
+	}
+
+	/**
+	 * Class EntrySet.
+	 *
+	 * Entry set of the view.
+	 */
+	private class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+
+		/* (non-Javadoc)
+		 * @see java.util.AbstractCollection#iterator()
+		 */
+		@Override
+		public Iterator<Map.Entry<K, V>> iterator() {
+			return new EntryIterator();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.AbstractCollection#size()
+		 */
+		@Override
+		public int size() {
+			return BTreeMap.this.size();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.AbstractCollection#isEmpty()
+		 */
+		@Override
+		public boolean isEmpty() {
+			return BTreeMap.this.isEmpty();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.AbstractCollection#contains(java.lang.Object)
+		 */
+		@Override
+		public boolean contains(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+			if ((entry.getKey() == null) || !containsKey(entry.getKey())) {
+				return false;
+			}
+
+			V value = get(entry.getKey());
+			return (value == null) ? (entry.getValue() == null) : value.equals(entry.getValue());
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.AbstractCollection#remove(java.lang.Object)
+		 */
+		@Override
+		public boolean remove(Object o) {
+			if (!contains(o)) {
+				return false;
+			}
+
+			BTreeMap.this.remove(((Map.Entry<?, ?>) o).getKey());
+			return true;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.AbstractCollection#clear()
+		 */
+		@Override
+		public void clear() {
+			BTreeMap.this.clear();
+		}
+	}
+
+	/**
+	 * Class EntryIterator.
+	 *
+	 * Iterator over the entries of the view, in its order. The entry after
+	 * the one last returned is read ahead; the modifications made through
+	 * the iterator or its entries seek the cursor again past that entry.
+	 */
+	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+
+		/** The cursor. */
+		private final BTCursor<K, V> mCursor;
+
+		/** The next entry, null at the end. */
+		private IteratorEntry mNextEntry;
+
+		/** The entry last returned, null if removed. */
+		private IteratorEntry mLastEntry = null;
+
+		/** The mod count of the tree expected by the cursor. */
+		private int mExpectedModCount;
+
+		/**
+		 * Instantiates a new entry iterator.
+		 */
+		EntryIterator() {
+			mCursor = openCursor();
+			if (mIsDescending) {
+				mCursor.seekLast();
+			}
+			mExpectedModCount = mTree.getModCount();
+			mNextEntry = readNextEntry();
+		}
+
+		/**
+		 * Read the entry after the cursor, moving the cursor over it.
+		 *
+		 * @return the entry, null at the end
+		 */
+		private IteratorEntry readNextEntry() {
+			boolean hasEntry = mIsDescending ? mCursor.prev() : mCursor.next();
+			return hasEntry ? new IteratorEntry(this, mCursor.getKey(), mCursor.getValue()) : null;
+		}
+
+		/**
+		 * Seek the cursor again past the next entry, after a modification
+		 * made through the iterator.
+		 */
+		void resync() {
+			if (mNextEntry != null) {
+				mCursor.seek(new BTCursorPosition<K>(mNextEntry.mKey, !mIsDescending));
+			}
+			mExpectedModCount = mTree.getModCount();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.Iterator#hasNext()
+		 */
+		@Override
+		public boolean hasNext() {
+			return mNextEntry != null;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.Iterator#next()
+		 */
+		@Override
+		public Map.Entry<K, V> next() {
+			if (mNextEntry == null) {
+				throw new NoSuchElementException();
+			}
+
+			if (mExpectedModCount != mTree.getModCount()) {
+				throw new ConcurrentModificationException();
+			}
+
+			mLastEntry = mNextEntry;
+			mNextEntry = readNextEntry();
+			return mLastEntry;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.Iterator#remove()
+		 */
+		@Override
+		public void remove() {
+			if (mLastEntry == null) {
+				throw new IllegalStateException();
+			}
+
+			if (mExpectedModCount != mTree.getModCount()) {
+				throw new ConcurrentModificationException();
+			}
+
+			mTree.delete(mLastEntry.mKey);
+			mLastEntry = null;
+			resync();
+		}
+	}
+
+	/**
+	 * Class IteratorEntry.
+	 *
+	 * Entry returned by an iterator, writing through to the tree.
+	 */
+	private class IteratorEntry extends AbstractMap.SimpleEntry<K, V> {
+
+		/** The Constant serialVersionUID. */
+		private static final long serialVersionUID = 1L;
+
+		/** The iterator. */
+		private final transient EntryIterator mIterator;
+
+		/** The key. */
+		final K mKey;
+
+		/**
+		 * Instantiates a new iterator entry.
+		 *
+		 * @param iterator the iterator
+		 * @param key the key
+		 * @param value the value
+		 */
+		IteratorEntry(EntryIterator iterator, K key, V value) {
+			super(key, value);
+			mIterator = iterator;
+			mKey = key;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.AbstractMap.SimpleEntry#setValue(java.lang.Object)
+		 */
+		@Override
+		public V setValue(V value) {
+			if (mIterator.mExpectedModCount != mTree.getModCount()) {
+				throw new ConcurrentModificationException();
+			}
+
+			mTree.insert(mKey, value);
+			mIterator.resync();
+			return super.setValue(value);
+		}
+	}
+
+	/**
+	 * Class KeySet.
+	 *
+	 * Navigable key set of a view.
+	 *
+	 * @param <K> the key type
+	 */
+	private static class KeySet<K extends Comparable> extends AbstractSet<K> implements NavigableSet<K> {
+
+		/** The map. */
+		private final BTreeMap<K, ?> mMap;
+
+		/**
+		 * Instantiates a new key set.
+		 *
+		 * @param map the map
+		 */
+		KeySet(BTreeMap<K, ?> map) {
+			mMap = map;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.AbstractCollection#iterator()
+		 */
+		@Override
+		public Iterator<K> iterator() {
+			final Iterator<? extends Map.Entry<K, ?>> entryIter = mMap.entrySet().iterator();
+			return new Iterator<K>() {
+				@Override
+				public boolean hasNext() {
+					return entryIter.hasNext();
+				}
+
+				@Override
+				public K next() {
+					return entryIter.next().getKey();
+				}
+
+				@Override
+				public void remove() {
+					entryIter.remove();
+				}
+			};
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.NavigableSet#descendingIterator()
+		 */
+		@Override
+		public Iterator<K> descendingIterator() {
+			return descendingSet().iterator();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.AbstractCollection#size()
+		 */
+		@Override
+		public int size() {
+			return mMap.size();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.AbstractCollection#isEmpty()
+		 */
+		@Override
+		public boolean isEmpty() {
+			return mMap.isEmpty();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.AbstractCollection#contains(java.lang.Object)
+		 */
+		@Override
+		public boolean contains(Object o) {
+			return mMap.containsKey(o);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.AbstractCollection#remove(java.lang.Object)
+		 */
+		@Override
+		public boolean remove(Object o) {
+			if (!mMap.containsKey(o)) {
+				return false;
+			}
+
+			mMap.remove(o);
+			return true;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.AbstractCollection#clear()
+		 */
+		@Override
+		public void clear() {
+			mMap.clear();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.SortedSet#comparator()
+		 */
+		@Override
+		public Comparator<? super K> comparator() {
+			return mMap.comparator();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.SortedSet#first()
+		 */
+		@Override
+		public K first() {
+			return mMap.firstKey();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.SortedSet#last()
+		 */
+		@Override
+		public K last() {
+			return mMap.lastKey();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.NavigableSet#lower(java.lang.Object)
+		 */
+		@Override
+		public K lower(K key) {
+			return mMap.lowerKey(key);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.NavigableSet#floor(java.lang.Object)
+		 */
+		@Override
+		public K floor(K key) {
+			return mMap.floorKey(key);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.NavigableSet#ceiling(java.lang.Object)
+		 */
+		@Override
+		public K ceiling(K key) {
+			return mMap.ceilingKey(key);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.NavigableSet#higher(java.lang.Object)
+		 */
+		@Override
+		public K higher(K key) {
+			return mMap.higherKey(key);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.NavigableSet#pollFirst()
+		 */
+		@Override
+		public K pollFirst() {
+			return toKey(mMap.pollFirstEntry());
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.NavigableSet#pollLast()
+		 */
+		@Override
+		public K pollLast() {
+			return toKey(mMap.pollLastEntry());
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.NavigableSet#descendingSet()
+		 */
+		@Override
+		public NavigableSet<K> descendingSet() {
+			return mMap.descendingMap().navigableKeySet();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.NavigableSet#subSet(java.lang.Object, boolean, java.lang.Object, boolean)
+		 */
+		@Override
+		public NavigableSet<K> subSet(K fromElement, boolean fromInclusive, K toElement, boolean toInclusive) {
+			return mMap.subMap(fromElement, fromInclusive, toElement, toInclusive).navigableKeySet();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.NavigableSet#headSet(java.lang.Object, boolean)
+		 */
+		@Override
+		public NavigableSet<K> headSet(K toElement, boolean inclusive) {
+			return mMap.headMap(toElement, inclusive).navigableKeySet();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.NavigableSet#tailSet(java.lang.Object, boolean)
+		 */
+		@Override
+		public NavigableSet<K> tailSet(K fromElement, boolean inclusive) {
+			return mMap.tailMap(fromElement, inclusive).navigableKeySet();
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.NavigableSet#subSet(java.lang.Object, java.lang.Object)
+		 */
+		@Override
+		public SortedSet<K> subSet(K fromElement, K toElement) {
+			return subSet(fromElement, true, toElement, false);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.NavigableSet#headSet(java.lang.Object)
+		 */
+		@Override
+		public SortedSet<K> headSet(K toElement) {
+			return headSet(toElement, false);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.NavigableSet#tailSet(java.lang.Object)
+		 */
+		@Override
+		public SortedSet<K> tailSet(K fromElement) {
+			return tailSet(fromElement, true);
+		}
+	}
+}
@@ -0,0 +1,349 @@
+package org.apache.dts.btree;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Class MappedBTree.
+ * 
+ * Read-only tree over a snapshot written by BTree.writeSnapshot(). The file
+ * is memory-mapped and searched in place: opening it costs a few mappings
+ * whatever its size, and only the keys compared on the way down are
+ * decoded, so the heap stays almost empty.
+ * 
+ * The snapshot is a sequence of pages. Page 0 holds the header:
+ * 
+ * <pre>
+ * int  magic
+ * int  version
+ * int  page size
+ * int  size in pages of the largest node
+ * long root page (-1 for an empty tree)
+ * long entry count
+ * </pre>
+ * 
+ * Every node starts at a page boundary and takes as many pages as needed:
+ * 
+ * <pre>
+ * int    key number
+ * int    flags (bit 0 set for a leaf)
+ * long[] child pages (key number + 1, internal nodes only)
+ * int[]  entry offsets from the node start (key number)
+ * ...    entries: key, a byte set to 1 when a value follows, value
+ * </pre>
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class MappedBTree<K extends Comparable, V> implements Closeable {
+
+	/** The Constant DEFAULT_PAGE_SIZE. */
+	public final static int DEFAULT_PAGE_SIZE = 4096;
+
+	/** The Constant MAGIC. */
+	final static int MAGIC = 0x4254534e;
+
+	/** The Constant VERSION. */
+	final static int VERSION = 1;
+
+	/** The Constant HEADER_SIZE. */
+	final static int HEADER_SIZE = 32;
+
+	/** The Constant MAX_PAGE_SIZE. */
+	final static int MAX_PAGE_SIZE = 1 << 20;
+
+	/** The Constant NIL, the page of no node. */
+	final static long NIL = -1;
+
+	/** The Constant LEAF_FLAG. */
+	final static int LEAF_FLAG = 1;
+
+	/** The Constant WINDOW_SIZE, the size of a mapping without the overlap. */
+	private final static long WINDOW_SIZE = 1L << 30;
+
+	/** The file. */
+	private final RandomAccessFile mFile;
+
+	/** The key codec. */
+	private final BTCodec<K> mKeyCodec;
+
+	/** The value codec. */
+	private final BTCodec<V> mValueCodec;
+
+	/** The page size. */
+	private final int mPageSize;
+
+	/** The root page. */
+	private final long mRootPage;
+
+	/** The size. */
+	private final long mSize;
+
+	/**
+	 * The mappings. Mapping i starts at i * WINDOW_SIZE and overlaps the next
+	 * one by the size of the largest node, so that every node lies entirely
+	 * in the mapping where it starts.
+	 */
+	private final MappedByteBuffer mWindows[];
+
+	/**
+	 * Open a snapshot.
+	 *
+	 * @param file the file
+	 * @param keyCodec the key codec the snapshot was written with
+	 * @param valueCodec the value codec the snapshot was written with
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public MappedBTree(File file, BTCodec<K> keyCodec, BTCodec<V> valueCodec) throws IOException {
+		mKeyCodec = keyCodec;
+		mValueCodec = valueCodec;
+		mFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = mFile.getChannel();
+			long fileSize = channel.size();
+			if (fileSize < HEADER_SIZE) {
+				throw new IOException("Not a b-tree snapshot: " + file);
+			}
+
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if ((header.getInt(0) != MAGIC) || (header.getInt(4) != VERSION)) {
+				throw new IOException("Not a b-tree snapshot: " + file);
+			}
+
+			mPageSize = header.getInt(8);
+			long overlap = (long) header.getInt(12) * mPageSize;
+			mRootPage = header.getLong(16);
+			mSize = header.getLong(24);
+
+			int windowNum = (int) ((fileSize + WINDOW_SIZE - 1) / WINDOW_SIZE);
+			mWindows = new MappedByteBuffer[windowNum];
+			for (int i = 0; i < windowNum; ++i) {
+				long start = i * WINDOW_SIZE;
+				mWindows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(WINDOW_SIZE + overlap, fileSize - start));
+			}
+		} catch (IOException ioex) {
+			mFile.close();
+			throw ioex;
+		}
+	}
+
+	/**
+	 * Size.
+	 *
+	 * @return the size
+	 */
+	public long getSize() {
+		return mSize;
+	}
+
+	/**
+	 * Gets the page size.
+	 *
+	 * @return the page size
+	 */
+	public int getPageSize() {
+		return mPageSize;
+	}
+
+	/**
+	 * Search.
+	 *
+	 * @param key the key
+	 * @return the value, or null if the key doesn't exist
+	 * @throws IOException Signals that the snapshot can't be decoded.
+	 */
+	public V search(K key) throws IOException {
+		NodeInput in = new NodeInput();
+		if (!findEntry(key, in)) {
+			return null;
+		}
+
+		return (in.mDataIn.readByte() == 0) ? null : mValueCodec.read(in.mDataIn);
+	}
+
+	/**
+	 * Contains key.
+	 *
+	 * @param key the key
+	 * @return true, if the key exists in the snapshot
+	 * @throws IOException Signals that the snapshot can't be decoded.
+	 */
+	public boolean containsKey(K key) throws IOException {
+		return findEntry(key, new NodeInput());
+	}
+
+	/**
+	 * Find the entry of a key.
+	 *
+	 * @param key the key
+	 * @param in the input, left right after the key when it's found
+	 * @return true, if the key exists in the snapshot
+	 * @throws IOException Signals that the snapshot can't be decoded.
+	 */
+	private boolean findEntry(K key, NodeInput in) throws IOException {
+		long page = mRootPage;
+		while (page != NIL) {
+			in.setNode(page);
+			int keyNum = in.mBuf.getInt(in.mBase);
+			boolean isLeaf = (in.mBuf.getInt(in.mBase + 4) & LEAF_FLAG) != 0;
+			int offsetsStart = 8 + (isLeaf ? 0 : 8 * (keyNum + 1));
+
+			// Binary search the keys, decoding only the probed ones
+			int lo = 0;
+			int hi = keyNum - 1;
+			while (lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				in.seek(in.mBuf.getInt(in.mBase + offsetsStart + (4 * mid)));
+				int cmp = mKeyCodec.read(in.mDataIn).compareTo(key);
+				if (cmp < 0) {
+					lo = mid + 1;
+				} else if (cmp > 0) {
+					hi = mid - 1;
+				} else {
+					return true;
+				}
+			}
+
+			page = isLeaf ? NIL : in.mBuf.getLong(in.mBase + 8 + (8 * lo));
+		}
+
+		return false;
+	}
+
+	/**
+	 * List.
+	 *
+	 * @param iterImpl the iter impl
+	 * @throws IOException Signals that the snapshot can't be decoded.
+	 */
+	public void list(BTIterator<K, V> iterImpl) throws IOException {
+		if ((mRootPage == NIL) || (iterImpl == null)) {
+			return;
+		}
+
+		listEntriesInOrder(mRootPage, new NodeInput(), iterImpl);
+	}
+
+	/**
+	 * List entries in order.
+	 *
+	 * @param page the node page
+	 * @param in the input, shared along the recursion
+	 * @param iterImpl the iter impl
+	 * @return false, if the iterator has stopped the listing
+	 * @throws IOException Signals that the snapshot can't be decoded.
+	 */
+	private boolean listEntriesInOrder(long page, NodeInput in, BTIterator<K, V> iterImpl) throws IOException {
+		in.setNode(page);
+		ByteBuffer buf = in.mBuf;
+		int base = in.mBase;
+		int keyNum = buf.getInt(base);
+		boolean isLeaf = (buf.getInt(base + 4) & LEAF_FLAG) != 0;
+		int offsetsStart = 8 + (isLeaf ? 0 : 8 * (keyNum + 1));
+
+		for (int i = 0; i <= keyNum; ++i) {
+			if (!isLeaf && !listEntriesInOrder(buf.getLong(base + 8 + (8 * i)), in, iterImpl)) {
+				return false;
+			}
+
+			if (i == keyNum) {
+				break;
+			}
+
+			// The recursion has moved the input to another node
+			in.mBuf = buf;
+			in.mBase = base;
+			in.seek(buf.getInt(base + offsetsStart + (4 * i)));
+			K key = mKeyCodec.read(in.mDataIn);
+			V value = (in.mDataIn.readByte() == 0) ? null : mValueCodec.read(in.mDataIn);
+			if (!iterImpl.item(key, value)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		// The mappings themselves go away once garbage collected
+		mFile.close();
+	}
+
+	/**
+	 * Class NodeInput.
+	 * 
+	 * Input stream reading the mapped bytes of a node, so that the codecs can
+	 * decode the keys and the values where they are.
+	 */
+	private class NodeInput extends InputStream {
+
+		/** The buffer holding the node. */
+		private ByteBuffer mBuf;
+
+		/** The node start in the buffer. */
+		private int mBase;
+
+		/** The read position in the buffer. */
+		private int mPos;
+
+		/** The data input over this stream. */
+		private final DataInputStream mDataIn = new DataInputStream(this);
+
+		/**
+		 * Move to a node.
+		 *
+		 * @param page the node page
+		 */
+		private void setNode(long page) {
+			long offset = page * mPageSize;
+			mBuf = mWindows[(int) (offset / WINDOW_SIZE)];
+			mBase = (int) (offset % WINDOW_SIZE);
+		}
+
+		/**
+		 * Move to an offset from the node start.
+		 *
+		 * @param offset the offset
+		 */
+		private void seek(int offset) {
+			mPos = mBase + offset;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.InputStream#read()
+		 */
+		@Override
+		public int read() {
+			return (mPos < mBuf.limit()) ? (mBuf.get(mPos++) & 0xff) : -1;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.InputStream#read(byte[], int, int)
+		 */
+		@Override
+		public int read(byte b[], int off, int len) {
+			int n = Math.min(len, mBuf.limit() - mPos);
+			if (n <= 0) {
+				return (len == 0) ? 0 : -1;
+			}
+
+			for (int i = 0; i < n; ++i) {
+				b[off + i] = mBuf.get(mPos + i);
+			}
+			mPos += n;
+			return n;
+		}
+	}
+}
@@ -0,0 +1,602 @@
+package org.apache.dts.btree;
+
+/**
+ * Class PersistentBTree.
+ *
+ * Persistent (copy-on-write) variant of BTree: nodes are never modified
+ * once built. An insert or a delete copies the nodes on the path from the
+ * root to the leaf it touches, plus the siblings a split or a rebalancing
+ * changes, and publishes the new root, while all the other subtrees are
+ * shared with the previous version of the tree.
+ *
+ * So a snapshot is just a copy of the root reference: it keeps seeing the
+ * tree as it was, however long it is read, and it can be modified in its
+ * turn without affecting the tree it was taken from. Readers (search, list)
+ * take no lock at all, writers are serialized on the tree.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class PersistentBTree<K extends Comparable, V> {
+
+	/** The root, never null. */
+	private volatile Node<K, V> mRoot;
+
+	/** The size. */
+	private volatile int mSize;
+
+	/** The min degree (aka t). */
+	private final int mMinDegree;
+
+	/** The min number of keys of a non-root node (aka t - 1). */
+	private final int mLowerBoundKeyNum;
+
+	/** The max number of keys of a node (aka 2t - 1). */
+	private final int mUpperBoundKeyNum;
+
+	/** The found flag of the current write. */
+	private boolean mIsFound;
+
+	/** The value found by the current write. */
+	private Object mFoundValue;
+
+	/**
+	 * Instantiates a new persistent b tree with the default min degree.
+	 */
+	public PersistentBTree() {
+		this(BTNode.DEFAULT_MIN_DEGREE);
+	}
+
+	/**
+	 * Instantiates a new persistent b tree.
+	 *
+	 * @param minDegree the min degree (aka t)
+	 */
+	public PersistentBTree(int minDegree) {
+		if (minDegree < BTNode.SMALLEST_MIN_DEGREE) {
+			throw new IllegalArgumentException("Min degree must be at least " + BTNode.SMALLEST_MIN_DEGREE
+					+ ": " + minDegree);
+		}
+
+		mMinDegree = minDegree;
+		mLowerBoundKeyNum = BTNode.getLowerBoundKeyNum(minDegree);
+		mUpperBoundKeyNum = BTNode.getUpperBoundKeyNum(minDegree);
+		mRoot = new Node<K, V>(new Comparable[0], new Object[0], null);
+	}
+
+	/**
+	 * Instantiates a new persistent b tree sharing the nodes of another one.
+	 *
+	 * @param btree the persistent b tree
+	 * @param rootNode the root node
+	 * @param size the size
+	 */
+	private PersistentBTree(PersistentBTree<K, V> btree, Node<K, V> rootNode, int size) {
+		mMinDegree = btree.mMinDegree;
+		mLowerBoundKeyNum = btree.mLowerBoundKeyNum;
+		mUpperBoundKeyNum = btree.mUpperBoundKeyNum;
+		mRoot = rootNode;
+		mSize = size;
+	}
+
+	/**
+	 * Gets the root node.
+	 *
+	 * @return the root node
+	 */
+	public Node<K, V> getRootNode() {
+		return mRoot;
+	}
+
+	/**
+	 * Gets the size.
+	 *
+	 * @return the size
+	 */
+	public int getSize() {
+		return mSize;
+	}
+
+	/**
+	 * Gets the min degree.
+	 *
+	 * @return the min degree
+	 */
+	public int getMinDegree() {
+		return mMinDegree;
+	}
+
+	/**
+	 * Take a snapshot of the tree in O(1): the snapshot shares all the nodes
+	 * of the tree, and the writes on either of them are not seen by the
+	 * other.
+	 *
+	 * @return the snapshot
+	 */
+	public synchronized PersistentBTree<K, V> snapshot() {
+		return new PersistentBTree<K, V>(this, mRoot, mSize);
+	}
+
+	/**
+	 * Clear.
+	 */
+	public synchronized void clear() {
+		mRoot = new Node<K, V>(new Comparable[0], new Object[0], null);
+		mSize = 0;
+	}
+
+	/**
+	 * Search the key among the keys of a node.
+	 *
+	 * @param btNode the bt node
+	 * @param key the key
+	 * @return the index of the key, otherwise -(insertion point) - 1
+	 */
+	@SuppressWarnings("unchecked")
+	private static int searchKey(Node<?, ?> btNode, Comparable key) {
+		Comparable[] keys = btNode.mKeys;
+		int low = 0;
+		int high = keys.length - 1;
+		int mid, cmp;
+
+		while (low <= high) {
+			mid = (low + high) >>> 1;
+			cmp = keys[mid].compareTo(key);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+
+		return -(low + 1);
+	}
+
+	/**
+	 * Search.
+	 *
+	 * @param key the key
+	 * @return the value, or null if the key doesn't exist
+	 */
+	@SuppressWarnings("unchecked")
+	public V search(K key) {
+		Node<K, V> btNode = mRoot;
+		while (true) {
+			int i = searchKey(btNode, key);
+			if (i >= 0) {
+				return (V) btNode.mValues[i];
+			}
+
+			if (btNode.mChildren == null) {
+				return null;
+			}
+			btNode = btNode.mChildren[-(i + 1)];
+		}
+	}
+
+	/**
+	 * Insert.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return the persistent b tree
+	 */
+	public synchronized PersistentBTree<K, V> insert(K key, V value) {
+		mIsFound = false;
+		Node<K, V> rootNode = insertKeyAtNode(mRoot, key, value);
+		if (rootNode.mKeys.length > mUpperBoundKeyNum) {
+			// The root has overflowed, the tree grows by one level
+			rootNode = splitRootNode(rootNode);
+		}
+
+		mRoot = rootNode;
+		if (!mIsFound) {
+			++mSize;
+		}
+		return this;
+	}
+
+	/**
+	 * Insert a key in the subtree of a node.
+	 *
+	 * @param btNode the bt node
+	 * @param key the key
+	 * @param value the value
+	 * @return the copy of the node, which may hold one key too many
+	 */
+	private Node<K, V> insertKeyAtNode(Node<K, V> btNode, K key, V value) {
+		int i = searchKey(btNode, key);
+		if (i >= 0) {
+			// The key already existed so replace its value
+			mIsFound = true;
+			Object[] values = btNode.mValues.clone();
+			values[i] = value;
+			return new Node<K, V>(btNode.mKeys, values, btNode.mChildren);
+		}
+
+		i = -(i + 1);
+		if (btNode.mChildren == null) {
+			return new Node<K, V>(insertAt(btNode.mKeys, i, key, new Comparable[btNode.mKeys.length + 1]),
+					insertAt(btNode.mValues, i, value, new Object[btNode.mValues.length + 1]), null);
+		}
+
+		Node<K, V> childNode = insertKeyAtNode(btNode.mChildren[i], key, value);
+		Node<K, V>[] children = btNode.mChildren.clone();
+		children[i] = childNode;
+		if (childNode.mKeys.length <= mUpperBoundKeyNum) {
+			return new Node<K, V>(btNode.mKeys, btNode.mValues, children);
+		}
+
+		// The child has overflowed: its median key moves up between its halves
+		Node<K, V>[] halves = splitNode(childNode);
+		Comparable[] keys = insertAt(btNode.mKeys, i, childNode.mKeys[mMinDegree],
+				new Comparable[btNode.mKeys.length + 1]);
+		Object[] values = insertAt(btNode.mValues, i, childNode.mValues[mMinDegree],
+				new Object[btNode.mValues.length + 1]);
+		children = insertAt(children, i + 1, halves[1], newChildren(children.length + 1));
+		children[i] = halves[0];
+		return new Node<K, V>(keys, values, children);
+	}
+
+	/**
+	 * Split an overflowing node, holding 2t keys, around its key at index t.
+	 *
+	 * @param btNode the bt node
+	 * @return the left and the right halves
+	 */
+	private Node<K, V>[] splitNode(Node<K, V> btNode) {
+		int num = btNode.mKeys.length - mMinDegree - 1;
+		Node<K, V>[] halves = newChildren(2);
+		halves[0] = new Node<K, V>(copyOf(btNode.mKeys, 0, mMinDegree, new Comparable[mMinDegree]),
+				copyOf(btNode.mValues, 0, mMinDegree, new Object[mMinDegree]),
+				(btNode.mChildren == null) ? null
+						: copyOf(btNode.mChildren, 0, mMinDegree + 1, newChildren(mMinDegree + 1)));
+		halves[1] = new Node<K, V>(copyOf(btNode.mKeys, mMinDegree + 1, num, new Comparable[num]),
+				copyOf(btNode.mValues, mMinDegree + 1, num, new Object[num]),
+				(btNode.mChildren == null) ? null
+						: copyOf(btNode.mChildren, mMinDegree + 1, num + 1, newChildren(num + 1)));
+		return halves;
+	}
+
+	/**
+	 * Split an overflowing root node under a new root.
+	 *
+	 * @param btNode the bt node
+	 * @return the new root node
+	 */
+	private Node<K, V> splitRootNode(Node<K, V> btNode) {
+		return new Node<K, V>(new Comparable[] { btNode.mKeys[mMinDegree] },
+				new Object[] { btNode.mValues[mMinDegree] }, splitNode(btNode));
+	}
+
+	/**
+	 * Delete.
+	 *
+	 * @param key the key
+	 * @return the value of the deleted key, null if the key doesn't exist
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized V delete(K key) {
+		mIsFound = false;
+		mFoundValue = null;
+		Node<K, V> rootNode = deleteKeyAtNode(mRoot, key);
+		if (!mIsFound) {
+			return null;
+		}
+
+		if ((rootNode.mKeys.length == 0) && (rootNode.mChildren != null)) {
+			// The root has lost its last key, the tree shrinks by one level
+			rootNode = rootNode.mChildren[0];
+		}
+
+		mRoot = rootNode;
+		--mSize;
+		V value = (V) mFoundValue;
+		mFoundValue = null;
+		return value;
+	}
+
+	/**
+	 * Delete a key from the subtree of a node. A key found in an internal
+	 * node is replaced by its predecessor, deleted from the left subtree.
+	 *
+	 * @param btNode the bt node
+	 * @param key the key
+	 * @return the copy of the node, which may hold one key too few, or the
+	 *         node itself if the key doesn't exist
+	 */
+	private Node<K, V> deleteKeyAtNode(Node<K, V> btNode, Comparable key) {
+		int i = searchKey(btNode, key);
+		if (btNode.mChildren == null) {
+			if (i < 0) {
+				return btNode;
+			}
+
+			mIsFound = true;
+			mFoundValue = btNode.mValues[i];
+			return new Node<K, V>(removeAt(btNode.mKeys, i, new Comparable[btNode.mKeys.length - 1]),
+					removeAt(btNode.mValues, i, new Object[btNode.mValues.length - 1]), null);
+		}
+
+		Comparable[] keys = btNode.mKeys;
+		Object[] values = btNode.mValues;
+		Node<K, V> childNode;
+		if (i >= 0) {
+			Node<K, V> predecessorNode = btNode.mChildren[i];
+			while (predecessorNode.mChildren != null) {
+				predecessorNode = predecessorNode.mChildren[predecessorNode.mChildren.length - 1];
+			}
+
+			int last = predecessorNode.mKeys.length - 1;
+			keys = keys.clone();
+			values = values.clone();
+			keys[i] = predecessorNode.mKeys[last];
+			values[i] = predecessorNode.mValues[last];
+			childNode = deleteKeyAtNode(btNode.mChildren[i], keys[i]);
+			mFoundValue = btNode.mValues[i];
+		} else {
+			i = -(i + 1);
+			childNode = deleteKeyAtNode(btNode.mChildren[i], key);
+			if (childNode == btNode.mChildren[i]) {
+				return btNode;
+			}
+		}
+
+		Node<K, V>[] children = btNode.mChildren.clone();
+		children[i] = childNode;
+		if (childNode.mKeys.length >= mLowerBoundKeyNum) {
+			return new Node<K, V>(keys, values, children);
+		}
+
+		return rebalanceChild(keys, values, children, i);
+	}
+
+	/**
+	 * Rebalance a child having t - 2 keys, by borrowing a key from one of
+	 * its siblings or by merging it with one of them.
+	 *
+	 * @param keys the keys of the parent node, which may be modified
+	 * @param values the values of the parent node, which may be modified
+	 * @param children the children of the parent node, which may be modified
+	 * @param childIdx the index of the child
+	 * @return the new parent node
+	 */
+	private Node<K, V> rebalanceChild(Comparable[] keys, Object[] values, Node<K, V>[] children, int childIdx) {
+		keys = keys.clone();
+		values = values.clone();
+		Node<K, V> childNode = children[childIdx];
+		Node<K, V> leftSiblingNode = (childIdx > 0) ? children[childIdx - 1] : null;
+		Node<K, V> rightSiblingNode = (childIdx < keys.length) ? children[childIdx + 1] : null;
+
+		if ((leftSiblingNode != null) && (leftSiblingNode.mKeys.length > mLowerBoundKeyNum)) {
+			// Right rotation: the last key of the left sibling goes up, the
+			// parent key comes down in front of the child
+			int last = leftSiblingNode.mKeys.length - 1;
+			children[childIdx] = new Node<K, V>(
+					insertAt(childNode.mKeys, 0, keys[childIdx - 1], new Comparable[childNode.mKeys.length + 1]),
+					insertAt(childNode.mValues, 0, values[childIdx - 1], new Object[childNode.mValues.length + 1]),
+					(childNode.mChildren == null) ? null
+							: insertAt(childNode.mChildren, 0, leftSiblingNode.mChildren[last + 1],
+									newChildren(childNode.mChildren.length + 1)));
+			keys[childIdx - 1] = leftSiblingNode.mKeys[last];
+			values[childIdx - 1] = leftSiblingNode.mValues[last];
+			children[childIdx - 1] = new Node<K, V>(copyOf(leftSiblingNode.mKeys, 0, last, new Comparable[last]),
+					copyOf(leftSiblingNode.mValues, 0, last, new Object[last]),
+					(leftSiblingNode.mChildren == null) ? null
+							: copyOf(leftSiblingNode.mChildren, 0, last + 1, newChildren(last + 1)));
+			return new Node<K, V>(keys, values, children);
+		}
+
+		if ((rightSiblingNode != null) && (rightSiblingNode.mKeys.length > mLowerBoundKeyNum)) {
+			// Left rotation: the first key of the right sibling goes up, the
+			// parent key comes down at the end of the child
+			int num = rightSiblingNode.mKeys.length - 1;
+			int keyNum = childNode.mKeys.length;
+			children[childIdx] = new Node<K, V>(
+					insertAt(childNode.mKeys, keyNum, keys[childIdx], new Comparable[keyNum + 1]),
+					insertAt(childNode.mValues, keyNum, values[childIdx], new Object[keyNum + 1]),
+					(childNode.mChildren == null) ? null
+							: insertAt(childNode.mChildren, keyNum + 1, rightSiblingNode.mChildren[0],
+									newChildren(keyNum + 2)));
+			keys[childIdx] = rightSiblingNode.mKeys[0];
+			values[childIdx] = rightSiblingNode.mValues[0];
+			children[childIdx + 1] = new Node<K, V>(copyOf(rightSiblingNode.mKeys, 1, num, new Comparable[num]),
+					copyOf(rightSiblingNode.mValues, 1, num, new Object[num]),
+					(rightSiblingNode.mChildren == null) ? null
+							: copyOf(rightSiblingNode.mChildren, 1, num + 1, newChildren(num + 1)));
+			return new Node<K, V>(keys, values, children);
+		}
+
+		// Merge with a sibling around the parent key between them
+		int mergeIdx = (leftSiblingNode != null) ? (childIdx - 1) : childIdx;
+		Node<K, V> leftNode = children[mergeIdx];
+		Node<K, V> rightNode = children[mergeIdx + 1];
+		int leftNum = leftNode.mKeys.length;
+		int rightNum = rightNode.mKeys.length;
+
+		Comparable[] mergedKeys = new Comparable[leftNum + rightNum + 1];
+		Object[] mergedValues = new Object[leftNum + rightNum + 1];
+		System.arraycopy(leftNode.mKeys, 0, mergedKeys, 0, leftNum);
+		System.arraycopy(leftNode.mValues, 0, mergedValues, 0, leftNum);
+		mergedKeys[leftNum] = keys[mergeIdx];
+		mergedValues[leftNum] = values[mergeIdx];
+		System.arraycopy(rightNode.mKeys, 0, mergedKeys, leftNum + 1, rightNum);
+		System.arraycopy(rightNode.mValues, 0, mergedValues, leftNum + 1, rightNum);
+		Node<K, V>[] mergedChildren = null;
+		if (leftNode.mChildren != null) {
+			mergedChildren = newChildren(leftNum + rightNum + 2);
+			System.arraycopy(leftNode.mChildren, 0, mergedChildren, 0, leftNum + 1);
+			System.arraycopy(rightNode.mChildren, 0, mergedChildren, leftNum + 1, rightNum + 1);
+		}
+
+		children[mergeIdx] = new Node<K, V>(mergedKeys, mergedValues, mergedChildren);
+		return new Node<K, V>(removeAt(keys, mergeIdx, new Comparable[keys.length - 1]),
+				removeAt(values, mergeIdx, new Object[values.length - 1]),
+				removeAt(children, mergeIdx + 1, newChildren(children.length - 1)));
+	}
+
+	/**
+	 * List the entries in key order. Writes running meanwhile are not seen.
+	 *
+	 * @param iterImpl the iter impl
+	 */
+	public void list(BTIterator<K, V> iterImpl) {
+		if (iterImpl == null) {
+			return;
+		}
+
+		listEntriesInOrder(mRoot, iterImpl);
+	}
+
+	/**
+	 * List entries in order.
+	 *
+	 * @param btNode the bt node
+	 * @param iterImpl the iter impl
+	 * @return false, if the iterator has stopped the listing
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean listEntriesInOrder(Node<K, V> btNode, BTIterator<K, V> iterImpl) {
+		for (int i = 0; i <= btNode.mKeys.length; ++i) {
+			if ((btNode.mChildren != null) && !listEntriesInOrder(btNode.mChildren[i], iterImpl)) {
+				return false;
+			}
+
+			if ((i < btNode.mKeys.length) && !iterImpl.item((K) btNode.mKeys[i], (V) btNode.mValues[i])) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Copy an array with an element inserted.
+	 *
+	 * @param src the source array
+	 * @param i the index of the element
+	 * @param element the element
+	 * @param dest the destination array, one element longer
+	 * @return the destination array
+	 */
+	private static <T> T[] insertAt(T[] src, int i, T element, T[] dest) {
+		System.arraycopy(src, 0, dest, 0, i);
+		dest[i] = element;
+		System.arraycopy(src, i, dest, i + 1, src.length - i);
+		return dest;
+	}
+
+	/**
+	 * Copy an array with an element removed.
+	 *
+	 * @param src the source array
+	 * @param i the index of the element
+	 * @param dest the destination array, one element shorter
+	 * @return the destination array
+	 */
+	private static <T> T[] removeAt(T[] src, int i, T[] dest) {
+		System.arraycopy(src, 0, dest, 0, i);
+		System.arraycopy(src, i + 1, dest, i, dest.length - i);
+		return dest;
+	}
+
+	/**
+	 * Copy a range of an array.
+	 *
+	 * @param src the source array
+	 * @param from the index of the range
+	 * @param num the length of the range
+	 * @param dest the destination array
+	 * @return the destination array
+	 */
+	private static <T> T[] copyOf(T[] src, int from, int num, T[] dest) {
+		System.arraycopy(src, from, dest, 0, num);
+		return dest;
+	}
+
+	/**
+	 * New children array.
+	 *
+	 * @param num the number of children
+	 * @return the children array
+	 */
+	@SuppressWarnings("unchecked")
+	private static <K extends Comparable, V> Node<K, V>[] newChildren(int num) {
+		return new Node[num];
+	}
+
+	/**
+	 * Class Node.
+	 *
+	 * Immutable node of a persistent b tree, its arrays are sized to its
+	 * number of keys and never modified once the node is built.
+	 *
+	 * @param <K> the key type
+	 * @param <V> the value type
+	 */
+	public static class Node<K extends Comparable, V> {
+
+		/** The keys, all of them are of the key type. */
+		final Comparable[] mKeys;
+
+		/** The values, parallel to the keys, all of them are of the value type. */
+		final Object[] mValues;
+
+		/** The children, null for a leaf. */
+		final Node<K, V>[] mChildren;
+
+		/**
+		 * Instantiates a new node.
+		 *
+		 * @param keys the keys
+		 * @param values the values
+		 * @param children the children, null for a leaf
+		 */
+		Node(Comparable[] keys, Object[] values, Node<K, V>[] children) {
+			mKeys = keys;
+			mValues = values;
+			mChildren = children;
+		}
+
+		/**
+		 * Gets the number of keys.
+		 *
+		 * @return the number of keys
+		 */
+		public int getKeyNum() {
+			return mKeys.length;
+		}
+
+		/**
+		 * Checks if is leaf.
+		 *
+		 * @return true, if is leaf
+		 */
+		public boolean isLeaf() {
+			return mChildren == null;
+		}
+
+		/**
+		 * Gets the key.
+		 *
+		 * @param i the index
+		 * @return the key
+		 */
+		@SuppressWarnings("unchecked")
+		public K getKey(int i) {
+			return (K) mKeys[i];
+		}
+
+		/**
+		 * Gets the child.
+		 *
+		 * @param i the index
+		 * @return the child
+		 */
+		public Node<K, V> getChild(int i) {
+			return mChildren[i];
+		}
+	}
+}
@@ -0,0 +1,617 @@
+package org.apache.dts.btree.concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.dts.btree.BTIterator;
+import org.apache.dts.btree.BTNode;
+
+/**
+ * Class BLinkTree.
+ *
+ * Thread-safe B-link tree (Lehman and Yao): a B+ tree where every node also
+ * has a high key, greater than all its keys, and a link to its right
+ * sibling. A split first moves the upper half of a node to a new right
+ * sibling, linked from the node, then inserts the separator in the parent
+ * as an independent step. In between, an operation that lands on the node
+ * with a key not smaller than its high key just follows the right link.
+ *
+ * So nobody couples latches down the tree: readers hold a single latch at a
+ * time, and writers hold at most the latch of a node and the latch of its
+ * parent while a split goes up, the latches being always taken from left to
+ * right and from the bottom up. The root is only guarded while it gets
+ * replaced by a new root.
+ *
+ * As in the original design nodes are never merged: a delete only removes
+ * the key from its leaf, which may end up empty.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class BLinkTree<K extends Comparable, V> {
+
+	/** The root latch, guarding the growth of the tree. */
+	private final ReentrantLock mRootLatch = new ReentrantLock();
+
+	/** The root, never null. */
+	private volatile Node<K, V> mRoot;
+
+	/** The size. */
+	private final LongAdder mSize = new LongAdder();
+
+	/** The min degree (aka t). */
+	private final int mMinDegree;
+
+	/** The max number of keys of a node (aka 2t - 1). */
+	private final int mUpperBoundKeyNum;
+
+	/**
+	 * Instantiates a new b link tree with the default min degree.
+	 */
+	public BLinkTree() {
+		this(BTNode.DEFAULT_MIN_DEGREE);
+	}
+
+	/**
+	 * Instantiates a new b link tree.
+	 *
+	 * @param minDegree the min degree (aka t)
+	 */
+	public BLinkTree(int minDegree) {
+		if (minDegree < BTNode.SMALLEST_MIN_DEGREE) {
+			throw new IllegalArgumentException("Min degree must be at least " + BTNode.SMALLEST_MIN_DEGREE
+					+ ": " + minDegree);
+		}
+
+		mMinDegree = minDegree;
+		mUpperBoundKeyNum = BTNode.getUpperBoundKeyNum(minDegree);
+		mRoot = new Node<K, V>(mUpperBoundKeyNum, 0);
+	}
+
+	/**
+	 * Gets the size.
+	 *
+	 * @return the size
+	 */
+	public int getSize() {
+		return mSize.intValue();
+	}
+
+	/**
+	 * Gets the min degree.
+	 *
+	 * @return the min degree
+	 */
+	public int getMinDegree() {
+		return mMinDegree;
+	}
+
+	/**
+	 * Clear. Operations running concurrently may still complete on the
+	 * entries being cleared.
+	 */
+	public void clear() {
+		mRootLatch.lock();
+		try {
+			mRoot = new Node<K, V>(mUpperBoundKeyNum, 0);
+			mSize.reset();
+		} finally {
+			mRootLatch.unlock();
+		}
+	}
+
+	/**
+	 * Search the key among the keys of a node.
+	 *
+	 * @param btNode the bt node, latched
+	 * @param key the key
+	 * @return the index of the key, otherwise -(insertion point) - 1
+	 */
+	@SuppressWarnings("unchecked")
+	private static int searchKey(Node<?, ?> btNode, Comparable key) {
+		int low = 0;
+		int high = btNode.mCurrentKeyNum - 1;
+		int mid, cmp;
+
+		while (low <= high) {
+			mid = (low + high) >>> 1;
+			cmp = btNode.mKeys[mid].compareTo(key);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+
+		return -(low + 1);
+	}
+
+	/**
+	 * Gets the index of the child of an internal node holding a key: a key
+	 * equal to a separator lives on its right.
+	 *
+	 * @param btNode the bt node, latched
+	 * @param key the key
+	 * @return the child index
+	 */
+	private static int getChildIndex(Node<?, ?> btNode, Comparable key) {
+		int i = searchKey(btNode, key);
+		return (i >= 0) ? (i + 1) : -(i + 1);
+	}
+
+	/**
+	 * Checks if a key is beyond a node, i.e. not smaller than its high key,
+	 * so that it has moved to the right after a split.
+	 *
+	 * @param btNode the bt node, latched
+	 * @param key the key
+	 * @return true, if the key must be searched on the right of the node
+	 */
+	@SuppressWarnings("unchecked")
+	private static boolean isBeyond(Node<?, ?> btNode, Comparable key) {
+		return (btNode.mHighKey != null) && (btNode.mHighKey.compareTo(key) <= 0);
+	}
+
+	/**
+	 * Move right from a node to the node of its level holding a key,
+	 * coupling the latches from left to right.
+	 *
+	 * @param btNode the bt node, latched
+	 * @param key the key
+	 * @param isWrite true for write mode, false for read mode
+	 * @return the node holding the key, latched instead of the bt node
+	 */
+	private static <K extends Comparable, V> Node<K, V> moveRight(Node<K, V> btNode, Comparable key,
+			boolean isWrite) {
+		while (isBeyond(btNode, key)) {
+			Node<K, V> rightNode = btNode.mRightNode;
+			rightNode.latch(isWrite);
+			btNode.unlatch(isWrite);
+			btNode = rightNode;
+		}
+
+		return btNode;
+	}
+
+	/**
+	 * Search.
+	 *
+	 * @param key the key
+	 * @return the value, or null if the key doesn't exist
+	 */
+	@SuppressWarnings("unchecked")
+	public V search(K key) {
+		Node<K, V> btNode = mRoot;
+		while (true) {
+			btNode.latch(false);
+			btNode = moveRight(btNode, key, false);
+			if (btNode.mIsLeaf) {
+				int i = searchKey(btNode, key);
+				V value = (i >= 0) ? (V) btNode.mValues[i] : null;
+				btNode.unlatch(false);
+				return value;
+			}
+
+			// The child may split before it gets latched, moving right fixes it
+			Node<K, V> childNode = btNode.mChildren[getChildIndex(btNode, key)];
+			btNode.unlatch(false);
+			btNode = childNode;
+		}
+	}
+
+	/**
+	 * Contains key.
+	 *
+	 * @param key the key
+	 * @return true, if the key exists in the tree
+	 */
+	public boolean containsKey(K key) {
+		// Null values can't be inserted, so a null value means no key
+		return search(key) != null;
+	}
+
+	/**
+	 * Go down to the leaf holding a key, latched in write mode, keeping the
+	 * internal nodes on the way.
+	 *
+	 * @param key the key
+	 * @param pathNodes the internal nodes on the way, by level
+	 * @return the leaf node, latched in write mode
+	 */
+	private Node<K, V> latchLeaf(K key, Node<K, V>[] pathNodes) {
+		Node<K, V> btNode = mRoot;
+		while (!btNode.mIsLeaf) {
+			btNode.latch(false);
+			btNode = moveRight(btNode, key, false);
+			Node<K, V> childNode = btNode.mChildren[getChildIndex(btNode, key)];
+			if (btNode.mLevel < pathNodes.length) {
+				pathNodes[btNode.mLevel] = btNode;
+			}
+			btNode.unlatch(false);
+			btNode = childNode;
+		}
+
+		btNode.latch(true);
+		return moveRight(btNode, key, true);
+	}
+
+	/**
+	 * Insert.
+	 *
+	 * @param key the key
+	 * @param value the value, not null
+	 * @return the b link tree
+	 */
+	@SuppressWarnings("unchecked")
+	public BLinkTree<K, V> insert(K key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Value must not be null");
+		}
+
+		Node<K, V>[] pathNodes = new Node[mRoot.mLevel + 1];
+		Node<K, V> btNode = latchLeaf(key, pathNodes);
+		int i = searchKey(btNode, key);
+		if (i >= 0) {
+			// The key already existed so replace its value
+			btNode.mValues[i] = value;
+			btNode.unlatch(true);
+			return this;
+		}
+
+		i = -(i + 1);
+		int num = btNode.mCurrentKeyNum - i;
+		System.arraycopy(btNode.mKeys, i, btNode.mKeys, i + 1, num);
+		System.arraycopy(btNode.mValues, i, btNode.mValues, i + 1, num);
+		btNode.mKeys[i] = key;
+		btNode.mValues[i] = value;
+		++(btNode.mCurrentKeyNum);
+		mSize.increment();
+
+		// Split the overflowing nodes up the tree, one level at a time
+		while (btNode.mCurrentKeyNum > mUpperBoundKeyNum) {
+			Node<K, V> newNode = splitNode(btNode);
+			Comparable separatorKey = btNode.mHighKey;
+			Node<K, V> parentNode = latchParent(pathNodes, btNode, newNode, separatorKey);
+			btNode.unlatch(true);
+			if (parentNode == null) {
+				return this;
+			}
+
+			i = getChildIndex(parentNode, separatorKey);
+			num = parentNode.mCurrentKeyNum - i;
+			System.arraycopy(parentNode.mKeys, i, parentNode.mKeys, i + 1, num);
+			System.arraycopy(parentNode.mChildren, i + 1, parentNode.mChildren, i + 2, num);
+			parentNode.mKeys[i] = separatorKey;
+			parentNode.mChildren[i + 1] = newNode;
+			++(parentNode.mCurrentKeyNum);
+			btNode = parentNode;
+		}
+
+		btNode.unlatch(true);
+		return this;
+	}
+
+	/**
+	 * Split an overflowing node: its upper half moves to a new right
+	 * sibling, and its high key becomes the separator to insert in the
+	 * parent node.
+	 *
+	 * @param btNode the bt node, latched in write mode
+	 * @return the new node
+	 */
+	private Node<K, V> splitNode(Node<K, V> btNode) {
+		Node<K, V> newNode = new Node<K, V>(mUpperBoundKeyNum, btNode.mLevel);
+		int keyNum = btNode.mCurrentKeyNum;
+		Comparable separatorKey;
+
+		if (btNode.mIsLeaf) {
+			// The first key of the new leaf is copied up
+			System.arraycopy(btNode.mKeys, mMinDegree, newNode.mKeys, 0, keyNum - mMinDegree);
+			System.arraycopy(btNode.mValues, mMinDegree, newNode.mValues, 0, keyNum - mMinDegree);
+			newNode.mCurrentKeyNum = keyNum - mMinDegree;
+			separatorKey = newNode.mKeys[0];
+			for (int i = mMinDegree; i < keyNum; ++i) {
+				btNode.mKeys[i] = null;
+				btNode.mValues[i] = null;
+			}
+		} else {
+			// The middle key moves up
+			System.arraycopy(btNode.mKeys, mMinDegree + 1, newNode.mKeys, 0, keyNum - mMinDegree - 1);
+			System.arraycopy(btNode.mChildren, mMinDegree + 1, newNode.mChildren, 0, keyNum - mMinDegree);
+			newNode.mCurrentKeyNum = keyNum - mMinDegree - 1;
+			separatorKey = btNode.mKeys[mMinDegree];
+			for (int i = mMinDegree; i < keyNum; ++i) {
+				btNode.mKeys[i] = null;
+				btNode.mChildren[i + 1] = null;
+			}
+		}
+
+		newNode.mHighKey = btNode.mHighKey;
+		newNode.mRightNode = btNode.mRightNode;
+		btNode.mCurrentKeyNum = mMinDegree;
+		btNode.mHighKey = separatorKey;
+		btNode.mRightNode = newNode;
+		return newNode;
+	}
+
+	/**
+	 * Latch the parent of a node that has just split, i.e. the node one
+	 * level up holding the separator key. When the node was the root, the
+	 * tree grows a new root instead.
+	 *
+	 * @param pathNodes the internal nodes on the way down, by level
+	 * @param btNode the bt node, latched in write mode
+	 * @param newNode the new right sibling of the node
+	 * @param separatorKey the separator key
+	 * @return the parent node, latched in write mode, or null if a new root
+	 *         holds the separator key
+	 */
+	@SuppressWarnings("unchecked")
+	private Node<K, V> latchParent(Node<K, V>[] pathNodes, Node<K, V> btNode, Node<K, V> newNode,
+			Comparable separatorKey) {
+		int level = btNode.mLevel + 1;
+		Node<K, V> parentNode = (level < pathNodes.length) ? pathNodes[level] : null;
+
+		if (parentNode == null) {
+			mRootLatch.lock();
+			try {
+				if (mRoot == btNode) {
+					Node<K, V> rootNode = new Node<K, V>(mUpperBoundKeyNum, level);
+					rootNode.mKeys[0] = separatorKey;
+					rootNode.mChildren[0] = btNode;
+					rootNode.mChildren[1] = newNode;
+					rootNode.mCurrentKeyNum = 1;
+					mRoot = rootNode;
+					return null;
+				}
+			} finally {
+				mRootLatch.unlock();
+			}
+
+			// The tree has grown since the way down, go down again to the level
+			parentNode = mRoot;
+			while (parentNode.mLevel > level) {
+				parentNode.latch(false);
+				parentNode = moveRight(parentNode, separatorKey, false);
+				Node<K, V> childNode = parentNode.mChildren[getChildIndex(parentNode, separatorKey)];
+				parentNode.unlatch(false);
+				parentNode = childNode;
+			}
+		}
+
+		parentNode.latch(true);
+		return moveRight(parentNode, separatorKey, true);
+	}
+
+	/**
+	 * Delete.
+	 *
+	 * @param key the key
+	 * @return the value of the deleted key, null if the key doesn't exist
+	 */
+	@SuppressWarnings("unchecked")
+	public V delete(K key) {
+		Node<K, V> leafNode = latchLeaf(key, new Node[0]);
+		try {
+			int i = searchKey(leafNode, key);
+			if (i < 0) {
+				return null;
+			}
+
+			V value = (V) leafNode.mValues[i];
+			int num = leafNode.mCurrentKeyNum - i - 1;
+			System.arraycopy(leafNode.mKeys, i + 1, leafNode.mKeys, i, num);
+			System.arraycopy(leafNode.mValues, i + 1, leafNode.mValues, i, num);
+			--(leafNode.mCurrentKeyNum);
+			leafNode.mKeys[leafNode.mCurrentKeyNum] = null;
+			leafNode.mValues[leafNode.mCurrentKeyNum] = null;
+			mSize.decrement();
+			return value;
+		} finally {
+			leafNode.unlatch(true);
+		}
+	}
+
+	/**
+	 * List the entries in key order, following the links between the
+	 * leaves. The latch of the next leaf is taken before the latch of the
+	 * current leaf is released, and the leaf holding the entry stays
+	 * latched in read mode, so the iterator must not modify the tree.
+	 *
+	 * @param iterImpl the iter impl
+	 */
+	@SuppressWarnings("unchecked")
+	public void list(BTIterator<K, V> iterImpl) {
+		if (iterImpl == null) {
+			return;
+		}
+
+		Node<K, V> btNode = mRoot;
+		while (!btNode.mIsLeaf) {
+			btNode.latch(false);
+			Node<K, V> childNode = btNode.mChildren[0];
+			btNode.unlatch(false);
+			btNode = childNode;
+		}
+
+		btNode.latch(false);
+		try {
+			while (true) {
+				for (int i = 0; i < btNode.mCurrentKeyNum; ++i) {
+					if (!iterImpl.item((K) btNode.mKeys[i], (V) btNode.mValues[i])) {
+						return;
+					}
+				}
+
+				Node<K, V> rightNode = btNode.mRightNode;
+				if (rightNode == null) {
+					return;
+				}
+				rightNode.latch(false);
+				btNode.unlatch(false);
+				btNode = rightNode;
+			}
+		} finally {
+			btNode.unlatch(false);
+		}
+	}
+
+	/**
+	 * Validate the structure of the tree, level by level: the nodes linked
+	 * from the leftmost node of a level must be the children of the level
+	 * above in key order, the high key of every child must be the separator
+	 * on its right in its parent, and the keys of every node must be sorted,
+	 * below its high key and not below the high key of its left sibling.
+	 * Must not run while the tree is being modified.
+	 *
+	 * @throws IllegalStateException if the structure is broken
+	 */
+	@SuppressWarnings("unchecked")
+	public void validate() {
+		List<Node<K, V>> levelNodes = new ArrayList<Node<K, V>>();
+		levelNodes.add(mRoot);
+		List<Comparable> highKeys = new ArrayList<Comparable>();
+		highKeys.add(null);
+		int level = mRoot.mLevel;
+		int keyCount = 0;
+
+		while (true) {
+			List<Node<K, V>> childNodes = new ArrayList<Node<K, V>>();
+			List<Comparable> childHighKeys = new ArrayList<Comparable>();
+			Comparable lowKey = null;
+			for (int n = 0; n < levelNodes.size(); ++n) {
+				Node<K, V> btNode = levelNodes.get(n);
+				Node<K, V> rightNode = (n + 1 < levelNodes.size()) ? levelNodes.get(n + 1) : null;
+				if ((btNode.mLevel != level) || (btNode.mRightNode != rightNode)) {
+					throw new IllegalStateException("Broken right link at level " + level + ", node " + n);
+				}
+
+				Comparable highKey = highKeys.get(n);
+				boolean isHighKeyValid = (highKey == null) ? (btNode.mHighKey == null)
+						: ((btNode.mHighKey != null) && (btNode.mHighKey.compareTo(highKey) == 0));
+				if (!isHighKeyValid) {
+					throw new IllegalStateException("High key " + btNode.mHighKey + " instead of " + highKey
+							+ " at level " + level + ", node " + n);
+				}
+
+				for (int i = 0; i < btNode.mCurrentKeyNum; ++i) {
+					Comparable key = btNode.mKeys[i];
+					if (((i == 0) && (lowKey != null) && (key.compareTo(lowKey) < 0))
+							|| ((i > 0) && (btNode.mKeys[i - 1].compareTo(key) >= 0))
+							|| ((highKey != null) && (key.compareTo(highKey) >= 0))) {
+						throw new IllegalStateException("Key " + key + " out of order at level " + level + ", node "
+								+ n);
+					}
+				}
+				lowKey = highKey;
+
+				if (btNode.mIsLeaf) {
+					keyCount += btNode.mCurrentKeyNum;
+					continue;
+				}
+
+				for (int i = 0; i <= btNode.mCurrentKeyNum; ++i) {
+					childNodes.add(btNode.mChildren[i]);
+					childHighKeys.add((i < btNode.mCurrentKeyNum) ? btNode.mKeys[i] : highKey);
+				}
+			}
+
+			if (level == 0) {
+				break;
+			}
+			levelNodes = childNodes;
+			highKeys = childHighKeys;
+			--level;
+		}
+
+		if (keyCount != getSize()) {
+			throw new IllegalStateException(keyCount + " keys in the leaves, not " + getSize());
+		}
+	}
+
+	/**
+	 * Class Node.
+	 *
+	 * Node of a b link tree, with its high key, its right link and its
+	 * read/write latch. Nodes have room for one more key than allowed, so
+	 * that a node can overflow before it splits.
+	 *
+	 * @param <K> the key type
+	 * @param <V> the value type
+	 */
+	static class Node<K extends Comparable, V> {
+
+		/** The latch. */
+		private final ReentrantReadWriteLock mLatch = new ReentrantReadWriteLock();
+
+		/** The level, 0 for a leaf. */
+		final int mLevel;
+
+		/** The leaf. */
+		final boolean mIsLeaf;
+
+		/** The current key num. */
+		int mCurrentKeyNum;
+
+		/** The keys, all of them are of the key type. */
+		final Comparable[] mKeys;
+
+		/** The values, parallel to the keys, null for an internal node. */
+		final Object[] mValues;
+
+		/** The children, null for a leaf. */
+		final Node<K, V>[] mChildren;
+
+		/** The high key, greater than all the keys, null for the rightmost node. */
+		Comparable mHighKey;
+
+		/** The right sibling, null for the rightmost node. */
+		Node<K, V> mRightNode;
+
+		/**
+		 * Instantiates a new node.
+		 *
+		 * @param upperBoundKeyNum the max number of keys of the node
+		 * @param level the level, 0 for a leaf
+		 */
+		@SuppressWarnings("unchecked")
+		Node(int upperBoundKeyNum, int level) {
+			mLevel = level;
+			mIsLeaf = (level == 0);
+			mKeys = new Comparable[upperBoundKeyNum + 1];
+			mValues = mIsLeaf ? new Object[upperBoundKeyNum + 1] : null;
+			mChildren = mIsLeaf ? null : new Node[upperBoundKeyNum + 2];
+		}
+
+		/**
+		 * Latch the node.
+		 *
+		 * @param isWrite true for write mode, false for read mode
+		 */
+		void latch(boolean isWrite) {
+			if (isWrite) {
+				mLatch.writeLock().lock();
+			} else {
+				mLatch.readLock().lock();
+			}
+		}
+
+		/**
+		 * Unlatch the node.
+		 *
+		 * @param isWrite true for write mode, false for read mode
+		 */
+		void unlatch(boolean isWrite) {
+			if (isWrite) {
+				mLatch.writeLock().unlock();
+			} else {
+				mLatch.readLock().unlock();
+			}
+		}
+	}
+}
@@ -0,0 +1,816 @@
+package org.apache.dts.btree.concurrent;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.dts.btree.BTIterator;
+import org.apache.dts.btree.BTNode;
+
+/**
+ * Class ConcurrentBTree.
+ *
+ * Thread-safe B-tree using a read/write latch per node with lock coupling
+ * (aka latch crabbing): the latch of a child is taken before the latch of
+ * its parent is released, and all the latches are taken from the top down,
+ * so no operation can see a node in the middle of a split or a merge.
+ *
+ * Readers couple read latches down to the key. Writers first go down the
+ * same way and only take a write latch on the leaf; when the leaf turns out
+ * to be unsafe (full for an insert, minimal for a delete), they go down
+ * again with write latches, splitting or rebalancing the nodes on the way
+ * as BTree does. Since every child is made safe before going down to it, a
+ * writer never holds more than the latches of a parent, of its child and of
+ * a sibling of the child, so the operations in disjoint subtrees run in
+ * parallel. All the state of an operation lives on its own stack.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class ConcurrentBTree<K extends Comparable, V> {
+
+	/** The result of an optimistic operation that needs to be retried. */
+	private final static Object RETRY = new Object();
+
+	/** The root latch, guarding the root reference. */
+	private final ReentrantReadWriteLock mRootLatch = new ReentrantReadWriteLock();
+
+	/** The root, never null. */
+	private Node<K, V> mRoot;
+
+	/** The size. */
+	private final LongAdder mSize = new LongAdder();
+
+	/** The min degree (aka t). */
+	private final int mMinDegree;
+
+	/** The min number of keys of a non-root node (aka t - 1). */
+	private final int mLowerBoundKeyNum;
+
+	/** The max number of keys of a node (aka 2t - 1). */
+	private final int mUpperBoundKeyNum;
+
+	/**
+	 * Instantiates a new concurrent b tree with the default min degree.
+	 */
+	public ConcurrentBTree() {
+		this(BTNode.DEFAULT_MIN_DEGREE);
+	}
+
+	/**
+	 * Instantiates a new concurrent b tree.
+	 *
+	 * @param minDegree the min degree (aka t)
+	 */
+	public ConcurrentBTree(int minDegree) {
+		if (minDegree < BTNode.SMALLEST_MIN_DEGREE) {
+			throw new IllegalArgumentException("Min degree must be at least " + BTNode.SMALLEST_MIN_DEGREE
+					+ ": " + minDegree);
+		}
+
+		mMinDegree = minDegree;
+		mLowerBoundKeyNum = BTNode.getLowerBoundKeyNum(minDegree);
+		mUpperBoundKeyNum = BTNode.getUpperBoundKeyNum(minDegree);
+		mRoot = new Node<K, V>(mUpperBoundKeyNum, true);
+	}
+
+	/**
+	 * Gets the size.
+	 *
+	 * @return the size
+	 */
+	public int getSize() {
+		return mSize.intValue();
+	}
+
+	/**
+	 * Gets the min degree.
+	 *
+	 * @return the min degree
+	 */
+	public int getMinDegree() {
+		return mMinDegree;
+	}
+
+	/**
+	 * Clear. Operations running concurrently may still complete on the
+	 * entries being cleared.
+	 */
+	public void clear() {
+		mRootLatch.writeLock().lock();
+		try {
+			mRoot = new Node<K, V>(mUpperBoundKeyNum, true);
+			mSize.reset();
+		} finally {
+			mRootLatch.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Search the key among the keys of a node.
+	 *
+	 * @param btNode the bt node
+	 * @param key the key
+	 * @return the index of the key, otherwise -(insertion point) - 1
+	 */
+	@SuppressWarnings("unchecked")
+	private static int searchKey(Node<?, ?> btNode, Comparable key) {
+		Comparable[] keys = btNode.mKeys;
+		int low = 0;
+		int high = btNode.mCurrentKeyNum - 1;
+		int mid, cmp;
+
+		while (low <= high) {
+			mid = (low + high) >>> 1;
+			cmp = keys[mid].compareTo(key);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+
+		return -(low + 1);
+	}
+
+	/**
+	 * Latch the root, the leaves in write mode when isWriteLeaf is set and
+	 * the internal nodes in read mode.
+	 *
+	 * @param isWriteLeaf true to latch a leaf in write mode
+	 * @return the latched root
+	 */
+	private Node<K, V> latchRoot(boolean isWriteLeaf) {
+		mRootLatch.readLock().lock();
+		try {
+			Node<K, V> rootNode = mRoot;
+			rootNode.latch(isWriteLeaf && rootNode.mIsLeaf);
+			return rootNode;
+		} finally {
+			mRootLatch.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Search.
+	 *
+	 * @param key the key
+	 * @return the value, or null if the key doesn't exist
+	 */
+	@SuppressWarnings("unchecked")
+	public V search(K key) {
+		Node<K, V> btNode = latchRoot(false);
+		try {
+			while (true) {
+				int i = searchKey(btNode, key);
+				if (i >= 0) {
+					return (V) btNode.mValues[i];
+				}
+
+				if (btNode.mIsLeaf) {
+					return null;
+				}
+
+				Node<K, V> childNode = btNode.mChildren[-(i + 1)];
+				childNode.latch(false);
+				btNode.unlatch(false);
+				btNode = childNode;
+			}
+		} finally {
+			btNode.unlatch(false);
+		}
+	}
+
+	/**
+	 * Contains key.
+	 *
+	 * @param key the key
+	 * @return true, if the key exists in the tree
+	 */
+	public boolean containsKey(K key) {
+		Node<K, V> btNode = latchRoot(false);
+		try {
+			while (true) {
+				int i = searchKey(btNode, key);
+				if (i >= 0) {
+					return true;
+				}
+
+				if (btNode.mIsLeaf) {
+					return false;
+				}
+
+				Node<K, V> childNode = btNode.mChildren[-(i + 1)];
+				childNode.latch(false);
+				btNode.unlatch(false);
+				btNode = childNode;
+			}
+		} finally {
+			btNode.unlatch(false);
+		}
+	}
+
+	/**
+	 * Go down from a latched node to the leaf of the key with read latches,
+	 * and latch the leaf in write mode.
+	 *
+	 * @param btNode the bt node, latched in write mode if it is a leaf and
+	 *            in read mode otherwise
+	 * @param key the key
+	 * @return the latched leaf, or null if the key was found in an internal
+	 *         node
+	 */
+	private Node<K, V> latchLeaf(Node<K, V> btNode, K key) {
+		while (!btNode.mIsLeaf) {
+			int i = searchKey(btNode, key);
+			if (i >= 0) {
+				btNode.unlatch(false);
+				return null;
+			}
+
+			Node<K, V> childNode = btNode.mChildren[-(i + 1)];
+			childNode.latch(childNode.mIsLeaf);
+			btNode.unlatch(false);
+			btNode = childNode;
+		}
+
+		return btNode;
+	}
+
+	/**
+	 * Insert.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return the concurrent b tree
+	 */
+	public ConcurrentBTree<K, V> insert(K key, V value) {
+		Node<K, V> leafNode = latchLeaf(latchRoot(true), key);
+		if (leafNode != null) {
+			try {
+				int i = searchKey(leafNode, key);
+				if (i >= 0) {
+					leafNode.mValues[i] = value;
+					return this;
+				}
+
+				if (leafNode.mCurrentKeyNum < mUpperBoundKeyNum) {
+					insertKeyAtLeaf(leafNode, -(i + 1), key, value);
+					return this;
+				}
+			} finally {
+				leafNode.unlatch(true);
+			}
+		}
+
+		// The leaf is full or the key is in an internal node
+		insertWithSplits(key, value);
+		return this;
+	}
+
+	/**
+	 * Insert key at leaf.
+	 *
+	 * @param leafNode the leaf node
+	 * @param i the insertion point
+	 * @param key the key
+	 * @param value the value
+	 */
+	private void insertKeyAtLeaf(Node<K, V> leafNode, int i, K key, V value) {
+		int num = leafNode.mCurrentKeyNum - i;
+		System.arraycopy(leafNode.mKeys, i, leafNode.mKeys, i + 1, num);
+		System.arraycopy(leafNode.mValues, i, leafNode.mValues, i + 1, num);
+		leafNode.mKeys[i] = key;
+		leafNode.mValues[i] = value;
+		++(leafNode.mCurrentKeyNum);
+		mSize.increment();
+	}
+
+	/**
+	 * Insert going down with write latches and splitting the full nodes on
+	 * the way, so that the latch of a node can be released as soon as the
+	 * latch of its child is taken.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 */
+	private void insertWithSplits(K key, V value) {
+		Node<K, V> btNode;
+		mRootLatch.writeLock().lock();
+		try {
+			btNode = mRoot;
+			btNode.latch(true);
+			if (btNode.mCurrentKeyNum == mUpperBoundKeyNum) {
+				// The root is full, split it under the root latch
+				Node<K, V> rootNode = new Node<K, V>(mUpperBoundKeyNum, false);
+				rootNode.mChildren[0] = btNode;
+				splitNode(rootNode, 0, btNode);
+				rootNode.latch(true);
+				btNode.unlatch(true);
+				mRoot = rootNode;
+				btNode = rootNode;
+			}
+		} finally {
+			mRootLatch.writeLock().unlock();
+		}
+
+		try {
+			while (true) {
+				int i = searchKey(btNode, key);
+				if (i >= 0) {
+					// The key already existed so replace its value and done with it
+					btNode.mValues[i] = value;
+					return;
+				}
+
+				i = -(i + 1);
+				if (btNode.mIsLeaf) {
+					insertKeyAtLeaf(btNode, i, key, value);
+					return;
+				}
+
+				Node<K, V> childNode = btNode.mChildren[i];
+				childNode.latch(true);
+				if (childNode.mCurrentKeyNum == mUpperBoundKeyNum) {
+					// Split the full child then search the node again, the key
+					// may be the median moved up
+					splitNode(btNode, i, childNode);
+					childNode.unlatch(true);
+					continue;
+				}
+
+				btNode.unlatch(true);
+				btNode = childNode;
+			}
+		} finally {
+			btNode.unlatch(true);
+		}
+	}
+
+	/**
+	 * Split a full node, both the node and its parent being latched in write
+	 * mode. The new node isn't reachable before the parent is released.
+	 *
+	 * @param parentNode the parent node
+	 * @param nodeIdx the index of the node in the parent node
+	 * @param btNode the bt node
+	 */
+	private void splitNode(Node<K, V> parentNode, int nodeIdx, Node<K, V> btNode) {
+		Node<K, V> newNode = new Node<K, V>(mUpperBoundKeyNum, btNode.mIsLeaf);
+
+		// The new node takes the right half of the keys and children
+		System.arraycopy(btNode.mKeys, mMinDegree, newNode.mKeys, 0, mLowerBoundKeyNum);
+		System.arraycopy(btNode.mValues, mMinDegree, newNode.mValues, 0, mLowerBoundKeyNum);
+		if (!btNode.mIsLeaf) {
+			System.arraycopy(btNode.mChildren, mMinDegree, newNode.mChildren, 0, mMinDegree);
+			Arrays.fill(btNode.mChildren, mMinDegree, mMinDegree * 2, null);
+		}
+		newNode.mCurrentKeyNum = mLowerBoundKeyNum;
+
+		// The median key moves up to the parent node
+		int num = parentNode.mCurrentKeyNum - nodeIdx;
+		System.arraycopy(parentNode.mKeys, nodeIdx, parentNode.mKeys, nodeIdx + 1, num);
+		System.arraycopy(parentNode.mValues, nodeIdx, parentNode.mValues, nodeIdx + 1, num);
+		System.arraycopy(parentNode.mChildren, nodeIdx + 1, parentNode.mChildren, nodeIdx + 2, num);
+		parentNode.mKeys[nodeIdx] = btNode.mKeys[mLowerBoundKeyNum];
+		parentNode.mValues[nodeIdx] = btNode.mValues[mLowerBoundKeyNum];
+		parentNode.mChildren[nodeIdx + 1] = newNode;
+		++(parentNode.mCurrentKeyNum);
+
+		Arrays.fill(btNode.mKeys, mLowerBoundKeyNum, mUpperBoundKeyNum, null);
+		Arrays.fill(btNode.mValues, mLowerBoundKeyNum, mUpperBoundKeyNum, null);
+		btNode.mCurrentKeyNum = mLowerBoundKeyNum;
+	}
+
+	/**
+	 * Delete.
+	 *
+	 * @param key the key
+	 * @return the value of the deleted key, null if the key doesn't exist
+	 */
+	@SuppressWarnings("unchecked")
+	public V delete(K key) {
+		Object retVal = deleteAtLeaf(key);
+		if (retVal == RETRY) {
+			// The leaf is minimal or the key is in an internal node
+			retVal = deleteWithRebalancing(key);
+		}
+		return (V) retVal;
+	}
+
+	/**
+	 * Delete the key at its leaf if the leaf can lose a key without being
+	 * rebalanced.
+	 *
+	 * @param key the key
+	 * @return the value of the deleted key, null if the key doesn't exist,
+	 *         RETRY if the key can't be deleted at the leaf
+	 */
+	private Object deleteAtLeaf(K key) {
+		// A root leaf can't be split while it is latched, so it stays the
+		// root and may go below t - 1 keys
+		Node<K, V> rootNode = latchRoot(true);
+		boolean isRootLeaf = rootNode.mIsLeaf;
+		Node<K, V> leafNode = latchLeaf(rootNode, key);
+		if (leafNode == null) {
+			return RETRY;
+		}
+
+		try {
+			int i = searchKey(leafNode, key);
+			if (i < 0) {
+				return null;
+			}
+
+			if ((leafNode.mCurrentKeyNum == mLowerBoundKeyNum) && !isRootLeaf) {
+				return RETRY;
+			}
+
+			return removeKeyAtLeaf(leafNode, i);
+		} finally {
+			leafNode.unlatch(true);
+		}
+	}
+
+	/**
+	 * Remove key at leaf.
+	 *
+	 * @param leafNode the leaf node
+	 * @param i the index of the key
+	 * @return the value of the key
+	 */
+	private Object removeKeyAtLeaf(Node<K, V> leafNode, int i) {
+		Object value = leafNode.mValues[i];
+		int num = leafNode.mCurrentKeyNum - i - 1;
+		System.arraycopy(leafNode.mKeys, i + 1, leafNode.mKeys, i, num);
+		System.arraycopy(leafNode.mValues, i + 1, leafNode.mValues, i, num);
+		--(leafNode.mCurrentKeyNum);
+		leafNode.mKeys[leafNode.mCurrentKeyNum] = null;
+		leafNode.mValues[leafNode.mCurrentKeyNum] = null;
+		mSize.decrement();
+		return value;
+	}
+
+	/**
+	 * Delete going down with write latches, making sure each child has more
+	 * than t - 1 keys before going down to it, so that the latch of a node
+	 * can be released as soon as the latch of its child is taken.
+	 *
+	 * A key found in an internal node is replaced by its predecessor, the
+	 * greatest key of its left subtree: that node (the anchor) stays latched
+	 * while going down to the predecessor, the key being then searched as if
+	 * it were in the left subtree.
+	 *
+	 * @param key the key
+	 * @return the value of the deleted key, null if the key doesn't exist
+	 */
+	private Object deleteWithRebalancing(K key) {
+		Object retVal = null;
+		Node<K, V> anchorNode = null;
+		boolean isRootLatched = true;
+		Node<K, V> btNode;
+
+		mRootLatch.writeLock().lock();
+		btNode = mRoot;
+		btNode.latch(true);
+		try {
+			// The root can only be replaced when its last key goes down
+			if (btNode.mIsLeaf || (btNode.mCurrentKeyNum > 1)) {
+				mRootLatch.writeLock().unlock();
+				isRootLatched = false;
+			}
+
+			while (!btNode.mIsLeaf) {
+				int i = searchKey(btNode, key);
+				int childIdx;
+				if (i >= 0) {
+					if (anchorNode == null) {
+						retVal = btNode.mValues[i];
+					}
+					anchorNode = btNode;
+					childIdx = i;
+				} else {
+					childIdx = -(i + 1);
+				}
+
+				Node<K, V> childNode = btNode.mChildren[childIdx];
+				childNode.latch(true);
+				if (childNode.mCurrentKeyNum == mLowerBoundKeyNum) {
+					childNode = rebalanceChild(btNode, childIdx, childNode);
+					if (btNode.mCurrentKeyNum == 0) {
+						// The root has lost its last key, the merged node is the
+						// new root
+						mRoot = childNode;
+					}
+
+					if ((anchorNode == btNode) && (searchKey(btNode, key) < 0)) {
+						// The key has gone down to the child with the rebalancing
+						anchorNode = null;
+					}
+				}
+
+				if (isRootLatched) {
+					mRootLatch.writeLock().unlock();
+					isRootLatched = false;
+				}
+
+				if (btNode != anchorNode) {
+					btNode.unlatch(true);
+				}
+				btNode = childNode;
+			}
+
+			if (anchorNode != null) {
+				// Replace the key by its predecessor, the greatest key of the leaf
+				int i = searchKey(anchorNode, key);
+				int last = btNode.mCurrentKeyNum - 1;
+				anchorNode.mKeys[i] = btNode.mKeys[last];
+				anchorNode.mValues[i] = btNode.mValues[last];
+				removeKeyAtLeaf(btNode, last);
+			} else {
+				int i = searchKey(btNode, key);
+				if (i >= 0) {
+					if (retVal == null) {
+						retVal = btNode.mValues[i];
+					}
+					removeKeyAtLeaf(btNode, i);
+				}
+			}
+		} finally {
+			btNode.unlatch(true);
+			if ((anchorNode != null) && (anchorNode != btNode)) {
+				anchorNode.unlatch(true);
+			}
+
+			if (isRootLatched) {
+				mRootLatch.writeLock().unlock();
+			}
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Rebalance a child having t - 1 keys by borrowing a key from one of its
+	 * siblings or by merging it with one of them. The parent and the child
+	 * are latched in write mode, the siblings get latched after them.
+	 *
+	 * @param parentNode the parent node
+	 * @param nodeIdx the index of the child node
+	 * @param btNode the child node
+	 * @return the node holding the keys of the child, latched in write mode
+	 */
+	private Node<K, V> rebalanceChild(Node<K, V> parentNode, int nodeIdx, Node<K, V> btNode) {
+		Node<K, V> leftSiblingNode = (nodeIdx > 0) ? parentNode.mChildren[nodeIdx - 1] : null;
+		Node<K, V> rightSiblingNode = (nodeIdx < parentNode.mCurrentKeyNum) ? parentNode.mChildren[nodeIdx + 1]
+				: null;
+
+		if (leftSiblingNode != null) {
+			leftSiblingNode.latch(true);
+			if (leftSiblingNode.mCurrentKeyNum > mLowerBoundKeyNum) {
+				performRightRotation(parentNode, nodeIdx);
+				leftSiblingNode.unlatch(true);
+				return btNode;
+			}
+		}
+
+		if (rightSiblingNode != null) {
+			rightSiblingNode.latch(true);
+			try {
+				if (rightSiblingNode.mCurrentKeyNum > mLowerBoundKeyNum) {
+					performLeftRotation(parentNode, nodeIdx);
+				} else {
+					performMerge(parentNode, nodeIdx);
+				}
+			} finally {
+				rightSiblingNode.unlatch(true);
+				if (leftSiblingNode != null) {
+					leftSiblingNode.unlatch(true);
+				}
+			}
+			return btNode;
+		}
+
+		// Merge the node into its left sibling
+		performMerge(parentNode, nodeIdx - 1);
+		btNode.unlatch(true);
+		return leftSiblingNode;
+	}
+
+	/**
+	 * Perform right rotation: move the last key of the left sibling up to
+	 * the parent node, and the parent key down to the front of the node.
+	 *
+	 * @param parentNode the parent node
+	 * @param nodeIdx the index of the node in the parent node
+	 */
+	private void performRightRotation(Node<K, V> parentNode, int nodeIdx) {
+		Node<K, V> btNode = parentNode.mChildren[nodeIdx];
+		Node<K, V> leftSiblingNode = parentNode.mChildren[nodeIdx - 1];
+		int currentKeyNum = btNode.mCurrentKeyNum;
+		int siblingKeyNum = leftSiblingNode.mCurrentKeyNum;
+
+		System.arraycopy(btNode.mKeys, 0, btNode.mKeys, 1, currentKeyNum);
+		System.arraycopy(btNode.mValues, 0, btNode.mValues, 1, currentKeyNum);
+		btNode.mKeys[0] = parentNode.mKeys[nodeIdx - 1];
+		btNode.mValues[0] = parentNode.mValues[nodeIdx - 1];
+		if (!btNode.mIsLeaf) {
+			System.arraycopy(btNode.mChildren, 0, btNode.mChildren, 1, currentKeyNum + 1);
+			btNode.mChildren[0] = leftSiblingNode.mChildren[siblingKeyNum];
+			leftSiblingNode.mChildren[siblingKeyNum] = null;
+		}
+		++(btNode.mCurrentKeyNum);
+
+		parentNode.mKeys[nodeIdx - 1] = leftSiblingNode.mKeys[siblingKeyNum - 1];
+		parentNode.mValues[nodeIdx - 1] = leftSiblingNode.mValues[siblingKeyNum - 1];
+		leftSiblingNode.mKeys[siblingKeyNum - 1] = null;
+		leftSiblingNode.mValues[siblingKeyNum - 1] = null;
+		--(leftSiblingNode.mCurrentKeyNum);
+	}
+
+	/**
+	 * Perform left rotation: move the first key of the right sibling up to
+	 * the parent node, and the parent key down to the end of the node.
+	 *
+	 * @param parentNode the parent node
+	 * @param nodeIdx the index of the node in the parent node
+	 */
+	private void performLeftRotation(Node<K, V> parentNode, int nodeIdx) {
+		Node<K, V> btNode = parentNode.mChildren[nodeIdx];
+		Node<K, V> rightSiblingNode = parentNode.mChildren[nodeIdx + 1];
+		int currentKeyNum = btNode.mCurrentKeyNum;
+		int num = rightSiblingNode.mCurrentKeyNum - 1;
+
+		btNode.mKeys[currentKeyNum] = parentNode.mKeys[nodeIdx];
+		btNode.mValues[currentKeyNum] = parentNode.mValues[nodeIdx];
+		if (!btNode.mIsLeaf) {
+			btNode.mChildren[currentKeyNum + 1] = rightSiblingNode.mChildren[0];
+			System.arraycopy(rightSiblingNode.mChildren, 1, rightSiblingNode.mChildren, 0, num + 1);
+			rightSiblingNode.mChildren[num + 1] = null;
+		}
+		++(btNode.mCurrentKeyNum);
+
+		parentNode.mKeys[nodeIdx] = rightSiblingNode.mKeys[0];
+		parentNode.mValues[nodeIdx] = rightSiblingNode.mValues[0];
+		System.arraycopy(rightSiblingNode.mKeys, 1, rightSiblingNode.mKeys, 0, num);
+		System.arraycopy(rightSiblingNode.mValues, 1, rightSiblingNode.mValues, 0, num);
+		rightSiblingNode.mKeys[num] = null;
+		rightSiblingNode.mValues[num] = null;
+		rightSiblingNode.mCurrentKeyNum = num;
+	}
+
+	/**
+	 * Perform merge: the parent key and all the keys and children of the
+	 * right sibling are appended to the node, then the right sibling is
+	 * dropped from the parent node. Nobody waits on the latch of the dropped
+	 * sibling since it can only be reached through the parent node.
+	 *
+	 * @param parentNode the parent node
+	 * @param nodeIdx the index of the node in the parent node
+	 */
+	private void performMerge(Node<K, V> parentNode, int nodeIdx) {
+		Node<K, V> btNode = parentNode.mChildren[nodeIdx];
+		Node<K, V> rightSiblingNode = parentNode.mChildren[nodeIdx + 1];
+		int currentKeyNum = btNode.mCurrentKeyNum;
+		int siblingKeyNum = rightSiblingNode.mCurrentKeyNum;
+
+		btNode.mKeys[currentKeyNum] = parentNode.mKeys[nodeIdx];
+		btNode.mValues[currentKeyNum] = parentNode.mValues[nodeIdx];
+		System.arraycopy(rightSiblingNode.mKeys, 0, btNode.mKeys, currentKeyNum + 1, siblingKeyNum);
+		System.arraycopy(rightSiblingNode.mValues, 0, btNode.mValues, currentKeyNum + 1, siblingKeyNum);
+		if (!btNode.mIsLeaf) {
+			System.arraycopy(rightSiblingNode.mChildren, 0, btNode.mChildren, currentKeyNum + 1, siblingKeyNum + 1);
+		}
+		btNode.mCurrentKeyNum = currentKeyNum + siblingKeyNum + 1;
+
+		int num = parentNode.mCurrentKeyNum - nodeIdx - 1;
+		System.arraycopy(parentNode.mKeys, nodeIdx + 1, parentNode.mKeys, nodeIdx, num);
+		System.arraycopy(parentNode.mValues, nodeIdx + 1, parentNode.mValues, nodeIdx, num);
+		System.arraycopy(parentNode.mChildren, nodeIdx + 2, parentNode.mChildren, nodeIdx + 1, num);
+		--(parentNode.mCurrentKeyNum);
+		parentNode.mKeys[parentNode.mCurrentKeyNum] = null;
+		parentNode.mValues[parentNode.mCurrentKeyNum] = null;
+		parentNode.mChildren[parentNode.mCurrentKeyNum + 1] = null;
+	}
+
+	/**
+	 * List the entries in key order. The nodes of the path to the current
+	 * entry stay latched in read mode, so the iterator must not modify the
+	 * tree.
+	 *
+	 * @param iterImpl the iter impl
+	 */
+	public void list(BTIterator<K, V> iterImpl) {
+		if (iterImpl == null) {
+			return;
+		}
+
+		Node<K, V> rootNode = latchRoot(false);
+		try {
+			listEntriesInOrder(rootNode, iterImpl);
+		} finally {
+			rootNode.unlatch(false);
+		}
+	}
+
+	/**
+	 * List entries in order.
+	 *
+	 * @param btNode the bt node, latched in read mode
+	 * @param iterImpl the iter impl
+	 * @return false, if the iterator has stopped the listing
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean listEntriesInOrder(Node<K, V> btNode, BTIterator<K, V> iterImpl) {
+		for (int i = 0; i <= btNode.mCurrentKeyNum; ++i) {
+			if (!btNode.mIsLeaf) {
+				Node<K, V> childNode = btNode.mChildren[i];
+				childNode.latch(false);
+				try {
+					if (!listEntriesInOrder(childNode, iterImpl)) {
+						return false;
+					}
+				} finally {
+					childNode.unlatch(false);
+				}
+			}
+
+			if ((i < btNode.mCurrentKeyNum) && !iterImpl.item((K) btNode.mKeys[i], (V) btNode.mValues[i])) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Class Node.
+	 *
+	 * Node of a concurrent b tree, with its read/write latch.
+	 *
+	 * @param <K> the key type
+	 * @param <V> the value type
+	 */
+	static class Node<K extends Comparable, V> {
+
+		/** The latch. */
+		private final ReentrantReadWriteLock mLatch = new ReentrantReadWriteLock();
+
+		/** The leaf. */
+		final boolean mIsLeaf;
+
+		/** The current key num. */
+		int mCurrentKeyNum;
+
+		/** The keys, all of them are of the key type. */
+		final Comparable[] mKeys;
+
+		/** The values, parallel to the keys, all of them are of the value type. */
+		final Object[] mValues;
+
+		/** The children, null for a leaf. */
+		final Node<K, V>[] mChildren;
+
+		/**
+		 * Instantiates a new node.
+		 *
+		 * @param upperBoundKeyNum the max number of keys of the node
+		 * @param isLeaf the is leaf
+		 */
+		@SuppressWarnings("unchecked")
+		Node(int upperBoundKeyNum, boolean isLeaf) {
+			mIsLeaf = isLeaf;
+			mKeys = new Comparable[upperBoundKeyNum];
+			mValues = new Object[upperBoundKeyNum];
+			mChildren = isLeaf ? null : new Node[upperBoundKeyNum + 1];
+		}
+
+		/**
+		 * Latch the node.
+		 *
+		 * @param isWrite true for write mode, false for read mode
+		 */
+		void latch(boolean isWrite) {
+			if (isWrite) {
+				mLatch.writeLock().lock();
+			} else {
+				mLatch.readLock().lock();
+			}
+		}
+
+		/**
+		 * Unlatch the node.
+		 *
+		 * @param isWrite true for write mode, false for read mode
+		 */
+		void unlatch(boolean isWrite) {
+			if (isWrite) {
+				mLatch.writeLock().unlock();
+			} else {
+				mLatch.readLock().unlock();
+			}
+		}
+	}
+}
@@ -0,0 +1,399 @@
+package org.apache.dts.btree.concurrent;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.dts.btree.BTException;
+import org.apache.dts.btree.BTIterator;
+import org.apache.dts.btree.BTNode;
+
+/**
+ * Class MVCCBTree.
+ *
+ * Multi-version b-tree with snapshot isolated transactions. Every key maps
+ * to a chain of versions, from the newest to the oldest, each stamped with
+ * the timestamp of the transaction that committed it, a null value marking
+ * a delete. The chains live in an OptimisticBTree, so finding a chain takes
+ * no lock.
+ *
+ * A transaction reads the snapshot as of its start timestamp, i.e. for each
+ * key the newest version committed at or before it, and never blocks nor
+ * is blocked. Its writes are kept aside until it commits. At commit, a key
+ * written by a transaction committed after the start of this one is a
+ * write-write conflict and the transaction is rolled back (first committer
+ * wins); otherwise the new versions are installed with a new timestamp,
+ * which is published once all of them are in place. Commits are serialized
+ * among themselves, the reads never wait for them.
+ *
+ * The versions no snapshot can see anymore, i.e. older than the newest
+ * version at or before the oldest active snapshot, are reclaimed by
+ * collectGarbage(), which can also run in the background.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class MVCCBTree<K extends Comparable, V> implements Closeable {
+
+	/** The version chains, by key. */
+	private final OptimisticBTree<K, Version<V>> mIndex;
+
+	/** The timestamp of the last commit, the start timestamp of the new transactions. */
+	private final AtomicLong mClock = new AtomicLong();
+
+	/** The commit latch, serializing the commits and the removal of keys. */
+	private final ReentrantLock mCommitLatch = new ReentrantLock();
+
+	/** The active transactions. */
+	private final Set<MVCCTransaction<K, V>> mActiveTransactions = ConcurrentHashMap.newKeySet();
+
+	/** The lock of the background collector. */
+	private final ReentrantLock mCollectorLock = new ReentrantLock();
+
+	/** The condition signaled when the tree gets closed. */
+	private final Condition mClosing = mCollectorLock.newCondition();
+
+	/** Whether the tree is closed. */
+	private boolean mIsClosed = false;
+
+	/** The background collector, if any. */
+	private Thread mCollector = null;
+
+	/**
+	 * Instantiates a new MVCC b tree with the default min degree and no
+	 * background collector.
+	 */
+	public MVCCBTree() {
+		this(BTNode.DEFAULT_MIN_DEGREE, 0);
+	}
+
+	/**
+	 * Instantiates a new MVCC b tree.
+	 *
+	 * @param minDegree the min degree (aka t)
+	 * @param collectIntervalMillis the interval between two garbage
+	 *            collections in the background, 0 for none
+	 */
+	public MVCCBTree(int minDegree, long collectIntervalMillis) {
+		if (collectIntervalMillis < 0) {
+			throw new IllegalArgumentException("Collect interval must not be negative: " + collectIntervalMillis);
+		}
+
+		mIndex = new OptimisticBTree<K, Version<V>>(minDegree);
+		if (collectIntervalMillis > 0) {
+			startCollector(collectIntervalMillis);
+		}
+	}
+
+	/**
+	 * Begin a transaction, reading the snapshot of the last commit.
+	 *
+	 * @return the transaction
+	 */
+	public MVCCTransaction<K, V> begin() {
+		MVCCTransaction<K, V> transaction = register();
+		transaction.start(mClock.get());
+		return transaction;
+	}
+
+	/**
+	 * Register a new transaction, the first step of begin(). It must be
+	 * registered before its start timestamp is read, see
+	 * getOldestTimestamp(), and started right after.
+	 *
+	 * @return the transaction, not started yet
+	 */
+	MVCCTransaction<K, V> register() {
+		MVCCTransaction<K, V> transaction = new MVCCTransaction<K, V>(this);
+		mActiveTransactions.add(transaction);
+		return transaction;
+	}
+
+	/**
+	 * Gets the timestamp of the last commit.
+	 *
+	 * @return the timestamp
+	 */
+	public long getLastCommitTimestamp() {
+		return mClock.get();
+	}
+
+	/**
+	 * Gets the number of active transactions.
+	 *
+	 * @return the number of active transactions
+	 */
+	public int getActiveTransactionCount() {
+		return mActiveTransactions.size();
+	}
+
+	/**
+	 * Read the value of a key in a snapshot.
+	 *
+	 * @param key the key
+	 * @param timestamp the timestamp of the snapshot
+	 * @return the value, null if the key doesn't exist in the snapshot
+	 */
+	V read(K key, long timestamp) {
+		return getVisibleValue(mIndex.search(key), timestamp);
+	}
+
+	/**
+	 * Gets the value of the newest version of a chain at or before a
+	 * timestamp.
+	 *
+	 * @param version the newest version of the chain, may be null
+	 * @param timestamp the timestamp
+	 * @return the value, null if the key doesn't exist at the timestamp
+	 */
+	private static <V> V getVisibleValue(Version<V> version, long timestamp) {
+		while ((version != null) && (version.mCommitTimestamp > timestamp)) {
+			version = version.mNext;
+		}
+
+		return (version != null) ? version.mValue : null;
+	}
+
+	/**
+	 * List the entries of a snapshot in key order.
+	 *
+	 * @param timestamp the timestamp of the snapshot
+	 * @param iterImpl the iter impl
+	 */
+	void list(final long timestamp, final BTIterator<K, V> iterImpl) {
+		mIndex.list(new BTIterator<K, Version<V>>() {
+			@Override
+			public boolean item(K key, Version<V> version) {
+				V value = getVisibleValue(version, timestamp);
+				return (value == null) || iterImpl.item(key, value);
+			}
+		});
+	}
+
+	/**
+	 * Commit the writes of a transaction.
+	 *
+	 * @param transaction the transaction
+	 * @param writes the writes, a null value for a delete
+	 * @throws BTException if a key was written by a transaction committed
+	 *             after the start of this one
+	 */
+	void commit(MVCCTransaction<K, V> transaction, Map<K, V> writes) throws BTException {
+		try {
+			if (writes.isEmpty()) {
+				return;
+			}
+
+			mCommitLatch.lock();
+			try {
+				long startTimestamp = transaction.getStartTimestamp();
+				for (K key : writes.keySet()) {
+					Version<V> version = mIndex.search(key);
+					if ((version != null) && (version.mCommitTimestamp > startTimestamp)) {
+						throw new BTException("Write-write conflict on key = " + key);
+					}
+				}
+
+				// The new versions are all in place before the timestamp is
+				// published, so a snapshot never sees a part of a commit
+				long commitTimestamp = mClock.get() + 1;
+				for (Map.Entry<K, V> entry : writes.entrySet()) {
+					K key = entry.getKey();
+					mIndex.insert(key, new Version<V>(entry.getValue(), commitTimestamp, mIndex.search(key)));
+				}
+				mClock.set(commitTimestamp);
+			} finally {
+				mCommitLatch.unlock();
+			}
+		} finally {
+			end(transaction);
+		}
+	}
+
+	/**
+	 * End a transaction.
+	 *
+	 * @param transaction the transaction
+	 */
+	void end(MVCCTransaction<K, V> transaction) {
+		mActiveTransactions.remove(transaction);
+	}
+
+	/**
+	 * Gets the timestamp of the oldest snapshot that may still be read.
+	 *
+	 * @return the timestamp
+	 */
+	private long getOldestTimestamp() {
+		// A transaction registered after the clock is read here starts at or
+		// after it. One registered before may have read the clock before
+		// the last commits but not published its start yet: wait for it,
+		// begin() only has the clock to read
+		long oldestTimestamp = mClock.get();
+		for (MVCCTransaction<K, V> transaction : mActiveTransactions) {
+			long startTimestamp;
+			while ((startTimestamp = transaction.getStartTimestamp()) < 0) {
+				Thread.yield();
+			}
+			if (startTimestamp < oldestTimestamp) {
+				oldestTimestamp = startTimestamp;
+			}
+		}
+
+		return oldestTimestamp;
+	}
+
+	/**
+	 * Collect the garbage: the versions older than the newest version at or
+	 * before the oldest active snapshot are dropped from their chains, and
+	 * the keys whose only remaining version is a delete are dropped from
+	 * the tree. A transaction registered but not started yet may read a
+	 * snapshot older than the last commit, so the collection waits until it
+	 * is started: a transaction stuck between the two steps of begin()
+	 * blocks the collector.
+	 *
+	 * @return the number of versions dropped
+	 */
+	public int collectGarbage() {
+		final long oldestTimestamp = getOldestTimestamp();
+		final List<K> deletedKeys = new ArrayList<K>();
+		final List<Version<V>> deleteVersions = new ArrayList<Version<V>>();
+		final int[] count = new int[1];
+
+		mIndex.list(new BTIterator<K, Version<V>>() {
+			@Override
+			public boolean item(K key, Version<V> version) {
+				Version<V> oldestVersion = version;
+				while ((oldestVersion != null) && (oldestVersion.mCommitTimestamp > oldestTimestamp)) {
+					oldestVersion = oldestVersion.mNext;
+				}
+
+				if (oldestVersion == null) {
+					return true;
+				}
+
+				// No snapshot goes past the oldest visible version
+				for (Version<V> next = oldestVersion.mNext; next != null; next = next.mNext) {
+					++count[0];
+				}
+				oldestVersion.mNext = null;
+
+				if ((oldestVersion == version) && (version.mValue == null)) {
+					deletedKeys.add(key);
+					deleteVersions.add(version);
+				}
+				return true;
+			}
+		});
+
+		for (int i = 0; i < deletedKeys.size(); ++i) {
+			mCommitLatch.lock();
+			try {
+				// Unless it has been written again meanwhile
+				K key = deletedKeys.get(i);
+				if (mIndex.search(key) == deleteVersions.get(i)) {
+					mIndex.delete(key);
+					++count[0];
+				}
+			} finally {
+				mCommitLatch.unlock();
+			}
+		}
+
+		return count[0];
+	}
+
+	/**
+	 * Start the background collector.
+	 *
+	 * @param collectIntervalMillis the interval between two collections
+	 */
+	private void startCollector(final long collectIntervalMillis) {
+		mCollector = new Thread("MVCCBTree collector") {
+			@Override
+			public void run() {
+				while (true) {
+					mCollectorLock.lock();
+					try {
+						if (!mIsClosed) {
+							mClosing.await(collectIntervalMillis, TimeUnit.MILLISECONDS);
+						}
+
+						if (mIsClosed) {
+							return;
+						}
+					} catch (InterruptedException iex) {
+						return;
+					} finally {
+						mCollectorLock.unlock();
+					}
+
+					collectGarbage();
+				}
+			}
+		};
+		mCollector.setDaemon(true);
+		mCollector.start();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() {
+		mCollectorLock.lock();
+		try {
+			mIsClosed = true;
+			mClosing.signalAll();
+		} finally {
+			mCollectorLock.unlock();
+		}
+
+		if (mCollector != null) {
+			try {
+				mCollector.join();
+			} catch (InterruptedException iex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Class Version.
+	 *
+	 * Committed version of a key, linked to the previous one.
+	 *
+	 * @param <V> the value type
+	 */
+	static final class Version<V> {
+
+		/** The value, null for a delete. */
+		final V mValue;
+
+		/** The commit timestamp. */
+		final long mCommitTimestamp;
+
+		/** The previous version, cut by the garbage collection. */
+		volatile Version<V> mNext;
+
+		/**
+		 * Instantiates a new version.
+		 *
+		 * @param value the value, null for a delete
+		 * @param commitTimestamp the commit timestamp
+		 * @param next the previous version
+		 */
+		Version(V value, long commitTimestamp, Version<V> next) {
+			mValue = value;
+			mCommitTimestamp = commitTimestamp;
+			mNext = next;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package org.apache.dts.btree.concurrent;
+
+import org.apache.dts.btree.BTException;
+
+/**
+ * Class MVCCBTreeTest
+ * 
+ * Description: This class contains the test cases of MVCCBTree that need
+ * its package-private steps, run from BTreeTest.
+ */
+public class MVCCBTreeTest {
+
+	/**
+	 * Run a transaction that reads the clock, but publishes its start
+	 * timestamp only after a commit and a concurrent garbage collection.
+	 * The collector must wait for it and keep the version it reads.
+	 *
+	 * @throws BTException the BT exception
+	 */
+	public static void runStartRace() throws BTException {
+		final MVCCBTree<Integer, String> btree = new MVCCBTree<Integer, String>();
+		MVCCTransaction<Integer, String> writer = btree.begin();
+		writer.insert(1, "old");
+		writer.commit();
+
+		// The steps of begin(), with a commit and a collection in between
+		MVCCTransaction<Integer, String> reader = btree.register();
+		long startTimestamp = btree.getLastCommitTimestamp();
+		writer = btree.begin();
+		writer.insert(1, "new");
+		writer.commit();
+		Thread collector = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				btree.collectGarbage();
+			}
+		});
+		collector.start();
+		try {
+			collector.join(100);
+			if (!collector.isAlive()) {
+				throw new BTException("Error in runStartRace(): the collector didn't wait for the start timestamp");
+			}
+
+			reader.start(startTimestamp);
+			collector.join();
+		} catch (InterruptedException iex) {
+			throw new BTException("Error in runStartRace(): interrupted", iex);
+		}
+
+		if (!"old".equals(reader.search(1))) {
+			throw new BTException("Error in runStartRace(): the snapshot reads " + reader.search(1) + " instead of old");
+		}
+		reader.rollback();
+	}
+}
@@ -0,0 +1,208 @@
+package org.apache.dts.btree.concurrent;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.dts.btree.BTException;
+import org.apache.dts.btree.BTIterator;
+
+/**
+ * Class MVCCTransaction.
+ *
+ * Snapshot isolated transaction of a MVCCBTree. It reads the snapshot as of
+ * its start plus its own writes, which are kept aside until commit() or
+ * rollback(). A transaction is meant to be used by a single thread.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class MVCCTransaction<K extends Comparable, V> {
+
+	/** The tree. */
+	private final MVCCBTree<K, V> mTree;
+
+	/** The start timestamp, -1 until the transaction is started. */
+	private volatile long mStartTimestamp = -1;
+
+	/** The writes, a null value for a delete. */
+	private final TreeMap<K, V> mWrites = new TreeMap<K, V>();
+
+	/** Whether the transaction is active. */
+	private boolean mIsActive = true;
+
+	/**
+	 * Instantiates a new MVCC transaction.
+	 *
+	 * @param tree the tree
+	 */
+	MVCCTransaction(MVCCBTree<K, V> tree) {
+		mTree = tree;
+	}
+
+	/**
+	 * Start the transaction.
+	 *
+	 * @param startTimestamp the start timestamp
+	 */
+	void start(long startTimestamp) {
+		mStartTimestamp = startTimestamp;
+	}
+
+	/**
+	 * Gets the start timestamp.
+	 *
+	 * @return the start timestamp, -1 until the transaction is started
+	 */
+	public long getStartTimestamp() {
+		return mStartTimestamp;
+	}
+
+	/**
+	 * Checks if is active.
+	 *
+	 * @return true, until the transaction is committed or rolled back
+	 */
+	public boolean isActive() {
+		return mIsActive;
+	}
+
+	/**
+	 * Check the transaction is active.
+	 */
+	private void checkActive() {
+		if (!mIsActive) {
+			throw new IllegalStateException("Transaction is not active");
+		}
+	}
+
+	/**
+	 * Search.
+	 *
+	 * @param key the key
+	 * @return the value, or null if the key doesn't exist
+	 */
+	public V search(K key) {
+		checkActive();
+		if (mWrites.containsKey(key)) {
+			return mWrites.get(key);
+		}
+
+		return mTree.read(key, mStartTimestamp);
+	}
+
+	/**
+	 * Insert.
+	 *
+	 * @param key the key
+	 * @param value the value, not null
+	 * @return the MVCC transaction
+	 */
+	public MVCCTransaction<K, V> insert(K key, V value) {
+		checkActive();
+		if (value == null) {
+			throw new IllegalArgumentException("Value must not be null");
+		}
+
+		mWrites.put(key, value);
+		return this;
+	}
+
+	/**
+	 * Delete.
+	 *
+	 * @param key the key
+	 * @return the value of the deleted key, null if the key doesn't exist
+	 */
+	public V delete(K key) {
+		V value = search(key);
+		mWrites.put(key, null);
+		return value;
+	}
+
+	/**
+	 * List the entries in key order.
+	 *
+	 * @param iterImpl the iter impl
+	 */
+	@SuppressWarnings("unchecked")
+	public void list(final BTIterator<K, V> iterImpl) {
+		checkActive();
+		if (iterImpl == null) {
+			return;
+		}
+
+		// Merge the writes into the snapshot
+		final Iterator<Map.Entry<K, V>> writeIter = mWrites.entrySet().iterator();
+		final Object[] nextWrite = new Object[] { writeIter.hasNext() ? writeIter.next() : null };
+		final boolean[] isStopped = new boolean[1];
+
+		mTree.list(mStartTimestamp, new BTIterator<K, V>() {
+			@Override
+			public boolean item(K key, V value) {
+				Map.Entry<K, V> write;
+				while ((write = (Map.Entry<K, V>) nextWrite[0]) != null) {
+					int cmp = write.getKey().compareTo(key);
+					if (cmp > 0) {
+						break;
+					}
+
+					nextWrite[0] = writeIter.hasNext() ? writeIter.next() : null;
+					if (cmp == 0) {
+						// The write replaces the entry of the snapshot
+						if (write.getValue() == null) {
+							return true;
+						}
+						value = write.getValue();
+						break;
+					}
+					if ((write.getValue() != null) && !iterImpl.item(write.getKey(), write.getValue())) {
+						isStopped[0] = true;
+						return false;
+					}
+				}
+
+				if (!iterImpl.item(key, value)) {
+					isStopped[0] = true;
+					return false;
+				}
+				return true;
+			}
+		});
+
+		if (isStopped[0]) {
+			return;
+		}
+
+		for (Map.Entry<K, V> write = (Map.Entry<K, V>) nextWrite[0]; write != null;
+				write = writeIter.hasNext() ? writeIter.next() : null) {
+			if ((write.getValue() != null) && !iterImpl.item(write.getKey(), write.getValue())) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Commit the writes.
+	 *
+	 * @throws BTException if a key written by the transaction was also
+	 *             written by a transaction committed after its start, the
+	 *             transaction is then rolled back
+	 */
+	public void commit() throws BTException {
+		checkActive();
+		mIsActive = false;
+		mTree.commit(this, mWrites);
+	}
+
+	/**
+	 * Rollback: drop the writes.
+	 */
+	public void rollback() {
+		if (mIsActive) {
+			mIsActive = false;
+			mWrites.clear();
+			mTree.end(this);
+		}
+	}
+}
@@ -0,0 +1,855 @@
+package org.apache.dts.btree.concurrent;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+import org.apache.dts.btree.BTIterator;
+import org.apache.dts.btree.BTNode;
+
+/**
+ * Class OptimisticBTree.
+ *
+ * Thread-safe B-tree using optimistic lock coupling: every node carries a
+ * version, held by a StampedLock, which changes each time the node is
+ * modified. Readers take no lock at all, they read the version of a node,
+ * read the node, then check the version didn't change before trusting what
+ * they read, and restart from the root on a conflict. So the readers never
+ * write to a shared cache line, not even on the root.
+ *
+ * Writers go down the same way and only lock, by upgrading the version they
+ * read, the nodes they modify. A full node (insert) or a minimal node
+ * (delete) met on the way is split or rebalanced right away with its parent
+ * locked, then the operation starts over, so the change at the leaf never
+ * has to go back up.
+ *
+ * A node dropped by a merge is marked obsolete before it is unlocked, which
+ * fails the readers still holding it. It is then left to the garbage
+ * collector, which only reclaims it once no reader can reach it anymore:
+ * that is what the epoch-based reclamation of lock-free trees provides, so
+ * there is no epoch to maintain here.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class OptimisticBTree<K extends Comparable, V> {
+
+	/** The result of a key search on a node being modified. */
+	private final static int CONFLICT = Integer.MIN_VALUE;
+
+	/** The root, replaced only while the old root is locked. */
+	private volatile Node<K, V> mRoot;
+
+	/** The size. */
+	private final LongAdder mSize = new LongAdder();
+
+	/** The min degree (aka t). */
+	private final int mMinDegree;
+
+	/** The min number of keys of a non-root node (aka t - 1). */
+	private final int mLowerBoundKeyNum;
+
+	/** The max number of keys of a node (aka 2t - 1). */
+	private final int mUpperBoundKeyNum;
+
+	/**
+	 * Instantiates a new optimistic b tree with the default min degree.
+	 */
+	public OptimisticBTree() {
+		this(BTNode.DEFAULT_MIN_DEGREE);
+	}
+
+	/**
+	 * Instantiates a new optimistic b tree.
+	 *
+	 * @param minDegree the min degree (aka t)
+	 */
+	public OptimisticBTree(int minDegree) {
+		if (minDegree < BTNode.SMALLEST_MIN_DEGREE) {
+			throw new IllegalArgumentException("Min degree must be at least " + BTNode.SMALLEST_MIN_DEGREE
+					+ ": " + minDegree);
+		}
+
+		mMinDegree = minDegree;
+		mLowerBoundKeyNum = BTNode.getLowerBoundKeyNum(minDegree);
+		mUpperBoundKeyNum = BTNode.getUpperBoundKeyNum(minDegree);
+		mRoot = new Node<K, V>(mUpperBoundKeyNum, true);
+	}
+
+	/**
+	 * Gets the size.
+	 *
+	 * @return the size
+	 */
+	public int getSize() {
+		return mSize.intValue();
+	}
+
+	/**
+	 * Gets the min degree.
+	 *
+	 * @return the min degree
+	 */
+	public int getMinDegree() {
+		return mMinDegree;
+	}
+
+	/**
+	 * Clear. Operations running concurrently may still complete on the
+	 * entries being cleared.
+	 */
+	public void clear() {
+		mRoot = new Node<K, V>(mUpperBoundKeyNum, true);
+		mSize.reset();
+	}
+
+	/**
+	 * Search the key among the keys of a node, which may be modified at the
+	 * same time: the result is only meaningful if the version of the node
+	 * is still valid afterwards.
+	 *
+	 * @param btNode the bt node
+	 * @param key the key
+	 * @return the index of the key, otherwise -(insertion point) - 1, or
+	 *         CONFLICT if the node is obviously being modified
+	 */
+	@SuppressWarnings("unchecked")
+	private static int searchKey(Node<?, ?> btNode, Comparable key) {
+		Comparable[] keys = btNode.mKeys;
+		int low = 0;
+		int high = Math.min(btNode.mCurrentKeyNum, keys.length) - 1;
+		int mid, cmp;
+		Comparable midKey;
+
+		while (low <= high) {
+			mid = (low + high) >>> 1;
+			midKey = keys[mid];
+			if (midKey == null) {
+				return CONFLICT;
+			}
+
+			cmp = midKey.compareTo(key);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+
+		return -(low + 1);
+	}
+
+	/**
+	 * Search.
+	 *
+	 * @param key the key
+	 * @return the value, or null if the key doesn't exist
+	 */
+	@SuppressWarnings("unchecked")
+	public V search(K key) {
+		restart: while (true) {
+			Node<K, V> btNode = mRoot;
+			long version = btNode.readVersion();
+			if ((version == 0) || (btNode != mRoot)) {
+				continue;
+			}
+
+			while (true) {
+				int i = searchKey(btNode, key);
+				if (i == CONFLICT) {
+					continue restart;
+				}
+
+				if (i >= 0) {
+					Object value = btNode.mValues[i];
+					if (!btNode.isVersionValid(version)) {
+						continue restart;
+					}
+					return (V) value;
+				}
+
+				if (btNode.mIsLeaf) {
+					if (!btNode.isVersionValid(version)) {
+						continue restart;
+					}
+					return null;
+				}
+
+				Node<K, V> childNode = btNode.mChildren[-(i + 1)];
+				if (childNode == null) {
+					continue restart;
+				}
+
+				long childVersion = childNode.readVersion();
+				if ((childVersion == 0) || !btNode.isVersionValid(version)) {
+					continue restart;
+				}
+				btNode = childNode;
+				version = childVersion;
+			}
+		}
+	}
+
+	/**
+	 * Contains key.
+	 *
+	 * @param key the key
+	 * @return true, if the key exists in the tree
+	 */
+	public boolean containsKey(K key) {
+		// Null values can't be inserted, so a null value means no key
+		return search(key) != null;
+	}
+
+	/**
+	 * Insert.
+	 *
+	 * @param key the key
+	 * @param value the value, not null
+	 * @return the optimistic b tree
+	 */
+	public OptimisticBTree<K, V> insert(K key, V value) {
+		if (value == null) {
+			throw new IllegalArgumentException("Value must not be null");
+		}
+
+		restart: while (true) {
+			Node<K, V> parentNode = null;
+			long parentVersion = 0;
+			int nodeIdx = 0;
+			Node<K, V> btNode = mRoot;
+			long version = btNode.readVersion();
+			if ((version == 0) || (btNode != mRoot)) {
+				continue;
+			}
+
+			while (true) {
+				if (btNode.mCurrentKeyNum == mUpperBoundKeyNum) {
+					// Split the full node right away then start over, so that
+					// a split never has to go back up
+					splitFullNode(parentNode, parentVersion, nodeIdx, btNode, version);
+					continue restart;
+				}
+
+				int i = searchKey(btNode, key);
+				if (i == CONFLICT) {
+					continue restart;
+				}
+
+				if ((i >= 0) || btNode.mIsLeaf) {
+					long stamp = btNode.lockVersion(version);
+					if (stamp == 0) {
+						continue restart;
+					}
+
+					if (i >= 0) {
+						// The key already existed so replace its value
+						btNode.mValues[i] = value;
+					} else {
+						insertKeyAtLeaf(btNode, -(i + 1), key, value);
+					}
+					btNode.unlock(stamp);
+					return this;
+				}
+
+				i = -(i + 1);
+				Node<K, V> childNode = btNode.mChildren[i];
+				if (childNode == null) {
+					continue restart;
+				}
+
+				long childVersion = childNode.readVersion();
+				if ((childVersion == 0) || !btNode.isVersionValid(version)) {
+					continue restart;
+				}
+				parentNode = btNode;
+				parentVersion = version;
+				nodeIdx = i;
+				btNode = childNode;
+				version = childVersion;
+			}
+		}
+	}
+
+	/**
+	 * Split a full node if neither it nor its parent changed since their
+	 * versions were read.
+	 *
+	 * @param parentNode the parent node, null if the node is the root
+	 * @param parentVersion the parent version
+	 * @param nodeIdx the index of the node in the parent node
+	 * @param btNode the bt node
+	 * @param version the version of the node
+	 */
+	private void splitFullNode(Node<K, V> parentNode, long parentVersion, int nodeIdx, Node<K, V> btNode,
+			long version) {
+		long parentStamp = 0;
+		if ((parentNode != null) && ((parentStamp = parentNode.lockVersion(parentVersion)) == 0)) {
+			return;
+		}
+
+		long stamp = btNode.lockVersion(version);
+		if (stamp != 0) {
+			if (parentNode != null) {
+				splitNode(parentNode, nodeIdx, btNode);
+			} else if (btNode == mRoot) {
+				// The root only changes while it is locked
+				Node<K, V> rootNode = new Node<K, V>(mUpperBoundKeyNum, false);
+				rootNode.mChildren[0] = btNode;
+				splitNode(rootNode, 0, btNode);
+				mRoot = rootNode;
+			}
+			btNode.unlock(stamp);
+		}
+
+		if (parentNode != null) {
+			parentNode.unlock(parentStamp);
+		}
+	}
+
+	/**
+	 * Insert key at leaf.
+	 *
+	 * @param leafNode the leaf node, locked
+	 * @param i the insertion point
+	 * @param key the key
+	 * @param value the value
+	 */
+	private void insertKeyAtLeaf(Node<K, V> leafNode, int i, K key, V value) {
+		int num = leafNode.mCurrentKeyNum - i;
+		System.arraycopy(leafNode.mKeys, i, leafNode.mKeys, i + 1, num);
+		System.arraycopy(leafNode.mValues, i, leafNode.mValues, i + 1, num);
+		leafNode.mKeys[i] = key;
+		leafNode.mValues[i] = value;
+		++(leafNode.mCurrentKeyNum);
+		mSize.increment();
+	}
+
+	/**
+	 * Split a full node, both the node and its parent being locked.
+	 *
+	 * @param parentNode the parent node
+	 * @param nodeIdx the index of the node in the parent node
+	 * @param btNode the bt node
+	 */
+	private void splitNode(Node<K, V> parentNode, int nodeIdx, Node<K, V> btNode) {
+		Node<K, V> newNode = new Node<K, V>(mUpperBoundKeyNum, btNode.mIsLeaf);
+
+		// The new node takes the right half of the keys and children, it is
+		// complete before it gets reachable from the parent node
+		System.arraycopy(btNode.mKeys, mMinDegree, newNode.mKeys, 0, mLowerBoundKeyNum);
+		System.arraycopy(btNode.mValues, mMinDegree, newNode.mValues, 0, mLowerBoundKeyNum);
+		if (!btNode.mIsLeaf) {
+			System.arraycopy(btNode.mChildren, mMinDegree, newNode.mChildren, 0, mMinDegree);
+		}
+		newNode.mCurrentKeyNum = mLowerBoundKeyNum;
+
+		// The median key moves up to the parent node
+		int num = parentNode.mCurrentKeyNum - nodeIdx;
+		System.arraycopy(parentNode.mKeys, nodeIdx, parentNode.mKeys, nodeIdx + 1, num);
+		System.arraycopy(parentNode.mValues, nodeIdx, parentNode.mValues, nodeIdx + 1, num);
+		System.arraycopy(parentNode.mChildren, nodeIdx + 1, parentNode.mChildren, nodeIdx + 2, num);
+		parentNode.mKeys[nodeIdx] = btNode.mKeys[mLowerBoundKeyNum];
+		parentNode.mValues[nodeIdx] = btNode.mValues[mLowerBoundKeyNum];
+		parentNode.mChildren[nodeIdx + 1] = newNode;
+		++(parentNode.mCurrentKeyNum);
+
+		btNode.mCurrentKeyNum = mLowerBoundKeyNum;
+		Arrays.fill(btNode.mKeys, mLowerBoundKeyNum, mUpperBoundKeyNum, null);
+		Arrays.fill(btNode.mValues, mLowerBoundKeyNum, mUpperBoundKeyNum, null);
+		if (!btNode.mIsLeaf) {
+			Arrays.fill(btNode.mChildren, mMinDegree, mMinDegree * 2, null);
+		}
+	}
+
+	/**
+	 * Delete.
+	 *
+	 * A key found in an internal node (the anchor) is replaced by its
+	 * predecessor, the greatest key of its left subtree: the key is then
+	 * searched as if it were in the left subtree, and the anchor and the
+	 * leaf of the predecessor are both locked, provided neither changed, to
+	 * move the predecessor up.
+	 *
+	 * @param key the key
+	 * @return the value of the deleted key, null if the key doesn't exist
+	 */
+	@SuppressWarnings("unchecked")
+	public V delete(K key) {
+		restart: while (true) {
+			Node<K, V> parentNode = null;
+			long parentVersion = 0;
+			int nodeIdx = 0;
+			Node<K, V> anchorNode = null;
+			long anchorVersion = 0;
+			int anchorIdx = 0;
+			Node<K, V> btNode = mRoot;
+			long version = btNode.readVersion();
+			if ((version == 0) || (btNode != mRoot)) {
+				continue;
+			}
+
+			while (true) {
+				if ((parentNode != null) && (btNode.mCurrentKeyNum == mLowerBoundKeyNum)) {
+					// Rebalance the minimal node right away then start over, so
+					// that a removal never has to go back up
+					rebalanceMinimalNode(parentNode, parentVersion, nodeIdx, btNode, version);
+					continue restart;
+				}
+
+				int i = searchKey(btNode, key);
+				if (i == CONFLICT) {
+					continue restart;
+				}
+
+				if (btNode.mIsLeaf) {
+					if (anchorNode != null) {
+						long anchorStamp = anchorNode.lockVersion(anchorVersion);
+						if (anchorStamp == 0) {
+							continue restart;
+						}
+
+						long stamp = btNode.lockVersion(version);
+						if (stamp == 0) {
+							anchorNode.unlock(anchorStamp);
+							continue restart;
+						}
+
+						// Replace the key by its predecessor, the greatest key of the leaf
+						Object value = anchorNode.mValues[anchorIdx];
+						int last = btNode.mCurrentKeyNum - 1;
+						anchorNode.mKeys[anchorIdx] = btNode.mKeys[last];
+						anchorNode.mValues[anchorIdx] = btNode.mValues[last];
+						removeKeyAtLeaf(btNode, last);
+						btNode.unlock(stamp);
+						anchorNode.unlock(anchorStamp);
+						return (V) value;
+					}
+
+					if (i < 0) {
+						if (!btNode.isVersionValid(version)) {
+							continue restart;
+						}
+						return null;
+					}
+
+					long stamp = btNode.lockVersion(version);
+					if (stamp == 0) {
+						continue restart;
+					}
+
+					Object value = removeKeyAtLeaf(btNode, i);
+					btNode.unlock(stamp);
+					return (V) value;
+				}
+
+				int childIdx;
+				if (i >= 0) {
+					// Go on with the left subtree holding the predecessor
+					anchorNode = btNode;
+					anchorVersion = version;
+					anchorIdx = i;
+					childIdx = i;
+				} else {
+					childIdx = -(i + 1);
+				}
+
+				Node<K, V> childNode = btNode.mChildren[childIdx];
+				if (childNode == null) {
+					continue restart;
+				}
+
+				long childVersion = childNode.readVersion();
+				if ((childVersion == 0) || !btNode.isVersionValid(version)) {
+					continue restart;
+				}
+				parentNode = btNode;
+				parentVersion = version;
+				nodeIdx = childIdx;
+				btNode = childNode;
+				version = childVersion;
+			}
+		}
+	}
+
+	/**
+	 * Remove key at leaf.
+	 *
+	 * @param leafNode the leaf node, locked
+	 * @param i the index of the key
+	 * @return the value of the key
+	 */
+	private Object removeKeyAtLeaf(Node<K, V> leafNode, int i) {
+		Object value = leafNode.mValues[i];
+		int num = leafNode.mCurrentKeyNum - i - 1;
+		System.arraycopy(leafNode.mKeys, i + 1, leafNode.mKeys, i, num);
+		System.arraycopy(leafNode.mValues, i + 1, leafNode.mValues, i, num);
+		--(leafNode.mCurrentKeyNum);
+		leafNode.mKeys[leafNode.mCurrentKeyNum] = null;
+		leafNode.mValues[leafNode.mCurrentKeyNum] = null;
+		mSize.decrement();
+		return value;
+	}
+
+	/**
+	 * Rebalance a node having t - 1 keys if neither it nor its parent
+	 * changed since their versions were read, by borrowing a key from one of
+	 * its siblings or by merging it with one of them. The siblings are
+	 * locked after the parent, which makes them unreachable for the other
+	 * writers.
+	 *
+	 * @param parentNode the parent node
+	 * @param parentVersion the parent version
+	 * @param nodeIdx the index of the node in the parent node
+	 * @param btNode the bt node
+	 * @param version the version of the node
+	 */
+	private void rebalanceMinimalNode(Node<K, V> parentNode, long parentVersion, int nodeIdx, Node<K, V> btNode,
+			long version) {
+		long parentStamp = parentNode.lockVersion(parentVersion);
+		if (parentStamp == 0) {
+			return;
+		}
+
+		long stamp = btNode.lockVersion(version);
+		if (stamp == 0) {
+			parentNode.unlock(parentStamp);
+			return;
+		}
+
+		Node<K, V> leftSiblingNode = (nodeIdx > 0) ? parentNode.mChildren[nodeIdx - 1] : null;
+		Node<K, V> rightSiblingNode = (nodeIdx < parentNode.mCurrentKeyNum) ? parentNode.mChildren[nodeIdx + 1]
+				: null;
+		long leftStamp = 0;
+		long rightStamp = 0;
+
+		if (leftSiblingNode != null) {
+			leftStamp = leftSiblingNode.mLock.writeLock();
+		}
+
+		if ((leftSiblingNode != null) && (leftSiblingNode.mCurrentKeyNum > mLowerBoundKeyNum)) {
+			performRightRotation(parentNode, nodeIdx);
+		} else if (rightSiblingNode != null) {
+			rightStamp = rightSiblingNode.mLock.writeLock();
+			if (rightSiblingNode.mCurrentKeyNum > mLowerBoundKeyNum) {
+				performLeftRotation(parentNode, nodeIdx);
+			} else {
+				performMerge(parentNode, nodeIdx);
+				rightSiblingNode.mIsObsolete = true;
+			}
+		} else {
+			performMerge(parentNode, nodeIdx - 1);
+			btNode.mIsObsolete = true;
+		}
+
+		if ((parentNode.mCurrentKeyNum == 0) && (parentNode == mRoot)) {
+			// The root has lost its last key, the merged node is the new root
+			mRoot = parentNode.mChildren[0];
+			parentNode.mIsObsolete = true;
+		}
+
+		if (rightStamp != 0) {
+			rightSiblingNode.unlock(rightStamp);
+		}
+		if (leftStamp != 0) {
+			leftSiblingNode.unlock(leftStamp);
+		}
+		btNode.unlock(stamp);
+		parentNode.unlock(parentStamp);
+	}
+
+	/**
+	 * Perform right rotation: move the last key of the left sibling up to
+	 * the parent node, and the parent key down to the front of the node.
+	 *
+	 * @param parentNode the parent node
+	 * @param nodeIdx the index of the node in the parent node
+	 */
+	private void performRightRotation(Node<K, V> parentNode, int nodeIdx) {
+		Node<K, V> btNode = parentNode.mChildren[nodeIdx];
+		Node<K, V> leftSiblingNode = parentNode.mChildren[nodeIdx - 1];
+		int currentKeyNum = btNode.mCurrentKeyNum;
+		int siblingKeyNum = leftSiblingNode.mCurrentKeyNum;
+
+		System.arraycopy(btNode.mKeys, 0, btNode.mKeys, 1, currentKeyNum);
+		System.arraycopy(btNode.mValues, 0, btNode.mValues, 1, currentKeyNum);
+		btNode.mKeys[0] = parentNode.mKeys[nodeIdx - 1];
+		btNode.mValues[0] = parentNode.mValues[nodeIdx - 1];
+		if (!btNode.mIsLeaf) {
+			System.arraycopy(btNode.mChildren, 0, btNode.mChildren, 1, currentKeyNum + 1);
+			btNode.mChildren[0] = leftSiblingNode.mChildren[siblingKeyNum];
+			leftSiblingNode.mChildren[siblingKeyNum] = null;
+		}
+		++(btNode.mCurrentKeyNum);
+
+		parentNode.mKeys[nodeIdx - 1] = leftSiblingNode.mKeys[siblingKeyNum - 1];
+		parentNode.mValues[nodeIdx - 1] = leftSiblingNode.mValues[siblingKeyNum - 1];
+		leftSiblingNode.mKeys[siblingKeyNum - 1] = null;
+		leftSiblingNode.mValues[siblingKeyNum - 1] = null;
+		--(leftSiblingNode.mCurrentKeyNum);
+	}
+
+	/**
+	 * Perform left rotation: move the first key of the right sibling up to
+	 * the parent node, and the parent key down to the end of the node.
+	 *
+	 * @param parentNode the parent node
+	 * @param nodeIdx the index of the node in the parent node
+	 */
+	private void performLeftRotation(Node<K, V> parentNode, int nodeIdx) {
+		Node<K, V> btNode = parentNode.mChildren[nodeIdx];
+		Node<K, V> rightSiblingNode = parentNode.mChildren[nodeIdx + 1];
+		int currentKeyNum = btNode.mCurrentKeyNum;
+		int num = rightSiblingNode.mCurrentKeyNum - 1;
+
+		btNode.mKeys[currentKeyNum] = parentNode.mKeys[nodeIdx];
+		btNode.mValues[currentKeyNum] = parentNode.mValues[nodeIdx];
+		if (!btNode.mIsLeaf) {
+			btNode.mChildren[currentKeyNum + 1] = rightSiblingNode.mChildren[0];
+			System.arraycopy(rightSiblingNode.mChildren, 1, rightSiblingNode.mChildren, 0, num + 1);
+			rightSiblingNode.mChildren[num + 1] = null;
+		}
+		++(btNode.mCurrentKeyNum);
+
+		parentNode.mKeys[nodeIdx] = rightSiblingNode.mKeys[0];
+		parentNode.mValues[nodeIdx] = rightSiblingNode.mValues[0];
+		System.arraycopy(rightSiblingNode.mKeys, 1, rightSiblingNode.mKeys, 0, num);
+		System.arraycopy(rightSiblingNode.mValues, 1, rightSiblingNode.mValues, 0, num);
+		rightSiblingNode.mKeys[num] = null;
+		rightSiblingNode.mValues[num] = null;
+		rightSiblingNode.mCurrentKeyNum = num;
+	}
+
+	/**
+	 * Perform merge: the parent key and all the keys and children of the
+	 * right sibling are appended to the node, then the right sibling is
+	 * dropped from the parent node.
+	 *
+	 * @param parentNode the parent node
+	 * @param nodeIdx the index of the node in the parent node
+	 */
+	private void performMerge(Node<K, V> parentNode, int nodeIdx) {
+		Node<K, V> btNode = parentNode.mChildren[nodeIdx];
+		Node<K, V> rightSiblingNode = parentNode.mChildren[nodeIdx + 1];
+		int currentKeyNum = btNode.mCurrentKeyNum;
+		int siblingKeyNum = rightSiblingNode.mCurrentKeyNum;
+
+		btNode.mKeys[currentKeyNum] = parentNode.mKeys[nodeIdx];
+		btNode.mValues[currentKeyNum] = parentNode.mValues[nodeIdx];
+		System.arraycopy(rightSiblingNode.mKeys, 0, btNode.mKeys, currentKeyNum + 1, siblingKeyNum);
+		System.arraycopy(rightSiblingNode.mValues, 0, btNode.mValues, currentKeyNum + 1, siblingKeyNum);
+		if (!btNode.mIsLeaf) {
+			System.arraycopy(rightSiblingNode.mChildren, 0, btNode.mChildren, currentKeyNum + 1, siblingKeyNum + 1);
+		}
+		btNode.mCurrentKeyNum = currentKeyNum + siblingKeyNum + 1;
+
+		int num = parentNode.mCurrentKeyNum - nodeIdx - 1;
+		System.arraycopy(parentNode.mKeys, nodeIdx + 1, parentNode.mKeys, nodeIdx, num);
+		System.arraycopy(parentNode.mValues, nodeIdx + 1, parentNode.mValues, nodeIdx, num);
+		System.arraycopy(parentNode.mChildren, nodeIdx + 2, parentNode.mChildren, nodeIdx + 1, num);
+		--(parentNode.mCurrentKeyNum);
+		parentNode.mKeys[parentNode.mCurrentKeyNum] = null;
+		parentNode.mValues[parentNode.mCurrentKeyNum] = null;
+		parentNode.mChildren[parentNode.mCurrentKeyNum + 1] = null;
+	}
+
+	/**
+	 * List the entries in key order without taking any lock. Each step goes
+	 * down to the leaf following the last listed key and lists the rest of
+	 * that leaf then the separator after it, once both nodes are validated:
+	 * every step is consistent, but the listing as a whole isn't a snapshot.
+	 *
+	 * @param iterImpl the iter impl
+	 */
+	@SuppressWarnings("unchecked")
+	public void list(BTIterator<K, V> iterImpl) {
+		if (iterImpl == null) {
+			return;
+		}
+
+		Comparable[] keys = new Comparable[mUpperBoundKeyNum + 1];
+		Object[] values = new Object[mUpperBoundKeyNum + 1];
+		K lastKey = null;
+
+		while (true) {
+			int num = collectNextEntries(lastKey, keys, values);
+			for (int i = 0; i < num; ++i) {
+				if (!iterImpl.item((K) keys[i], (V) values[i])) {
+					return;
+				}
+			}
+
+			if (num == 0) {
+				return;
+			}
+			lastKey = (K) keys[num - 1];
+		}
+	}
+
+	/**
+	 * Collect the entries following a key, up to the end of its leaf plus
+	 * the separator after the leaf.
+	 *
+	 * @param lastKey the key, null for the smallest key
+	 * @param keys the keys collected
+	 * @param values the values collected
+	 * @return the number of entries collected, 0 after the greatest key
+	 */
+	@SuppressWarnings("unchecked")
+	private int collectNextEntries(K lastKey, Comparable[] keys, Object[] values) {
+		restart: while (true) {
+			Node<K, V> separatorNode = null;
+			long separatorVersion = 0;
+			Comparable separatorKey = null;
+			Object separatorValue = null;
+			Node<K, V> btNode = mRoot;
+			long version = btNode.readVersion();
+			if ((version == 0) || (btNode != mRoot)) {
+				continue;
+			}
+
+			while (true) {
+				// The index of the first key greater than the last key
+				int i = 0;
+				if (lastKey != null) {
+					i = searchKey(btNode, lastKey);
+					if (i == CONFLICT) {
+						continue restart;
+					}
+					i = (i >= 0) ? (i + 1) : -(i + 1);
+				}
+
+				if (btNode.mIsLeaf) {
+					int num = 0;
+					for (int keyNum = Math.min(btNode.mCurrentKeyNum, keys.length - 1); i < keyNum; ++i) {
+						keys[num] = btNode.mKeys[i];
+						values[num++] = btNode.mValues[i];
+					}
+					if (separatorNode != null) {
+						keys[num] = separatorKey;
+						values[num++] = separatorValue;
+					}
+
+					if (!btNode.isVersionValid(version)
+							|| ((separatorNode != null) && !separatorNode.isVersionValid(separatorVersion))) {
+						continue restart;
+					}
+					return num;
+				}
+
+				if (i < btNode.mCurrentKeyNum) {
+					// The deepest separator on the right of the path follows the leaf
+					separatorNode = btNode;
+					separatorVersion = version;
+					separatorKey = btNode.mKeys[i];
+					separatorValue = btNode.mValues[i];
+				}
+
+				Node<K, V> childNode = btNode.mChildren[i];
+				if (childNode == null) {
+					continue restart;
+				}
+
+				long childVersion = childNode.readVersion();
+				if ((childVersion == 0) || !btNode.isVersionValid(version)) {
+					continue restart;
+				}
+				btNode = childNode;
+				version = childVersion;
+			}
+		}
+	}
+
+	/**
+	 * Class Node.
+	 *
+	 * Node of an optimistic b tree, with its version.
+	 *
+	 * @param <K> the key type
+	 * @param <V> the value type
+	 */
+	static class Node<K extends Comparable, V> {
+
+		/** The lock holding the version. */
+		final StampedLock mLock = new StampedLock();
+
+		/** The obsolete flag, set once the node is dropped from the tree. */
+		volatile boolean mIsObsolete;
+
+		/** The leaf. */
+		final boolean mIsLeaf;
+
+		/** The current key num. */
+		int mCurrentKeyNum;
+
+		/** The keys, all of them are of the key type. */
+		final Comparable[] mKeys;
+
+		/** The values, parallel to the keys, all of them are of the value type. */
+		final Object[] mValues;
+
+		/** The children, null for a leaf. */
+		final Node<K, V>[] mChildren;
+
+		/**
+		 * Instantiates a new node.
+		 *
+		 * @param upperBoundKeyNum the max number of keys of the node
+		 * @param isLeaf the is leaf
+		 */
+		@SuppressWarnings("unchecked")
+		Node(int upperBoundKeyNum, boolean isLeaf) {
+			mIsLeaf = isLeaf;
+			mKeys = new Comparable[upperBoundKeyNum];
+			mValues = new Object[upperBoundKeyNum];
+			mChildren = isLeaf ? null : new Node[upperBoundKeyNum + 1];
+		}
+
+		/**
+		 * Read the version, yielding to the writer if the node is locked.
+		 *
+		 * @return the version, 0 if the node is locked or obsolete
+		 */
+		long readVersion() {
+			long version = mLock.tryOptimisticRead();
+			if (version == 0) {
+				Thread.yield();
+				return 0;
+			}
+
+			return mIsObsolete ? 0 : version;
+		}
+
+		/**
+		 * Checks if the version is still valid, i.e. the node has not been
+		 * modified since the version was read.
+		 *
+		 * @param version the version
+		 * @return true, if the version is valid
+		 */
+		boolean isVersionValid(long version) {
+			return mLock.validate(version);
+		}
+
+		/**
+		 * Lock the node if its version is still valid.
+		 *
+		 * @param version the version
+		 * @return the stamp to unlock the node, 0 if the version is not valid
+		 */
+		long lockVersion(long version) {
+			return mLock.tryConvertToWriteLock(version);
+		}
+
+		/**
+		 * Unlock the node, which gets a new version.
+		 *
+		 * @param stamp the stamp
+		 */
+		void unlock(long stamp) {
+			mLock.unlockWrite(stamp);
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package org.apache.dts.btree.primitive;
+
+/**
+ * Interface IntBTIterator.
+ *
+ * @param <V> the value type
+ */
+public interface IntBTIterator<V> {
+
+	/**
+	 * Item.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return true, to continue the listing
+	 */
+	public boolean item(int key, V value);
+}
@@ -0,0 +1,447 @@
+package org.apache.dts.btree.primitive;
+
+import org.apache.dts.btree.BTNode;
+
+/**
+ * Class IntBTree.
+ * 
+ * B-tree specialized for int keys.
+ * The keys are kept unboxed in an int[] per node and compared inline,
+ * instead of being wrapped in a BTKeyValue and compared through
+ * Comparable#compareTo.
+ *
+ * @param <V> the value type
+ */
+public class IntBTree<V> {
+
+	/** The root. */
+	private Node<V> mRoot = null;
+
+	/** The size. */
+	private int mSize = 0;
+
+	/** The min degree (aka t). */
+	private final int mMinDegree;
+
+	/** The min number of keys of a non-root node (aka t - 1). */
+	private final int mLowerBoundKeyNum;
+
+	/** The max number of keys of a node (aka 2t - 1). */
+	private final int mUpperBoundKeyNum;
+
+	/**
+	 * Instantiates a new int b tree with the default min degree.
+	 */
+	public IntBTree() {
+		this(BTNode.DEFAULT_MIN_DEGREE);
+	}
+
+	/**
+	 * Instantiates a new int b tree.
+	 *
+	 * @param minDegree the min degree (aka t), every node holds at most
+	 *            2t - 1 keys
+	 */
+	public IntBTree(int minDegree) {
+		if (minDegree < BTNode.SMALLEST_MIN_DEGREE) {
+			throw new IllegalArgumentException("Min degree must be at least " + BTNode.SMALLEST_MIN_DEGREE
+					+ ": " + minDegree);
+		}
+
+		mMinDegree = minDegree;
+		mLowerBoundKeyNum = BTNode.getLowerBoundKeyNum(minDegree);
+		mUpperBoundKeyNum = BTNode.getUpperBoundKeyNum(minDegree);
+	}
+
+	/**
+	 * Gets the root node.
+	 *
+	 * @return the root node
+	 */
+	public Node<V> getRootNode() {
+		return mRoot;
+	}
+
+	/**
+	 * Size.
+	 *
+	 * @return the size
+	 */
+	public int getSize() {
+		return mSize;
+	}
+
+	/**
+	 * Gets the min degree.
+	 *
+	 * @return the min degree
+	 */
+	public int getMinDegree() {
+		return mMinDegree;
+	}
+
+	/**
+	 * Clear.
+	 */
+	public void clear() {
+		mSize = 0;
+		mRoot = null;
+	}
+
+	/**
+	 * Creates the node.
+	 *
+	 * @param isLeaf the is leaf
+	 * @return the node
+	 */
+	private Node<V> createNode(boolean isLeaf) {
+		return new Node<V>(mUpperBoundKeyNum, isLeaf);
+	}
+
+	/**
+	 * Search the key among the keys of a node.
+	 *
+	 * @param btNode the bt node
+	 * @param key the key
+	 * @return the index of the key, otherwise -(insertion point) - 1
+	 */
+	private static int searchKey(Node<?> btNode, int key) {
+		int[] keys = btNode.mKeys;
+		int low = 0;
+		int high = btNode.mCurrentKeyNum - 1;
+		int mid;
+		int midKey;
+
+		while (low <= high) {
+			mid = (low + high) >>> 1;
+			midKey = keys[mid];
+			if (midKey < key) {
+				low = mid + 1;
+			} else if (midKey > key) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+
+		return -(low + 1);
+	}
+
+	/**
+	 * Search.
+	 *
+	 * @param key the key
+	 * @return the value, or null if the key doesn't exist
+	 */
+	@SuppressWarnings("unchecked")
+	public V search(int key) {
+		Node<V> currentNode = mRoot;
+		int i;
+
+		while (currentNode != null) {
+			i = searchKey(currentNode, key);
+			if (i >= 0) {
+				return (V) currentNode.mValues[i];
+			}
+
+			if (currentNode.mIsLeaf) {
+				break;
+			}
+
+			currentNode = currentNode.mChildren[-(i + 1)];
+		}
+
+		return null;
+	}
+
+	/**
+	 * Contains key.
+	 *
+	 * @param key the key
+	 * @return true, if the key exists in the tree
+	 */
+	public boolean containsKey(int key) {
+		Node<V> currentNode = mRoot;
+		int i;
+
+		while (currentNode != null) {
+			i = searchKey(currentNode, key);
+			if (i >= 0) {
+				return true;
+			}
+
+			if (currentNode.mIsLeaf) {
+				break;
+			}
+
+			currentNode = currentNode.mChildren[-(i + 1)];
+		}
+
+		return false;
+	}
+
+	/**
+	 * Insert.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return the b tree
+	 */
+	public IntBTree<V> insert(int key, V value) {
+		if (mRoot == null) {
+			mRoot = createNode(true);
+		}
+
+		if (mRoot.mCurrentKeyNum == mUpperBoundKeyNum) {
+			// The root is full, split it
+			Node<V> btNode = createNode(false);
+			btNode.mChildren[0] = mRoot;
+			mRoot = btNode;
+			PrimitiveNode.splitNode(mRoot, 0, btNode.mChildren[0], createNode(btNode.mChildren[0].mIsLeaf), mMinDegree);
+		}
+
+		insertKeyAtNode(mRoot, key, value);
+		return this;
+	}
+
+	/**
+	 * Insert key at node. The node must not be full.
+	 *
+	 * @param btNode the bt node
+	 * @param key the key
+	 * @param value the value
+	 */
+	private void insertKeyAtNode(Node<V> btNode, int key, V value) {
+		int i, num;
+		Node<V> childNode;
+
+		while (true) {
+			i = searchKey(btNode, key);
+			if (i >= 0) {
+				// The key already existed so replace its value and done with it
+				btNode.mValues[i] = value;
+				return;
+			}
+
+			i = -(i + 1);
+			if (btNode.mIsLeaf) {
+				num = btNode.mCurrentKeyNum - i;
+				System.arraycopy(btNode.mKeys, i, btNode.mKeys, i + 1, num);
+				System.arraycopy(btNode.mValues, i, btNode.mValues, i + 1, num);
+				btNode.mKeys[i] = key;
+				btNode.mValues[i] = value;
+				++(btNode.mCurrentKeyNum);
+				++mSize;
+				return;
+			}
+
+			childNode = btNode.mChildren[i];
+			if (childNode.mCurrentKeyNum == mUpperBoundKeyNum) {
+				// Split the full child first, then look for the key again
+				// since its median key has moved up to this node
+				PrimitiveNode.splitNode(btNode, i, childNode, createNode(childNode.mIsLeaf), mMinDegree);
+				continue;
+			}
+
+			btNode = childNode;
+		}
+	}
+
+	/**
+	 * Delete.
+	 *
+	 * @param key the key
+	 * @return the deleted value, or null if the key doesn't exist
+	 */
+	@SuppressWarnings("unchecked")
+	public V delete(int key) {
+		Node<V> btNode = mRoot;
+		Node<V> childNode;
+		V retVal = null;
+		boolean isFound = false;
+		int i, num;
+
+		while (btNode != null) {
+			i = searchKey(btNode, key);
+			if (btNode.mIsLeaf) {
+				if (i < 0) {
+					// Can't find the specified key
+					break;
+				}
+
+				if (!isFound) {
+					retVal = (V) btNode.mValues[i];
+					isFound = true;
+				}
+
+				// The node has more than t - 1 keys or is the root,
+				// remove the key right away
+				num = btNode.mCurrentKeyNum - i - 1;
+				System.arraycopy(btNode.mKeys, i + 1, btNode.mKeys, i, num);
+				System.arraycopy(btNode.mValues, i + 1, btNode.mValues, i, num);
+				--(btNode.mCurrentKeyNum);
+				btNode.mValues[btNode.mCurrentKeyNum] = null;
+				--mSize;
+
+				if (mRoot.mCurrentKeyNum == 0) {
+					mRoot = null;
+				}
+				break;
+			}
+
+			if (i >= 0) {
+				// We found the key in the internal node
+				if (!isFound) {
+					retVal = (V) btNode.mValues[i];
+					isFound = true;
+				}
+
+				Node<V> leftNode = btNode.mChildren[i];
+				Node<V> rightNode = btNode.mChildren[i + 1];
+				if (leftNode.mCurrentKeyNum > mLowerBoundKeyNum) {
+					// Replace the key by its predecessor, then delete the
+					// predecessor from the left subtree
+					Node<V> predecessorNode = leftNode;
+					while (!predecessorNode.mIsLeaf) {
+						predecessorNode = predecessorNode.mChildren[predecessorNode.mCurrentKeyNum];
+					}
+					num = predecessorNode.mCurrentKeyNum - 1;
+					key = predecessorNode.mKeys[num];
+					btNode.mKeys[i] = key;
+					btNode.mValues[i] = predecessorNode.mValues[num];
+					btNode = leftNode;
+				} else if (rightNode.mCurrentKeyNum > mLowerBoundKeyNum) {
+					// Replace the key by its successor, then delete the
+					// successor from the right subtree
+					Node<V> successorNode = rightNode;
+					while (!successorNode.mIsLeaf) {
+						successorNode = successorNode.mChildren[0];
+					}
+					key = successorNode.mKeys[0];
+					btNode.mKeys[i] = key;
+					btNode.mValues[i] = successorNode.mValues[0];
+					btNode = rightNode;
+				} else {
+					// Both children are minimal, merge them around the key
+					// and delete the key from the merged node
+					childNode = (Node<V>) PrimitiveNode.performMerge(btNode, i);
+					if (btNode.mCurrentKeyNum == 0) {
+						// The root has lost its last key, the merged node is the new root
+						mRoot = childNode;
+					}
+					btNode = childNode;
+				}
+				continue;
+			}
+
+			// Make sure the child subtree has at least t keys before going
+			// down, so that a key can be removed from it without underflow
+			childNode = (Node<V>) PrimitiveNode.rebalanceChild(btNode, -(i + 1), mLowerBoundKeyNum);
+			if (btNode.mCurrentKeyNum == 0) {
+				// The root has lost its last key, the merged node is the new root
+				mRoot = childNode;
+			}
+
+			btNode = childNode;
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * List.
+	 *
+	 * @param iterImpl the iter impl
+	 */
+	public void list(IntBTIterator<V> iterImpl) {
+		if ((mSize < 1) || (iterImpl == null)) {
+			return;
+		}
+
+		listEntriesInOrder(mRoot, iterImpl);
+	}
+
+	/**
+	 * List entries in order.
+	 *
+	 * @param treeNode the tree node
+	 * @param iterImpl the iter impl
+	 * @return false, if the iterator has stopped the listing
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean listEntriesInOrder(Node<V> treeNode, IntBTIterator<V> iterImpl) {
+		int currentKeyNum = treeNode.mCurrentKeyNum;
+		for (int i = 0; i < currentKeyNum; ++i) {
+			if (!treeNode.mIsLeaf && !listEntriesInOrder(treeNode.mChildren[i], iterImpl)) {
+				return false;
+			}
+
+			if (!iterImpl.item(treeNode.mKeys[i], (V) treeNode.mValues[i])) {
+				return false;
+			}
+		}
+
+		if (!treeNode.mIsLeaf) {
+			return listEntriesInOrder(treeNode.mChildren[currentKeyNum], iterImpl);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Class Node.
+	 * 
+	 * Node of an IntBTree with parallel key and value arrays.
+	 *
+	 * @param <V> the value type
+	 */
+	public static class Node<V> extends PrimitiveNode {
+
+		/** The keys. */
+		public final int[] mKeys;
+
+		/** The values. */
+		public final Object[] mValues;
+
+		/** The children, null for a leaf. */
+		public final Node<V>[] mChildren;
+
+		/**
+		 * Instantiates a new node. Only internal nodes get a children array.
+		 *
+		 * @param upperBoundKeyNum the max number of keys of the node
+		 * @param isLeaf the is leaf
+		 */
+		@SuppressWarnings("unchecked")
+		public Node(int upperBoundKeyNum, boolean isLeaf) {
+			super(isLeaf);
+			mKeys = new int[upperBoundKeyNum];
+			mValues = new Object[upperBoundKeyNum];
+			mChildren = isLeaf ? null : new Node[upperBoundKeyNum + 1];
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.dts.btree.primitive.PrimitiveNode#getKeyArray()
+		 */
+		@Override
+		Object getKeyArray() {
+			return mKeys;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.dts.btree.primitive.PrimitiveNode#getValueArray()
+		 */
+		@Override
+		Object getValueArray() {
+			return mValues;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.dts.btree.primitive.PrimitiveNode#getChildArray()
+		 */
+		@Override
+		PrimitiveNode[] getChildArray() {
+			return mChildren;
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package org.apache.dts.btree.primitive;
+
+/**
+ * Interface IntLongBTIterator.
+ */
+public interface IntLongBTIterator {
+
+	/**
+	 * Item.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return true, to continue the listing
+	 */
+	public boolean item(int key, long value);
+}
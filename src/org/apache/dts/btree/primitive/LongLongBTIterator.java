@@ -0,0 +1,16 @@
+package org.apache.dts.btree.primitive;
+
+/**
+ * Interface LongLongBTIterator.
+ */
+public interface LongLongBTIterator {
+
+	/**
+	 * Item.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return true, to continue the listing
+	 */
+	public boolean item(long key, long value);
+}
@@ -0,0 +1,536 @@
+package org.apache.dts.btree.primitive;
+
+import java.util.Arrays;
+
+import org.apache.dts.btree.BTNode;
+
+/**
+ * Class LongLongBTree.
+ * 
+ * B-tree specialized for long keys and long values.
+ * The keys are kept unboxed in a long[] per node and compared inline,
+ * instead of being wrapped in a BTKeyValue and compared through
+ * Comparable#compareTo.
+ */
+public class LongLongBTree {
+
+	/** The Constant NO_VALUE, the default missing value. */
+	public final static long NO_VALUE = Long.MIN_VALUE;
+
+	/** The root. */
+	private Node mRoot = null;
+
+	/** The size. */
+	private int mSize = 0;
+
+	/** The min degree (aka t). */
+	private final int mMinDegree;
+
+	/** The min number of keys of a non-root node (aka t - 1). */
+	private final int mLowerBoundKeyNum;
+
+	/** The max number of keys of a node (aka 2t - 1). */
+	private final int mUpperBoundKeyNum;
+
+	/** The value returned by search and delete when the key doesn't exist. */
+	private final long mMissingValue;
+
+	/**
+	 * Instantiates a new long b tree with the default min degree.
+	 */
+	public LongLongBTree() {
+		this(BTNode.DEFAULT_MIN_DEGREE);
+	}
+
+	/**
+	 * Instantiates a new long b tree.
+	 *
+	 * @param minDegree the min degree (aka t), every node holds at most
+	 *            2t - 1 keys
+	 */
+	public LongLongBTree(int minDegree) {
+		this(minDegree, NO_VALUE);
+	}
+
+	/**
+	 * Instantiates a new long b tree.
+	 *
+	 * @param minDegree the min degree (aka t), every node holds at most
+	 *            2t - 1 keys
+	 * @param missingValue the value returned by search and delete when the
+	 *            key doesn't exist
+	 */
+	public LongLongBTree(int minDegree, long missingValue) {
+		if (minDegree < BTNode.SMALLEST_MIN_DEGREE) {
+			throw new IllegalArgumentException("Min degree must be at least " + BTNode.SMALLEST_MIN_DEGREE
+					+ ": " + minDegree);
+		}
+
+		mMinDegree = minDegree;
+		mLowerBoundKeyNum = BTNode.getLowerBoundKeyNum(minDegree);
+		mUpperBoundKeyNum = BTNode.getUpperBoundKeyNum(minDegree);
+		mMissingValue = missingValue;
+	}
+
+	/**
+	 * Gets the root node.
+	 *
+	 * @return the root node
+	 */
+	public Node getRootNode() {
+		return mRoot;
+	}
+
+	/**
+	 * Size.
+	 *
+	 * @return the size
+	 */
+	public int getSize() {
+		return mSize;
+	}
+
+	/**
+	 * Gets the min degree.
+	 *
+	 * @return the min degree
+	 */
+	public int getMinDegree() {
+		return mMinDegree;
+	}
+
+	/**
+	 * Gets the missing value.
+	 *
+	 * @return the value returned by search and delete when the key doesn't
+	 *         exist
+	 */
+	public long getMissingValue() {
+		return mMissingValue;
+	}
+
+	/**
+	 * Clear.
+	 */
+	public void clear() {
+		mSize = 0;
+		mRoot = null;
+	}
+
+	/**
+	 * Creates the node.
+	 *
+	 * @param isLeaf the is leaf
+	 * @return the node
+	 */
+	private Node createNode(boolean isLeaf) {
+		return new Node(mUpperBoundKeyNum, isLeaf);
+	}
+
+	/**
+	 * Search the key among the keys of a node.
+	 *
+	 * @param btNode the bt node
+	 * @param key the key
+	 * @return the index of the key, otherwise -(insertion point) - 1
+	 */
+	private static int searchKey(Node btNode, long key) {
+		long[] keys = btNode.mKeys;
+		int low = 0;
+		int high = btNode.mCurrentKeyNum - 1;
+		int mid;
+		long midKey;
+
+		while (low <= high) {
+			mid = (low + high) >>> 1;
+			midKey = keys[mid];
+			if (midKey < key) {
+				low = mid + 1;
+			} else if (midKey > key) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+
+		return -(low + 1);
+	}
+
+	/**
+	 * Search.
+	 *
+	 * @param key the key
+	 * @return the value, or the missing value if the key doesn't exist
+	 */
+	public long search(long key) {
+		Node currentNode = mRoot;
+		int i;
+
+		while (currentNode != null) {
+			i = searchKey(currentNode, key);
+			if (i >= 0) {
+				return currentNode.mValues[i];
+			}
+
+			if (currentNode.mIsLeaf) {
+				break;
+			}
+
+			currentNode = currentNode.mChildren[-(i + 1)];
+		}
+
+		return mMissingValue;
+	}
+
+	/**
+	 * Search a batch of keys. The keys are sorted and looked up along a
+	 * single walk of the tree, the keys going down to the same subtree
+	 * sharing the descent to it.
+	 *
+	 * @param keys the keys
+	 * @return the values of the keys in the order of the keys, with the
+	 *         missing value for the keys that don't exist
+	 */
+	public long[] searchAll(long[] keys) {
+		long[] sortedKeys = keys.clone();
+		Arrays.sort(sortedKeys);
+		long[] sortedValues = new long[sortedKeys.length];
+		Arrays.fill(sortedValues, mMissingValue);
+		if ((mRoot != null) && (sortedKeys.length > 0)) {
+			searchKeysAtNode(mRoot, sortedKeys, 0, sortedKeys.length, sortedValues);
+		}
+
+		long[] values = new long[keys.length];
+		for (int i = 0; i < keys.length; ++i) {
+			values[i] = sortedValues[Arrays.binarySearch(sortedKeys, keys[i])];
+		}
+		return values;
+	}
+
+	/**
+	 * Search the sorted keys in the range [fromIdx, toIdx) in the subtree of
+	 * a node.
+	 *
+	 * @param btNode the bt node
+	 * @param sortedKeys the sorted keys
+	 * @param fromIdx the index of the first key to search
+	 * @param toIdx the index after the last key to search
+	 * @param sortedValues the values found, at the indexes of their keys
+	 */
+	private static void searchKeysAtNode(Node btNode, long[] sortedKeys, int fromIdx, int toIdx,
+			long[] sortedValues) {
+		int i = fromIdx;
+		while (i < toIdx) {
+			int keyIdx = searchKey(btNode, sortedKeys[i]);
+			if (keyIdx >= 0) {
+				sortedValues[i++] = btNode.mValues[keyIdx];
+				continue;
+			}
+
+			if (btNode.mIsLeaf) {
+				++i;
+				continue;
+			}
+
+			// All the keys below the separator after the child go down to it
+			int childIdx = -(keyIdx + 1);
+			int j = i + 1;
+			if (childIdx < btNode.mCurrentKeyNum) {
+				long separatorKey = btNode.mKeys[childIdx];
+				while ((j < toIdx) && (sortedKeys[j] < separatorKey)) {
+					++j;
+				}
+			} else {
+				j = toIdx;
+			}
+
+			searchKeysAtNode(btNode.mChildren[childIdx], sortedKeys, i, j, sortedValues);
+			i = j;
+		}
+	}
+
+	/**
+	 * Contains key.
+	 *
+	 * @param key the key
+	 * @return true, if the key exists in the tree
+	 */
+	public boolean containsKey(long key) {
+		Node currentNode = mRoot;
+		int i;
+
+		while (currentNode != null) {
+			i = searchKey(currentNode, key);
+			if (i >= 0) {
+				return true;
+			}
+
+			if (currentNode.mIsLeaf) {
+				break;
+			}
+
+			currentNode = currentNode.mChildren[-(i + 1)];
+		}
+
+		return false;
+	}
+
+	/**
+	 * Insert.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return the b tree
+	 */
+	public LongLongBTree insert(long key, long value) {
+		if (mRoot == null) {
+			mRoot = createNode(true);
+		}
+
+		if (mRoot.mCurrentKeyNum == mUpperBoundKeyNum) {
+			// The root is full, split it
+			Node btNode = createNode(false);
+			btNode.mChildren[0] = mRoot;
+			mRoot = btNode;
+			PrimitiveNode.splitNode(mRoot, 0, btNode.mChildren[0], createNode(btNode.mChildren[0].mIsLeaf), mMinDegree);
+		}
+
+		insertKeyAtNode(mRoot, key, value);
+		return this;
+	}
+
+	/**
+	 * Insert key at node. The node must not be full.
+	 *
+	 * @param btNode the bt node
+	 * @param key the key
+	 * @param value the value
+	 */
+	private void insertKeyAtNode(Node btNode, long key, long value) {
+		int i, num;
+		Node childNode;
+
+		while (true) {
+			i = searchKey(btNode, key);
+			if (i >= 0) {
+				// The key already existed so replace its value and done with it
+				btNode.mValues[i] = value;
+				return;
+			}
+
+			i = -(i + 1);
+			if (btNode.mIsLeaf) {
+				num = btNode.mCurrentKeyNum - i;
+				System.arraycopy(btNode.mKeys, i, btNode.mKeys, i + 1, num);
+				System.arraycopy(btNode.mValues, i, btNode.mValues, i + 1, num);
+				btNode.mKeys[i] = key;
+				btNode.mValues[i] = value;
+				++(btNode.mCurrentKeyNum);
+				++mSize;
+				return;
+			}
+
+			childNode = btNode.mChildren[i];
+			if (childNode.mCurrentKeyNum == mUpperBoundKeyNum) {
+				// Split the full child first, then look for the key again
+				// since its median key has moved up to this node
+				PrimitiveNode.splitNode(btNode, i, childNode, createNode(childNode.mIsLeaf), mMinDegree);
+				continue;
+			}
+
+			btNode = childNode;
+		}
+	}
+
+	/**
+	 * Delete.
+	 *
+	 * @param key the key
+	 * @return the deleted value, or the missing value if the key doesn't exist
+	 */
+	public long delete(long key) {
+		Node btNode = mRoot;
+		Node childNode;
+		long retVal = mMissingValue;
+		boolean isFound = false;
+		int i, num;
+
+		while (btNode != null) {
+			i = searchKey(btNode, key);
+			if (btNode.mIsLeaf) {
+				if (i < 0) {
+					// Can't find the specified key
+					break;
+				}
+
+				if (!isFound) {
+					retVal = btNode.mValues[i];
+					isFound = true;
+				}
+
+				// The node has more than t - 1 keys or is the root,
+				// remove the key right away
+				num = btNode.mCurrentKeyNum - i - 1;
+				System.arraycopy(btNode.mKeys, i + 1, btNode.mKeys, i, num);
+				System.arraycopy(btNode.mValues, i + 1, btNode.mValues, i, num);
+				--(btNode.mCurrentKeyNum);
+				--mSize;
+
+				if (mRoot.mCurrentKeyNum == 0) {
+					mRoot = null;
+				}
+				break;
+			}
+
+			if (i >= 0) {
+				// We found the key in the internal node
+				if (!isFound) {
+					retVal = btNode.mValues[i];
+					isFound = true;
+				}
+
+				Node leftNode = btNode.mChildren[i];
+				Node rightNode = btNode.mChildren[i + 1];
+				if (leftNode.mCurrentKeyNum > mLowerBoundKeyNum) {
+					// Replace the key by its predecessor, then delete the
+					// predecessor from the left subtree
+					Node predecessorNode = leftNode;
+					while (!predecessorNode.mIsLeaf) {
+						predecessorNode = predecessorNode.mChildren[predecessorNode.mCurrentKeyNum];
+					}
+					num = predecessorNode.mCurrentKeyNum - 1;
+					key = predecessorNode.mKeys[num];
+					btNode.mKeys[i] = key;
+					btNode.mValues[i] = predecessorNode.mValues[num];
+					btNode = leftNode;
+				} else if (rightNode.mCurrentKeyNum > mLowerBoundKeyNum) {
+					// Replace the key by its successor, then delete the
+					// successor from the right subtree
+					Node successorNode = rightNode;
+					while (!successorNode.mIsLeaf) {
+						successorNode = successorNode.mChildren[0];
+					}
+					key = successorNode.mKeys[0];
+					btNode.mKeys[i] = key;
+					btNode.mValues[i] = successorNode.mValues[0];
+					btNode = rightNode;
+				} else {
+					// Both children are minimal, merge them around the key
+					// and delete the key from the merged node
+					childNode = (Node) PrimitiveNode.performMerge(btNode, i);
+					if (btNode.mCurrentKeyNum == 0) {
+						// The root has lost its last key, the merged node is the new root
+						mRoot = childNode;
+					}
+					btNode = childNode;
+				}
+				continue;
+			}
+
+			// Make sure the child subtree has at least t keys before going
+			// down, so that a key can be removed from it without underflow
+			childNode = (Node) PrimitiveNode.rebalanceChild(btNode, -(i + 1), mLowerBoundKeyNum);
+			if (btNode.mCurrentKeyNum == 0) {
+				// The root has lost its last key, the merged node is the new root
+				mRoot = childNode;
+			}
+
+			btNode = childNode;
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * List.
+	 *
+	 * @param iterImpl the iter impl
+	 */
+	public void list(LongLongBTIterator iterImpl) {
+		if ((mSize < 1) || (iterImpl == null)) {
+			return;
+		}
+
+		listEntriesInOrder(mRoot, iterImpl);
+	}
+
+	/**
+	 * List entries in order.
+	 *
+	 * @param treeNode the tree node
+	 * @param iterImpl the iter impl
+	 * @return false, if the iterator has stopped the listing
+	 */
+	private boolean listEntriesInOrder(Node treeNode, LongLongBTIterator iterImpl) {
+		int currentKeyNum = treeNode.mCurrentKeyNum;
+		for (int i = 0; i < currentKeyNum; ++i) {
+			if (!treeNode.mIsLeaf && !listEntriesInOrder(treeNode.mChildren[i], iterImpl)) {
+				return false;
+			}
+
+			if (!iterImpl.item(treeNode.mKeys[i], treeNode.mValues[i])) {
+				return false;
+			}
+		}
+
+		if (!treeNode.mIsLeaf) {
+			return listEntriesInOrder(treeNode.mChildren[currentKeyNum], iterImpl);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Class Node.
+	 * 
+	 * Node of a LongLongBTree with parallel key and value arrays.
+	 */
+	public static class Node extends PrimitiveNode {
+
+		/** The keys. */
+		public final long[] mKeys;
+
+		/** The values. */
+		public final long[] mValues;
+
+		/** The children, null for a leaf. */
+		public final Node[] mChildren;
+
+		/**
+		 * Instantiates a new node. Only internal nodes get a children array.
+		 *
+		 * @param upperBoundKeyNum the max number of keys of the node
+		 * @param isLeaf the is leaf
+		 */
+		public Node(int upperBoundKeyNum, boolean isLeaf) {
+			super(isLeaf);
+			mKeys = new long[upperBoundKeyNum];
+			mValues = new long[upperBoundKeyNum];
+			mChildren = isLeaf ? null : new Node[upperBoundKeyNum + 1];
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.dts.btree.primitive.PrimitiveNode#getKeyArray()
+		 */
+		@Override
+		Object getKeyArray() {
+			return mKeys;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.dts.btree.primitive.PrimitiveNode#getValueArray()
+		 */
+		@Override
+		Object getValueArray() {
+			return mValues;
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.dts.btree.primitive.PrimitiveNode#getChildArray()
+		 */
+		@Override
+		PrimitiveNode[] getChildArray() {
+			return mChildren;
+		}
+	}
+}
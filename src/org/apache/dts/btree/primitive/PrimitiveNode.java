@@ -0,0 +1,269 @@
+package org.apache.dts.btree.primitive;
+
+/**
+ * Class PrimitiveNode.
+ *
+ * Base of the nodes of the primitive trees, holding the structural
+ * operations they share: splitting a full child, and rotating or merging a
+ * minimal child before a delete goes down to it. These operations only
+ * move keys, values and children around, whatever their types, so they go
+ * through System.arraycopy on the arrays of the nodes; the searches, which
+ * compare keys, stay in the trees.
+ */
+public abstract class PrimitiveNode {
+
+	/** The leaf. */
+	public final boolean mIsLeaf;
+
+	/** The current key. */
+	public int mCurrentKeyNum;
+
+	/**
+	 * Instantiates a new primitive node.
+	 *
+	 * @param isLeaf the is leaf
+	 */
+	protected PrimitiveNode(boolean isLeaf) {
+		mIsLeaf = isLeaf;
+		mCurrentKeyNum = 0;
+	}
+
+	/**
+	 * Gets the key array.
+	 *
+	 * @return the keys, a primitive array
+	 */
+	abstract Object getKeyArray();
+
+	/**
+	 * Gets the value array.
+	 *
+	 * @return the values, a primitive array or an Object[]
+	 */
+	abstract Object getValueArray();
+
+	/**
+	 * Gets the child array.
+	 *
+	 * @return the children, null for a leaf
+	 */
+	abstract PrimitiveNode[] getChildArray();
+
+	/**
+	 * Move an entry from a node to another one, or inside a node.
+	 *
+	 * @param srcNode the source node
+	 * @param srcIdx the index of the entry in the source node
+	 * @param dstNode the destination node
+	 * @param dstIdx the index of the entry in the destination node
+	 */
+	private static void moveEntry(PrimitiveNode srcNode, int srcIdx, PrimitiveNode dstNode, int dstIdx) {
+		System.arraycopy(srcNode.getKeyArray(), srcIdx, dstNode.getKeyArray(), dstIdx, 1);
+		System.arraycopy(srcNode.getValueArray(), srcIdx, dstNode.getValueArray(), dstIdx, 1);
+	}
+
+	/**
+	 * Move a range of entries from a node to another one, or inside a node.
+	 *
+	 * @param srcNode the source node
+	 * @param srcIdx the index of the first entry in the source node
+	 * @param dstNode the destination node
+	 * @param dstIdx the index of the first entry in the destination node
+	 * @param num the number of entries
+	 */
+	private static void moveEntries(PrimitiveNode srcNode, int srcIdx, PrimitiveNode dstNode, int dstIdx, int num) {
+		System.arraycopy(srcNode.getKeyArray(), srcIdx, dstNode.getKeyArray(), dstIdx, num);
+		System.arraycopy(srcNode.getValueArray(), srcIdx, dstNode.getValueArray(), dstIdx, num);
+	}
+
+	/**
+	 * Clear the values in a range so that they can be collected, if they
+	 * are objects.
+	 *
+	 * @param btNode the bt node
+	 * @param fromIdx the from index (inclusive)
+	 * @param toIdx the to index (exclusive)
+	 */
+	private static void clearValues(PrimitiveNode btNode, int fromIdx, int toIdx) {
+		Object values = btNode.getValueArray();
+		if (values instanceof Object[]) {
+			Object[] objects = (Object[]) values;
+			for (int i = fromIdx; i < toIdx; ++i) {
+				objects[i] = null;
+			}
+		}
+	}
+
+	/**
+	 * Clear the child pointers in a range so that dropped nodes can be
+	 * collected.
+	 *
+	 * @param btNode the bt node
+	 * @param fromIdx the from index (inclusive)
+	 * @param toIdx the to index (exclusive)
+	 */
+	private static void clearChildren(PrimitiveNode btNode, int fromIdx, int toIdx) {
+		PrimitiveNode[] children = btNode.getChildArray();
+		for (int i = fromIdx; i < toIdx; ++i) {
+			children[i] = null;
+		}
+	}
+
+	/**
+	 * Split the full child node of a non-full parent node.
+	 *
+	 * @param parentNode the parent node
+	 * @param nodeIdx the index of the child node in the parent node
+	 * @param btNode the child node
+	 * @param newNode the new empty node, getting the right half of the child
+	 *            node
+	 * @param minDegree the min degree (aka t) of the tree
+	 */
+	static void splitNode(PrimitiveNode parentNode, int nodeIdx, PrimitiveNode btNode, PrimitiveNode newNode,
+			int minDegree) {
+		int lowerBoundKeyNum = minDegree - 1;
+
+		// Move the right half of the keys to the new node
+		moveEntries(btNode, minDegree, newNode, 0, lowerBoundKeyNum);
+		if (!btNode.mIsLeaf) {
+			System.arraycopy(btNode.getChildArray(), minDegree, newNode.getChildArray(), 0, minDegree);
+			clearChildren(btNode, minDegree, minDegree * 2);
+		}
+		newNode.mCurrentKeyNum = lowerBoundKeyNum;
+		btNode.mCurrentKeyNum = lowerBoundKeyNum;
+
+		// Make a slot in the parent node for the median key and the new node
+		PrimitiveNode[] parentChildren = parentNode.getChildArray();
+		int num = parentNode.mCurrentKeyNum - nodeIdx;
+		moveEntries(parentNode, nodeIdx, parentNode, nodeIdx + 1, num);
+		System.arraycopy(parentChildren, nodeIdx + 1, parentChildren, nodeIdx + 2, num);
+		moveEntry(btNode, lowerBoundKeyNum, parentNode, nodeIdx);
+		parentChildren[nodeIdx + 1] = newNode;
+		++(parentNode.mCurrentKeyNum);
+
+		// Drop the moved values so they can be collected
+		clearValues(btNode, lowerBoundKeyNum, lowerBoundKeyNum * 2 + 1);
+	}
+
+	/**
+	 * Make sure the child node at an index has more than t - 1 keys before
+	 * a delete goes down to it, by moving a key from one of its siblings or
+	 * by merging it with one of them.
+	 *
+	 * @param parentNode the parent node
+	 * @param nodeIdx the index of the child node in the parent node
+	 * @param lowerBoundKeyNum the min number of keys of a non-root node (aka
+	 *            t - 1)
+	 * @return the child node that covers the same key range afterwards
+	 */
+	static PrimitiveNode rebalanceChild(PrimitiveNode parentNode, int nodeIdx, int lowerBoundKeyNum) {
+		PrimitiveNode[] children = parentNode.getChildArray();
+		PrimitiveNode childNode = children[nodeIdx];
+		if (childNode.mCurrentKeyNum > lowerBoundKeyNum) {
+			return childNode;
+		}
+
+		if ((nodeIdx > 0) && (children[nodeIdx - 1].mCurrentKeyNum > lowerBoundKeyNum)) {
+			performRightRotation(parentNode, nodeIdx);
+		} else if ((nodeIdx < parentNode.mCurrentKeyNum)
+				&& (children[nodeIdx + 1].mCurrentKeyNum > lowerBoundKeyNum)) {
+			performLeftRotation(parentNode, nodeIdx);
+		} else if (nodeIdx < parentNode.mCurrentKeyNum) {
+			childNode = performMerge(parentNode, nodeIdx);
+		} else {
+			childNode = performMerge(parentNode, nodeIdx - 1);
+		}
+
+		return childNode;
+	}
+
+	/**
+	 * Move the last key of the left sibling up to the parent node, and the
+	 * parent key down to the front of the child node.
+	 *
+	 * @param parentNode the parent node
+	 * @param nodeIdx the index of the child node in the parent node
+	 */
+	private static void performRightRotation(PrimitiveNode parentNode, int nodeIdx) {
+		PrimitiveNode btNode = parentNode.getChildArray()[nodeIdx];
+		PrimitiveNode leftSiblingNode = parentNode.getChildArray()[nodeIdx - 1];
+		int siblingNum = leftSiblingNode.mCurrentKeyNum;
+
+		moveEntries(btNode, 0, btNode, 1, btNode.mCurrentKeyNum);
+		moveEntry(parentNode, nodeIdx - 1, btNode, 0);
+		if (!btNode.mIsLeaf) {
+			PrimitiveNode[] children = btNode.getChildArray();
+			System.arraycopy(children, 0, children, 1, btNode.mCurrentKeyNum + 1);
+			children[0] = leftSiblingNode.getChildArray()[siblingNum];
+			leftSiblingNode.getChildArray()[siblingNum] = null;
+		}
+		++(btNode.mCurrentKeyNum);
+
+		moveEntry(leftSiblingNode, siblingNum - 1, parentNode, nodeIdx - 1);
+		clearValues(leftSiblingNode, siblingNum - 1, siblingNum);
+		--(leftSiblingNode.mCurrentKeyNum);
+	}
+
+	/**
+	 * Move the first key of the right sibling up to the parent node, and the
+	 * parent key down to the end of the child node.
+	 *
+	 * @param parentNode the parent node
+	 * @param nodeIdx the index of the child node in the parent node
+	 */
+	private static void performLeftRotation(PrimitiveNode parentNode, int nodeIdx) {
+		PrimitiveNode btNode = parentNode.getChildArray()[nodeIdx];
+		PrimitiveNode rightSiblingNode = parentNode.getChildArray()[nodeIdx + 1];
+		int num = btNode.mCurrentKeyNum;
+		int siblingNum = rightSiblingNode.mCurrentKeyNum;
+
+		moveEntry(parentNode, nodeIdx, btNode, num);
+		moveEntry(rightSiblingNode, 0, parentNode, nodeIdx);
+		moveEntries(rightSiblingNode, 1, rightSiblingNode, 0, siblingNum - 1);
+		clearValues(rightSiblingNode, siblingNum - 1, siblingNum);
+		if (!btNode.mIsLeaf) {
+			PrimitiveNode[] siblingChildren = rightSiblingNode.getChildArray();
+			btNode.getChildArray()[num + 1] = siblingChildren[0];
+			System.arraycopy(siblingChildren, 1, siblingChildren, 0, siblingNum);
+			siblingChildren[siblingNum] = null;
+		}
+		++(btNode.mCurrentKeyNum);
+		--(rightSiblingNode.mCurrentKeyNum);
+	}
+
+	/**
+	 * Merge the child node at the index, the parent key at the index and the
+	 * right sibling of the child node into the child node. A root left
+	 * without keys must be replaced by the merged node by the tree.
+	 *
+	 * @param parentNode the parent node
+	 * @param nodeIdx the index of the child node in the parent node
+	 * @return the merged node
+	 */
+	static PrimitiveNode performMerge(PrimitiveNode parentNode, int nodeIdx) {
+		PrimitiveNode[] parentChildren = parentNode.getChildArray();
+		PrimitiveNode btNode = parentChildren[nodeIdx];
+		PrimitiveNode rightSiblingNode = parentChildren[nodeIdx + 1];
+		int num = btNode.mCurrentKeyNum;
+		int siblingNum = rightSiblingNode.mCurrentKeyNum;
+
+		// Pull the parent key down and append the right sibling
+		moveEntry(parentNode, nodeIdx, btNode, num);
+		moveEntries(rightSiblingNode, 0, btNode, num + 1, siblingNum);
+		if (!btNode.mIsLeaf) {
+			System.arraycopy(rightSiblingNode.getChildArray(), 0, btNode.getChildArray(), num + 1, siblingNum + 1);
+		}
+		btNode.mCurrentKeyNum = num + siblingNum + 1;
+
+		// Close the gap in the parent node
+		num = parentNode.mCurrentKeyNum - nodeIdx - 1;
+		moveEntries(parentNode, nodeIdx + 1, parentNode, nodeIdx, num);
+		System.arraycopy(parentChildren, nodeIdx + 2, parentChildren, nodeIdx + 1, num);
+		--(parentNode.mCurrentKeyNum);
+		clearValues(parentNode, parentNode.mCurrentKeyNum, parentNode.mCurrentKeyNum + 1);
+		clearValues(rightSiblingNode, 0, siblingNum);
+		parentChildren[parentNode.mCurrentKeyNum + 1] = null;
+
+		return btNode;
+	}
+}
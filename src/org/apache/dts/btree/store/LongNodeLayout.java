@@ -0,0 +1,335 @@
+package org.apache.dts.btree.store;
+
+import java.nio.ByteBuffer;
+
+import org.apache.dts.btree.BTNode;
+
+/**
+ * Class LongNodeLayout.
+ * 
+ * Fixed-size binary layout of a node with long keys and long values, used
+ * by the trees that keep their nodes in byte buffers instead of on the heap.
+ * A node takes getNodeSize() bytes starting at a base offset:
+ * 
+ * <pre>
+ * int    key number
+ * int    flags (bit 0 set for a leaf)
+ * long[] keys     (2t - 1 slots)
+ * long[] values   (2t - 1 slots)
+ * int[]  children (2t slots, unused by leaves)
+ * </pre>
+ */
+public final class LongNodeLayout {
+
+	/** The Constant NIL, the id of no node. */
+	public final static int NIL = -1;
+
+	/** The Constant KEY_NUM_OFFSET. */
+	private final static int KEY_NUM_OFFSET = 0;
+
+	/** The Constant FLAGS_OFFSET. */
+	private final static int FLAGS_OFFSET = 4;
+
+	/** The Constant HEADER_SIZE. */
+	private final static int HEADER_SIZE = 8;
+
+	/** The Constant LEAF_FLAG. */
+	private final static int LEAF_FLAG = 1;
+
+	/** The min degree. */
+	private final int mMinDegree;
+
+	/** The max number of keys of a node. */
+	private final int mUpperBoundKeyNum;
+
+	/** The offset of the values from the node base. */
+	private final int mValuesOffset;
+
+	/** The offset of the children from the node base. */
+	private final int mChildrenOffset;
+
+	/** The node size. */
+	private final int mNodeSize;
+
+	/**
+	 * Instantiates a new long node layout.
+	 *
+	 * @param minDegree the min degree (aka t)
+	 */
+	public LongNodeLayout(int minDegree) {
+		if (minDegree < BTNode.SMALLEST_MIN_DEGREE) {
+			throw new IllegalArgumentException("Min degree must be at least " + BTNode.SMALLEST_MIN_DEGREE
+					+ ": " + minDegree);
+		}
+
+		mMinDegree = minDegree;
+		mUpperBoundKeyNum = BTNode.getUpperBoundKeyNum(minDegree);
+		mValuesOffset = HEADER_SIZE + (8 * mUpperBoundKeyNum);
+		mChildrenOffset = mValuesOffset + (8 * mUpperBoundKeyNum);
+		mNodeSize = getNodeSize(minDegree);
+	}
+
+	/**
+	 * Gets the node size of a min degree.
+	 *
+	 * @param minDegree the min degree
+	 * @return the node size in bytes
+	 */
+	public static int getNodeSize(int minDegree) {
+		int upperBoundKeyNum = BTNode.getUpperBoundKeyNum(minDegree);
+		return HEADER_SIZE + (16 * upperBoundKeyNum) + (4 * (upperBoundKeyNum + 1));
+	}
+
+	/**
+	 * Gets the largest min degree whose nodes fit in the specified size.
+	 *
+	 * @param nodeSize the node size in bytes
+	 * @return the min degree, or 0 if even the smallest node doesn't fit
+	 */
+	public static int getMaxMinDegree(int nodeSize) {
+		// nodeSize >= 8 + 16 * (2t - 1) + 8t, so t <= (nodeSize + 8) / 40
+		int minDegree = (nodeSize + 8) / 40;
+		return (minDegree < BTNode.SMALLEST_MIN_DEGREE) ? 0 : minDegree;
+	}
+
+	/**
+	 * Gets the min degree.
+	 *
+	 * @return the min degree
+	 */
+	public int getMinDegree() {
+		return mMinDegree;
+	}
+
+	/**
+	 * Gets the upper bound key num.
+	 *
+	 * @return the upper bound key num
+	 */
+	public int getUpperBoundKeyNum() {
+		return mUpperBoundKeyNum;
+	}
+
+	/**
+	 * Gets the node size.
+	 *
+	 * @return the node size in bytes
+	 */
+	public int getNodeSize() {
+		return mNodeSize;
+	}
+
+	/**
+	 * Initialize an empty node.
+	 *
+	 * @param buf the buffer
+	 * @param base the node base offset
+	 * @param isLeaf the is leaf
+	 */
+	public void init(ByteBuffer buf, int base, boolean isLeaf) {
+		buf.putInt(base + KEY_NUM_OFFSET, 0);
+		buf.putInt(base + FLAGS_OFFSET, isLeaf ? LEAF_FLAG : 0);
+	}
+
+	/**
+	 * Gets the key num.
+	 *
+	 * @param buf the buffer
+	 * @param base the node base offset
+	 * @return the key num
+	 */
+	public int getKeyNum(ByteBuffer buf, int base) {
+		return buf.getInt(base + KEY_NUM_OFFSET);
+	}
+
+	/**
+	 * Sets the key num.
+	 *
+	 * @param buf the buffer
+	 * @param base the node base offset
+	 * @param keyNum the key num
+	 */
+	public void setKeyNum(ByteBuffer buf, int base, int keyNum) {
+		buf.putInt(base + KEY_NUM_OFFSET, keyNum);
+	}
+
+	/**
+	 * Checks if is leaf.
+	 *
+	 * @param buf the buffer
+	 * @param base the node base offset
+	 * @return true, if is leaf
+	 */
+	public boolean isLeaf(ByteBuffer buf, int base) {
+		return (buf.getInt(base + FLAGS_OFFSET) & LEAF_FLAG) != 0;
+	}
+
+	/**
+	 * Gets the key.
+	 *
+	 * @param buf the buffer
+	 * @param base the node base offset
+	 * @param idx the key index
+	 * @return the key
+	 */
+	public long getKey(ByteBuffer buf, int base, int idx) {
+		return buf.getLong(base + HEADER_SIZE + (idx << 3));
+	}
+
+	/**
+	 * Sets the key.
+	 *
+	 * @param buf the buffer
+	 * @param base the node base offset
+	 * @param idx the key index
+	 * @param key the key
+	 */
+	public void setKey(ByteBuffer buf, int base, int idx, long key) {
+		buf.putLong(base + HEADER_SIZE + (idx << 3), key);
+	}
+
+	/**
+	 * Gets the value.
+	 *
+	 * @param buf the buffer
+	 * @param base the node base offset
+	 * @param idx the key index
+	 * @return the value
+	 */
+	public long getValue(ByteBuffer buf, int base, int idx) {
+		return buf.getLong(base + mValuesOffset + (idx << 3));
+	}
+
+	/**
+	 * Sets the value.
+	 *
+	 * @param buf the buffer
+	 * @param base the node base offset
+	 * @param idx the key index
+	 * @param value the value
+	 */
+	public void setValue(ByteBuffer buf, int base, int idx, long value) {
+		buf.putLong(base + mValuesOffset + (idx << 3), value);
+	}
+
+	/**
+	 * Gets the child.
+	 *
+	 * @param buf the buffer
+	 * @param base the node base offset
+	 * @param idx the child index
+	 * @return the child node id
+	 */
+	public int getChild(ByteBuffer buf, int base, int idx) {
+		return buf.getInt(base + mChildrenOffset + (idx << 2));
+	}
+
+	/**
+	 * Sets the child.
+	 *
+	 * @param buf the buffer
+	 * @param base the node base offset
+	 * @param idx the child index
+	 * @param childId the child node id
+	 */
+	public void setChild(ByteBuffer buf, int base, int idx, int childId) {
+		buf.putInt(base + mChildrenOffset + (idx << 2), childId);
+	}
+
+	/**
+	 * Search the key among the keys of a node.
+	 *
+	 * @param buf the buffer
+	 * @param base the node base offset
+	 * @param key the key
+	 * @return the index of the key, otherwise -(insertion point) - 1
+	 */
+	public int search(ByteBuffer buf, int base, long key) {
+		int low = 0;
+		int high = getKeyNum(buf, base) - 1;
+		int keysBase = base + HEADER_SIZE;
+		int mid;
+		long midKey;
+
+		while (low <= high) {
+			mid = (low + high) >>> 1;
+			midKey = buf.getLong(keysBase + (mid << 3));
+			if (midKey < key) {
+				low = mid + 1;
+			} else if (midKey > key) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+
+		return -(low + 1);
+	}
+
+	/**
+	 * Move a range of keys and their values, the source and the destination
+	 * may overlap.
+	 *
+	 * @param srcBuf the source buffer
+	 * @param srcBase the source node base offset
+	 * @param srcIdx the source key index
+	 * @param dstBuf the destination buffer
+	 * @param dstBase the destination node base offset
+	 * @param dstIdx the destination key index
+	 * @param len the number of keys
+	 */
+	public void moveEntries(ByteBuffer srcBuf, int srcBase, int srcIdx, ByteBuffer dstBuf, int dstBase, int dstIdx,
+			int len) {
+		moveLongs(srcBuf, srcBase + HEADER_SIZE + (srcIdx << 3), dstBuf, dstBase + HEADER_SIZE + (dstIdx << 3), len);
+		moveLongs(srcBuf, srcBase + mValuesOffset + (srcIdx << 3), dstBuf, dstBase + mValuesOffset + (dstIdx << 3),
+				len);
+	}
+
+	/**
+	 * Move a range of child ids, the source and the destination may overlap.
+	 *
+	 * @param srcBuf the source buffer
+	 * @param srcBase the source node base offset
+	 * @param srcIdx the source child index
+	 * @param dstBuf the destination buffer
+	 * @param dstBase the destination node base offset
+	 * @param dstIdx the destination child index
+	 * @param len the number of children
+	 */
+	public void moveChildren(ByteBuffer srcBuf, int srcBase, int srcIdx, ByteBuffer dstBuf, int dstBase, int dstIdx,
+			int len) {
+		int srcPos = srcBase + mChildrenOffset + (srcIdx << 2);
+		int dstPos = dstBase + mChildrenOffset + (dstIdx << 2);
+		if ((srcBuf == dstBuf) && (dstPos > srcPos)) {
+			for (int i = len - 1; i >= 0; --i) {
+				dstBuf.putInt(dstPos + (i << 2), srcBuf.getInt(srcPos + (i << 2)));
+			}
+		} else {
+			for (int i = 0; i < len; ++i) {
+				dstBuf.putInt(dstPos + (i << 2), srcBuf.getInt(srcPos + (i << 2)));
+			}
+		}
+	}
+
+	/**
+	 * Move longs, copying backward when the destination overlaps the end of
+	 * the source.
+	 *
+	 * @param srcBuf the source buffer
+	 * @param srcPos the source position
+	 * @param dstBuf the destination buffer
+	 * @param dstPos the destination position
+	 * @param len the number of longs
+	 */
+	private static void moveLongs(ByteBuffer srcBuf, int srcPos, ByteBuffer dstBuf, int dstPos, int len) {
+		if ((srcBuf == dstBuf) && (dstPos > srcPos)) {
+			for (int i = len - 1; i >= 0; --i) {
+				dstBuf.putLong(dstPos + (i << 3), srcBuf.getLong(srcPos + (i << 3)));
+			}
+		} else {
+			for (int i = 0; i < len; ++i) {
+				dstBuf.putLong(dstPos + (i << 3), srcBuf.getLong(srcPos + (i << 3)));
+			}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package org.apache.dts.btree.store;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interface LongNodeStore.
+ * 
+ * Storage of fixed-size nodes laid out by a LongNodeLayout and addressed by
+ * integer node ids. A node must be pinned while its bytes are accessed, and
+ * unpinned once done with it, telling whether it has been modified.
+ */
+public interface LongNodeStore {
+
+	/**
+	 * Gets the layout.
+	 *
+	 * @return the layout of the stored nodes
+	 */
+	public LongNodeLayout getLayout();
+
+	/**
+	 * Allocate and initialize an empty node. The returned node is not pinned.
+	 *
+	 * @param isLeaf the is leaf
+	 * @return the node id
+	 */
+	public int allocate(boolean isLeaf);
+
+	/**
+	 * Free an unpinned node so that its slot can be reused.
+	 *
+	 * @param nodeId the node id
+	 */
+	public void free(int nodeId);
+
+	/**
+	 * Gets a version of a node that can be modified. A store updating its
+	 * nodes in place returns the node itself, a copy-on-write store returns
+	 * a copy of it unless the node has been allocated since the last commit.
+	 * The caller replaces its references to the node by the returned id.
+	 *
+	 * @param nodeId the node id
+	 * @return the id of the node to modify
+	 */
+	public int copyOnWrite(int nodeId);
+
+	/**
+	 * Pin a node. Pins are counted, a node may be pinned more than once.
+	 *
+	 * @param nodeId the node id
+	 * @return the buffer holding the node
+	 */
+	public ByteBuffer pin(int nodeId);
+
+	/**
+	 * Gets the offset of a node in the buffer returned by pin().
+	 *
+	 * @param nodeId the node id
+	 * @return the node base offset
+	 */
+	public int getOffset(int nodeId);
+
+	/**
+	 * Unpin a node.
+	 *
+	 * @param nodeId the node id
+	 * @param isDirty true, if the node has been modified while pinned
+	 */
+	public void unpin(int nodeId, boolean isDirty);
+
+	/**
+	 * Drop all the nodes.
+	 */
+	public void clear();
+}
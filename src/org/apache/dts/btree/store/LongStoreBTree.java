@@ -0,0 +1,750 @@
+package org.apache.dts.btree.store;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.dts.btree.primitive.LongLongBTIterator;
+
+/**
+ * Class LongStoreBTree.
+ * 
+ * B-tree with long keys and long values whose nodes live in a LongNodeStore
+ * and are referred to by node id instead of by object reference. Every node
+ * is pinned only for the time it is accessed, which lets the store page it
+ * in and out.
+ */
+public class LongStoreBTree {
+
+	/** The Constant NO_VALUE, the default missing value. */
+	public final static long NO_VALUE = Long.MIN_VALUE;
+
+	/** The store. */
+	protected final LongNodeStore mStore;
+
+	/** The layout. */
+	protected final LongNodeLayout mLayout;
+
+	/** The root node id. */
+	protected int mRoot = LongNodeLayout.NIL;
+
+	/** The size. */
+	protected long mSize = 0;
+
+	/** The min degree (aka t). */
+	private final int mMinDegree;
+
+	/** The min number of keys of a non-root node (aka t - 1). */
+	private final int mLowerBoundKeyNum;
+
+	/** The max number of keys of a node (aka 2t - 1). */
+	private final int mUpperBoundKeyNum;
+
+	/** The value returned by search and delete when the key doesn't exist. */
+	private final long mMissingValue;
+
+	/**
+	 * Instantiates a new long store b tree.
+	 *
+	 * @param store the store
+	 * @param missingValue the value returned by search and delete when the
+	 *            key doesn't exist
+	 */
+	public LongStoreBTree(LongNodeStore store, long missingValue) {
+		mStore = store;
+		mLayout = store.getLayout();
+		mMinDegree = mLayout.getMinDegree();
+		mLowerBoundKeyNum = mMinDegree - 1;
+		mUpperBoundKeyNum = mLayout.getUpperBoundKeyNum();
+		mMissingValue = missingValue;
+	}
+
+	/**
+	 * Size.
+	 *
+	 * @return the size
+	 */
+	public long getSize() {
+		return mSize;
+	}
+
+	/**
+	 * Gets the min degree.
+	 *
+	 * @return the min degree
+	 */
+	public int getMinDegree() {
+		return mMinDegree;
+	}
+
+	/**
+	 * Gets the missing value.
+	 *
+	 * @return the value returned by search and delete when the key doesn't
+	 *         exist
+	 */
+	public long getMissingValue() {
+		return mMissingValue;
+	}
+
+	/**
+	 * Clear.
+	 */
+	public void clear() {
+		mStore.clear();
+		mRoot = LongNodeLayout.NIL;
+		mSize = 0;
+	}
+
+	/**
+	 * Gets the key num of a node.
+	 *
+	 * @param nodeId the node id
+	 * @return the key num
+	 */
+	private int getKeyNum(int nodeId) {
+		ByteBuffer buf = mStore.pin(nodeId);
+		try {
+			return mLayout.getKeyNum(buf, mStore.getOffset(nodeId));
+		} finally {
+			mStore.unpin(nodeId, false);
+		}
+	}
+
+	/**
+	 * Search.
+	 *
+	 * @param key the key
+	 * @return the value, or the missing value if the key doesn't exist
+	 */
+	public long search(long key) {
+		int nodeId = mRoot;
+		int nextId, base, i;
+		ByteBuffer buf;
+
+		while (nodeId != LongNodeLayout.NIL) {
+			buf = mStore.pin(nodeId);
+			try {
+				base = mStore.getOffset(nodeId);
+				i = mLayout.search(buf, base, key);
+				if (i >= 0) {
+					return mLayout.getValue(buf, base, i);
+				}
+
+				nextId = mLayout.isLeaf(buf, base) ? LongNodeLayout.NIL : mLayout.getChild(buf, base, -(i + 1));
+			} finally {
+				mStore.unpin(nodeId, false);
+			}
+			nodeId = nextId;
+		}
+
+		return mMissingValue;
+	}
+
+	/**
+	 * Search a batch of keys. The keys are sorted and looked up along a
+	 * single walk of the tree, so a node is pinned once for all the keys
+	 * going through it rather than once per key.
+	 *
+	 * @param keys the keys
+	 * @return the values of the keys in the order of the keys, with the
+	 *         missing value for the keys that don't exist
+	 */
+	public long[] searchAll(long[] keys) {
+		long[] sortedKeys = keys.clone();
+		Arrays.sort(sortedKeys);
+		long[] sortedValues = new long[sortedKeys.length];
+		Arrays.fill(sortedValues, mMissingValue);
+		if ((mRoot != LongNodeLayout.NIL) && (sortedKeys.length > 0)) {
+			searchKeysAtNode(mRoot, sortedKeys, 0, sortedKeys.length, sortedValues);
+		}
+
+		long[] values = new long[keys.length];
+		for (int i = 0; i < keys.length; ++i) {
+			values[i] = sortedValues[Arrays.binarySearch(sortedKeys, keys[i])];
+		}
+		return values;
+	}
+
+	/**
+	 * Search the sorted keys in the range [fromIdx, toIdx) in the subtree of
+	 * a node.
+	 *
+	 * @param nodeId the node id
+	 * @param sortedKeys the sorted keys
+	 * @param fromIdx the index of the first key to search
+	 * @param toIdx the index after the last key to search
+	 * @param sortedValues the values found, at the indexes of their keys
+	 */
+	private void searchKeysAtNode(int nodeId, long[] sortedKeys, int fromIdx, int toIdx, long[] sortedValues) {
+		ByteBuffer buf;
+		int base, keyIdx, childIdx, childId;
+		int i = fromIdx, j;
+
+		while (i < toIdx) {
+			// Keep the node pinned only while reading it, so that the search
+			// doesn't hold a whole path of the tree
+			buf = mStore.pin(nodeId);
+			try {
+				base = mStore.getOffset(nodeId);
+				while (true) {
+					keyIdx = mLayout.search(buf, base, sortedKeys[i]);
+					if (keyIdx >= 0) {
+						sortedValues[i] = mLayout.getValue(buf, base, keyIdx);
+					} else if (!mLayout.isLeaf(buf, base)) {
+						break;
+					}
+
+					if (++i == toIdx) {
+						return;
+					}
+				}
+
+				// All the keys below the separator after the child go down to it
+				childIdx = -(keyIdx + 1);
+				childId = mLayout.getChild(buf, base, childIdx);
+				j = i + 1;
+				if (childIdx < mLayout.getKeyNum(buf, base)) {
+					long separatorKey = mLayout.getKey(buf, base, childIdx);
+					while ((j < toIdx) && (sortedKeys[j] < separatorKey)) {
+						++j;
+					}
+				} else {
+					j = toIdx;
+				}
+			} finally {
+				mStore.unpin(nodeId, false);
+			}
+
+			searchKeysAtNode(childId, sortedKeys, i, j, sortedValues);
+			i = j;
+		}
+	}
+
+	/**
+	 * Contains key.
+	 *
+	 * @param key the key
+	 * @return true, if the key exists in the tree
+	 */
+	public boolean containsKey(long key) {
+		int nodeId = mRoot;
+		int nextId, base, i;
+		ByteBuffer buf;
+
+		while (nodeId != LongNodeLayout.NIL) {
+			buf = mStore.pin(nodeId);
+			try {
+				base = mStore.getOffset(nodeId);
+				i = mLayout.search(buf, base, key);
+				if (i >= 0) {
+					return true;
+				}
+
+				nextId = mLayout.isLeaf(buf, base) ? LongNodeLayout.NIL : mLayout.getChild(buf, base, -(i + 1));
+			} finally {
+				mStore.unpin(nodeId, false);
+			}
+			nodeId = nextId;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Insert.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return the b tree
+	 */
+	public LongStoreBTree insert(long key, long value) {
+		if (mRoot == LongNodeLayout.NIL) {
+			mRoot = mStore.allocate(true);
+		} else {
+			mRoot = mStore.copyOnWrite(mRoot);
+		}
+
+		if (getKeyNum(mRoot) == mUpperBoundKeyNum) {
+			// The root is full, split it
+			int rootId = mStore.allocate(false);
+			mLayout.setChild(mStore.pin(rootId), mStore.getOffset(rootId), 0, mRoot);
+			mStore.unpin(rootId, true);
+			splitNode(rootId, 0, mRoot);
+			mRoot = rootId;
+		}
+
+		insertKeyAtNode(mRoot, key, value);
+		return this;
+	}
+
+	/**
+	 * Gets a child node that can be modified, replacing the reference to the
+	 * child in the parent node if the store has copied the child. The parent
+	 * node must be modifiable itself.
+	 *
+	 * @param parentId the parent node id
+	 * @param nodeIdx the index of the child node in the parent node
+	 * @return the child node id
+	 */
+	private int getWritableChild(int parentId, int nodeIdx) {
+		ByteBuffer parentBuf = mStore.pin(parentId);
+		boolean isDirty = false;
+		try {
+			int parentBase = mStore.getOffset(parentId);
+			int nodeId = mLayout.getChild(parentBuf, parentBase, nodeIdx);
+			int writableId = mStore.copyOnWrite(nodeId);
+			if (writableId != nodeId) {
+				mLayout.setChild(parentBuf, parentBase, nodeIdx, writableId);
+				isDirty = true;
+			}
+			return writableId;
+		} finally {
+			mStore.unpin(parentId, isDirty);
+		}
+	}
+
+	/**
+	 * Insert key at node. The node must not be full, and be modifiable.
+	 *
+	 * @param nodeId the node id
+	 * @param key the key
+	 * @param value the value
+	 */
+	private void insertKeyAtNode(int nodeId, long key, long value) {
+		int nextId, base, i, num, childId;
+		boolean isDirty;
+		ByteBuffer buf;
+
+		while (true) {
+			buf = mStore.pin(nodeId);
+			isDirty = false;
+			try {
+				base = mStore.getOffset(nodeId);
+				i = mLayout.search(buf, base, key);
+				if (i >= 0) {
+					// The key already existed so replace its value and done
+					mLayout.setValue(buf, base, i, value);
+					isDirty = true;
+					return;
+				}
+
+				i = -(i + 1);
+				num = mLayout.getKeyNum(buf, base);
+				if (mLayout.isLeaf(buf, base)) {
+					mLayout.moveEntries(buf, base, i, buf, base, i + 1, num - i);
+					mLayout.setKey(buf, base, i, key);
+					mLayout.setValue(buf, base, i, value);
+					mLayout.setKeyNum(buf, base, num + 1);
+					isDirty = true;
+					++mSize;
+					return;
+				}
+
+				childId = getWritableChild(nodeId, i);
+				if (getKeyNum(childId) == mUpperBoundKeyNum) {
+					// Split the full child first, then look for the key again
+					// since its median key has moved up to this node
+					splitNode(nodeId, i, childId);
+					nextId = nodeId;
+				} else {
+					nextId = childId;
+				}
+			} finally {
+				mStore.unpin(nodeId, isDirty);
+			}
+			nodeId = nextId;
+		}
+	}
+
+	/**
+	 * Split the full child node of a non-full parent node. Both nodes must be
+	 * modifiable.
+	 *
+	 * @param parentId the parent node id
+	 * @param nodeIdx the index of the child node in the parent node
+	 * @param nodeId the child node id
+	 */
+	private void splitNode(int parentId, int nodeIdx, int nodeId) {
+		ByteBuffer parentBuf = mStore.pin(parentId);
+		ByteBuffer buf = mStore.pin(nodeId);
+		int parentBase = mStore.getOffset(parentId);
+		int base = mStore.getOffset(nodeId);
+		boolean isLeaf = mLayout.isLeaf(buf, base);
+		int newId = mStore.allocate(isLeaf);
+		ByteBuffer newBuf = mStore.pin(newId);
+		try {
+			int newBase = mStore.getOffset(newId);
+			// Move the right half of the keys to the new node
+			mLayout.moveEntries(buf, base, mMinDegree, newBuf, newBase, 0, mLowerBoundKeyNum);
+			if (!isLeaf) {
+				mLayout.moveChildren(buf, base, mMinDegree, newBuf, newBase, 0, mMinDegree);
+			}
+			mLayout.setKeyNum(newBuf, newBase, mLowerBoundKeyNum);
+			mLayout.setKeyNum(buf, base, mLowerBoundKeyNum);
+
+			// Make a slot in the parent node for the median key and the
+			// new node
+			int num = mLayout.getKeyNum(parentBuf, parentBase) - nodeIdx;
+			mLayout.moveEntries(parentBuf, parentBase, nodeIdx, parentBuf, parentBase, nodeIdx + 1, num);
+			mLayout.moveChildren(parentBuf, parentBase, nodeIdx + 1, parentBuf, parentBase, nodeIdx + 2, num);
+			mLayout.moveEntries(buf, base, mLowerBoundKeyNum, parentBuf, parentBase, nodeIdx, 1);
+			mLayout.setChild(parentBuf, parentBase, nodeIdx + 1, newId);
+			mLayout.setKeyNum(parentBuf, parentBase, mLayout.getKeyNum(parentBuf, parentBase) + 1);
+		} finally {
+			mStore.unpin(newId, true);
+			mStore.unpin(nodeId, true);
+			mStore.unpin(parentId, true);
+		}
+	}
+
+	/**
+	 * Delete.
+	 *
+	 * @param key the key
+	 * @return the deleted value, or the missing value if the key doesn't exist
+	 */
+	public long delete(long key) {
+		if (mRoot == LongNodeLayout.NIL) {
+			return mMissingValue;
+		}
+
+		mRoot = mStore.copyOnWrite(mRoot);
+		int nodeId = mRoot;
+		int nextId, base, i, num;
+		long retVal = mMissingValue;
+		boolean isFound = false;
+		boolean isDirty;
+		ByteBuffer buf;
+
+		while (nodeId != LongNodeLayout.NIL) {
+			buf = mStore.pin(nodeId);
+			isDirty = false;
+			try {
+				base = mStore.getOffset(nodeId);
+				i = mLayout.search(buf, base, key);
+				num = mLayout.getKeyNum(buf, base);
+				if (mLayout.isLeaf(buf, base)) {
+					if (i < 0) {
+						// Can't find the specified key
+						break;
+					}
+
+					if (!isFound) {
+						retVal = mLayout.getValue(buf, base, i);
+						isFound = true;
+					}
+
+					// The node has more than t - 1 keys or is the root,
+					// remove the key right away
+					mLayout.moveEntries(buf, base, i + 1, buf, base, i, num - i - 1);
+					mLayout.setKeyNum(buf, base, num - 1);
+					isDirty = true;
+					--mSize;
+					break;
+				}
+
+				if (i >= 0) {
+					// We found the key in the internal node
+					if (!isFound) {
+						retVal = mLayout.getValue(buf, base, i);
+						isFound = true;
+					}
+
+					if (getKeyNum(mLayout.getChild(buf, base, i)) > mLowerBoundKeyNum) {
+						// Replace the key by its predecessor, then delete the
+						// predecessor from the left subtree
+						nextId = getWritableChild(nodeId, i);
+						key = copyExtremeEntry(nextId, true, buf, base, i);
+					} else if (getKeyNum(mLayout.getChild(buf, base, i + 1)) > mLowerBoundKeyNum) {
+						// Replace the key by its successor, then delete the
+						// successor from the right subtree
+						nextId = getWritableChild(nodeId, i + 1);
+						key = copyExtremeEntry(nextId, false, buf, base, i);
+					} else {
+						// Both children are minimal, merge them around the
+						// key and delete the key from the merged node
+						nextId = performMerge(nodeId, i);
+					}
+					isDirty = true;
+				} else {
+					// Make sure the child subtree has at least t keys before
+					// going down, so that a key can be removed from it
+					nextId = rebalanceChild(nodeId, -(i + 1));
+				}
+			} finally {
+				mStore.unpin(nodeId, isDirty);
+			}
+
+			if ((nodeId == mRoot) && (getKeyNum(nodeId) == 0)) {
+				// The root has lost its last key in a merge, the merged node
+				// is the new root
+				mStore.free(nodeId);
+				mRoot = nextId;
+			}
+			nodeId = nextId;
+		}
+
+		if ((mRoot != LongNodeLayout.NIL) && (getKeyNum(mRoot) == 0)) {
+			// The tree became empty
+			mStore.free(mRoot);
+			mRoot = LongNodeLayout.NIL;
+		}
+
+		return retVal;
+	}
+
+	/**
+	 * Copy the greatest (or smallest) entry of a subtree over an entry of a
+	 * node.
+	 *
+	 * @param subtreeId the subtree root node id
+	 * @param isGreatest true for the greatest entry, false for the smallest
+	 * @param dstBuf the destination buffer
+	 * @param dstBase the destination node base offset
+	 * @param dstIdx the destination key index
+	 * @return the copied key
+	 */
+	private long copyExtremeEntry(int subtreeId, boolean isGreatest, ByteBuffer dstBuf, int dstBase, int dstIdx) {
+		int nodeId = subtreeId;
+		int nextId, base, idx;
+		ByteBuffer buf;
+
+		while (true) {
+			buf = mStore.pin(nodeId);
+			try {
+				base = mStore.getOffset(nodeId);
+				if (mLayout.isLeaf(buf, base)) {
+					idx = isGreatest ? mLayout.getKeyNum(buf, base) - 1 : 0;
+					mLayout.moveEntries(buf, base, idx, dstBuf, dstBase, dstIdx, 1);
+					return mLayout.getKey(buf, base, idx);
+				}
+
+				nextId = mLayout.getChild(buf, base, isGreatest ? mLayout.getKeyNum(buf, base) : 0);
+			} finally {
+				mStore.unpin(nodeId, false);
+			}
+			nodeId = nextId;
+		}
+	}
+
+	/**
+	 * Make sure that the child node at the index has more than t - 1 keys, by
+	 * borrowing a key from one of its siblings or by merging it with one of
+	 * them. The parent node must be modifiable.
+	 *
+	 * @param parentId the parent node id
+	 * @param nodeIdx the index of the child node in the parent node
+	 * @return the id of the modifiable child node that covers the same key
+	 *         range afterwards
+	 */
+	private int rebalanceChild(int parentId, int nodeIdx) {
+		ByteBuffer parentBuf = mStore.pin(parentId);
+		try {
+			int parentBase = mStore.getOffset(parentId);
+			int parentKeyNum = mLayout.getKeyNum(parentBuf, parentBase);
+			if (getKeyNum(mLayout.getChild(parentBuf, parentBase, nodeIdx)) > mLowerBoundKeyNum) {
+				return getWritableChild(parentId, nodeIdx);
+			}
+
+			if ((nodeIdx > 0)
+					&& (getKeyNum(mLayout.getChild(parentBuf, parentBase, nodeIdx - 1)) > mLowerBoundKeyNum)) {
+				performRightRotation(parentId, nodeIdx);
+				return mLayout.getChild(parentBuf, parentBase, nodeIdx);
+			}
+
+			if ((nodeIdx < parentKeyNum)
+					&& (getKeyNum(mLayout.getChild(parentBuf, parentBase, nodeIdx + 1)) > mLowerBoundKeyNum)) {
+				performLeftRotation(parentId, nodeIdx);
+				return mLayout.getChild(parentBuf, parentBase, nodeIdx);
+			}
+
+			return performMerge(parentId, (nodeIdx < parentKeyNum) ? nodeIdx : nodeIdx - 1);
+		} finally {
+			mStore.unpin(parentId, false);
+		}
+	}
+
+	/**
+	 * Move the last key of the left sibling up to the parent node, and the
+	 * parent key down to the front of the child node.
+	 *
+	 * @param parentId the parent node id
+	 * @param nodeIdx the index of the child node in the parent node
+	 */
+	private void performRightRotation(int parentId, int nodeIdx) {
+		int nodeId = getWritableChild(parentId, nodeIdx);
+		int siblingId = getWritableChild(parentId, nodeIdx - 1);
+		ByteBuffer parentBuf = mStore.pin(parentId);
+		int parentBase = mStore.getOffset(parentId);
+		ByteBuffer buf = mStore.pin(nodeId);
+		ByteBuffer siblingBuf = mStore.pin(siblingId);
+		try {
+			int base = mStore.getOffset(nodeId);
+			int siblingBase = mStore.getOffset(siblingId);
+			int num = mLayout.getKeyNum(buf, base);
+			int siblingNum = mLayout.getKeyNum(siblingBuf, siblingBase);
+
+			mLayout.moveEntries(buf, base, 0, buf, base, 1, num);
+			mLayout.moveEntries(parentBuf, parentBase, nodeIdx - 1, buf, base, 0, 1);
+			if (!mLayout.isLeaf(buf, base)) {
+				mLayout.moveChildren(buf, base, 0, buf, base, 1, num + 1);
+				mLayout.moveChildren(siblingBuf, siblingBase, siblingNum, buf, base, 0, 1);
+			}
+			mLayout.setKeyNum(buf, base, num + 1);
+
+			mLayout.moveEntries(siblingBuf, siblingBase, siblingNum - 1, parentBuf, parentBase, nodeIdx - 1, 1);
+			mLayout.setKeyNum(siblingBuf, siblingBase, siblingNum - 1);
+		} finally {
+			mStore.unpin(siblingId, true);
+			mStore.unpin(nodeId, true);
+			mStore.unpin(parentId, true);
+		}
+	}
+
+	/**
+	 * Move the first key of the right sibling up to the parent node, and the
+	 * parent key down to the end of the child node.
+	 *
+	 * @param parentId the parent node id
+	 * @param nodeIdx the index of the child node in the parent node
+	 */
+	private void performLeftRotation(int parentId, int nodeIdx) {
+		int nodeId = getWritableChild(parentId, nodeIdx);
+		int siblingId = getWritableChild(parentId, nodeIdx + 1);
+		ByteBuffer parentBuf = mStore.pin(parentId);
+		int parentBase = mStore.getOffset(parentId);
+		ByteBuffer buf = mStore.pin(nodeId);
+		ByteBuffer siblingBuf = mStore.pin(siblingId);
+		try {
+			int base = mStore.getOffset(nodeId);
+			int siblingBase = mStore.getOffset(siblingId);
+			int num = mLayout.getKeyNum(buf, base);
+			int siblingNum = mLayout.getKeyNum(siblingBuf, siblingBase);
+
+			mLayout.moveEntries(parentBuf, parentBase, nodeIdx, buf, base, num, 1);
+			mLayout.moveEntries(siblingBuf, siblingBase, 0, parentBuf, parentBase, nodeIdx, 1);
+			mLayout.moveEntries(siblingBuf, siblingBase, 1, siblingBuf, siblingBase, 0, siblingNum - 1);
+			if (!mLayout.isLeaf(buf, base)) {
+				mLayout.moveChildren(siblingBuf, siblingBase, 0, buf, base, num + 1, 1);
+				mLayout.moveChildren(siblingBuf, siblingBase, 1, siblingBuf, siblingBase, 0, siblingNum);
+			}
+			mLayout.setKeyNum(buf, base, num + 1);
+			mLayout.setKeyNum(siblingBuf, siblingBase, siblingNum - 1);
+		} finally {
+			mStore.unpin(siblingId, true);
+			mStore.unpin(nodeId, true);
+			mStore.unpin(parentId, true);
+		}
+	}
+
+	/**
+	 * Merge the child node at the index, the parent key at the index and the
+	 * right sibling of the child node into the child node, then free the
+	 * right sibling. A root left without keys is collapsed by the caller once
+	 * it is no longer pinned.
+	 *
+	 * @param parentId the parent node id
+	 * @param nodeIdx the index of the child node in the parent node
+	 * @return the merged node id
+	 */
+	private int performMerge(int parentId, int nodeIdx) {
+		int nodeId = getWritableChild(parentId, nodeIdx);
+		ByteBuffer parentBuf = mStore.pin(parentId);
+		int parentBase = mStore.getOffset(parentId);
+		int siblingId = mLayout.getChild(parentBuf, parentBase, nodeIdx + 1);
+		ByteBuffer buf = mStore.pin(nodeId);
+		ByteBuffer siblingBuf = mStore.pin(siblingId);
+		try {
+			int base = mStore.getOffset(nodeId);
+			int siblingBase = mStore.getOffset(siblingId);
+			int num = mLayout.getKeyNum(buf, base);
+			int siblingNum = mLayout.getKeyNum(siblingBuf, siblingBase);
+
+			// Pull the parent key down and append the right sibling
+			mLayout.moveEntries(parentBuf, parentBase, nodeIdx, buf, base, num, 1);
+			mLayout.moveEntries(siblingBuf, siblingBase, 0, buf, base, num + 1, siblingNum);
+			if (!mLayout.isLeaf(buf, base)) {
+				mLayout.moveChildren(siblingBuf, siblingBase, 0, buf, base, num + 1, siblingNum + 1);
+			}
+			mLayout.setKeyNum(buf, base, num + siblingNum + 1);
+
+			// Close the gap in the parent node
+			int parentNum = mLayout.getKeyNum(parentBuf, parentBase);
+			mLayout.moveEntries(parentBuf, parentBase, nodeIdx + 1, parentBuf, parentBase, nodeIdx,
+					parentNum - nodeIdx - 1);
+			mLayout.moveChildren(parentBuf, parentBase, nodeIdx + 2, parentBuf, parentBase, nodeIdx + 1,
+					parentNum - nodeIdx - 1);
+			mLayout.setKeyNum(parentBuf, parentBase, parentNum - 1);
+		} finally {
+			mStore.unpin(siblingId, false);
+			mStore.unpin(nodeId, true);
+			mStore.unpin(parentId, true);
+		}
+		mStore.free(siblingId);
+		return nodeId;
+	}
+
+	/**
+	 * List.
+	 *
+	 * @param iterImpl the iter impl
+	 */
+	public void list(LongLongBTIterator iterImpl) {
+		if ((mRoot == LongNodeLayout.NIL) || (iterImpl == null)) {
+			return;
+		}
+
+		listEntriesInOrder(mRoot, iterImpl);
+	}
+
+	/**
+	 * List entries in order.
+	 *
+	 * @param nodeId the node id
+	 * @param iterImpl the iter impl
+	 * @return false, if the iterator has stopped the listing
+	 */
+	private boolean listEntriesInOrder(int nodeId, LongLongBTIterator iterImpl) {
+		ByteBuffer buf;
+		int base, currentKeyNum, childId;
+		long key = 0, value = 0;
+
+		for (int i = 0;; ++i) {
+			// Keep the node pinned only while reading it, so that the listing
+			// doesn't hold a whole path of the tree
+			buf = mStore.pin(nodeId);
+			try {
+				base = mStore.getOffset(nodeId);
+				currentKeyNum = mLayout.getKeyNum(buf, base);
+				if (mLayout.isLeaf(buf, base)) {
+					for (; i < currentKeyNum; ++i) {
+						if (!iterImpl.item(mLayout.getKey(buf, base, i), mLayout.getValue(buf, base, i))) {
+							return false;
+						}
+					}
+					return true;
+				}
+
+				childId = mLayout.getChild(buf, base, i);
+				if (i < currentKeyNum) {
+					key = mLayout.getKey(buf, base, i);
+					value = mLayout.getValue(buf, base, i);
+				}
+			} finally {
+				mStore.unpin(nodeId, false);
+			}
+
+			if (!listEntriesInOrder(childId, iterImpl)) {
+				return false;
+			}
+
+			if (i == currentKeyNum) {
+				return true;
+			}
+
+			if (!iterImpl.item(key, value)) {
+				return false;
+			}
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package org.apache.dts.btree.store;
+
+import org.apache.dts.btree.BTNode;
+
+/**
+ * Class OffHeapLongBTree.
+ * 
+ * B-tree with long keys and long values whose nodes are fixed-size slots of
+ * direct byte buffers, addressed by integer node ids. Keys and values are
+ * stored inline in the slots, so the tree puts nothing but a handful of
+ * buffer objects on the Java heap, whatever its size.
+ */
+public class OffHeapLongBTree extends LongStoreBTree {
+
+	/**
+	 * Instantiates a new off heap long b tree with the default min degree.
+	 */
+	public OffHeapLongBTree() {
+		this(BTNode.DEFAULT_MIN_DEGREE);
+	}
+
+	/**
+	 * Instantiates a new off heap long b tree.
+	 *
+	 * @param minDegree the min degree (aka t), every node holds at most
+	 *            2t - 1 keys
+	 */
+	public OffHeapLongBTree(int minDegree) {
+		this(minDegree, OffHeapNodeArena.DEFAULT_CHUNK_SIZE, NO_VALUE);
+	}
+
+	/**
+	 * Instantiates a new off heap long b tree.
+	 *
+	 * @param minDegree the min degree (aka t), every node holds at most
+	 *            2t - 1 keys
+	 * @param chunkSize the size in bytes of the off-heap chunks
+	 * @param missingValue the value returned by search and delete when the
+	 *            key doesn't exist
+	 */
+	public OffHeapLongBTree(int minDegree, int chunkSize, long missingValue) {
+		super(new OffHeapNodeArena(new LongNodeLayout(minDegree), chunkSize), missingValue);
+	}
+
+	/**
+	 * Gets the node count.
+	 *
+	 * @return the number of nodes in use
+	 */
+	public int getNodesCount() {
+		return ((OffHeapNodeArena) mStore).getNodeCount();
+	}
+
+	/**
+	 * Gets the reserved bytes.
+	 *
+	 * @return the number of off-heap bytes held by the tree
+	 */
+	public long getReservedBytes() {
+		return ((OffHeapNodeArena) mStore).getReservedBytes();
+	}
+}
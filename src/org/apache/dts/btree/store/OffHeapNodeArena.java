@@ -0,0 +1,163 @@
+package org.apache.dts.btree.store;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class OffHeapNodeArena.
+ * 
+ * LongNodeStore keeping its nodes in fixed-size slots of direct byte buffers
+ * allocated outside of the Java heap. The node id is the slot number across
+ * all the chunks. Freed slots are chained through their first bytes and
+ * reused before a new slot is taken, so the arena never creates garbage.
+ */
+public class OffHeapNodeArena implements LongNodeStore {
+
+	/** The Constant DEFAULT_CHUNK_SIZE, 16 MB. */
+	public final static int DEFAULT_CHUNK_SIZE = 16 << 20;
+
+	/** The layout. */
+	private final LongNodeLayout mLayout;
+
+	/** The node size. */
+	private final int mNodeSize;
+
+	/** The number of node slots per chunk. */
+	private final int mNodesPerChunk;
+
+	/** The chunks. */
+	private final List<ByteBuffer> mChunks = new ArrayList<ByteBuffer>();
+
+	/** The number of slots taken so far, free or not. */
+	private int mSlotCount = 0;
+
+	/** The head of the free slot list. */
+	private int mFreeHead = LongNodeLayout.NIL;
+
+	/** The number of nodes in use. */
+	private int mNodeCount = 0;
+
+	/**
+	 * Instantiates a new off heap node arena with the default chunk size.
+	 *
+	 * @param layout the layout
+	 */
+	public OffHeapNodeArena(LongNodeLayout layout) {
+		this(layout, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Instantiates a new off heap node arena.
+	 *
+	 * @param layout the layout
+	 * @param chunkSize the size of a chunk in bytes, at least one node
+	 */
+	public OffHeapNodeArena(LongNodeLayout layout, int chunkSize) {
+		mLayout = layout;
+		mNodeSize = layout.getNodeSize();
+		mNodesPerChunk = Math.max(1, chunkSize / mNodeSize);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#getLayout()
+	 */
+	@Override
+	public LongNodeLayout getLayout() {
+		return mLayout;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#allocate(boolean)
+	 */
+	@Override
+	public int allocate(boolean isLeaf) {
+		int nodeId;
+		if (mFreeHead != LongNodeLayout.NIL) {
+			nodeId = mFreeHead;
+			mFreeHead = pin(nodeId).getInt(getOffset(nodeId));
+		} else {
+			if (mSlotCount == mNodesPerChunk * mChunks.size()) {
+				mChunks.add(ByteBuffer.allocateDirect(mNodesPerChunk * mNodeSize).order(ByteOrder.nativeOrder()));
+			}
+			nodeId = mSlotCount++;
+		}
+
+		mLayout.init(pin(nodeId), getOffset(nodeId), isLeaf);
+		++mNodeCount;
+		return nodeId;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#free(int)
+	 */
+	@Override
+	public void free(int nodeId) {
+		pin(nodeId).putInt(getOffset(nodeId), mFreeHead);
+		mFreeHead = nodeId;
+		--mNodeCount;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#copyOnWrite(int)
+	 */
+	@Override
+	public int copyOnWrite(int nodeId) {
+		// The nodes are updated in place
+		return nodeId;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#pin(int)
+	 */
+	@Override
+	public ByteBuffer pin(int nodeId) {
+		return mChunks.get(nodeId / mNodesPerChunk);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#getOffset(int)
+	 */
+	@Override
+	public int getOffset(int nodeId) {
+		return (nodeId % mNodesPerChunk) * mNodeSize;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#unpin(int, boolean)
+	 */
+	@Override
+	public void unpin(int nodeId, boolean isDirty) {
+		// The memory is always resident, nothing to do
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#clear()
+	 */
+	@Override
+	public void clear() {
+		// Keep the chunks around for reuse, just forget about the slots
+		mSlotCount = 0;
+		mFreeHead = LongNodeLayout.NIL;
+		mNodeCount = 0;
+	}
+
+	/**
+	 * Gets the node count.
+	 *
+	 * @return the number of nodes in use
+	 */
+	public int getNodeCount() {
+		return mNodeCount;
+	}
+
+	/**
+	 * Gets the reserved bytes.
+	 *
+	 * @return the number of off-heap bytes held by the arena
+	 */
+	public long getReservedBytes() {
+		return (long) mChunks.size() * mNodesPerChunk * mNodeSize;
+	}
+}
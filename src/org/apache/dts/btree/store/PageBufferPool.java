@@ -0,0 +1,314 @@
+package org.apache.dts.btree.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Class PageBufferPool.
+ * 
+ * Bounded pool of fixed-size page frames over a file. A pinned page stays in
+ * its frame, an unpinned one may be evicted, and a dirty page is written
+ * back before its frame is reused.
+ * 
+ * Eviction uses the CLOCK algorithm with a weighted reference count: a page
+ * unpinned as hot survives more sweeps of the clock hand than a cold one.
+ * The node stores mark the internal nodes as hot, so that the upper levels
+ * of a tree stay in the pool and a lookup only has to read its leaf from the
+ * disk.
+ */
+public class PageBufferPool {
+
+	/** The Constant COLD_WEIGHT, the clock sweeps a cold page survives. */
+	private final static int COLD_WEIGHT = 1;
+
+	/** The Constant HOT_WEIGHT, the clock sweeps a hot page survives. */
+	private final static int HOT_WEIGHT = 4;
+
+	/** The channel. */
+	private final FileChannel mChannel;
+
+	/** The page size. */
+	private final int mPageSize;
+
+	/** The frames of the pool. */
+	private final ByteBuffer mFrames[];
+
+	/** The page id held by each frame, or NIL. */
+	private final int mFramePageIds[];
+
+	/** The pin count of each frame. */
+	private final int mPinCounts[];
+
+	/** The dirty flag of each frame. */
+	private final boolean mDirtyFlags[];
+
+	/** The clock reference count of each frame. */
+	private final int mRefCounts[];
+
+	/** The frame of each page in the pool. */
+	private final Map<Integer, Integer> mPageTable = new HashMap<Integer, Integer>();
+
+	/** The clock hand. */
+	private int mClockHand = 0;
+
+	/** The number of pages read from the file. */
+	private long mReadCount = 0;
+
+	/** The number of pages written to the file. */
+	private long mWriteCount = 0;
+
+	/**
+	 * Instantiates a new page buffer pool.
+	 *
+	 * @param channel the file channel
+	 * @param pageSize the page size in bytes
+	 * @param poolSize the number of frames
+	 */
+	public PageBufferPool(FileChannel channel, int pageSize, int poolSize) {
+		mChannel = channel;
+		mPageSize = pageSize;
+		mFrames = new ByteBuffer[poolSize];
+		mFramePageIds = new int[poolSize];
+		mPinCounts = new int[poolSize];
+		mDirtyFlags = new boolean[poolSize];
+		mRefCounts = new int[poolSize];
+		for (int i = 0; i < poolSize; ++i) {
+			mFrames[i] = newPageBuffer(pageSize, true);
+			mFramePageIds[i] = LongNodeLayout.NIL;
+		}
+	}
+
+	/**
+	 * Allocate a buffer for a page. All the pages are little-endian whatever
+	 * the platform, so that the files can be moved around.
+	 *
+	 * @param pageSize the page size
+	 * @param isDirect true for a direct buffer
+	 * @return the buffer
+	 */
+	public static ByteBuffer newPageBuffer(int pageSize, boolean isDirect) {
+		ByteBuffer buf = isDirect ? ByteBuffer.allocateDirect(pageSize) : ByteBuffer.allocate(pageSize);
+		return buf.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Gets the page size.
+	 *
+	 * @return the page size
+	 */
+	public int getPageSize() {
+		return mPageSize;
+	}
+
+	/**
+	 * Read a page from the file, bypassing the pool. The part of the page
+	 * past the end of the file reads as zeros.
+	 *
+	 * @param pageId the page id
+	 * @param buf the buffer
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void readPage(int pageId, ByteBuffer buf) throws IOException {
+		long position = (long) pageId * mPageSize;
+		buf.clear();
+		while (buf.hasRemaining()) {
+			int n = mChannel.read(buf, position + buf.position());
+			if (n < 0) {
+				while (buf.hasRemaining()) {
+					buf.put((byte) 0);
+				}
+				break;
+			}
+		}
+		++mReadCount;
+	}
+
+	/**
+	 * Write a page to the file, bypassing the pool.
+	 *
+	 * @param pageId the page id
+	 * @param buf the buffer
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void writePage(int pageId, ByteBuffer buf) throws IOException {
+		long position = (long) pageId * mPageSize;
+		buf.clear();
+		while (buf.hasRemaining()) {
+			mChannel.write(buf, position + buf.position());
+		}
+		++mWriteCount;
+	}
+
+	/**
+	 * Find a frame for a page that isn't in the pool, writing back the page
+	 * it held if needed.
+	 *
+	 * @return the frame index
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private int evictFrame() throws IOException {
+		// Every sweep lowers the reference count of the unpinned frames, so
+		// one of them must reach zero within HOT_WEIGHT + 1 sweeps
+		int limit = (HOT_WEIGHT + 1) * mFrames.length;
+		for (int i = 0; i <= limit; ++i) {
+			int frame = mClockHand;
+			mClockHand = (mClockHand + 1) % mFrames.length;
+			if (mFramePageIds[frame] == LongNodeLayout.NIL) {
+				return frame;
+			}
+
+			if (mPinCounts[frame] > 0) {
+				continue;
+			}
+
+			if (mRefCounts[frame] > 0) {
+				--mRefCounts[frame];
+				continue;
+			}
+
+			if (mDirtyFlags[frame]) {
+				writePage(mFramePageIds[frame], mFrames[frame]);
+				mDirtyFlags[frame] = false;
+			}
+			mPageTable.remove(mFramePageIds[frame]);
+			mFramePageIds[frame] = LongNodeLayout.NIL;
+			return frame;
+		}
+
+		throw new IllegalStateException("All the pages of the buffer pool are pinned");
+	}
+
+	/**
+	 * Pin a page, loading it in the pool if it isn't there already.
+	 *
+	 * @param pageId the page id
+	 * @param isNew true, if the former content of the page doesn't matter
+	 *            and doesn't need to be read
+	 * @return the frame index
+	 */
+	private int pinFrame(int pageId, boolean isNew) {
+		Integer frame = mPageTable.get(pageId);
+		if (frame == null) {
+			try {
+				frame = evictFrame();
+				if (!isNew) {
+					readPage(pageId, mFrames[frame]);
+				}
+			} catch (IOException ioex) {
+				throw new IllegalStateException("Failed to load page " + pageId, ioex);
+			}
+			mFramePageIds[frame] = pageId;
+			mDirtyFlags[frame] = false;
+			mPageTable.put(pageId, frame);
+		}
+
+		++mPinCounts[frame];
+		return frame;
+	}
+
+	/**
+	 * Pin a page. Pins are counted, a page may be pinned more than once.
+	 *
+	 * @param pageId the page id
+	 * @return the buffer holding the page
+	 */
+	public ByteBuffer pin(int pageId) {
+		return mFrames[pinFrame(pageId, false)];
+	}
+
+	/**
+	 * Pin a page whose former content doesn't matter, typically a page just
+	 * allocated, without reading it from the file.
+	 *
+	 * @param pageId the page id
+	 * @return the buffer holding the page
+	 */
+	public ByteBuffer pinNew(int pageId) {
+		return mFrames[pinFrame(pageId, true)];
+	}
+
+	/**
+	 * Gets the buffer of a page that is pinned.
+	 *
+	 * @param pageId the page id
+	 * @return the buffer holding the page
+	 */
+	public ByteBuffer getPinned(int pageId) {
+		return mFrames[mPageTable.get(pageId)];
+	}
+
+	/**
+	 * Unpin a page.
+	 *
+	 * @param pageId the page id
+	 * @param isDirty true, if the page has been modified while pinned
+	 * @param isHot true, if the page should stay longer in the pool
+	 */
+	public void unpin(int pageId, boolean isDirty, boolean isHot) {
+		int frame = mPageTable.get(pageId);
+		--mPinCounts[frame];
+		mDirtyFlags[frame] |= isDirty;
+		mRefCounts[frame] = isHot ? HOT_WEIGHT : COLD_WEIGHT;
+	}
+
+	/**
+	 * Drop an unpinned page from the pool without writing it back.
+	 *
+	 * @param pageId the page id
+	 */
+	public void discard(int pageId) {
+		Integer frame = mPageTable.remove(pageId);
+		if (frame != null) {
+			mFramePageIds[frame] = LongNodeLayout.NIL;
+			mDirtyFlags[frame] = false;
+		}
+	}
+
+	/**
+	 * Drop all the pages from the pool without writing them back.
+	 */
+	public void discardAll() {
+		mPageTable.clear();
+		for (int i = 0; i < mFrames.length; ++i) {
+			mFramePageIds[i] = LongNodeLayout.NIL;
+			mPinCounts[i] = 0;
+			mDirtyFlags[i] = false;
+		}
+	}
+
+	/**
+	 * Write back all the dirty pages. They stay in the pool.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void flush() throws IOException {
+		for (int i = 0; i < mFrames.length; ++i) {
+			if ((mFramePageIds[i] != LongNodeLayout.NIL) && mDirtyFlags[i]) {
+				writePage(mFramePageIds[i], mFrames[i]);
+				mDirtyFlags[i] = false;
+			}
+		}
+	}
+
+	/**
+	 * Gets the read count.
+	 *
+	 * @return the number of pages read from the file
+	 */
+	public long getReadCount() {
+		return mReadCount;
+	}
+
+	/**
+	 * Gets the write count.
+	 *
+	 * @return the number of pages written to the file
+	 */
+	public long getWriteCount() {
+		return mWriteCount;
+	}
+}
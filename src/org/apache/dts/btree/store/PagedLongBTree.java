@@ -0,0 +1,99 @@
+package org.apache.dts.btree.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Class PagedLongBTree.
+ * 
+ * B-tree with long keys and long values stored in a file, one node per
+ * page, and accessed through a bounded buffer pool. The min degree is the
+ * largest one whose nodes fit in a page. Changes reach the file when pages
+ * get evicted and on flush(), evicted pages being written in place over
+ * those of the last flush. The file is consistent only after a clean
+ * flush() or close(): a crash between two flushes can leave it corrupted,
+ * see ShadowPagedLongBTree for a tree that survives crashes.
+ */
+public class PagedLongBTree extends LongStoreBTree implements Closeable {
+
+	/** The paged store. */
+	private final PagedNodeStore mPagedStore;
+
+	/**
+	 * Open a paged long b tree with the default page and pool sizes.
+	 *
+	 * @param file the file, created if it doesn't exist yet
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public PagedLongBTree(File file) throws IOException {
+		this(file, PagedNodeStore.DEFAULT_PAGE_SIZE, PagedNodeStore.DEFAULT_POOL_SIZE, NO_VALUE);
+	}
+
+	/**
+	 * Open a paged long b tree.
+	 *
+	 * @param file the file, created if it doesn't exist yet
+	 * @param pageSize the page size in bytes, must be the same every time
+	 *            the file is opened
+	 * @param poolSize the number of pages the buffer pool holds
+	 * @param missingValue the value returned by search and delete when the
+	 *            key doesn't exist
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public PagedLongBTree(File file, int pageSize, int poolSize, long missingValue) throws IOException {
+		this(new PagedNodeStore(file, pageSize, poolSize), missingValue);
+	}
+
+	/**
+	 * Instantiates a new paged long b tree.
+	 *
+	 * @param store the store
+	 * @param missingValue the missing value
+	 */
+	private PagedLongBTree(PagedNodeStore store, long missingValue) {
+		super(store, missingValue);
+		mPagedStore = store;
+		mRoot = store.getRootId();
+		mSize = store.getEntryCount();
+	}
+
+	/**
+	 * Write all the changes to the file.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void flush() throws IOException {
+		mPagedStore.flush(mRoot, mSize);
+	}
+
+	/**
+	 * Gets the read count.
+	 *
+	 * @return the number of pages read from the file
+	 */
+	public long getReadCount() {
+		return mPagedStore.getReadCount();
+	}
+
+	/**
+	 * Gets the write count.
+	 *
+	 * @return the number of pages written to the file
+	 */
+	public long getWriteCount() {
+		return mPagedStore.getWriteCount();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			mPagedStore.close();
+		}
+	}
+}
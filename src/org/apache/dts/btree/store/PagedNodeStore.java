@@ -0,0 +1,297 @@
+package org.apache.dts.btree.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Class PagedNodeStore.
+ * 
+ * LongNodeStore keeping every node in a fixed-size page of a single file,
+ * with the node id being the page number. Pages are accessed through a
+ * PageBufferPool, in which the internal nodes are kept hot.
+ * 
+ * Page 0 is the file header:
+ * 
+ * <pre>
+ * int  magic
+ * int  page size
+ * int  min degree
+ * int  page count
+ * int  head of the free page list
+ * int  root node id
+ * long entry count
+ * </pre>
+ */
+public class PagedNodeStore implements LongNodeStore, Closeable {
+
+	/** The Constant DEFAULT_PAGE_SIZE. */
+	public final static int DEFAULT_PAGE_SIZE = 4096;
+
+	/** The Constant DEFAULT_POOL_SIZE, in pages. */
+	public final static int DEFAULT_POOL_SIZE = 1024;
+
+	/** The Constant MAGIC. */
+	private final static int MAGIC = 0x42545047;
+
+	/** The Constant HEADER_PAGE_ID. */
+	private final static int HEADER_PAGE_ID = 0;
+
+	/** The file. */
+	private final RandomAccessFile mFile;
+
+	/** The channel. */
+	private final FileChannel mChannel;
+
+	/** The page size. */
+	private final int mPageSize;
+
+	/** The layout. */
+	private final LongNodeLayout mLayout;
+
+	/** The pool. */
+	private final PageBufferPool mPool;
+
+	/** The number of pages of the file, header included. */
+	private int mPageCount;
+
+	/** The head of the free page list. */
+	private int mFreeHead;
+
+	/** The root node id as of the last flush. */
+	private int mRootId;
+
+	/** The entry count as of the last flush. */
+	private long mEntryCount;
+
+	/**
+	 * Open a paged node store, creating the file if it doesn't exist yet.
+	 *
+	 * @param file the file
+	 * @param pageSize the page size in bytes, also the node size
+	 * @param poolSize the number of pages the buffer pool holds
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public PagedNodeStore(File file, int pageSize, int poolSize) throws IOException {
+		int minDegree = LongNodeLayout.getMaxMinDegree(pageSize);
+		if (minDegree == 0) {
+			throw new IllegalArgumentException("Page size too small for a node: " + pageSize);
+		}
+
+		if (poolSize < 3) {
+			// A split pins the parent, the child and the new node at once
+			throw new IllegalArgumentException("Pool size must be at least 3: " + poolSize);
+		}
+
+		mPageSize = pageSize;
+		mLayout = new LongNodeLayout(minDegree);
+		mFile = new RandomAccessFile(file, "rw");
+		mChannel = mFile.getChannel();
+		mPool = new PageBufferPool(mChannel, pageSize, poolSize);
+		try {
+			if (mChannel.size() == 0) {
+				mPageCount = 1;
+				mFreeHead = LongNodeLayout.NIL;
+				mRootId = LongNodeLayout.NIL;
+				mEntryCount = 0;
+				writeHeader();
+			} else {
+				readHeader();
+			}
+		} catch (IOException ioex) {
+			mFile.close();
+			throw ioex;
+		}
+	}
+
+	/**
+	 * Read header.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void readHeader() throws IOException {
+		ByteBuffer header = PageBufferPool.newPageBuffer(mPageSize, false);
+		mPool.readPage(HEADER_PAGE_ID, header);
+		if (header.getInt(0) != MAGIC) {
+			throw new IOException("Not a paged b-tree file");
+		}
+
+		if (header.getInt(4) != mPageSize) {
+			throw new IOException("File was created with page size " + header.getInt(4) + ", not " + mPageSize);
+		}
+
+		if (header.getInt(8) != mLayout.getMinDegree()) {
+			throw new IOException("File was created with min degree " + header.getInt(8) + ", not "
+					+ mLayout.getMinDegree());
+		}
+
+		mPageCount = header.getInt(12);
+		mFreeHead = header.getInt(16);
+		mRootId = header.getInt(20);
+		mEntryCount = header.getLong(24);
+	}
+
+	/**
+	 * Write header.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void writeHeader() throws IOException {
+		ByteBuffer header = PageBufferPool.newPageBuffer(mPageSize, false);
+		header.putInt(0, MAGIC);
+		header.putInt(4, mPageSize);
+		header.putInt(8, mLayout.getMinDegree());
+		header.putInt(12, mPageCount);
+		header.putInt(16, mFreeHead);
+		header.putInt(20, mRootId);
+		header.putLong(24, mEntryCount);
+		mPool.writePage(HEADER_PAGE_ID, header);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#getLayout()
+	 */
+	@Override
+	public LongNodeLayout getLayout() {
+		return mLayout;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#allocate(boolean)
+	 */
+	@Override
+	public int allocate(boolean isLeaf) {
+		int pageId;
+		ByteBuffer buf;
+		if (mFreeHead != LongNodeLayout.NIL) {
+			pageId = mFreeHead;
+			buf = mPool.pin(pageId);
+			mFreeHead = buf.getInt(0);
+		} else {
+			pageId = mPageCount++;
+			buf = mPool.pinNew(pageId);
+		}
+
+		mLayout.init(buf, 0, isLeaf);
+		mPool.unpin(pageId, true, !isLeaf);
+		return pageId;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#free(int)
+	 */
+	@Override
+	public void free(int nodeId) {
+		mPool.pin(nodeId).putInt(0, mFreeHead);
+		mPool.unpin(nodeId, true, false);
+		mFreeHead = nodeId;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#copyOnWrite(int)
+	 */
+	@Override
+	public int copyOnWrite(int nodeId) {
+		// The nodes are updated in place
+		return nodeId;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#pin(int)
+	 */
+	@Override
+	public ByteBuffer pin(int nodeId) {
+		return mPool.pin(nodeId);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#getOffset(int)
+	 */
+	@Override
+	public int getOffset(int nodeId) {
+		// Every page has its own frame
+		return 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#unpin(int, boolean)
+	 */
+	@Override
+	public void unpin(int nodeId, boolean isDirty) {
+		mPool.unpin(nodeId, isDirty, !mLayout.isLeaf(mPool.getPinned(nodeId), 0));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#clear()
+	 */
+	@Override
+	public void clear() {
+		mPool.discardAll();
+		mPageCount = 1;
+		mFreeHead = LongNodeLayout.NIL;
+	}
+
+	/**
+	 * Gets the root node id saved by the last flush.
+	 *
+	 * @return the root node id
+	 */
+	public int getRootId() {
+		return mRootId;
+	}
+
+	/**
+	 * Gets the entry count saved by the last flush.
+	 *
+	 * @return the entry count
+	 */
+	public long getEntryCount() {
+		return mEntryCount;
+	}
+
+	/**
+	 * Write back the dirty pages and the header, then force them to the
+	 * disk.
+	 *
+	 * @param rootId the root node id
+	 * @param entryCount the entry count
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void flush(int rootId, long entryCount) throws IOException {
+		mPool.flush();
+		mRootId = rootId;
+		mEntryCount = entryCount;
+		writeHeader();
+		mChannel.truncate((long) mPageCount * mPageSize);
+		mChannel.force(false);
+	}
+
+	/**
+	 * Gets the read count.
+	 *
+	 * @return the number of pages read from the file
+	 */
+	public long getReadCount() {
+		return mPool.getReadCount();
+	}
+
+	/**
+	 * Gets the write count.
+	 *
+	 * @return the number of pages written to the file
+	 */
+	public long getWriteCount() {
+		return mPool.getWriteCount();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		mFile.close();
+	}
+}
@@ -0,0 +1,117 @@
+package org.apache.dts.btree.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Class ShadowPagedLongBTree.
+ * 
+ * B-tree with long keys and long values stored in a file with copy-on-write
+ * shadow paging: the updates never overwrite a node of the last commit, and
+ * commit() atomically switches the file to the new version of the tree. A
+ * crash at any point leaves the file with the tree of the last commit, which
+ * is available as soon as the file is opened, without any log to replay.
+ */
+public class ShadowPagedLongBTree extends LongStoreBTree implements Closeable {
+
+	/** The shadow store. */
+	private final ShadowPagedNodeStore mShadowStore;
+
+	/**
+	 * Open a shadow paged long b tree with the default page and pool sizes.
+	 *
+	 * @param file the file, created if it doesn't exist yet
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public ShadowPagedLongBTree(File file) throws IOException {
+		this(file, PagedNodeStore.DEFAULT_PAGE_SIZE, PagedNodeStore.DEFAULT_POOL_SIZE, NO_VALUE);
+	}
+
+	/**
+	 * Open a shadow paged long b tree.
+	 *
+	 * @param file the file, created if it doesn't exist yet
+	 * @param pageSize the page size in bytes, must be the same every time
+	 *            the file is opened
+	 * @param poolSize the number of pages the buffer pool holds
+	 * @param missingValue the value returned by search and delete when the
+	 *            key doesn't exist
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public ShadowPagedLongBTree(File file, int pageSize, int poolSize, long missingValue) throws IOException {
+		this(new ShadowPagedNodeStore(file, pageSize, poolSize), missingValue);
+	}
+
+	/**
+	 * Instantiates a new shadow paged long b tree.
+	 *
+	 * @param store the store
+	 * @param missingValue the missing value
+	 */
+	private ShadowPagedLongBTree(ShadowPagedNodeStore store, long missingValue) {
+		super(store, missingValue);
+		mShadowStore = store;
+		mRoot = store.getRootId();
+		mSize = store.getEntryCount();
+	}
+
+	/**
+	 * Make all the changes since the last commit durable, atomically.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void commit() throws IOException {
+		mShadowStore.commit(mRoot, mSize);
+	}
+
+	/**
+	 * Drop all the changes since the last commit.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void rollback() throws IOException {
+		mShadowStore.rollback();
+		mRoot = mShadowStore.getRootId();
+		mSize = mShadowStore.getEntryCount();
+	}
+
+	/**
+	 * Gets the generation.
+	 *
+	 * @return the number of commits made to the file
+	 */
+	public long getGeneration() {
+		return mShadowStore.getGeneration();
+	}
+
+	/**
+	 * Gets the read count.
+	 *
+	 * @return the number of pages read from the file
+	 */
+	public long getReadCount() {
+		return mShadowStore.getReadCount();
+	}
+
+	/**
+	 * Gets the write count.
+	 *
+	 * @return the number of pages written to the file
+	 */
+	public long getWriteCount() {
+		return mShadowStore.getWriteCount();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			commit();
+		} finally {
+			mShadowStore.close();
+		}
+	}
+}
@@ -0,0 +1,502 @@
+package org.apache.dts.btree.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+/**
+ * Class ShadowPagedNodeStore.
+ * 
+ * Copy-on-write LongNodeStore keeping every node in a fixed-size page of a
+ * single file. A node that belongs to the last commit is never modified: it
+ * is copied to a fresh page first, and its own page is only reused once the
+ * next commit is on the disk. The file therefore always holds the complete
+ * tree of the last commit, whatever happens to the process.
+ * 
+ * A commit writes the fresh pages, then the free page list, and finally a
+ * superblock pointing at the new root. There are two superblock slots, in
+ * pages 0 and 1, written alternately: the superblock with the highest
+ * generation and a valid checksum is the current one, so a commit is atomic
+ * and opening the file needs no recovery. A superblock holds:
+ * 
+ * <pre>
+ * int  magic
+ * int  page size
+ * int  min degree
+ * int  page count
+ * long generation
+ * int  root node id
+ * int  first page of the free page list
+ * long entry count
+ * int  CRC32 of the fields above
+ * </pre>
+ * 
+ * Each page of the free page list holds the next page of the list, a count,
+ * then the ids of the free pages.
+ */
+public class ShadowPagedNodeStore implements LongNodeStore, Closeable {
+
+	/** The Constant MAGIC. */
+	private final static int MAGIC = 0x42545350;
+
+	/** The Constant FIRST_NODE_PAGE_ID, the pages before are superblocks. */
+	private final static int FIRST_NODE_PAGE_ID = 2;
+
+	/** The Constant SUPERBLOCK_CRC_OFFSET. */
+	private final static int SUPERBLOCK_CRC_OFFSET = 40;
+
+	/** The Constant FREE_LIST_HEADER_SIZE. */
+	private final static int FREE_LIST_HEADER_SIZE = 8;
+
+	/** The file. */
+	private final RandomAccessFile mFile;
+
+	/** The channel. */
+	private final FileChannel mChannel;
+
+	/** The page size. */
+	private final int mPageSize;
+
+	/** The layout. */
+	private final LongNodeLayout mLayout;
+
+	/** The pool. */
+	private final PageBufferPool mPool;
+
+	/** The generation of the last commit. */
+	private long mGeneration;
+
+	/** The root node id of the last commit. */
+	private int mRootId;
+
+	/** The entry count of the last commit. */
+	private long mEntryCount;
+
+	/** The number of pages of the file, superblocks included. */
+	private int mPageCount;
+
+	/** The pages holding the free page list of the last commit. */
+	private int mFreeListPages[] = new int[0];
+
+	/** The pages that can be allocated right away. */
+	private int mFreePages[] = new int[16];
+
+	/** The free page count. */
+	private int mFreePageCount = 0;
+
+	/** The pages of the last commit freed since, reusable after the next commit. */
+	private int mPendingPages[] = new int[16];
+
+	/** The pending page count. */
+	private int mPendingPageCount = 0;
+
+	/** The pages allocated since the last commit. */
+	private final BitSet mFreshPages = new BitSet();
+
+	/** Whether all the nodes have been dropped since the last commit. */
+	private boolean mIsCleared = false;
+
+	/**
+	 * Open a shadow paged node store, creating the file if it doesn't exist
+	 * yet.
+	 *
+	 * @param file the file
+	 * @param pageSize the page size in bytes, also the node size
+	 * @param poolSize the number of pages the buffer pool holds
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public ShadowPagedNodeStore(File file, int pageSize, int poolSize) throws IOException {
+		int minDegree = LongNodeLayout.getMaxMinDegree(pageSize);
+		if (minDegree == 0) {
+			throw new IllegalArgumentException("Page size too small for a node: " + pageSize);
+		}
+
+		if (poolSize < 3) {
+			// A split pins the parent, the child and the new node at once
+			throw new IllegalArgumentException("Pool size must be at least 3: " + poolSize);
+		}
+
+		mPageSize = pageSize;
+		mLayout = new LongNodeLayout(minDegree);
+		mFile = new RandomAccessFile(file, "rw");
+		mChannel = mFile.getChannel();
+		mPool = new PageBufferPool(mChannel, pageSize, poolSize);
+		try {
+			if (mChannel.size() == 0) {
+				mGeneration = 0;
+				mRootId = LongNodeLayout.NIL;
+				mEntryCount = 0;
+				mPageCount = FIRST_NODE_PAGE_ID;
+				commit(LongNodeLayout.NIL, 0);
+			} else {
+				load();
+			}
+		} catch (IOException ioex) {
+			mFile.close();
+			throw ioex;
+		}
+	}
+
+	/**
+	 * Load the state of the last commit.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void load() throws IOException {
+		ByteBuffer superblock = null;
+		for (int slot = 0; slot < FIRST_NODE_PAGE_ID; ++slot) {
+			ByteBuffer buf = PageBufferPool.newPageBuffer(mPageSize, false);
+			mPool.readPage(slot, buf);
+			if (isValidSuperblock(buf) && ((superblock == null) || (buf.getLong(16) > superblock.getLong(16)))) {
+				superblock = buf;
+			}
+		}
+
+		if (superblock == null) {
+			throw new IOException("No valid superblock, not a shadow paged b-tree file");
+		}
+
+		if (superblock.getInt(4) != mPageSize) {
+			throw new IOException("File was created with page size " + superblock.getInt(4) + ", not " + mPageSize);
+		}
+
+		if (superblock.getInt(8) != mLayout.getMinDegree()) {
+			throw new IOException("File was created with min degree " + superblock.getInt(8) + ", not "
+					+ mLayout.getMinDegree());
+		}
+
+		mPageCount = superblock.getInt(12);
+		mGeneration = superblock.getLong(16);
+		mRootId = superblock.getInt(24);
+		mEntryCount = superblock.getLong(32);
+
+		// Read the free page list
+		mFreePageCount = 0;
+		int freeListPageNum = 0;
+		ByteBuffer buf = PageBufferPool.newPageBuffer(mPageSize, false);
+		for (int pageId = superblock.getInt(28); pageId != LongNodeLayout.NIL; pageId = buf.getInt(0)) {
+			mPool.readPage(pageId, buf);
+			int count = buf.getInt(4);
+			for (int i = 0; i < count; ++i) {
+				pushFreePage(buf.getInt(FREE_LIST_HEADER_SIZE + (4 * i)));
+			}
+
+			if (freeListPageNum == mFreeListPages.length) {
+				mFreeListPages = Arrays.copyOf(mFreeListPages, Math.max(4, 2 * freeListPageNum));
+			}
+			mFreeListPages[freeListPageNum++] = pageId;
+		}
+		mFreeListPages = Arrays.copyOf(mFreeListPages, freeListPageNum);
+
+		mPendingPageCount = 0;
+		mFreshPages.clear();
+		mIsCleared = false;
+	}
+
+	/**
+	 * Checks if a superblock is valid.
+	 *
+	 * @param buf the buffer
+	 * @return true, if the magic and the checksum are right
+	 */
+	private static boolean isValidSuperblock(ByteBuffer buf) {
+		return (buf.getInt(0) == MAGIC) && (buf.getInt(SUPERBLOCK_CRC_OFFSET) == checksum(buf));
+	}
+
+	/**
+	 * Checksum of a superblock.
+	 *
+	 * @param buf the buffer
+	 * @return the checksum
+	 */
+	private static int checksum(ByteBuffer buf) {
+		CRC32 crc = new CRC32();
+		for (int i = 0; i < SUPERBLOCK_CRC_OFFSET; ++i) {
+			crc.update(buf.get(i));
+		}
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Push a free page.
+	 *
+	 * @param pageId the page id
+	 */
+	private void pushFreePage(int pageId) {
+		if (mFreePageCount == mFreePages.length) {
+			mFreePages = Arrays.copyOf(mFreePages, 2 * mFreePageCount);
+		}
+		mFreePages[mFreePageCount++] = pageId;
+	}
+
+	/**
+	 * Take a page that isn't part of the last commit.
+	 *
+	 * @return the page id
+	 */
+	private int takeFreePage() {
+		int pageId = (mFreePageCount > 0) ? mFreePages[--mFreePageCount] : mPageCount++;
+		mFreshPages.set(pageId);
+		return pageId;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#getLayout()
+	 */
+	@Override
+	public LongNodeLayout getLayout() {
+		return mLayout;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#allocate(boolean)
+	 */
+	@Override
+	public int allocate(boolean isLeaf) {
+		int pageId = takeFreePage();
+		mLayout.init(mPool.pinNew(pageId), 0, isLeaf);
+		mPool.unpin(pageId, true, !isLeaf);
+		return pageId;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#free(int)
+	 */
+	@Override
+	public void free(int nodeId) {
+		mPool.discard(nodeId);
+		if (mFreshPages.get(nodeId)) {
+			mFreshPages.clear(nodeId);
+			pushFreePage(nodeId);
+		} else {
+			// Still part of the last commit
+			if (mPendingPageCount == mPendingPages.length) {
+				mPendingPages = Arrays.copyOf(mPendingPages, 2 * mPendingPageCount);
+			}
+			mPendingPages[mPendingPageCount++] = nodeId;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#copyOnWrite(int)
+	 */
+	@Override
+	public int copyOnWrite(int nodeId) {
+		if (mFreshPages.get(nodeId)) {
+			return nodeId;
+		}
+
+		ByteBuffer src = mPool.pin(nodeId);
+		boolean isHot = !mLayout.isLeaf(src, 0);
+		int copyId = takeFreePage();
+		ByteBuffer from = src.duplicate();
+		ByteBuffer to = mPool.pinNew(copyId).duplicate();
+		from.clear();
+		to.clear();
+		to.put(from);
+		mPool.unpin(copyId, true, isHot);
+		mPool.unpin(nodeId, false, isHot);
+		free(nodeId);
+		return copyId;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#pin(int)
+	 */
+	@Override
+	public ByteBuffer pin(int nodeId) {
+		return mPool.pin(nodeId);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#getOffset(int)
+	 */
+	@Override
+	public int getOffset(int nodeId) {
+		// Every page has its own frame
+		return 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#unpin(int, boolean)
+	 */
+	@Override
+	public void unpin(int nodeId, boolean isDirty) {
+		mPool.unpin(nodeId, isDirty, !mLayout.isLeaf(mPool.getPinned(nodeId), 0));
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.dts.btree.store.LongNodeStore#clear()
+	 */
+	@Override
+	public void clear() {
+		mPool.discardAll();
+		for (int pageId = mFreshPages.nextSetBit(0); pageId >= 0; pageId = mFreshPages.nextSetBit(pageId + 1)) {
+			pushFreePage(pageId);
+		}
+		mFreshPages.clear();
+
+		// The nodes of the last commit are only known to be free at the next
+		// commit, which frees every page that isn't fresh by then
+		mIsCleared = true;
+	}
+
+	/**
+	 * Gets the generation.
+	 *
+	 * @return the generation of the last commit
+	 */
+	public long getGeneration() {
+		return mGeneration;
+	}
+
+	/**
+	 * Gets the root node id of the last commit.
+	 *
+	 * @return the root node id
+	 */
+	public int getRootId() {
+		return mRootId;
+	}
+
+	/**
+	 * Gets the entry count of the last commit.
+	 *
+	 * @return the entry count
+	 */
+	public long getEntryCount() {
+		return mEntryCount;
+	}
+
+	/**
+	 * Commit: write the fresh pages and the free page list, then atomically
+	 * switch to the new root by writing the other superblock. The pages
+	 * freed since the last commit become reusable.
+	 *
+	 * @param rootId the root node id
+	 * @param entryCount the entry count
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void commit(int rootId, long entryCount) throws IOException {
+		int capacity = (mPageSize - FREE_LIST_HEADER_SIZE) / 4;
+		int oldPageCount = mPageCount;
+		int freeCount = mIsCleared ? (oldPageCount - FIRST_NODE_PAGE_ID - mFreshPages.cardinality())
+				: (mFreePageCount + mPendingPageCount + mFreeListPages.length);
+
+		// The free page list goes to pages that aren't part of the last
+		// commit either, and that are no longer free then
+		int freeListPageNum = 0;
+		int freeListPages[] = new int[(freeCount + capacity - 1) / capacity];
+		BitSet freeListPageSet = new BitSet();
+		while ((long) freeListPageNum * capacity < freeCount) {
+			int pageId;
+			if (mFreePageCount > 0) {
+				pageId = mFreePages[--mFreePageCount];
+				--freeCount;
+			} else {
+				pageId = mPageCount++;
+			}
+			freeListPages[freeListPageNum++] = pageId;
+			freeListPageSet.set(pageId);
+		}
+		freeListPages = Arrays.copyOf(freeListPages, freeListPageNum);
+
+		int freePages[] = new int[freeCount];
+		int n = 0;
+		if (mIsCleared) {
+			for (int pageId = FIRST_NODE_PAGE_ID; pageId < oldPageCount; ++pageId) {
+				if (!mFreshPages.get(pageId) && !freeListPageSet.get(pageId)) {
+					freePages[n++] = pageId;
+				}
+			}
+		} else {
+			System.arraycopy(mFreePages, 0, freePages, n, mFreePageCount);
+			n += mFreePageCount;
+			System.arraycopy(mPendingPages, 0, freePages, n, mPendingPageCount);
+			n += mPendingPageCount;
+			System.arraycopy(mFreeListPages, 0, freePages, n, mFreeListPages.length);
+			n += mFreeListPages.length;
+		}
+
+		// Write the free page list
+		for (int i = 0; i < freeListPageNum; ++i) {
+			ByteBuffer buf = mPool.pinNew(freeListPages[i]);
+			int count = Math.min(capacity, freeCount - (i * capacity));
+			buf.putInt(0, (i + 1 < freeListPageNum) ? freeListPages[i + 1] : LongNodeLayout.NIL);
+			buf.putInt(4, count);
+			for (int j = 0; j < count; ++j) {
+				buf.putInt(FREE_LIST_HEADER_SIZE + (4 * j), freePages[(i * capacity) + j]);
+			}
+			mPool.unpin(freeListPages[i], true, false);
+		}
+
+		// Make all the pages durable before the superblock refers to them
+		mPool.flush();
+		mChannel.force(false);
+
+		ByteBuffer superblock = PageBufferPool.newPageBuffer(mPageSize, false);
+		superblock.putInt(0, MAGIC);
+		superblock.putInt(4, mPageSize);
+		superblock.putInt(8, mLayout.getMinDegree());
+		superblock.putInt(12, mPageCount);
+		superblock.putLong(16, mGeneration + 1);
+		superblock.putInt(24, rootId);
+		superblock.putInt(28, (freeListPageNum > 0) ? freeListPages[0] : LongNodeLayout.NIL);
+		superblock.putLong(32, entryCount);
+		superblock.putInt(SUPERBLOCK_CRC_OFFSET, checksum(superblock));
+		mPool.writePage((int) ((mGeneration + 1) % FIRST_NODE_PAGE_ID), superblock);
+		mChannel.force(false);
+
+		++mGeneration;
+		mRootId = rootId;
+		mEntryCount = entryCount;
+		mFreeListPages = freeListPages;
+		mFreePages = (freePages.length > 0) ? freePages : new int[16];
+		mFreePageCount = freeCount;
+		mPendingPageCount = 0;
+		mFreshPages.clear();
+		mIsCleared = false;
+	}
+
+	/**
+	 * Rollback: drop all the changes since the last commit.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void rollback() throws IOException {
+		mPool.discardAll();
+		load();
+	}
+
+	/**
+	 * Gets the read count.
+	 *
+	 * @return the number of pages read from the file
+	 */
+	public long getReadCount() {
+		return mPool.getReadCount();
+	}
+
+	/**
+	 * Gets the write count.
+	 *
+	 * @return the number of pages written to the file
+	 */
+	public long getWriteCount() {
+		return mPool.getWriteCount();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		mFile.close();
+	}
+}
@@ -0,0 +1,29 @@
+package org.apache.dts.btree.wal;
+
+/**
+ * Enum Durability.
+ * 
+ * When an operation logged in a WriteAheadLog is guaranteed to be on the
+ * disk.
+ */
+public enum Durability {
+
+	/**
+	 * The operation returns once its record is on the disk. Writers that
+	 * are waiting at the same time still share a single fsync.
+	 */
+	PER_OP,
+
+	/**
+	 * Like PER_OP, but the writer that issues the fsync first waits for the
+	 * group window so that more writers can join it. Trades latency for
+	 * fewer fsyncs.
+	 */
+	GROUP,
+
+	/**
+	 * The operation returns right away and a background thread writes the
+	 * log every group window. A crash loses at most the last window.
+	 */
+	ASYNC
+}
@@ -0,0 +1,184 @@
+package org.apache.dts.btree.wal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.dts.btree.BTCodec;
+import org.apache.dts.btree.BTIterator;
+import org.apache.dts.btree.BTree;
+
+/**
+ * Class DurableBTree.
+ * 
+ * BTree whose inserts and deletes are recorded in a WriteAheadLog, and
+ * rebuilt from it when the tree is opened again. The tree is safe to use
+ * from several threads: the updates are applied and logged one at a time,
+ * but the wait for the disk happens outside of the tree lock, so that
+ * concurrent writers can share an fsync.
+ * 
+ * An update is logged before it is applied, so an update the log refuses
+ * leaves the tree unchanged. The write and the fsync of the record come
+ * after the tree is changed though: if they fail, the tree and its readers
+ * are ahead of the log. The log then refuses every later update for good,
+ * and the tree must be opened again to get back to the logged state.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class DurableBTree<K extends Comparable, V> implements Closeable {
+
+	/** The tree. */
+	private final BTree<K, V> mBTree;
+
+	/** The log. */
+	private final WriteAheadLog<K, V> mLog;
+
+	/**
+	 * Open a durable b tree with the PER_OP durability.
+	 *
+	 * @param logFile the log file, created if it doesn't exist yet
+	 * @param keyCodec the key codec
+	 * @param valueCodec the value codec
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public DurableBTree(File logFile, BTCodec<K> keyCodec, BTCodec<V> valueCodec) throws IOException {
+		this(new BTree<K, V>(), logFile, keyCodec, valueCodec, Durability.PER_OP, 0);
+	}
+
+	/**
+	 * Open a durable b tree.
+	 *
+	 * @param btree the empty tree to rebuild from the log
+	 * @param logFile the log file, created if it doesn't exist yet
+	 * @param keyCodec the key codec
+	 * @param valueCodec the value codec
+	 * @param durability the durability
+	 * @param groupWindowNanos the group window in nanoseconds, used by the
+	 *            GROUP and ASYNC durability
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public DurableBTree(BTree<K, V> btree, File logFile, BTCodec<K> keyCodec, BTCodec<V> valueCodec,
+			Durability durability, long groupWindowNanos) throws IOException {
+		mBTree = btree;
+		mLog = new WriteAheadLog<K, V>(logFile, keyCodec, valueCodec, durability, groupWindowNanos);
+		try {
+			mLog.replay(mBTree);
+		} catch (IOException ioex) {
+			mLog.close();
+			throw ioex;
+		}
+	}
+
+	/**
+	 * Gets the durability.
+	 *
+	 * @return the durability
+	 */
+	public Durability getDurability() {
+		return mLog.getDurability();
+	}
+
+	/**
+	 * Size.
+	 *
+	 * @return the size
+	 */
+	public int getSize() {
+		synchronized (mBTree) {
+			return mBTree.getSize();
+		}
+	}
+
+	/**
+	 * Search.
+	 *
+	 * @param key the key
+	 * @return the value, or null if the key doesn't exist
+	 */
+	public V search(K key) {
+		synchronized (mBTree) {
+			return mBTree.search(key);
+		}
+	}
+
+	/**
+	 * Insert, then wait for the record to be as durable as configured.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void insert(K key, V value) throws IOException {
+		long lsn;
+		synchronized (mBTree) {
+			lsn = mLog.logInsert(key, value);
+			mBTree.insert(key, value);
+		}
+		awaitDurable(lsn);
+	}
+
+	/**
+	 * Delete, then wait for the record to be as durable as configured.
+	 *
+	 * @param key the key
+	 * @return the deleted value, or null if the key doesn't exist
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public V delete(K key) throws IOException {
+		long lsn;
+		V value;
+		synchronized (mBTree) {
+			int size = mBTree.getSize();
+			lsn = mLog.logDelete(key);
+			value = mBTree.delete(key);
+			if (mBTree.getSize() == size) {
+				// Nothing deleted, the record replays as a no-op and needn't
+				// be waited for
+				return null;
+			}
+		}
+		awaitDurable(lsn);
+		return value;
+	}
+
+	/**
+	 * Wait for a record to be as durable as configured.
+	 *
+	 * @param lsn the sequence number of the record
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void awaitDurable(long lsn) throws IOException {
+		if (mLog.getDurability() != Durability.ASYNC) {
+			mLog.awaitDurable(lsn);
+		}
+	}
+
+	/**
+	 * List.
+	 *
+	 * @param iterImpl the iter impl
+	 */
+	public void list(BTIterator<K, V> iterImpl) {
+		synchronized (mBTree) {
+			mBTree.list(iterImpl);
+		}
+	}
+
+	/**
+	 * Write all the logged operations to the disk, whatever the durability.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void sync() throws IOException {
+		mLog.sync();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		mLog.close();
+	}
+}
@@ -0,0 +1,481 @@
+package org.apache.dts.btree.wal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.apache.dts.btree.BTCodec;
+import org.apache.dts.btree.BTree;
+
+/**
+ * Class WriteAheadLog.
+ * 
+ * Append-only log of the inserts and deletes of a BTree. Every operation is
+ * a record:
+ * 
+ * <pre>
+ * int    payload length
+ * int    CRC32 of the payload
+ * byte   operation (insert, insert of a null value, delete)
+ * ...    key, then value for an insert
+ * </pre>
+ * 
+ * Records are appended to an in-memory buffer and written by group commit:
+ * the first writer that needs its record on the disk becomes the leader and
+ * writes and fsyncs the whole buffer, while the writers arriving meanwhile
+ * wait for the leader and usually find their record already durable.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class WriteAheadLog<K extends Comparable, V> implements Closeable {
+
+	/** The Constant OP_INSERT. */
+	private final static byte OP_INSERT = 1;
+
+	/** The Constant OP_INSERT_NULL, an insert with a null value. */
+	private final static byte OP_INSERT_NULL = 2;
+
+	/** The Constant OP_DELETE. */
+	private final static byte OP_DELETE = 3;
+
+	/** The Constant RECORD_HEADER_SIZE. */
+	private final static int RECORD_HEADER_SIZE = 8;
+
+	/** The Constant MAX_RECORD_SIZE, bigger payloads are treated as corruption. */
+	private final static int MAX_RECORD_SIZE = 64 << 20;
+
+	/** The file. */
+	private final RandomAccessFile mFile;
+
+	/** The channel. */
+	private final FileChannel mChannel;
+
+	/** The key codec. */
+	private final BTCodec<K> mKeyCodec;
+
+	/** The value codec. */
+	private final BTCodec<V> mValueCodec;
+
+	/** The durability. */
+	private final Durability mDurability;
+
+	/** The group window in nanoseconds. */
+	private final long mGroupWindowNanos;
+
+	/** The lock guarding the state below. */
+	private final ReentrantLock mLock = new ReentrantLock();
+
+	/** Signaled when a leader is done writing. */
+	private final Condition mFlushDone = mLock.newCondition();
+
+	/** Signaled when the log is closed, wakes up a waiting leader. */
+	private final Condition mClosing = mLock.newCondition();
+
+	/** The records waiting to be written. */
+	private ByteArrayOutputStream mPending = new ByteArrayOutputStream();
+
+	/** The spare buffer swapped with the pending one by the leader. */
+	private ByteArrayOutputStream mSpare = new ByteArrayOutputStream();
+
+	/** The payload buffer. */
+	private final ByteArrayOutputStream mPayload = new ByteArrayOutputStream();
+
+	/** The payload output. */
+	private final DataOutputStream mPayloadOut = new DataOutputStream(mPayload);
+
+	/** The CRC. */
+	private final CRC32 mCrc = new CRC32();
+
+	/** The sequence number of the last appended record. */
+	private long mAppendedLsn = 0;
+
+	/** The sequence number of the last record on the disk. */
+	private long mDurableLsn = 0;
+
+	/** Whether a leader is writing. */
+	private boolean mIsFlushing = false;
+
+	/** Whether the log is closed. */
+	private boolean mIsClosed = false;
+
+	/** The error that broke the log, if any. */
+	private IOException mFailure = null;
+
+	/** The background flusher of the ASYNC mode. */
+	private Thread mFlusher = null;
+
+	/**
+	 * Open a write ahead log, creating the file if it doesn't exist yet.
+	 * Call replay() before appending to it.
+	 *
+	 * @param file the file
+	 * @param keyCodec the key codec
+	 * @param valueCodec the value codec
+	 * @param durability the durability
+	 * @param groupWindowNanos the group window in nanoseconds, used by the
+	 *            GROUP and ASYNC modes
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public WriteAheadLog(File file, BTCodec<K> keyCodec, BTCodec<V> valueCodec, Durability durability,
+			long groupWindowNanos) throws IOException {
+		if ((durability != Durability.PER_OP) && (groupWindowNanos <= 0)) {
+			throw new IllegalArgumentException(durability + " needs a positive group window: " + groupWindowNanos);
+		}
+
+		mKeyCodec = keyCodec;
+		mValueCodec = valueCodec;
+		mDurability = durability;
+		mGroupWindowNanos = groupWindowNanos;
+		mFile = new RandomAccessFile(file, "rw");
+		mChannel = mFile.getChannel();
+	}
+
+	/**
+	 * Gets the durability.
+	 *
+	 * @return the durability
+	 */
+	public Durability getDurability() {
+		return mDurability;
+	}
+
+	/**
+	 * Apply all the logged operations to a tree, then get ready to append.
+	 * A torn or corrupt record at the end of the log, left by a crash in the
+	 * middle of a write, is dropped together with everything after it.
+	 *
+	 * @param btree the tree, normally empty
+	 * @return the number of replayed records
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public long replay(BTree<K, V> btree) throws IOException {
+		long validLength = 0;
+		long count = 0;
+		InputStream fileIn = new BufferedInputStream(new FileInputStream(mFile.getFD()));
+		DataInputStream in = new DataInputStream(fileIn);
+		mChannel.position(0);
+
+		byte payload[] = new byte[256];
+		CRC32 crc = new CRC32();
+		while (true) {
+			int length, checksum;
+			try {
+				length = in.readInt();
+				checksum = in.readInt();
+				if ((length <= 0) || (length > MAX_RECORD_SIZE)) {
+					break;
+				}
+
+				if (payload.length < length) {
+					payload = new byte[Math.max(length, 2 * payload.length)];
+				}
+				in.readFully(payload, 0, length);
+			} catch (EOFException eofex) {
+				break;
+			}
+
+			crc.reset();
+			crc.update(payload, 0, length);
+			if ((int) crc.getValue() != checksum) {
+				break;
+			}
+
+			DataInputStream recordIn = new DataInputStream(new ByteArrayInputStream(payload, 0, length));
+			byte op = recordIn.readByte();
+			K key = mKeyCodec.read(recordIn);
+			if (op == OP_INSERT) {
+				btree.insert(key, mValueCodec.read(recordIn));
+			} else if (op == OP_INSERT_NULL) {
+				btree.insert(key, null);
+			} else if (op == OP_DELETE) {
+				btree.delete(key);
+			} else {
+				throw new IOException("Unknown log operation " + op + " at offset " + validLength);
+			}
+
+			validLength += RECORD_HEADER_SIZE + length;
+			++count;
+		}
+
+		// Drop the broken tail, so that new records follow the valid ones
+		mChannel.truncate(validLength);
+		mChannel.position(validLength);
+		mChannel.force(false);
+
+		if (mDurability == Durability.ASYNC) {
+			startFlusher();
+		}
+		return count;
+	}
+
+	/**
+	 * Start the background flusher of the ASYNC mode.
+	 */
+	private void startFlusher() {
+		mFlusher = new Thread("WriteAheadLog flusher") {
+			@Override
+			public void run() {
+				long lsn;
+				while (true) {
+					mLock.lock();
+					try {
+						if (!mIsClosed) {
+							mClosing.awaitNanos(mGroupWindowNanos);
+						}
+
+						if (mIsClosed) {
+							// close() syncs the log itself
+							return;
+						}
+						lsn = mAppendedLsn;
+					} catch (InterruptedException iex) {
+						return;
+					} finally {
+						mLock.unlock();
+					}
+
+					try {
+						awaitDurable(lsn);
+					} catch (IOException ioex) {
+						// Kept in mFailure, reported to the writers
+						return;
+					}
+				}
+			}
+		};
+		mFlusher.setDaemon(true);
+		mFlusher.start();
+	}
+
+	/**
+	 * Log an insert. The record isn't durable before awaitDurable() has
+	 * returned for its sequence number.
+	 *
+	 * @param key the key
+	 * @param value the value
+	 * @return the sequence number of the record
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public long logInsert(K key, V value) throws IOException {
+		mLock.lock();
+		try {
+			mPayload.reset();
+			mPayloadOut.writeByte((value == null) ? OP_INSERT_NULL : OP_INSERT);
+			mKeyCodec.write(key, mPayloadOut);
+			if (value != null) {
+				mValueCodec.write(value, mPayloadOut);
+			}
+			return appendPayload();
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	/**
+	 * Log a delete. The record isn't durable before awaitDurable() has
+	 * returned for its sequence number.
+	 *
+	 * @param key the key
+	 * @return the sequence number of the record
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public long logDelete(K key) throws IOException {
+		mLock.lock();
+		try {
+			mPayload.reset();
+			mPayloadOut.writeByte(OP_DELETE);
+			mKeyCodec.write(key, mPayloadOut);
+			return appendPayload();
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	/**
+	 * Append the payload buffer as a record to the pending records. The lock
+	 * must be held.
+	 *
+	 * @return the sequence number of the record
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private long appendPayload() throws IOException {
+		checkUsable();
+
+		byte payload[] = mPayload.toByteArray();
+		mCrc.reset();
+		mCrc.update(payload, 0, payload.length);
+		writeInt(mPending, payload.length);
+		writeInt(mPending, (int) mCrc.getValue());
+		mPending.write(payload, 0, payload.length);
+		return ++mAppendedLsn;
+	}
+
+	/**
+	 * Write a big-endian int.
+	 *
+	 * @param out the out
+	 * @param v the v
+	 */
+	private static void writeInt(ByteArrayOutputStream out, int v) {
+		out.write(v >>> 24);
+		out.write(v >>> 16);
+		out.write(v >>> 8);
+		out.write(v);
+	}
+
+	/**
+	 * Check that the log is still usable. The lock must be held.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void checkUsable() throws IOException {
+		if (mFailure != null) {
+			throw new IOException("Write ahead log failed earlier", mFailure);
+		}
+
+		if (mIsClosed) {
+			throw new IOException("Write ahead log is closed");
+		}
+	}
+
+	/**
+	 * Wait until a record is on the disk, writing it if no other writer is
+	 * already doing so.
+	 *
+	 * @param lsn the sequence number of the record
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void awaitDurable(long lsn) throws IOException {
+		mLock.lock();
+		try {
+			while (mDurableLsn < lsn) {
+				if (mFailure != null) {
+					throw new IOException("Write ahead log failed earlier", mFailure);
+				}
+
+				if (mIsFlushing) {
+					// Follower, the leader may well write our record
+					mFlushDone.awaitUninterruptibly();
+					continue;
+				}
+
+				// Leader
+				mIsFlushing = true;
+				if (mDurability == Durability.GROUP) {
+					// Give the other writers a chance to join this fsync
+					long remaining = mGroupWindowNanos;
+					while ((remaining > 0) && !mIsClosed) {
+						try {
+							remaining = mClosing.awaitNanos(remaining);
+						} catch (InterruptedException iex) {
+							Thread.currentThread().interrupt();
+							break;
+						}
+					}
+				}
+
+				ByteArrayOutputStream batch = mPending;
+				long batchLsn = mAppendedLsn;
+				mPending = mSpare;
+				mSpare = batch;
+
+				IOException failure = null;
+				mLock.unlock();
+				try {
+					ByteBuffer buf = ByteBuffer.wrap(batch.toByteArray());
+					while (buf.hasRemaining()) {
+						mChannel.write(buf);
+					}
+					mChannel.force(false);
+				} catch (IOException ioex) {
+					failure = ioex;
+				} finally {
+					mLock.lock();
+					batch.reset();
+					mIsFlushing = false;
+					if (failure == null) {
+						mDurableLsn = batchLsn;
+					} else {
+						mFailure = failure;
+					}
+					mFlushDone.signalAll();
+				}
+			}
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	/**
+	 * Wait until all the appended records are on the disk.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void sync() throws IOException {
+		long lsn;
+		mLock.lock();
+		try {
+			lsn = mAppendedLsn;
+		} finally {
+			mLock.unlock();
+		}
+		awaitDurable(lsn);
+	}
+
+	/**
+	 * Gets the durable lsn.
+	 *
+	 * @return the sequence number of the last record on the disk
+	 */
+	public long getDurableLsn() {
+		mLock.lock();
+		try {
+			return mDurableLsn;
+		} finally {
+			mLock.unlock();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			sync();
+		} finally {
+			mLock.lock();
+			try {
+				mIsClosed = true;
+				mClosing.signalAll();
+			} finally {
+				mLock.unlock();
+			}
+
+			if (mFlusher != null) {
+				try {
+					mFlusher.join(TimeUnit.NANOSECONDS.toMillis(mGroupWindowNanos) + 1000);
+				} catch (InterruptedException iex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			mFile.close();
+		}
+	}
+}
@@ -19,7 +19,6 @@ import javax.swing.JTextField;
 
 import org.apache.dts.btree.BTException;
 import org.apache.dts.btree.BTIterator;
-import org.apache.dts.btree.BTKeyValue;
 import org.apache.dts.btree.BTNode;
 import org.apache.dts.btree.BTree;
 import org.apache.dts.util.SimpleFileWriter;
@@ -92,6 +91,9 @@ public class BTreeUI extends JFrame {
 	/** The total leafs. */
 	private long totalLeafs = 0;
 	
+	/** The height. */
+	private long height = 0;
+	
 	/** The max value. */
 	private long maxValue  = 0;
 	
@@ -452,7 +454,6 @@ public class BTreeUI extends JFrame {
 		}
 
 		int currentKeyNum = treeNode.mCurrentKeyNum;
-		BTKeyValue<Integer, String> keyVal;
 
 		List<KeyData> keyList = (List<KeyData>) mObjLists[nLevel];
 		if (keyList == null) {
@@ -467,8 +468,7 @@ public class BTreeUI extends JFrame {
 				mBuf.append(" | ");
 			}
 
-			keyVal = treeNode.mKeys[i];
-			mBuf.append(keyVal.mKey);
+			mBuf.append(treeNode.mKeys[i]);
 		}
 
 		keyList.add(new KeyData(mBuf.toString(), currentKeyNum));
@@ -520,10 +520,7 @@ public class BTreeUI extends JFrame {
 		String strVal = mBTree.delete(key);
 		println("Delete key = " + key + " | value = " + strVal);
 		
-		totalNodes = mBTree.getNodesCount();
-		totalLeafs = mBTree.getLeafsCount();
-		maxValue   = mBTree.getMaxValue();
-		minValue   = mBTree.getMinValue();
+		readStats();
 	}
 
 	/**
@@ -536,10 +533,21 @@ public class BTreeUI extends JFrame {
 		println("Add key = " + key);
 		mBTree.insert(key, "" + key);
 		
+		readStats();
+	}
+	
+	/**
+	 * Read the stats of the tree, all of them are maintained by the tree.
+	 */
+	private void readStats() {
+		Integer firstKey = mBTree.firstKey();
+		Integer lastKey  = mBTree.lastKey();
+		
 		totalNodes = mBTree.getNodesCount();
 		totalLeafs = mBTree.getLeafsCount();
-		maxValue   = mBTree.getMaxValue();
-		minValue   = mBTree.getMinValue();
+		height     = mBTree.getHeight();
+		maxValue   = (lastKey != null) ? lastKey : 0;
+		minValue   = (firstKey != null) ? firstKey : 0;
 	}
 	
 	/**
@@ -549,6 +557,8 @@ public class BTreeUI extends JFrame {
 		mBTreeStats.setText("");
 		mBTreeStats.append(" Nodes | Leafs => " + totalNodes + " | " + totalLeafs);
 		mBTreeStats.append("\n");
+		mBTreeStats.append(" Height => " + height);
+		mBTreeStats.append("\n");
 		mBTreeStats.append(" Largest | Smallest => " + maxValue + " | " + minValue);
 	}
 	
@@ -558,6 +568,7 @@ public class BTreeUI extends JFrame {
 	public void resetStats() {
 		totalNodes = 0;
 		totalLeafs = 0;
+		height     = 0;
 		maxValue   = 0;
 		minValue   = 0;
 		